@@ -0,0 +1,138 @@
+package org.orienteer.jetty.benchmark;
+
+import com.orientechnologies.orient.core.db.OPartitionedDatabasePool;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.eclipse.jetty.server.session.SessionData;
+import org.orienteer.jetty.OrientDbJettyModule;
+import org.orienteer.jetty.util.DbUtils;
+import org.orienteer.jetty.util.PendingSessionWrite;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * In-process database for benchmarks. Supports "memory" and "plocal" storages.
+ */
+final class BenchmarkDatabase {
+
+    static final String USER = "admin";
+    static final String PASSWORD = "admin";
+
+    private static final int POPULATE_BATCH_SIZE = 500;
+
+    private final String url;
+    private OPartitionedDatabasePool pool;
+
+    /**
+     * Constructor
+     * @param storage {@link String} "memory" or "plocal"
+     * @param name {@link String} name of database
+     */
+    BenchmarkDatabase(String storage, String name) {
+        this.url = "plocal".equals(storage)
+                ? "plocal:" + new File("target/jmh/" + name).getAbsolutePath()
+                : "memory:" + name;
+    }
+
+    /**
+     * Recreate database, create schema and set system properties for {@link org.orienteer.jetty.OrientDbSessionDataStore}
+     * @return this database
+     */
+    BenchmarkDatabase create() {
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+        if (db.exists()) {
+            db.open(USER, PASSWORD);
+            db.drop();
+            db = new ODatabaseDocumentTx(url);
+        }
+        db.create();
+        OrientDbJettyModule.initSchema(db);
+        db.close();
+        System.setProperty("remote.url", url);
+        System.setProperty("admin.username", USER);
+        System.setProperty("admin.password", PASSWORD);
+        pool = new OPartitionedDatabasePool(url, USER, PASSWORD);
+        return this;
+    }
+
+    /**
+     * Store sessions with ids "session0".."session{count - 1}".
+     * Every third session is expired and others expire in one hour
+     * @param count count of sessions
+     * @param attributeSize size of string attribute of every session
+     */
+    void populate(int count, int attributeSize) {
+        long now = System.currentTimeMillis();
+        List<PendingSessionWrite> batch = new ArrayList<>(POPULATE_BATCH_SIZE);
+        for (int i = 0; i < count; i++) {
+            SessionData data = newSessionData("session" + i, attributeSize);
+            data.setExpiry(i % 3 == 0 ? now - 1000 : now + 3_600_000);
+            batch.add(PendingSessionWrite.full(data.getId(), data, DbUtils.toBytes(data, DbUtils.DEFAULT_SERIALIZER)));
+            if (batch.size() == POPULATE_BATCH_SIZE || i == count - 1) {
+                execute(db -> {
+                    DbUtils.storeSessions(db, batch);
+                    return null;
+                });
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Execute function with database from pool
+     * @param func function for execute
+     * @param <T> type of result
+     * @return result of function
+     */
+    <T> T execute(Function<ODatabaseDocument, T> func) {
+        ODatabaseDocument db = pool.acquire();
+        try {
+            return func.apply(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    OPartitionedDatabasePool getPool() {
+        return pool;
+    }
+
+    /**
+     * Close pool and drop database
+     */
+    void drop() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+        if (db.exists()) {
+            db.open(USER, PASSWORD);
+            db.drop();
+        }
+    }
+
+    /**
+     * Create session data with one string attribute of given size and several small attributes
+     * @param id {@link String} session id
+     * @param attributeSize size of string attribute
+     * @return {@link SessionData} session data
+     */
+    static SessionData newSessionData(String id, int attributeSize) {
+        SessionData data = new SessionData(id, "/", "0.0.0.0", 1, 1, 1, 3_600_000);
+        data.setLastNode("node0");
+        data.setAttribute("user", "admin");
+        data.setAttribute("locale", "en");
+        data.setAttribute("visits", 1);
+        StringBuilder payload = new StringBuilder(attributeSize);
+        for (int i = 0; payload.length() < attributeSize; i++) {
+            payload.append("<div wicket:id=\"item\">").append(i).append("</div>");
+        }
+        payload.setLength(attributeSize);
+        data.setAttribute("page", payload.toString());
+        return data;
+    }
+}
@@ -0,0 +1,73 @@
+package org.orienteer.jetty.benchmark;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of single session operations of {@link DbUtils} at different count of stored sessions
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class DbUtilsBenchmark {
+
+    @Param({"memory", "plocal"})
+    public String storage;
+
+    @Param({"1000", "100000"})
+    public int sessions;
+
+    private BenchmarkDatabase database;
+    private SessionData data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase(storage, "dbutils").create();
+        database.populate(sessions, 1024);
+        data = BenchmarkDatabase.newSessionData("stored", 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.drop();
+    }
+
+    @Benchmark
+    public Void storeSession() {
+        String id = randomId();
+        return database.execute(db -> {
+            DbUtils.storeSession(db, id, data);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Optional<SessionData> getSessionById() {
+        String id = randomId();
+        return database.execute(db -> DbUtils.getSessionById(db, id));
+    }
+
+    @Benchmark
+    public boolean isSessionExistsById() {
+        String id = randomId();
+        return database.execute(db -> DbUtils.isSessionExistsById(db, id));
+    }
+
+    private String randomId() {
+        return "session" + ThreadLocalRandom.current().nextInt(sessions);
+    }
+}
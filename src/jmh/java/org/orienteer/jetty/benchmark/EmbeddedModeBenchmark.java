@@ -0,0 +1,139 @@
+package org.orienteer.jetty.benchmark;
+
+import com.orientechnologies.orient.core.db.OPartitionedDatabasePool;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.OServerMain;
+import com.orientechnologies.orient.server.network.protocol.binary.ONetworkProtocolBinary;
+import org.eclipse.jetty.server.session.SessionData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.orienteer.jetty.OrientDbConnectionManager;
+import org.orienteer.jetty.OrientDbJettyModule;
+import org.orienteer.jetty.pool.EmbeddedDatabasePoolFactory;
+import org.orienteer.jetty.pool.IDatabasePoolFactory;
+import org.orienteer.jetty.pool.PartitionedDatabasePoolFactory;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.io.File;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Latency of session operations through remote binary protocol of OrientDB server in the same JVM
+ * and through {@link EmbeddedDatabasePoolFactory} directly to storage of the same database
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class EmbeddedModeBenchmark {
+
+    private static final String DATABASE_NAME = "embedded";
+    private static final int SESSIONS = 1000;
+
+    private static final String SERVER_CONFIG = "<orient-server>"
+            + "<network><protocols>"
+            + "<protocol name=\"binary\" implementation=\"" + ONetworkProtocolBinary.class.getName() + "\"/>"
+            + "</protocols><listeners>"
+            + "<listener protocol=\"binary\" ip-address=\"127.0.0.1\" port-range=\"2424-2430\" socket=\"default\"/>"
+            + "</listeners></network>"
+            + "<users><user name=\"root\" password=\"root\" resources=\"*\"/></users>"
+            + "<properties><entry name=\"server.database.path\" value=\"%s\"/></properties>"
+            + "</orient-server>";
+
+    /**
+     * "remote" for pool of "remote:" url or "embedded" for {@link EmbeddedDatabasePoolFactory}
+     */
+    @Param({"remote", "embedded"})
+    public String mode;
+
+    private OServer server;
+    private OPartitionedDatabasePool applicationPool;
+    private OrientDbConnectionManager manager;
+    private SessionData data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File path = new File("target/jmh/server");
+        String url = "plocal:" + new File(path, DATABASE_NAME).getAbsolutePath();
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+        if (db.exists()) {
+            db.open(BenchmarkDatabase.USER, BenchmarkDatabase.PASSWORD);
+            db.drop();
+            db = new ODatabaseDocumentTx(url);
+        }
+        db.create();
+        OrientDbJettyModule.initSchema(db);
+        db.close();
+
+        server = OServerMain.create(false);
+        server.startup(String.format(SERVER_CONFIG, path.getAbsolutePath()));
+        server.activate();
+        int port = server.getListenerByProtocol(ONetworkProtocolBinary.class).getInboundAddr().getPort();
+
+        applicationPool = new OPartitionedDatabasePool(url, BenchmarkDatabase.USER, BenchmarkDatabase.PASSWORD);
+        IDatabasePoolFactory factory = "embedded".equals(mode)
+                ? EmbeddedDatabasePoolFactory.of(applicationPool)
+                : new PartitionedDatabasePoolFactory("remote:127.0.0.1:" + port + "/" + DATABASE_NAME,
+                BenchmarkDatabase.USER, BenchmarkDatabase.PASSWORD);
+        manager = new OrientDbConnectionManager(factory, 100, 5000, 500, 30000, 10000);
+        manager.start();
+
+        data = BenchmarkDatabase.newSessionData("stored", 1024);
+        for (int i = 0; i < SESSIONS; i++) {
+            SessionData session = BenchmarkDatabase.newSessionData("session" + i, 1024);
+            execute(database -> {
+                DbUtils.storeSession(database, session.getId(), session);
+                return null;
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.close();
+        applicationPool.close();
+        server.shutdown();
+    }
+
+    @Benchmark
+    public Optional<SessionData> load() {
+        String id = randomId();
+        return execute(db -> DbUtils.getSessionById(db, id));
+    }
+
+    @Benchmark
+    public Void store() {
+        String id = randomId();
+        return execute(db -> {
+            db.begin();
+            DbUtils.storeSession(db, id, data);
+            db.commit();
+            return null;
+        });
+    }
+
+    private <T> T execute(Function<ODatabaseDocument, T> func) {
+        ODatabaseDocument db = manager.acquire().orElseThrow(() -> new IllegalStateException("Can't acquire database"));
+        try {
+            return func.apply(db);
+        } finally {
+            manager.release(db);
+        }
+    }
+
+    private String randomId() {
+        return "session" + ThreadLocalRandom.current().nextInt(SESSIONS);
+    }
+}
@@ -0,0 +1,59 @@
+package org.orienteer.jetty.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link DbUtils#getExpiredSessions(com.orientechnologies.orient.core.db.document.ODatabaseDocument, Set)}
+ * at different count of stored sessions and count of candidates
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ExpiredSessionsBenchmark {
+
+    @Param({"memory", "plocal"})
+    public String storage;
+
+    @Param({"10000", "100000"})
+    public int sessions;
+
+    @Param({"100", "1000", "10000"})
+    public int candidates;
+
+    private BenchmarkDatabase database;
+    private Set<String> candidateIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase(storage, "expired").create();
+        database.populate(sessions, 256);
+        candidateIds = new HashSet<>(candidates);
+        for (int i = 0; i < candidates; i++) {
+            candidateIds.add("session" + (i * (sessions / candidates)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.drop();
+    }
+
+    @Benchmark
+    public Set<String> getExpiredSessions() {
+        return database.execute(db -> DbUtils.getExpiredSessions(db, candidateIds));
+    }
+}
@@ -0,0 +1,63 @@
+package org.orienteer.jetty.benchmark;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import org.eclipse.jetty.server.session.SessionData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of session load with commit after read (previous read path of store) and without transaction
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ReadPathBenchmark {
+
+    private static final int SESSIONS = 1000;
+
+    @Param({"memory", "plocal"})
+    public String storage;
+
+    @Param({"true", "false"})
+    public boolean commit;
+
+    private BenchmarkDatabase database;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase(storage, "readpath").create();
+        database.populate(SESSIONS, 256);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.drop();
+    }
+
+    @Benchmark
+    public Optional<SessionData> load() {
+        String id = "session" + ThreadLocalRandom.current().nextInt(SESSIONS);
+        ODatabaseDocument db = database.getPool().acquire();
+        try {
+            return DbUtils.getSessionById(db, id);
+        } finally {
+            if (commit) {
+                db.commit();
+            }
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.orienteer.jetty.benchmark;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.orienteer.jetty.serialization.CompactSessionDataSerializer;
+import org.orienteer.jetty.serialization.CompressingSessionDataSerializer;
+import org.orienteer.jetty.serialization.ISessionDataSerializer;
+import org.orienteer.jetty.serialization.JavaSessionDataSerializer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Serialization of session data by different serializers at different size of attributes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"java", "compact", "compressed"})
+    public String serializerName;
+
+    @Param({"100", "10000", "500000"})
+    public int attributeSize;
+
+    private ISessionDataSerializer serializer;
+    private SessionData data;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        switch (serializerName) {
+            case "java":
+                serializer = new JavaSessionDataSerializer();
+                break;
+            case "compressed":
+                serializer = new CompressingSessionDataSerializer(new CompactSessionDataSerializer(), 4096, Deflater.BEST_SPEED);
+                break;
+            default:
+                serializer = new CompactSessionDataSerializer();
+        }
+        data = BenchmarkDatabase.newSessionData("session", attributeSize);
+        bytes = serializer.serialize(data);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return serializer.serialize(data);
+    }
+
+    @Benchmark
+    public SessionData deserialize() throws Exception {
+        SessionData restored = new SessionData("session", null, null, 0, 0, 0, 0);
+        serializer.deserialize(bytes, restored);
+        return restored;
+    }
+}
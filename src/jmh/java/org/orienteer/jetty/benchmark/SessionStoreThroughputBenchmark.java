@@ -0,0 +1,123 @@
+package org.orienteer.jetty.benchmark;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.session.DefaultSessionCache;
+import org.eclipse.jetty.server.session.Session;
+import org.eclipse.jetty.server.session.SessionCache;
+import org.eclipse.jetty.server.session.SessionHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.orienteer.jetty.OrientDbSessionDataStore;
+
+import javax.servlet.http.HttpSession;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of requests which use sessions stored by {@link OrientDbSessionDataStore}
+ * through real {@link SessionHandler} and {@link DefaultSessionCache}.
+ * Every request gets random session, changes attribute of it and completes session.
+ * If sessions are evicted on exit of request, every request loads and stores session in database.
+ * Every thread uses own sessions, so concurrent requests never share session.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Threads(SessionStoreThroughputBenchmark.THREADS)
+public class SessionStoreThroughputBenchmark {
+
+    static final int THREADS = 8;
+
+    @Param({"memory", "plocal"})
+    public String storage;
+
+    @Param({"1000"})
+    public int sessions;
+
+    /**
+     * {@link SessionCache#NEVER_EVICT} or {@link SessionCache#EVICT_ON_SESSION_EXIT}
+     */
+    @Param({"-1", "0"})
+    public int evictionPolicy;
+
+    @Param({"false", "true"})
+    public boolean writeBehind;
+
+    private BenchmarkDatabase database;
+    private Server server;
+    private SessionHandler handler;
+    private List<String> ids;
+    private int slices;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase(storage, "throughput").create();
+
+        server = new Server();
+        handler = new SessionHandler();
+        server.setHandler(handler);
+        DefaultSessionCache cache = new DefaultSessionCache(handler);
+        cache.setEvictionPolicy(evictionPolicy);
+        OrientDbSessionDataStore store = new OrientDbSessionDataStore();
+        store.setWriteBehindEnabled(writeBehind);
+        cache.setSessionDataStore(store);
+        handler.setSessionCache(cache);
+        handler.setMaxInactiveInterval(3600);
+        server.start();
+
+        ids = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            HttpSession session = handler.newHttpSession(new Request(null, null));
+            session.setAttribute("page", BenchmarkDatabase.newSessionData("page", 1024).getAttribute("page"));
+            ids.add(session.getId());
+            handler.complete(session);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.stop();
+        database.drop();
+    }
+
+    @Benchmark
+    public Session request(Client client) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Session session = handler.getSession(client.ids.get(random.nextInt(client.ids.size())));
+        handler.access(session, false);
+        session.setAttribute("counter", random.nextInt());
+        handler.complete(session);
+        return session;
+    }
+
+    private synchronized List<String> nextSlice() {
+        int size = ids.size() / THREADS;
+        int slice = slices++ % THREADS;
+        return ids.subList(slice * size, (slice + 1) * size);
+    }
+
+    /**
+     * Sessions of one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private List<String> ids;
+
+        @Setup(Level.Trial)
+        public void setUp(SessionStoreThroughputBenchmark benchmark) {
+            ids = benchmark.nextSlice();
+        }
+    }
+}
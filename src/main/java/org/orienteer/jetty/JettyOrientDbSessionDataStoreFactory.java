@@ -3,13 +3,164 @@ package org.orienteer.jetty;
 import org.eclipse.jetty.server.session.AbstractSessionDataStoreFactory;
 import org.eclipse.jetty.server.session.SessionDataStore;
 import org.eclipse.jetty.server.session.SessionHandler;
+import org.orienteer.jetty.pool.IDatabasePoolFactory;
+import org.orienteer.jetty.pool.PartitionedDatabasePoolFactory;
+import org.orienteer.jetty.pool.SharedDatabasePoolFactory;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * Default implementation of {@link AbstractSessionDataStoreFactory}
+ * Default implementation of {@link AbstractSessionDataStoreFactory}.
+ * All stores which are created by factory share one reference-counted database pool,
+ * so Jetty with many contexts doesn't open pool and connections to OrientDB for every context.
+ * Pool of every shard of sharded stores is shared by url the same way.
+ * Sessions of different contexts are stored in the same class and separated by context path and virtual host.
  */
 public class JettyOrientDbSessionDataStoreFactory extends AbstractSessionDataStoreFactory {
+
+    /**
+     * Factory of database pool for created stores. Pool of {@link JettyOrientDbSessionDataStoreFactory#url} is used if it isn't set
+     */
+    private IDatabasePoolFactory databasePoolFactory;
+
+    /**
+     * Url of database. "remote.url" system property is used if it isn't set
+     */
+    private String url;
+
+    /**
+     * Username of database. "admin.username" system property is used if it isn't set
+     */
+    private String user;
+
+    /**
+     * Password of database. "admin.password" system property is used if it isn't set
+     */
+    private String password;
+
+    /**
+     * Max count of acquired databases of shared pool
+     */
+    private int poolMaxSize = 100;
+
+    private SharedDatabasePoolFactory sharedPoolFactory;
+
+    /**
+     * Shared pools of databases of shards by urls
+     */
+    private final Map<String, SharedDatabasePoolFactory> shardPoolFactories = new HashMap<>();
+
     @Override
     public SessionDataStore getSessionDataStore(SessionHandler handler) throws Exception {
-        return new OrientDbSessionDataStore();
+        OrientDbSessionDataStore store = new OrientDbSessionDataStore();
+        store.setDatabasePoolFactory(getSharedPoolFactory());
+        store.setShardPoolFactories(this::getShardPoolFactory);
+        store.setUser(user);
+        store.setPassword(password);
+        return store;
+    }
+
+    /**
+     * Get factory of pool of shard which is shared by all created stores, so stores of all contexts which shard
+     * session data across the same database acquire it by the same permits. Pool is opened with credentials of factory
+     * @param url {@link String} url of database of shard
+     * @return {@link SharedDatabasePoolFactory} factory of shared pool of shard
+     */
+    public synchronized SharedDatabasePoolFactory getShardPoolFactory(String url) {
+        return shardPoolFactories.computeIfAbsent(url, key -> new SharedDatabasePoolFactory(new PartitionedDatabasePoolFactory(key,
+                user != null ? user : OrientDbJettyModule.getUser(),
+                password != null ? password : OrientDbJettyModule.getPassword()), poolMaxSize));
+    }
+
+    /**
+     * Get factory of pool which is shared by all created stores. Shared pool is opened by first started store
+     * and closed by last stopped store
+     * @return {@link SharedDatabasePoolFactory} factory of shared pool
+     */
+    public synchronized SharedDatabasePoolFactory getSharedPoolFactory() {
+        if (sharedPoolFactory == null) {
+            IDatabasePoolFactory delegate = databasePoolFactory;
+            if (delegate == null) {
+                delegate = new PartitionedDatabasePoolFactory(url != null ? url : OrientDbJettyModule.getDatabaseUrl(),
+                        user != null ? user : OrientDbJettyModule.getUser(),
+                        password != null ? password : OrientDbJettyModule.getPassword());
+            }
+            sharedPoolFactory = new SharedDatabasePoolFactory(delegate, poolMaxSize);
+        }
+        return sharedPoolFactory;
+    }
+
+    public IDatabasePoolFactory getDatabasePoolFactory() {
+        return databasePoolFactory;
+    }
+
+    /**
+     * Set factory of database pool for created stores.
+     * For example {@link org.orienteer.jetty.pool.EmbeddedDatabasePoolFactory} for database which is embedded in the same JVM.
+     * Must be set before first store was created.
+     * @param databasePoolFactory {@link IDatabasePoolFactory} factory of database pool
+     */
+    public void setDatabasePoolFactory(IDatabasePoolFactory databasePoolFactory) {
+        checkNotShared();
+        this.databasePoolFactory = databasePoolFactory;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Set url of database. Must be set before first store was created.
+     * @param url {@link String} url of database
+     */
+    public void setUrl(String url) {
+        checkNotShared();
+        this.url = url;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Set username of database. Must be set before first store was created.
+     * @param user {@link String} username
+     */
+    public void setUser(String user) {
+        checkNotShared();
+        this.user = user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Set password of database. Must be set before first store was created.
+     * @param password {@link String} password
+     */
+    public void setPassword(String password) {
+        checkNotShared();
+        this.password = password;
+    }
+
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    /**
+     * Set max count of acquired databases of shared pool. Must be set before first store was created.
+     * @param poolMaxSize max count of acquired databases
+     */
+    public void setPoolMaxSize(int poolMaxSize) {
+        checkNotShared();
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    private synchronized void checkNotShared() {
+        if (sharedPoolFactory != null || !shardPoolFactories.isEmpty()) {
+            throw new IllegalStateException("Shared database pool is already created");
+        }
     }
 }
@@ -0,0 +1,275 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.orienteer.jetty.pool.IDatabasePool;
+import org.orienteer.jetty.pool.IDatabasePoolFactory;
+import org.orienteer.jetty.pool.PartitionedDatabasePoolFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lifecycle of database pool.
+ * Pool is opened by {@link IDatabasePoolFactory} on {@link OrientDbConnectionManager#start()}, count of acquired databases is limited by
+ * permits of factory and threads wait free database not longer than acquire timeout.
+ * If database can't be acquired circuit breaker is opened: requests fail fast without waiting database
+ * and pool is reopened in background with exponential backoff. Background health check opens circuit breaker
+ * if database became unavailable while there were no requests.
+ */
+public class OrientDbConnectionManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrientDbConnectionManager.class);
+
+    private static final String HEALTH_CHECK_QUERY = "select 1";
+
+    private final IDatabasePoolFactory poolFactory;
+    private final int maxPoolSize;
+    private final long acquireTimeoutMs;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long healthCheckIntervalMs;
+
+    private final Semaphore permits;
+    private final AtomicBoolean circuitOpen = new AtomicBoolean(true);
+    private final ScheduledExecutorService executor;
+
+    private volatile IDatabasePool pool;
+    private volatile boolean closed;
+    private long backoffMs;
+
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejectedAcquires = new LongAdder();
+    private final LongAdder timedOutAcquires = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    /**
+     * Constructor
+     * @param url {@link String} url of database
+     * @param user {@link String} username
+     * @param password {@link String} password
+     * @param maxPoolSize max count of acquired databases
+     * @param acquireTimeoutMs max time in milliseconds of waiting free database
+     * @param initialBackoffMs delay in milliseconds before first attempt of reopen pool
+     * @param maxBackoffMs max delay in milliseconds between attempts of reopen pool
+     * @param healthCheckIntervalMs interval in milliseconds between health checks of database
+     */
+    public OrientDbConnectionManager(String url, String user, String password, int maxPoolSize, long acquireTimeoutMs,
+                                     long initialBackoffMs, long maxBackoffMs, long healthCheckIntervalMs) {
+        this(new PartitionedDatabasePoolFactory(url, user, password), maxPoolSize, acquireTimeoutMs, initialBackoffMs,
+                maxBackoffMs, healthCheckIntervalMs);
+    }
+
+    /**
+     * Constructor
+     * @param poolFactory {@link IDatabasePoolFactory} factory of database pool
+     * @param maxPoolSize max count of acquired databases
+     * @param acquireTimeoutMs max time in milliseconds of waiting free database
+     * @param initialBackoffMs delay in milliseconds before first attempt of reopen pool
+     * @param maxBackoffMs max delay in milliseconds between attempts of reopen pool
+     * @param healthCheckIntervalMs interval in milliseconds between health checks of database
+     */
+    public OrientDbConnectionManager(IDatabasePoolFactory poolFactory, int maxPoolSize, long acquireTimeoutMs,
+                                     long initialBackoffMs, long maxBackoffMs, long healthCheckIntervalMs) {
+        this.poolFactory = poolFactory;
+        this.maxPoolSize = maxPoolSize;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.healthCheckIntervalMs = healthCheckIntervalMs;
+        this.permits = poolFactory.getPermits(maxPoolSize);
+        this.backoffMs = initialBackoffMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "orientdb-session-connection-manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Open pool and start health check.
+     * If pool can't be opened, circuit breaker stays opened and pool is reopened in background.
+     */
+    public void start() {
+        reconnect();
+        executor.scheduleWithFixedDelay(this::checkHealth, healthCheckIntervalMs, healthCheckIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Acquire database from pool. Never waits reconnect of database.
+     * Acquired database must be released by {@link OrientDbConnectionManager#release(ODatabaseDocument)}
+     * @return {@link Optional<ODatabaseDocument>} database or {@link Optional#empty()} if circuit breaker is opened,
+     * pool is exhausted longer than acquire timeout or database can't be acquired
+     */
+    public Optional<ODatabaseDocument> acquire() {
+        if (circuitOpen.get()) {
+            rejectedAcquires.increment();
+            return Optional.empty();
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timedOutAcquires.increment();
+                LOG.warn("Can't acquire database from pool in {} ms", acquireTimeoutMs);
+                return Optional.empty();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+        try {
+            IDatabasePool current = pool;
+            if (current == null) {
+                throw new IllegalStateException("Database pool is not opened");
+            }
+            return Optional.of(current.acquire());
+        } catch (Exception e) {
+            permits.release();
+            onFailure(e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Close database and return it to pool
+     * @param db {@link ODatabaseDocument} database which was acquired by {@link OrientDbConnectionManager#acquire()}
+     */
+    public void release(ODatabaseDocument db) {
+        try {
+            db.close();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Stop health check and close pool
+     */
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        closePool(pool);
+        pool = null;
+    }
+
+    private void onFailure(Exception e) {
+        failures.increment();
+        if (circuitOpen.compareAndSet(false, true)) {
+            LOG.error("Can't acquire database from pool! Requests fail fast until database is reconnected", e);
+            synchronized (this) {
+                backoffMs = initialBackoffMs;
+            }
+            scheduleReconnect();
+        }
+    }
+
+    private synchronized void scheduleReconnect() {
+        if (!closed) {
+            executor.schedule(this::reconnect, backoffMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void reconnect() {
+        if (closed) {
+            return;
+        }
+        IDatabasePool newPool = null;
+        try {
+            newPool = poolFactory.open(maxPoolSize);
+            ping(newPool);
+            IDatabasePool oldPool = pool;
+            pool = newPool;
+            closePool(oldPool);
+            synchronized (this) {
+                backoffMs = initialBackoffMs;
+            }
+            reconnects.increment();
+            circuitOpen.set(false);
+            LOG.info("Database pool for {} is opened", poolFactory.getName());
+        } catch (Exception e) {
+            if (newPool != null) {
+                // Shared pool which can't be pinged must not be returned again by next attempt
+                newPool.invalidate();
+            }
+            closePool(newPool);
+            failures.increment();
+            synchronized (this) {
+                LOG.warn("Can't open database pool for {}, next attempt in {} ms: {}", poolFactory.getName(), backoffMs, e.getMessage());
+                scheduleReconnect();
+                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+            }
+        }
+    }
+
+    private void checkHealth() {
+        IDatabasePool current = pool;
+        if (circuitOpen.get() || current == null) {
+            return;
+        }
+        try {
+            ping(current);
+        } catch (Exception e) {
+            onFailure(e);
+        }
+    }
+
+    private void ping(IDatabasePool pool) {
+        // All permits are held by databases which were acquired from the same shared pool, so pool is alive and must not be exhausted by ping
+        if (!permits.tryAcquire()) {
+            return;
+        }
+        try {
+            ODatabaseDocument db = pool.acquire();
+            try {
+                db.query(new OSQLSynchQuery<>(HEALTH_CHECK_QUERY));
+            } finally {
+                db.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void closePool(IDatabasePool pool) {
+        if (pool != null) {
+            try {
+                pool.close();
+            } catch (Exception e) {
+                LOG.debug("Can't close database pool", e);
+            }
+        }
+    }
+
+    /**
+     * @return true if requests fail fast because database is unavailable
+     */
+    public boolean isCircuitOpen() {
+        return circuitOpen.get();
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getRejectedAcquires() {
+        return rejectedAcquires.sum();
+    }
+
+    public long getTimedOutAcquires() {
+        return timedOutAcquires.sum();
+    }
+
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+}
@@ -1,10 +1,21 @@
 package org.orienteer.jetty;
 
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.index.OIndex;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OProperty;
 import com.orientechnologies.orient.core.metadata.schema.OSchema;
 import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.metadata.schema.clusterselection.ODefaultClusterSelectionStrategy;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Module which need for initialize schema
@@ -28,12 +39,178 @@ public final class OrientDbJettyModule {
      */
     public static final String PROP_DATA = "data";
 
+    /**
+     * {@link OType#EMBEDDEDMAP} of {@link OType#BINARY}
+     * Separately serialized attributes of session data by their names.
+     * If it isn't null, attributes are stored in it instead of {@link OrientDbJettyModule#PROP_DATA},
+     * so only changed attributes can be written
+     */
+    public static final String PROP_ATTRIBUTES = "attributes";
+
     /**
      * {@link OType#LONG}
      * Time in milliseconds when session data will be expired
      */
     public static final String PROP_EXPIRY_TIME = "expiryTime";
 
+    /**
+     * {@link OType#STRING}
+     * Canonical context path of session
+     */
+    public static final String PROP_CONTEXT_PATH = "contextPath";
+
+    /**
+     * {@link OType#STRING}
+     * Virtual host of session context
+     */
+    public static final String PROP_VHOST = "vhost";
+
+    /**
+     * {@link OType#STRING}
+     * Name of node which managed session last time
+     */
+    public static final String PROP_LAST_NODE = "lastNode";
+
+    /**
+     * {@link OType#STRING}
+     * Unique id of store instance which wrote session data last time. Unlike {@link #PROP_LAST_NODE} it differs
+     * even if nodes have the same worker name
+     */
+    public static final String PROP_WRITER = "writer";
+
+    /**
+     * {@link OType#INTEGER}
+     * Versions of session data which were passed before its document was moved to another cluster. Moved document is
+     * recreated with record version 1, so version of session data is record version plus it and grows across moves
+     */
+    public static final String PROP_VERSION_BASE = "versionBase";
+
+    /**
+     * {@link OType#LONG}
+     * Time in milliseconds when session was created
+     */
+    public static final String PROP_CREATED = "created";
+
+    /**
+     * {@link OType#LONG}
+     * Time in milliseconds of the last access to session
+     */
+    public static final String PROP_ACCESSED = "accessed";
+
+    /**
+     * {@link OType#LONG}
+     * Time in milliseconds of the previous access to session
+     */
+    public static final String PROP_LAST_ACCESSED = "lastAccessed";
+
+    /**
+     * {@link OType#LONG}
+     * Time in milliseconds when session cookie was set
+     */
+    public static final String PROP_COOKIE_SET = "cookieSet";
+
+    /**
+     * {@link OType#LONG}
+     * Max inactive interval of session in milliseconds
+     */
+    public static final String PROP_MAX_INACTIVE = "maxInactive";
+
+    /**
+     * {@link OType#LONG}
+     * Time in milliseconds when session was saved last time
+     */
+    public static final String PROP_LAST_SAVED = "lastSaved";
+
+    /**
+     * {@link OClass.INDEX_TYPE#UNIQUE_HASH_INDEX}
+     * Index for lookup session data by {@link OrientDbJettyModule#PROP_ID} which was created by previous versions.
+     * It is replaced by {@link OrientDbJettyModule#INDEX_SESSION_KEY}, because sessions of different contexts can have the same id
+     */
+    public static final String INDEX_ID = SESSION_DATA_CLASS_NAME + "." + PROP_ID;
+
+    /**
+     * {@link OClass.INDEX_TYPE#UNIQUE}
+     * Composite index for lookup session data by key: {@link OrientDbJettyModule#PROP_ID}, {@link OrientDbJettyModule#PROP_CONTEXT_PATH}
+     * and {@link OrientDbJettyModule#PROP_VHOST}, so sessions of many contexts can be stored in the same class.
+     * Id is the first field, so index is used for lookup by id only too
+     */
+    public static final String INDEX_SESSION_KEY = SESSION_DATA_CLASS_NAME + ".key";
+
+    /**
+     * {@link OClass.INDEX_TYPE#NOTUNIQUE}
+     * Index for range scans by {@link OrientDbJettyModule#PROP_EXPIRY_TIME}
+     */
+    public static final String INDEX_EXPIRY_TIME = SESSION_DATA_CLASS_NAME + "." + PROP_EXPIRY_TIME;
+
+    /**
+     * Prefix of names of clusters which contain session data expired in the same time bucket.
+     * Full name of cluster is prefix, length of bucket in seconds, "_" and index of bucket since epoch.
+     * For example: osessiondata_b3600_490000
+     */
+    public static final String EXPIRY_BUCKET_CLUSTER_PREFIX = SESSION_DATA_CLASS_NAME.toLowerCase(Locale.ENGLISH) + "_b";
+
+    /**
+     * OrientDB class name of leases which are used for coordinate maintenance tasks between nodes
+     */
+    public static final String LEASE_CLASS_NAME = "OSessionLease";
+
+    /**
+     * {@link OType#STRING}
+     * Unique name of lease
+     */
+    public static final String PROP_LEASE_NAME = "name";
+
+    /**
+     * {@link OType#STRING}
+     * Owner of lease
+     */
+    public static final String PROP_LEASE_OWNER = "owner";
+
+    /**
+     * {@link OType#LONG}
+     * Time in milliseconds until which lease is held by owner
+     */
+    public static final String PROP_LEASE_UNTIL = "until";
+
+    /**
+     * {@link OClass.INDEX_TYPE#UNIQUE_HASH_INDEX}
+     * Index for lookup lease by {@link OrientDbJettyModule#PROP_LEASE_NAME}
+     */
+    public static final String INDEX_LEASE_NAME = LEASE_CLASS_NAME + "." + PROP_LEASE_NAME;
+
+    /**
+     * OrientDB class name of shards which session data of context is sharded across.
+     * Every shard keeps the whole list, so shards which were added at runtime are known by other nodes and after restart.
+     * Shard is keyed by {@link OrientDbJettyModule#PROP_SHARD_URL}, {@link OrientDbJettyModule#PROP_CONTEXT_PATH}
+     * and {@link OrientDbJettyModule#PROP_VHOST}
+     */
+    public static final String SHARD_CLASS_NAME = "OSessionShard";
+
+    /**
+     * {@link OType#STRING}
+     * Url of database of shard
+     */
+    public static final String PROP_SHARD_URL = "url";
+
+    /**
+     * {@link OType#LONG}
+     * Time in milliseconds when shard was added
+     */
+    public static final String PROP_SHARD_ADDED = "added";
+
+    /**
+     * {@link OType#BOOLEAN}
+     * True if sessions which were remapped to shard are moved to it from their previous shards
+     */
+    public static final String PROP_SHARD_MIGRATED = "migrated";
+
+    /**
+     * {@link OClass.INDEX_TYPE#UNIQUE}
+     * Composite index for lookup shard by {@link OrientDbJettyModule#PROP_SHARD_URL}, {@link OrientDbJettyModule#PROP_CONTEXT_PATH}
+     * and {@link OrientDbJettyModule#PROP_VHOST}
+     */
+    public static final String INDEX_SHARD_KEY = SHARD_CLASS_NAME + ".key";
+
     /**
      * Init schema. Need call after application was started and database was acquired.
      * @param db {@link ODatabaseDocument} database
@@ -55,9 +232,140 @@ public final class OrientDbJettyModule {
         OProperty expiry = createPropertyIfNotExists(oClass, PROP_EXPIRY_TIME, OType.LONG);
         expiry.setNotNull(true);
 
+        if (oClass.getProperty(PROP_ATTRIBUTES) == null) {
+            oClass.createProperty(PROP_ATTRIBUTES, OType.EMBEDDEDMAP, OType.BINARY);
+        }
+        createPropertyIfNotExists(oClass, PROP_CONTEXT_PATH, OType.STRING);
+        createPropertyIfNotExists(oClass, PROP_VHOST, OType.STRING);
+        createPropertyIfNotExists(oClass, PROP_LAST_NODE, OType.STRING);
+        createPropertyIfNotExists(oClass, PROP_WRITER, OType.STRING);
+        createPropertyIfNotExists(oClass, PROP_VERSION_BASE, OType.INTEGER);
+        createPropertyIfNotExists(oClass, PROP_CREATED, OType.LONG);
+        createPropertyIfNotExists(oClass, PROP_ACCESSED, OType.LONG);
+        createPropertyIfNotExists(oClass, PROP_LAST_ACCESSED, OType.LONG);
+        createPropertyIfNotExists(oClass, PROP_COOKIE_SET, OType.LONG);
+        createPropertyIfNotExists(oClass, PROP_MAX_INACTIVE, OType.LONG);
+        createPropertyIfNotExists(oClass, PROP_LAST_SAVED, OType.LONG);
+
+        if (!isIndexOfType(db, INDEX_SESSION_KEY, OClass.INDEX_TYPE.UNIQUE)) {
+            // Sessions of previous versions don't have context fields, so they can't be found by key without migration
+            DbUtils.migrateLegacySessions(db);
+            removeDuplicateSessions(db);
+        }
+        if (db.getMetadata().getIndexManager().getIndex(INDEX_ID) != null) {
+            db.getMetadata().getIndexManager().dropIndex(INDEX_ID);
+        }
+        createIndexIfNotExists(db, oClass, INDEX_SESSION_KEY, OClass.INDEX_TYPE.UNIQUE, PROP_ID, PROP_CONTEXT_PATH, PROP_VHOST);
+        createIndexIfNotExists(db, oClass, INDEX_EXPIRY_TIME, OClass.INDEX_TYPE.NOTUNIQUE, PROP_EXPIRY_TIME);
+
+        initLeaseSchema(db);
+
+        return oClass;
+    }
+
+    /**
+     * Init schema with clusters of expiry time buckets. Need call after application was started and database was acquired.
+     * @param db {@link ODatabaseDocument} database
+     * @param bucketLengthMs length of expiry time bucket in milliseconds. Must be multiple of second
+     * @param bucketsAhead count of buckets which are created in advance
+     * @return {@link OClass} of session data
+     */
+    public static OClass initSchema(ODatabaseDocument db, long bucketLengthMs, int bucketsAhead) {
+        OClass oClass = initSchema(db);
+        long now = System.currentTimeMillis();
+        initExpiryBuckets(db, bucketLengthMs, now, now + bucketsAhead * bucketLengthMs);
         return oClass;
     }
 
+    /**
+     * Create clusters of session data for expiry time buckets from bucket of given time until bucket of given time.
+     * Session data is stored in cluster of bucket of its expiry time, so expired buckets can be dropped entirely.
+     * Can't be executed in transaction.
+     * @param db {@link ODatabaseDocument} database
+     * @param bucketLengthMs length of bucket in milliseconds. Must be multiple of second
+     * @param from time in milliseconds of first bucket
+     * @param until time in milliseconds of last bucket
+     * @return count of created clusters
+     */
+    public static int initExpiryBuckets(ODatabaseDocument db, long bucketLengthMs, long from, long until) {
+        OClass oClass = db.getMetadata().getSchema().getClass(SESSION_DATA_CLASS_NAME);
+        if (!ODefaultClusterSelectionStrategy.NAME.equals(oClass.getClusterSelection().getName())) {
+            // Session data which isn't stored in bucket explicitly must be inserted to default cluster
+            oClass.setClusterSelection(ODefaultClusterSelectionStrategy.NAME);
+        }
+        int created = 0;
+        for (long time = from - from % bucketLengthMs; time <= until; time += bucketLengthMs) {
+            String name = getExpiryBucketClusterName(time, bucketLengthMs);
+            if (db.getClusterIdByName(name) < 0) {
+                oClass.addCluster(name);
+                created++;
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Get name of cluster of expiry time bucket
+     * @param time time in milliseconds in bucket
+     * @param bucketLengthMs length of bucket in milliseconds
+     * @return {@link String} name of cluster
+     */
+    public static String getExpiryBucketClusterName(long time, long bucketLengthMs) {
+        return EXPIRY_BUCKET_CLUSTER_PREFIX + TimeUnit.MILLISECONDS.toSeconds(bucketLengthMs) + "_" + time / bucketLengthMs;
+    }
+
+    /**
+     * Get end of expiry time bucket by name of its cluster
+     * @param clusterName {@link String} name of cluster
+     * @return time in milliseconds when bucket ends or -1 if cluster isn't cluster of expiry time bucket
+     */
+    public static long getExpiryBucketEnd(String clusterName) {
+        if (clusterName == null || !clusterName.startsWith(EXPIRY_BUCKET_CLUSTER_PREFIX)) {
+            return -1;
+        }
+        String[] parts = clusterName.substring(EXPIRY_BUCKET_CLUSTER_PREFIX.length()).split("_");
+        try {
+            long lengthMs = TimeUnit.SECONDS.toMillis(Long.parseLong(parts[0]));
+            return parts.length == 2 ? (Long.parseLong(parts[1]) + 1) * lengthMs : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Init schema of leases
+     * @param db {@link ODatabaseDocument} database
+     */
+    private static void initLeaseSchema(ODatabaseDocument db) {
+        OSchema schema = db.getMetadata().getSchema();
+        OClass oClass = schema.getClass(LEASE_CLASS_NAME);
+        if (oClass == null) {
+            oClass = schema.createClass(LEASE_CLASS_NAME);
+        }
+        createPropertyIfNotExists(oClass, PROP_LEASE_NAME, OType.STRING).setNotNull(true);
+        createPropertyIfNotExists(oClass, PROP_LEASE_OWNER, OType.STRING);
+        createPropertyIfNotExists(oClass, PROP_LEASE_UNTIL, OType.LONG);
+        createIndexIfNotExists(db, oClass, INDEX_LEASE_NAME, OClass.INDEX_TYPE.UNIQUE_HASH_INDEX, PROP_LEASE_NAME);
+    }
+
+    /**
+     * Init schema of shards list. Need call for databases of shards, {@link OrientDbSessionDataStore} calls it by itself.
+     * @param db {@link ODatabaseDocument} database of shard
+     */
+    public static void initShardSchema(ODatabaseDocument db) {
+        OSchema schema = db.getMetadata().getSchema();
+        OClass oClass = schema.getClass(SHARD_CLASS_NAME);
+        if (oClass == null) {
+            oClass = schema.createClass(SHARD_CLASS_NAME);
+        }
+        createPropertyIfNotExists(oClass, PROP_SHARD_URL, OType.STRING).setNotNull(true);
+        createPropertyIfNotExists(oClass, PROP_CONTEXT_PATH, OType.STRING);
+        createPropertyIfNotExists(oClass, PROP_VHOST, OType.STRING);
+        createPropertyIfNotExists(oClass, PROP_SHARD_ADDED, OType.LONG);
+        createPropertyIfNotExists(oClass, PROP_SHARD_MIGRATED, OType.BOOLEAN);
+        createIndexIfNotExists(db, oClass, INDEX_SHARD_KEY, OClass.INDEX_TYPE.UNIQUE, PROP_SHARD_URL, PROP_CONTEXT_PATH, PROP_VHOST);
+    }
+
     public static String getDatabaseUrl() {
         return System.getProperty("remote.url");
     }
@@ -87,6 +395,55 @@ public final class OrientDbJettyModule {
         return property;
     }
 
+    /**
+     * Create index if it doesn't exists or recreate exists index if it has another type
+     * @param db {@link ODatabaseDocument} database
+     * @param oClass {@link OClass} session data class
+     * @param name {@link String} index name
+     * @param type {@link OClass.INDEX_TYPE} index type
+     * @param fields fields of index
+     */
+    private static void createIndexIfNotExists(ODatabaseDocument db, OClass oClass, String name, OClass.INDEX_TYPE type, String...fields) {
+        OIndex<?> index = db.getMetadata().getIndexManager().getIndex(name);
+        if (index != null && !type.name().equalsIgnoreCase(index.getType())) {
+            db.getMetadata().getIndexManager().dropIndex(name);
+            index = null;
+        }
+        if (index == null) {
+            oClass.createIndex(name, type, fields);
+        }
+    }
+
+    private static boolean isIndexOfType(ODatabaseDocument db, String name, OClass.INDEX_TYPE type) {
+        OIndex<?> index = db.getMetadata().getIndexManager().getIndex(name);
+        return index != null && type.name().equalsIgnoreCase(index.getType());
+    }
+
+    /**
+     * Remove duplicated session data which can be created by previous versions without unique index.
+     * Keeps only session data with max {@link OrientDbJettyModule#PROP_EXPIRY_TIME} for every key.
+     * @param db {@link ODatabaseDocument} database
+     */
+    private static void removeDuplicateSessions(ODatabaseDocument db) {
+        String key = String.join(", ", PROP_ID, PROP_CONTEXT_PATH, PROP_VHOST);
+        String sql = String.format("select %s from (select %s, count(*) as cnt from %s group by %s) where cnt > 1",
+                key, key, SESSION_DATA_CLASS_NAME, key);
+        List<ODocument> duplicates = db.query(new OSQLSynchQuery<>(sql));
+        if (duplicates == null) {
+            return;
+        }
+        String select = String.format("select from %s where %s = ? order by %s desc", SESSION_DATA_CLASS_NAME, PROP_ID, PROP_EXPIRY_TIME);
+        for (ODocument duplicate : duplicates) {
+            String contextPath = duplicate.field(PROP_CONTEXT_PATH);
+            String vhost = duplicate.field(PROP_VHOST);
+            List<ODocument> sessions = db.query(new OSQLSynchQuery<>(select), (String) duplicate.field(PROP_ID));
+            sessions.stream()
+                    .filter(session -> Objects.equals(contextPath, session.field(PROP_CONTEXT_PATH))
+                            && Objects.equals(vhost, session.field(PROP_VHOST)))
+                    .skip(1)
+                    .forEach(session -> db.command(new OCommandSQL("delete from " + session.getIdentity())).execute());
+        }
+    }
 
     private OrientDbJettyModule() {}
 }
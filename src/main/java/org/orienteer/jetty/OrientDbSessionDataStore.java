@@ -1,162 +1,2418 @@
 package org.orienteer.jetty;
 
-import com.orientechnologies.orient.core.db.OPartitionedDatabasePool;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
 import org.eclipse.jetty.server.session.AbstractSessionDataStore;
 import org.eclipse.jetty.server.session.SessionData;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.annotation.Name;
+import org.orienteer.jetty.metrics.CompositeSessionStoreListener;
+import org.orienteer.jetty.metrics.ISessionStoreListener;
+import org.orienteer.jetty.metrics.SessionStoreMetrics;
+import org.orienteer.jetty.pool.IDatabasePoolFactory;
+import org.orienteer.jetty.pool.PartitionedDatabasePoolFactory;
+import org.orienteer.jetty.serialization.CompactSessionDataSerializer;
+import org.orienteer.jetty.serialization.CompressingSessionDataSerializer;
+import org.orienteer.jetty.serialization.ISessionDataSerializer;
+import org.orienteer.jetty.serialization.LazySessionData;
 import org.orienteer.jetty.util.DbUtils;
+import org.orienteer.jetty.util.PendingSessionWrite;
+import org.orienteer.jetty.util.SessionVersions;
+import org.orienteer.jetty.util.SingleFlight;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
 import static java.util.Optional.empty;
-import static java.util.Optional.ofNullable;
 
 /**
  * Implementation of {@link AbstractSessionDataStore} for store session data in OrientDB.
- * Uses database pool for access to database.
+ * Uses {@link OrientDbConnectionManager} for access to database.
  */
+@ManagedObject
 public class OrientDbSessionDataStore extends AbstractSessionDataStore {
 
     private static final Logger LOG = LoggerFactory.getLogger(OrientDbSessionDataStore.class);
 
     /**
-     * Database pool
+     * Manager of database pool. It is null if session data is sharded
      */
-    private OPartitionedDatabasePool pool;
+    private OrientDbConnectionManager connectionManager;
+
+    /**
+     * Urls of databases which session data is sharded across by consistent hashing of session id.
+     * Single database of {@link OrientDbSessionDataStore#databasePoolFactory} is used if it is empty
+     */
+    private final CopyOnWriteArrayList<String> shardUrls = new CopyOnWriteArrayList<>();
+
+    /**
+     * Count of virtual nodes of every shard on ring of consistent hashing
+     */
+    private int shardVirtualNodes = 160;
+
+    /**
+     * Interval in seconds between reads of list of shards, so shards which were added by other nodes are added by store too
+     */
+    private int shardRefreshIntervalSec = 60;
+
+    /**
+     * Delay in seconds after shard was added before sessions which are remapped to it are moved in background.
+     * Must be longer than {@link OrientDbSessionDataStore#shardRefreshIntervalSec} and scavenge interval of Jetty,
+     * so every node routes sessions by added shard before migration
+     */
+    private int shardMigrationDelaySec = 3600;
+
+    /**
+     * Shards of started store or null if session data isn't sharded
+     */
+    private SessionShards shards;
+
+    private SessionShardMigrator shardMigrator;
+
+    /**
+     * Factory of database pool. Pool of "remote.url" system property is used if it isn't set
+     */
+    private IDatabasePoolFactory databasePoolFactory;
+
+    /**
+     * Factories of database pools of shards by urls. Pool of every shard is opened by store with
+     * {@link OrientDbSessionDataStore#user} and {@link OrientDbSessionDataStore#password} if it isn't set
+     */
+    private Function<String, IDatabasePoolFactory> shardPoolFactories;
+
+    /**
+     * Username of databases of shards and of default database pool. "admin.username" system property is used if it isn't set
+     */
+    private String user;
+
+    /**
+     * Password of databases of shards and of default database pool. "admin.password" system property is used if it isn't set
+     */
+    private String password;
+
+    /**
+     * Factory of database pool which is used by started store
+     */
+    private IDatabasePoolFactory activePoolFactory;
+
+    /**
+     * Max count of databases which are acquired from pool
+     */
+    private int poolMaxSize = 100;
+
+    /**
+     * Max time in milliseconds of waiting free database from pool
+     */
+    private long poolAcquireTimeoutMs = 5000;
+
+    /**
+     * Delay in milliseconds before first attempt of reconnect to database
+     */
+    private long reconnectInitialBackoffMs = 500;
+
+    /**
+     * Max delay in milliseconds between attempts of reconnect to database
+     */
+    private long reconnectMaxBackoffMs = 30000;
+
+    /**
+     * Interval in milliseconds between health checks of database
+     */
+    private long healthCheckIntervalMs = 10000;
+
+    /**
+     * Serializer of session data
+     */
+    private ISessionDataSerializer serializer = DbUtils.DEFAULT_SERIALIZER;
+
+    /**
+     * Min size in bytes of serialized session data which is compressed. Negative value disables compression
+     */
+    private int compressionThreshold = -1;
+
+    /**
+     * Compression level of {@link Deflater}
+     */
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Serializer which is used by started store. Compresses bytes of {@link OrientDbSessionDataStore#serializer}
+     */
+    private CompressingSessionDataSerializer activeSerializer = new CompressingSessionDataSerializer(serializer);
+
+    /**
+     * Store attributes separately and deserialize attribute only when it is accessed
+     */
+    private boolean lazyAttributesEnabled;
+
+    /**
+     * Store attributes separately in database and write only attributes which were changed
+     */
+    private boolean deltaWritesEnabled;
+
+    /**
+     * Serializer of separately stored attributes. Not null only if delta writes are active in started store
+     */
+    private CompactSessionDataSerializer attributeSerializer;
+
+    /**
+     * Store only access and expiry time of session data if attributes of it weren't changed
+     */
+    private boolean touchWritesEnabled = true;
+
+    private final LongAdder touchWrites = new LongAdder();
+
+    private final LongAdder fullWrites = new LongAdder();
+
+    /**
+     * Buffer session writes and store them by batches in background
+     */
+    private boolean writeBehindEnabled;
+
+    /**
+     * Max time in milliseconds which session write can stay in write-behind buffer
+     */
+    private long writeBehindFlushIntervalMs = 1000;
+
+    /**
+     * Max count of session writes which are stored in one transaction
+     */
+    private int writeBehindMaxBatchSize = 500;
+
+    /**
+     * Max count of pending session writes. Writing threads flush buffer synchronously if it is reached
+     */
+    private int writeBehindMaxPending = 10000;
+
+    private SessionWriteBehindBuffer writeBehindBuffer;
+
+    /**
+     * Store and delete session data by background threads instead of request thread
+     */
+    private boolean asyncWritesEnabled;
+
+    /**
+     * Count of threads which store session data in async mode if virtual threads aren't used
+     */
+    private int asyncWriteThreads = 8;
+
+    /**
+     * Store session data by virtual threads in async mode if JVM supports them
+     */
+    private boolean asyncVirtualThreadsEnabled = true;
+
+    /**
+     * Max count of sessions with pending writes in async mode
+     */
+    private int asyncWriteMaxPending = 10000;
+
+    /**
+     * Max time in milliseconds which request thread waits for free space of async writer
+     */
+    private long asyncWriteMaxWaitMs = 5000;
+
+    /**
+     * Max count of retries of async write which can't be stored
+     */
+    private int asyncWriteMaxRetries = 5;
+
+    /**
+     * Time in milliseconds before the first retry of async write which can't be stored
+     */
+    private long asyncWriteRetryBackoffMs = 100;
+
+    private SessionAsyncWriter asyncWriter;
+
+    /**
+     * Periodically sweep expired sessions which are not known by any node
+     */
+    private boolean sweepEnabled;
+
+    /**
+     * Interval in seconds between sweeps of expired sessions
+     */
+    private int sweepIntervalSec = 600;
+
+    /**
+     * Count of expired sessions in one page of sweep
+     */
+    private int sweepPageSize = 1000;
+
+    /**
+     * Max count of pages in one sweep
+     */
+    private int sweepMaxPages = 10;
+
+    /**
+     * Delete expired sessions of all contexts in database instead of return them to Jetty
+     */
+    private boolean sweepDeleteExpired;
+
+    private SessionExpirySweeper sweeper;
+
+    /**
+     * Store session data in clusters of expiry time buckets and drop clusters of expired buckets entirely
+     */
+    private boolean expiryBucketsEnabled;
+
+    /**
+     * Length in seconds of expiry time bucket
+     */
+    private int expiryBucketLengthSec = 3600;
+
+    /**
+     * Count of expiry time buckets which are created in advance
+     */
+    private int expiryBucketsAhead = 24;
+
+    private SessionBucketMaintainer bucketMaintainer;
+
+    /**
+     * Max count of candidates which are checked for expiry by one query
+     */
+    private int expiryCheckBatchSize = DbUtils.DEFAULT_EXPIRY_CHECK_BATCH_SIZE;
+
+    /**
+     * Cache loaded and stored session data on this node and invalidate it by live query
+     */
+    private boolean nearCacheEnabled;
+
+    /**
+     * Max count of sessions in near cache
+     */
+    private int nearCacheMaxSize = 10000;
+
+    private SessionNearCache nearCache;
+
+    /**
+     * Unique id of this store which marks its writes of session data, so near cache doesn't invalidate own writes.
+     * Worker name can't be used for it, because it is the same on all nodes by default
+     */
+    private final String writer = UUID.randomUUID().toString();
+
+    /**
+     * Warm up near cache by recently active sessions on start
+     */
+    private boolean warmUpEnabled;
+
+    /**
+     * Max count of sessions which are cached by warm-up
+     */
+    private int warmUpMaxSessions = 10000;
+
+    /**
+     * Count of sessions in one page of warm-up
+     */
+    private int warmUpPageSize = 1000;
+
+    /**
+     * Count of threads which deserialize session data during warm-up
+     */
+    private int warmUpThreads = 4;
+
+    /**
+     * Max time in milliseconds which start of store waits for warm-up
+     */
+    private long warmUpTimeBudgetMs = 10000;
+
+    /**
+     * Warm up only sessions which were last handled by this node
+     */
+    private boolean warmUpOwnSessionsOnly;
+
+    private SessionWarmUp warmUp;
+
+    /**
+     * Validate near cache entries by record version of session data document, so near cache can be used without live query
+     */
+    private boolean conditionalLoadEnabled;
+
+    /**
+     * Don't store session data if it was changed by another node since it was loaded or stored by this node
+     */
+    private boolean optimisticLockingEnabled;
+
+    /**
+     * Max count of remembered record versions of session data documents
+     */
+    private int maxKnownVersions = 100000;
+
+    private SessionVersions versions;
+
+    private final LongAdder notModifiedLoads = new LongAdder();
+
+    private final LongAdder versionConflicts = new LongAdder();
+
+    /**
+     * Coalesce concurrent loads and existence checks of the same session into one database fetch
+     */
+    private boolean loadCoalescingEnabled = true;
+
+    private final SingleFlight<String, SessionData> loads = new SingleFlight<>();
+
+    private final SingleFlight<String, Boolean> existenceChecks = new SingleFlight<>();
+
+    /**
+     * Collect metrics of store operations and expose them through JMX
+     */
+    private boolean metricsEnabled = true;
+
+    private SessionStoreMetrics metrics;
+
+    /**
+     * Listeners of store operations which were added by user
+     */
+    private final List<ISessionStoreListener> listeners = new ArrayList<>();
+
+    /**
+     * Listener which is notified about store operations. Operations aren't timed if it is {@link ISessionStoreListener#NOOP}
+     */
+    private ISessionStoreListener listener = ISessionStoreListener.NOOP;
+
+    private boolean instrumented;
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        List<ISessionStoreListener> activeListeners = new ArrayList<>(listeners);
+        if (metricsEnabled) {
+            metrics = new SessionStoreMetrics();
+            addBean(metrics);
+            activeListeners.add(0, metrics);
+        }
+        listener = CompositeSessionStoreListener.of(activeListeners);
+        instrumented = listener != ISessionStoreListener.NOOP;
+        if (shardUrls.isEmpty()) {
+            activePoolFactory = databasePoolFactory != null ? databasePoolFactory
+                    : new PartitionedDatabasePoolFactory(OrientDbJettyModule.getDatabaseUrl(), getActiveUser(), getActivePassword());
+            connectionManager = new OrientDbConnectionManager(activePoolFactory, poolMaxSize, poolAcquireTimeoutMs,
+                    reconnectInitialBackoffMs, reconnectMaxBackoffMs, healthCheckIntervalMs);
+            connectionManager.start();
+        } else {
+            if (databasePoolFactory != null) {
+                LOG.warn("Database pool factory is ignored, because session data is sharded across {}", shardUrls);
+            }
+            shardMigrator = new SessionShardMigrator(new ShardStore(), _context.getCanonicalContextPath(), _context.getVhost(),
+                    writer, shardVirtualNodes, TimeUnit.SECONDS.toMillis(shardRefreshIntervalSec),
+                    TimeUnit.SECONDS.toMillis(shardMigrationDelaySec));
+            shards = shardMigrator.open(new ArrayList<>(shardUrls));
+        }
+        activeSerializer = new CompressingSessionDataSerializer(getBaseSerializer(), compressionThreshold, compressionLevel);
+        attributeSerializer = null;
+        if (deltaWritesEnabled) {
+            if (writeBehindEnabled || asyncWritesEnabled || expiryBucketsEnabled) {
+                // Pending writes and moves between buckets store attributes fully
+                LOG.warn("Delta writes of session attributes aren't supported with write-behind mode, async writes or expiry buckets");
+            } else if (activeSerializer.getDelegate() instanceof CompactSessionDataSerializer) {
+                attributeSerializer = DbUtils.ATTRIBUTE_SERIALIZER;
+            }
+        }
+        if (writeBehindEnabled) {
+            writeBehindBuffer = new SessionWriteBehindBuffer(this::storePendingWrites,
+                    writeBehindFlushIntervalMs, writeBehindMaxBatchSize, writeBehindMaxPending);
+            if (asyncWritesEnabled) {
+                LOG.warn("Async writes are ignored, because write-behind mode already stores session writes in background");
+            }
+        } else if (asyncWritesEnabled) {
+            asyncWriter = new SessionAsyncWriter(write -> storePendingWrites(Collections.singletonList(write)),
+                    asyncWriteThreads, asyncVirtualThreadsEnabled, asyncWriteMaxPending, asyncWriteMaxWaitMs,
+                    asyncWriteMaxRetries, asyncWriteRetryBackoffMs);
+        }
+        if (nearCacheEnabled || conditionalLoadEnabled) {
+            nearCache = new SessionNearCache(writer, _context.getCanonicalContextPath(), _context.getVhost(),
+                    nearCacheMaxSize, conditionalLoadEnabled || shards != null);
+        }
+        if (nearCacheEnabled) {
+            if (shards != null) {
+                // Entries are validated by record version instead
+                LOG.warn("Near cache isn't subscribed to live query, because session data is sharded");
+            } else {
+                nearCache.subscribe(activePoolFactory::openDatabase);
+            }
+        }
+        if (conditionalLoadEnabled || optimisticLockingEnabled) {
+            versions = new SessionVersions(maxKnownVersions);
+        }
+        if (sweepEnabled) {
+            String owner = _context.getWorkerName() + "-" + UUID.randomUUID();
+            sweeper = new SessionExpirySweeper(_context.getCanonicalContextPath(), _context.getVhost(), owner,
+                    TimeUnit.SECONDS.toMillis(sweepIntervalSec), TimeUnit.SECONDS.toMillis(_gracePeriodSec),
+                    sweepPageSize, sweepMaxPages, sweepDeleteExpired);
+        }
+        if (expiryBucketsEnabled) {
+            String owner = _context.getWorkerName() + "-" + UUID.randomUUID();
+            bucketMaintainer = new SessionBucketMaintainer(owner, TimeUnit.SECONDS.toMillis(expiryBucketLengthSec),
+                    expiryBucketsAhead, TimeUnit.SECONDS.toMillis(sweepIntervalSec), TimeUnit.SECONDS.toMillis(_gracePeriodSec));
+            // Buckets must exist before first store, otherwise session data is stored in default cluster
+            for (OrientDbConnectionManager manager : getConnectionManagers()) {
+                sudoGet(manager, db -> bucketMaintainer.maintain(db, System.currentTimeMillis()));
+            }
+        }
+        if (warmUpEnabled) {
+            warmUp();
+        }
+    }
+
+    /**
+     * Warm up near cache by recently active sessions of all shards. Waits for warm-up at most {@link #warmUpTimeBudgetMs}
+     */
+    private void warmUp() {
+        if (nearCache == null) {
+            LOG.warn("Warm-up of sessions requires near cache or conditional loads");
+            return;
+        }
+        if (!nearCache.isSubscribed() && !conditionalLoadEnabled && shards == null) {
+            LOG.warn("Warm-up of sessions is skipped, because near cache isn't subscribed to live query");
+            return;
+        }
+        warmUp = new SessionWarmUp(nearCache, candidate -> toSessionData(candidate.getId(), candidate.getMetadata(), candidate.getBytes()),
+                _context.getCanonicalContextPath(), _context.getVhost(), warmUpOwnSessionsOnly ? _context.getWorkerName() : null,
+                Math.min(warmUpMaxSessions, nearCacheMaxSize), warmUpPageSize, warmUpThreads, warmUpTimeBudgetMs);
+        List<SessionWarmUp.IDatabase> databases = new ArrayList<>();
+        for (OrientDbConnectionManager manager : getConnectionManagers()) {
+            databases.add(func -> sudoGet(manager, func));
+        }
+        warmUp.warmUp(databases, System.currentTimeMillis());
+    }
+
+    /**
+     * Add database to shards of session data. Sessions which are remapped to added shard are moved to it on first load
+     * and all remaining ones are moved in background after {@link OrientDbSessionDataStore#shardMigrationDelaySec}.
+     * Added shard is stored in list of shards in databases of all shards, so other nodes add it on their next refresh
+     * and it is opened after restart even if it isn't configured.
+     * If store isn't started, database is added to configured shards.
+     * @param url {@link String} url of database
+     * @throws IllegalStateException if started store doesn't shard session data
+     * @throws IllegalArgumentException if database is already a shard
+     */
+    @ManagedOperation(value = "add database to shards of session data", impact = "ACTION")
+    public void addShard(@Name("url") String url) {
+        SessionShardMigrator migrator = shardMigrator;
+        if (migrator == null) {
+            checkStarted();
+            shardUrls.add(url);
+            return;
+        }
+        migrator.add(url);
+    }
 
     @Override
     protected void doStop() throws Exception {
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.close();
+            writeBehindBuffer = null;
+        }
+        if (asyncWriter != null) {
+            asyncWriter.close();
+            asyncWriter = null;
+        }
+        if (nearCache != null) {
+            nearCache.close();
+            nearCache = null;
+        }
+        versions = null;
+        warmUp = null;
         super.doStop();
-        closePool();
+        if (shards != null) {
+            shardMigrator.close();
+            shardMigrator = null;
+            shards.close();
+            shards = null;
+        } else {
+            connectionManager.close();
+            connectionManager = null;
+        }
+        activePoolFactory = null;
+        if (metrics != null) {
+            removeBean(metrics);
+            metrics = null;
+        }
+        listener = ISessionStoreListener.NOOP;
+        instrumented = false;
+    }
+
+    @Override
+    public void doStore(String id, SessionData data, long lastSaveTime) throws Exception {
+        long start = instrumented ? System.nanoTime() : 0;
+        int bytes = storeSession(id, data, lastSaveTime);
+        deleteFromPreviousShard(id);
+        if (instrumented) {
+            listener.onStore(id, System.nanoTime() - start, bytes);
+        }
+    }
+
+    /**
+     * Store session data fully or store only access and expiry time of it
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param lastSaveTime time of last save of session data
+     * @return size of serialized attributes or 0 if only access and expiry time were stored
+     * @throws IOException if database of session can't be acquired, for example circuit breaker is open
+     */
+    private int storeSession(String id, SessionData data, long lastSaveTime) throws IOException {
+        boolean touch = touchWritesEnabled && !data.isDirty() && lastSaveTime > 0;
+        long epoch = nearCache != null ? nearCache.getEpoch() : 0;
+        if (writeBehindBuffer != null || asyncWriter != null) {
+            // Pending writes are stored without check of version, so version of document becomes unknown
+            if (versions != null) {
+                versions.remove(id);
+            }
+            if (touch) {
+                addPendingWrite(PendingSessionWrite.touch(id, data));
+                touchWrites.increment();
+                if (nearCache != null) {
+                    nearCache.touch(id, data, DbUtils.UNKNOWN_VERSION, epoch);
+                }
+                return 0;
+            }
+            byte[] bytes = DbUtils.toBytes(data, activeSerializer);
+            addPendingWrite(PendingSessionWrite.full(id, data, bytes));
+            fullWrites.increment();
+            if (nearCache != null) {
+                nearCache.putStored(id, data, bytes, DbUtils.UNKNOWN_VERSION, epoch);
+            }
+            return bytes.length;
+        }
+        int expectedVersion = DbUtils.UNKNOWN_VERSION;
+        if (versions != null) {
+            // Session which was never saved must not exist in database
+            expectedVersion = lastSaveTime > 0 ? versions.get(id) : 0;
+        }
+        StoreResult result;
+        try {
+            result = touch ? touchSession(id, data, expectedVersion) : writeSession(id, data, expectedVersion);
+        } catch (ConcurrentModificationException e) {
+            versionConflicts.increment();
+            versions.remove(id);
+            if (nearCache != null) {
+                nearCache.remove(id);
+            }
+            throw e;
+        }
+        if (versions != null) {
+            versions.put(id, result.version);
+        }
+        if (result.bytes == null && result.size == 0) {
+            touchWrites.increment();
+            if (nearCache != null) {
+                nearCache.touch(id, data, result.version, epoch);
+            }
+            return 0;
+        }
+        fullWrites.increment();
+        if (nearCache != null) {
+            if (result.bytes != null) {
+                nearCache.putStored(id, data, result.bytes, result.version, epoch);
+            } else {
+                // Separately stored attributes aren't serialized as one blob, so cached blob becomes stale
+                nearCache.remove(id);
+            }
+        }
+        return result.size;
+    }
+
+    /**
+     * Store only access and expiry time of session data or store it fully if it doesn't exist in database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param expectedVersion record version of session data document or {@link DbUtils#UNKNOWN_VERSION}
+     * @return {@link StoreResult} result of store
+     * @throws IOException if database of session can't be acquired
+     * @throws ConcurrentModificationException if optimistic locking is enabled and session data was changed by another node
+     */
+    private StoreResult touchSession(String id, SessionData data, int expectedVersion) throws IOException, ConcurrentModificationException {
+        return requireWrite(id, db -> {
+            if (expectedVersion != DbUtils.UNKNOWN_VERSION) {
+                try {
+                    if (DbUtils.touchSession(db, id, data, expectedVersion, writer)) {
+                        return new StoreResult(null, expectedVersion + 1);
+                    }
+                    return storeFully(db, id, data, 0);
+                } catch (ConcurrentModificationException e) {
+                    if (optimisticLockingEnabled) {
+                        throw e;
+                    }
+                }
+            }
+            if (DbUtils.touchSession(db, id, data, writer)) {
+                return new StoreResult(null, DbUtils.UNKNOWN_VERSION);
+            }
+            // Session data was removed from database, so need store it fully
+            return storeFully(db, id, data, DbUtils.UNKNOWN_VERSION);
+        });
+    }
+
+    /**
+     * Store session data fully
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param expectedVersion record version of session data document or {@link DbUtils#UNKNOWN_VERSION}
+     * @return {@link StoreResult} result of store
+     * @throws IOException if database of session can't be acquired
+     * @throws ConcurrentModificationException if optimistic locking is enabled and session data was changed by another node
+     */
+    private StoreResult writeSession(String id, SessionData data, int expectedVersion) throws IOException, ConcurrentModificationException {
+        if (attributeSerializer != null && data instanceof LazySessionData) {
+            LazySessionData lazy = (LazySessionData) data;
+            Set<String> changed = lazy.getChangedAttributes();
+            // Throws if write wasn't committed, so changes which weren't stored stay dirty for the next write
+            StoreResult result = requireWrite(id, db -> storeAttributes(db, id, lazy, changed, lazy.isAttributesStored(), expectedVersion));
+            // Transaction can be retried, so stored changes are marked only after commit
+            lazy.setAttributesStored(true, changed);
+            return result;
+        }
+        byte[] bytes = DbUtils.toBytes(data, activeSerializer);
+        int version = requireWrite(id, db -> storeSession(db, id, data, bytes, expectedVersion));
+        return new StoreResult(bytes, version);
+    }
+
+    private StoreResult storeFully(ODatabaseDocument db, String id, SessionData data, int expectedVersion) {
+        if (attributeSerializer != null && data instanceof LazySessionData) {
+            // Touched session doesn't exist in database, so all attributes of it are stored
+            return storeAttributes(db, id, (LazySessionData) data, Collections.emptySet(), false, expectedVersion);
+        }
+        byte[] bytes = DbUtils.toBytes(data, activeSerializer);
+        return new StoreResult(bytes, storeSession(db, id, data, bytes, expectedVersion));
+    }
+
+    /**
+     * Store only changed attributes of session data if its attributes are stored separately in database,
+     * otherwise store all attributes separately, so next writes can be delta writes
+     * @param db {@link ODatabaseDocument} database in transaction
+     * @param id {@link String} session id
+     * @param data {@link LazySessionData} session data
+     * @param changed {@link Set} names of attributes which were set or removed since last store
+     * @param delta true if only changed attributes can be stored
+     * @param expectedVersion record version of session data document or {@link DbUtils#UNKNOWN_VERSION}
+     * @return {@link StoreResult} result of store
+     * @throws ConcurrentModificationException if optimistic locking is enabled and session data was changed by another node
+     */
+    private StoreResult storeAttributes(ODatabaseDocument db, String id, LazySessionData data, Set<String> changed,
+                                        boolean delta, int expectedVersion) throws ConcurrentModificationException {
+        if (delta) {
+            Map<String, byte[]> values = new HashMap<>();
+            Set<String> removed = new HashSet<>();
+            for (String name : changed) {
+                Object value = data.getAttribute(name);
+                if (value == null) {
+                    removed.add(name);
+                } else {
+                    values.put(name, encodeAttribute(id, value));
+                }
+            }
+            int size = getSize(values);
+            if (expectedVersion != DbUtils.UNKNOWN_VERSION) {
+                try {
+                    if (DbUtils.storeChangedAttributes(db, id, data, values, removed, expectedVersion, writer)) {
+                        return new StoreResult(size, expectedVersion + 1);
+                    }
+                } catch (ConcurrentModificationException e) {
+                    if (optimisticLockingEnabled) {
+                        throw e;
+                    }
+                }
+            }
+            if (DbUtils.storeChangedAttributes(db, id, data, values, removed, DbUtils.UNKNOWN_VERSION, writer)) {
+                return new StoreResult(size, DbUtils.UNKNOWN_VERSION);
+            }
+            // Session data was removed or stored fully by another node, so need store all attributes
+        }
+        Map<String, byte[]> attributes;
+        try {
+            attributes = attributeSerializer.encodeAttributes(data);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't serialize attributes of session data " + id, e);
+        }
+        int size = getSize(attributes);
+        if (expectedVersion != DbUtils.UNKNOWN_VERSION) {
+            try {
+                return new StoreResult(size, DbUtils.storeSessionAttributes(db, id, data, attributes, expectedVersion, writer));
+            } catch (ConcurrentModificationException e) {
+                if (optimisticLockingEnabled) {
+                    throw e;
+                }
+            }
+        }
+        DbUtils.storeSessionAttributes(db, id, data, attributes, writer);
+        return new StoreResult(size, DbUtils.UNKNOWN_VERSION);
+    }
+
+    private byte[] encodeAttribute(String id, Object value) {
+        try {
+            return attributeSerializer.encodeValue(value);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't serialize attribute of session data " + id, e);
+        }
+    }
+
+    private static int getSize(Map<String, byte[]> attributes) {
+        int size = 0;
+        for (byte[] bytes : attributes.values()) {
+            size += bytes.length;
+        }
+        return size;
+    }
+
+    /**
+     * Store session data fully with check of record version if it's known
+     * @param db {@link ODatabaseDocument} database in transaction
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param bytes serialized attributes of session data
+     * @param expectedVersion record version of session data document or {@link DbUtils#UNKNOWN_VERSION}
+     * @return new record version of session data document or {@link DbUtils#UNKNOWN_VERSION}
+     * @throws ConcurrentModificationException if optimistic locking is enabled and session data was changed by another node
+     */
+    private int storeSession(ODatabaseDocument db, String id, SessionData data, byte[] bytes, int expectedVersion)
+            throws ConcurrentModificationException {
+        if (expectedVersion != DbUtils.UNKNOWN_VERSION) {
+            try {
+                return expiryBucketsEnabled
+                        ? DbUtils.storeSessionInBucket(db, id, data, bytes, expectedVersion, TimeUnit.SECONDS.toMillis(expiryBucketLengthSec),
+                        writer)
+                        : DbUtils.storeSession(db, id, data, bytes, expectedVersion, writer);
+            } catch (ConcurrentModificationException e) {
+                if (optimisticLockingEnabled) {
+                    throw e;
+                }
+            }
+        }
+        if (expiryBucketsEnabled) {
+            return DbUtils.storeSessionInBucket(db, id, data, bytes, DbUtils.UNKNOWN_VERSION, TimeUnit.SECONDS.toMillis(expiryBucketLengthSec),
+                    writer);
+        }
+        DbUtils.storeSession(db, id, data, bytes, writer);
+        return DbUtils.UNKNOWN_VERSION;
+    }
+
+    @Override
+    public Set<String> doGetExpired(Set<String> candidates) {
+        long start = instrumented ? System.nanoTime() : 0;
+        Set<String> expired = getExpiredSessions(candidates);
+        if (instrumented) {
+            listener.onGetExpired(candidates != null ? candidates.size() : 0, expired.size(), System.nanoTime() - start);
+        }
+        return expired;
+    }
+
+    /**
+     * Search expired sessions in candidates and sweep expired sessions which are not known by any node
+     * @param candidates {@link Set<String>} ids of sessions which can be expired
+     * @return {@link Set<String>} ids of expired sessions
+     */
+    private Set<String> getExpiredSessions(Set<String> candidates) {
+        long now = System.currentTimeMillis();
+        if (nearCacheEnabled && nearCache != null && !nearCache.isSubscribed() && shards == null) {
+            // Live query was lost, so try to subscribe again on every scavenge
+            nearCache.subscribe(activePoolFactory::openDatabase);
+        }
+        Set<String> expired = candidates == null || candidates.isEmpty() ? new HashSet<>()
+                : fanOut(groupByShard(candidates).entrySet(), group -> sudoGet(group.getKey(),
+                        db -> DbUtils.getExpiredSessions(db, getContextPath(), getVhost(), group.getValue(), expiryCheckBatchSize))
+                        .orElse(Collections.emptySet()));
+        if (sweeper != null && sweeper.isDue(now)) {
+            // Lease and bulk delete of sweep are single statements, so they don't need transaction
+            expired.addAll(fanOut(getConnectionManagers(), manager -> sudoGet(manager, db -> sweeper.sweep(db, now))
+                    .orElse(Collections.emptySet())));
+        }
+        if (shardMigrator != null) {
+            shardMigrator.maintain(now);
+        }
+        if (bucketMaintainer != null && bucketMaintainer.isDue(now)) {
+            // Changes of clusters can't be executed in transaction
+            for (OrientDbConnectionManager manager : getConnectionManagers()) {
+                sudoGet(manager, db -> bucketMaintainer.maintain(db, now));
+            }
+        }
+        if ((writeBehindBuffer == null && asyncWriter == null) || expired.isEmpty()) {
+            return expired;
+        }
+        // Pending writes can prolong sessions which are expired in database
+        return expired.stream()
+                .filter(id -> {
+                    PendingSessionWrite write = getPendingWrite(id);
+                    return write == null || write.isExpiredAt(now);
+                })
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Store isn't passivating if attributes are deserialized lazily,
+     * otherwise Jetty accesses all attributes for notify {@link javax.servlet.http.HttpSessionActivationListener}
+     * on every load and store of session
+     * @return true if store is passivating
+     */
+    @Override
+    public boolean isPassivating() {
+        return !lazyAttributesEnabled && !deltaWritesEnabled;
+    }
+
+    @Override
+    public boolean exists(String id) throws Exception {
+        long start = instrumented ? System.nanoTime() : 0;
+        boolean exists = loadCoalescingEnabled
+                ? existenceChecks.execute(id, () -> isSessionExists(id), UnaryOperator.identity())
+                : isSessionExists(id);
+        if (instrumented) {
+            listener.onExists(id, System.nanoTime() - start);
+        }
+        return exists;
+    }
+
+    private boolean isSessionExists(String id) {
+        long now = System.currentTimeMillis();
+        PendingSessionWrite write = getPendingWrite(id);
+        if (write != null) {
+            return !write.isExpiredAt(now);
+        }
+        // Entry can be prolonged by another node if it isn't invalidated by live query
+        SessionNearCache.Entry entry = nearCache != null && nearCache.isSubscribed() ? nearCache.get(id) : null;
+        if (entry != null) {
+            long expiry = entry.getMetadata().getExpiry();
+            return expiry <= 0 || expiry > now;
+        }
+        Optional<Long> expiryTime = sudoGet(id, db -> DbUtils.getSessionExpiryTimeById(db, getContextPath(), getVhost(), id))
+                .orElse(empty());
+        if (!expiryTime.isPresent() && shards != null) {
+            // Session wasn't moved yet to shard which was added
+            for (OrientDbConnectionManager previous : shards.getPrevious(id)) {
+                expiryTime = sudoGet(previous, db -> DbUtils.getSessionExpiryTimeById(db, getContextPath(), getVhost(), id))
+                        .orElse(empty());
+                if (expiryTime.isPresent()) {
+                    break;
+                }
+            }
+        }
+        return expiryTime
+                .map(expiry -> expiry <= 0 || expiry > now)
+                .orElse(false);
+    }
+
+    @Override
+    public SessionData load(String id) throws Exception {
+        long start = instrumented ? System.nanoTime() : 0;
+        SessionData data = loadCoalescingEnabled
+                ? loads.execute(id, () -> loadSession(id), OrientDbSessionDataStore::copySessionData)
+                : loadSession(id);
+        if (instrumented) {
+            listener.onLoad(id, System.nanoTime() - start, data != null);
+        }
+        return data;
+    }
+
+    /**
+     * Copy session data for concurrent load of the same session, so every load gets own session data.
+     * Values of attributes are shared between copies
+     * @param data {@link SessionData} loaded session data
+     * @return {@link SessionData} copy of session data
+     */
+    private static SessionData copySessionData(SessionData data) {
+        if (data instanceof LazySessionData) {
+            return ((LazySessionData) data).copyLazy();
+        }
+        SessionData copy = PendingSessionWrite.copyMetadata(data);
+        copy.putAllAttributes(data.getAllAttributes());
+        return copy;
+    }
+
+    private SessionData loadSession(String id) {
+        PendingSessionWrite write = getPendingWrite(id);
+        if (write != null && write.getType() != PendingSessionWrite.Type.TOUCH) {
+            return write.getType() == PendingSessionWrite.Type.FULL ? toSessionData(id, write.getMetadata(), write.getData()) : null;
+        }
+        SessionNearCache.Entry entry = nearCache != null ? nearCache.get(id) : null;
+        if (entry != null && !nearCache.isSubscribed() && !isNotModified(id, entry)) {
+            nearCache.remove(id);
+            entry = null;
+        }
+        SessionData data;
+        if (entry != null) {
+            data = toSessionData(id, entry.getMetadata(), entry.getBytes());
+            if (versions != null) {
+                versions.put(id, entry.getVersion());
+            }
+        } else {
+            long epoch = nearCache != null ? nearCache.getEpoch() : 0;
+            data = sudoGet(id, db ->
+                    DbUtils.getSessionDocumentById(db, getContextPath(), getVhost(), id)
+                            .map(doc -> {
+                                SessionData loaded = toSessionData(id, doc);
+                                // Separately stored attributes aren't cached, because near cache keeps one blob
+                                if (loaded != null && nearCache != null && doc.field(OrientDbJettyModule.PROP_ATTRIBUTES) == null) {
+                                    nearCache.putLoaded(id, DbUtils.getSessionVersion(doc), loaded, doc.field(OrientDbJettyModule.PROP_DATA), epoch);
+                                }
+                                if (loaded != null && versions != null) {
+                                    versions.put(id, DbUtils.getSessionVersion(doc));
+                                }
+                                return loaded;
+                            })
+                            .orElse(null)
+            ).orElse(null);
+            if (data == null && shardMigrator != null) {
+                data = shardMigrator.loadMoved(id);
+            }
+        }
+        if (data != null && write != null) {
+            write.applyTouchTo(data);
+        }
+        return data;
+    }
+
+    /**
+     * Delete copies of session data from previous shards of session while shards are migrating,
+     * otherwise sweep of previous shard can expire session which is alive in current shard
+     * @param id {@link String} session id
+     */
+    private void deleteFromPreviousShard(String id) {
+        SessionShardMigrator migrator = shardMigrator;
+        if (migrator != null) {
+            migrator.deleteFromPrevious(id);
+        }
+    }
+
+    /**
+     * Check that session data document wasn't changed since near cache entry was loaded or stored.
+     * Loads only record version of document without session data attributes.
+     * @param id {@link String} session id
+     * @param entry {@link SessionNearCache.Entry} near cache entry
+     * @return true if near cache entry has actual version of session data
+     */
+    private boolean isNotModified(String id, SessionNearCache.Entry entry) {
+        if (entry.getVersion() == DbUtils.UNKNOWN_VERSION) {
+            return false;
+        }
+        boolean notModified = sudoGet(id, db -> DbUtils.getSessionVersionById(db, getContextPath(), getVhost(), id)
+                .map(version -> version == entry.getVersion())
+                .orElse(false)
+        ).orElse(false);
+        if (notModified) {
+            notModifiedLoads.increment();
+        }
+        return notModified;
+    }
+
+    @Override
+    public boolean delete(String id) throws Exception {
+        long start = instrumented ? System.nanoTime() : 0;
+        if (writeBehindBuffer != null || asyncWriter != null) {
+            addPendingWrite(PendingSessionWrite.delete(id, getContextPath(), getVhost()));
+        } else {
+            requireWrite(id, db -> {
+                DbUtils.deleteSessionById(db, getContextPath(), getVhost(), id);
+                return null;
+            });
+        }
+        deleteFromPreviousShard(id);
+        if (nearCache != null) {
+            nearCache.remove(id);
+        }
+        if (versions != null) {
+            versions.remove(id);
+        }
+        if (instrumented) {
+            listener.onDelete(id, System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    @ManagedAttribute(value = "cache session data on this node and invalidate it by live query", readonly = true)
+    public boolean isNearCacheEnabled() {
+        return nearCacheEnabled;
+    }
+
+    /**
+     * Enable or disable near cache of session data. Must be set before store was started.
+     * Near cache requires support of live queries by database.
+     * @param nearCacheEnabled true for cache session data on this node
+     */
+    public void setNearCacheEnabled(boolean nearCacheEnabled) {
+        checkStarted();
+        this.nearCacheEnabled = nearCacheEnabled;
+    }
+
+    @ManagedAttribute(value = "max count of sessions in near cache", readonly = true)
+    public int getNearCacheMaxSize() {
+        return nearCacheMaxSize;
+    }
+
+    /**
+     * Set max count of sessions in near cache. Least recently used sessions are evicted.
+     * Must be set before store was started.
+     * @param nearCacheMaxSize max count of sessions
+     */
+    public void setNearCacheMaxSize(int nearCacheMaxSize) {
+        checkStarted();
+        this.nearCacheMaxSize = nearCacheMaxSize;
+    }
+
+    @ManagedAttribute(value = "count of loads which were served by near cache", readonly = true)
+    public long getNearCacheHits() {
+        SessionNearCache cache = nearCache;
+        return cache != null ? cache.getHits() : 0;
+    }
+
+    @ManagedAttribute(value = "count of loads which weren't served by near cache", readonly = true)
+    public long getNearCacheMisses() {
+        SessionNearCache cache = nearCache;
+        return cache != null ? cache.getMisses() : 0;
+    }
+
+    @ManagedAttribute(value = "count of near cache entries invalidated by changes of another node", readonly = true)
+    public long getNearCacheInvalidations() {
+        SessionNearCache cache = nearCache;
+        return cache != null ? cache.getInvalidations() : 0;
+    }
+
+    @ManagedAttribute(value = "warm up near cache by recently active sessions on start", readonly = true)
+    public boolean isWarmUpEnabled() {
+        return warmUpEnabled;
+    }
+
+    /**
+     * Enable or disable warm-up of near cache on start. Must be set before store was started.
+     * Not expired sessions of context are loaded by pages from the most recently accessed ones,
+     * so first requests after restart don't load sessions one by one. Requires near cache or conditional loads.
+     * @param warmUpEnabled true for warm up near cache on start
+     */
+    public void setWarmUpEnabled(boolean warmUpEnabled) {
+        checkStarted();
+        this.warmUpEnabled = warmUpEnabled;
+    }
+
+    @ManagedAttribute(value = "max count of sessions which are cached by warm-up", readonly = true)
+    public int getWarmUpMaxSessions() {
+        return warmUpMaxSessions;
+    }
+
+    /**
+     * Set max count of sessions which are cached by warm-up. Never exceeds max size of near cache.
+     * Must be set before store was started.
+     * @param warmUpMaxSessions max count of sessions
+     */
+    public void setWarmUpMaxSessions(int warmUpMaxSessions) {
+        checkStarted();
+        this.warmUpMaxSessions = warmUpMaxSessions;
+    }
+
+    @ManagedAttribute(value = "count of sessions in one page of warm-up", readonly = true)
+    public int getWarmUpPageSize() {
+        return warmUpPageSize;
+    }
+
+    /**
+     * Set count of sessions which are read from database by one query of warm-up. Must be set before store was started.
+     * @param warmUpPageSize count of sessions in one page
+     */
+    public void setWarmUpPageSize(int warmUpPageSize) {
+        checkStarted();
+        this.warmUpPageSize = warmUpPageSize;
+    }
+
+    @ManagedAttribute(value = "count of threads which deserialize session data during warm-up", readonly = true)
+    public int getWarmUpThreads() {
+        return warmUpThreads;
+    }
+
+    /**
+     * Set count of threads which deserialize session data during warm-up. Must be set before store was started.
+     * @param warmUpThreads count of threads
+     */
+    public void setWarmUpThreads(int warmUpThreads) {
+        checkStarted();
+        this.warmUpThreads = warmUpThreads;
+    }
+
+    @ManagedAttribute(value = "max time in ms which start of store waits for warm-up", readonly = true)
+    public long getWarmUpTimeBudgetMs() {
+        return warmUpTimeBudgetMs;
+    }
+
+    /**
+     * Set max time in milliseconds of warm-up. Warm-up stops when time budget is elapsed, so start of store isn't blocked for long.
+     * Must be set before store was started.
+     * @param warmUpTimeBudgetMs time budget in milliseconds
+     */
+    public void setWarmUpTimeBudgetMs(long warmUpTimeBudgetMs) {
+        checkStarted();
+        this.warmUpTimeBudgetMs = warmUpTimeBudgetMs;
+    }
+
+    @ManagedAttribute(value = "warm up only sessions which were last handled by this node", readonly = true)
+    public boolean isWarmUpOwnSessionsOnly() {
+        return warmUpOwnSessionsOnly;
+    }
+
+    /**
+     * Warm up only sessions which were last handled by this node, for example if sessions are sticky
+     * and node keeps its worker name after restart. Must be set before store was started.
+     * @param warmUpOwnSessionsOnly true for warm up only own sessions
+     */
+    public void setWarmUpOwnSessionsOnly(boolean warmUpOwnSessionsOnly) {
+        checkStarted();
+        this.warmUpOwnSessionsOnly = warmUpOwnSessionsOnly;
+    }
+
+    @ManagedAttribute(value = "count of sessions which were cached by warm-up", readonly = true)
+    public long getWarmedUpSessions() {
+        SessionWarmUp current = warmUp;
+        return current != null ? current.getWarmedSessions() : 0;
+    }
+
+    @ManagedAttribute(value = "duration in ms of warm-up", readonly = true)
+    public long getWarmUpDurationMs() {
+        SessionWarmUp current = warmUp;
+        return current != null ? current.getDurationMs() : 0;
+    }
+
+    @ManagedAttribute(value = "validate near cache entries by record version of session data", readonly = true)
+    public boolean isConditionalLoadEnabled() {
+        return conditionalLoadEnabled;
+    }
+
+    /**
+     * Enable or disable conditional load of session data. Must be set before store was started.
+     * Near cache entries are used if record version of session data document wasn't changed,
+     * so session data attributes aren't transferred and deserialized. Doesn't require support of live queries.
+     * @param conditionalLoadEnabled true for validate near cache entries by record version
+     */
+    public void setConditionalLoadEnabled(boolean conditionalLoadEnabled) {
+        checkStarted();
+        this.conditionalLoadEnabled = conditionalLoadEnabled;
+    }
+
+    @ManagedAttribute(value = "don't store session data which was changed by another node", readonly = true)
+    public boolean isOptimisticLockingEnabled() {
+        return optimisticLockingEnabled;
+    }
+
+    /**
+     * Enable or disable optimistic locking of session data. Must be set before store was started.
+     * If session data document was changed by another node since it was loaded or stored by this node,
+     * store fails with {@link ConcurrentModificationException}. Writes of write-behind mode aren't checked.
+     * @param optimisticLockingEnabled true for check record version of session data document on store
+     */
+    public void setOptimisticLockingEnabled(boolean optimisticLockingEnabled) {
+        checkStarted();
+        this.optimisticLockingEnabled = optimisticLockingEnabled;
+    }
+
+    @ManagedAttribute(value = "max count of remembered record versions of session data", readonly = true)
+    public int getMaxKnownVersions() {
+        return maxKnownVersions;
+    }
+
+    /**
+     * Set max count of remembered record versions of session data documents. Must be set before store was started.
+     * @param maxKnownVersions max count of versions
+     */
+    public void setMaxKnownVersions(int maxKnownVersions) {
+        checkStarted();
+        this.maxKnownVersions = maxKnownVersions;
+    }
+
+    @ManagedAttribute(value = "count of loads which didn't transfer session data because version wasn't changed", readonly = true)
+    public long getNotModifiedLoads() {
+        return notModifiedLoads.sum();
+    }
+
+    @ManagedAttribute(value = "count of stores which failed because session data was changed by another node", readonly = true)
+    public long getVersionConflicts() {
+        return versionConflicts.sum();
+    }
+
+    @ManagedAttribute(value = "coalesce concurrent loads of the same session", readonly = true)
+    public boolean isLoadCoalescingEnabled() {
+        return loadCoalescingEnabled;
+    }
+
+    /**
+     * Enable or disable coalescing of concurrent loads and existence checks of the same session.
+     * Must be set before store was started.
+     * @param loadCoalescingEnabled true for share one database fetch between concurrent loads of the same session
+     */
+    public void setLoadCoalescingEnabled(boolean loadCoalescingEnabled) {
+        checkStarted();
+        this.loadCoalescingEnabled = loadCoalescingEnabled;
+    }
+
+    @ManagedAttribute(value = "count of loads and existence checks which waited for concurrent load of the same session", readonly = true)
+    public long getCoalescedLoads() {
+        return loads.getCoalesced() + existenceChecks.getCoalesced();
+    }
+
+    @ManagedAttribute(value = "collect metrics of store operations", readonly = true)
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Enable or disable metrics of store operations. Must be set before store was started.
+     * Operations aren't timed if metrics are disabled and there are no listeners.
+     * @param metricsEnabled true for collect metrics
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        checkStarted();
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /**
+     * @return {@link SessionStoreMetrics} metrics of started store or null if metrics are disabled
+     */
+    public SessionStoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Add listener of store operations. Must be added before store was started.
+     * @param listener {@link ISessionStoreListener} listener
+     */
+    public void addListener(ISessionStoreListener listener) {
+        checkStarted();
+        listeners.add(listener);
+    }
+
+    public ISessionDataSerializer getSerializer() {
+        return serializer;
+    }
+
+    /**
+     * Set serializer of session data. Must be set before store was started.
+     * @param serializer {@link ISessionDataSerializer} serializer
+     */
+    public void setSerializer(ISessionDataSerializer serializer) {
+        checkStarted();
+        this.serializer = serializer;
+    }
+
+    @ManagedAttribute(value = "deserialize session attribute only when it is accessed", readonly = true)
+    public boolean isLazyAttributesEnabled() {
+        return lazyAttributesEnabled;
+    }
+
+    /**
+     * Enable or disable lazy deserialization of session attributes. Attributes are stored separately by
+     * {@link CompactSessionDataSerializer} and attributes which weren't accessed are stored again without deserialization.
+     * Store isn't passivating in this mode, so {@link javax.servlet.http.HttpSessionActivationListener} aren't notified.
+     * Works only with {@link CompactSessionDataSerializer}. Must be set before store was started.
+     * @param lazyAttributesEnabled true for enable lazy deserialization
+     */
+    public void setLazyAttributesEnabled(boolean lazyAttributesEnabled) {
+        checkStarted();
+        this.lazyAttributesEnabled = lazyAttributesEnabled;
+    }
+
+    @ManagedAttribute(value = "store only changed session attributes", readonly = true)
+    public boolean isDeltaWritesEnabled() {
+        return deltaWritesEnabled;
+    }
+
+    /**
+     * Enable or disable delta writes of session attributes. Attributes are stored separately in embedded map
+     * {@link OrientDbJettyModule#PROP_ATTRIBUTES} and only attributes which were set or removed are written.
+     * Works only with {@link CompactSessionDataSerializer} and isn't supported with write-behind mode or expiry buckets.
+     * Store isn't passivating in this mode. Must be set before store was started.
+     * @param deltaWritesEnabled true for enable delta writes
+     */
+    public void setDeltaWritesEnabled(boolean deltaWritesEnabled) {
+        checkStarted();
+        this.deltaWritesEnabled = deltaWritesEnabled;
+    }
+
+    public IDatabasePoolFactory getDatabasePoolFactory() {
+        return databasePoolFactory;
+    }
+
+    /**
+     * Set factory of database pool. For example {@link org.orienteer.jetty.pool.EmbeddedDatabasePoolFactory} for database which is embedded
+     * in the same JVM, so session data doesn't go through remote binary protocol.
+     * If it isn't set, pool is opened by url from "remote.url" system property. Must be set before store was started.
+     * @param databasePoolFactory {@link IDatabasePoolFactory} factory of database pool
+     */
+    public void setDatabasePoolFactory(IDatabasePoolFactory databasePoolFactory) {
+        checkStarted();
+        this.databasePoolFactory = databasePoolFactory;
+    }
+
+    public Function<String, IDatabasePoolFactory> getShardPoolFactories() {
+        return shardPoolFactories;
+    }
+
+    /**
+     * Set factories of database pools of shards, for example shared pools of {@link JettyOrientDbSessionDataStoreFactory},
+     * so stores of all contexts share pool and permits of every shard. Must be set before store was started.
+     * @param shardPoolFactories {@link Function} which returns factory of database pool by url of shard
+     * or null for open pool of every shard by store
+     */
+    public void setShardPoolFactories(Function<String, IDatabasePoolFactory> shardPoolFactories) {
+        checkStarted();
+        this.shardPoolFactories = shardPoolFactories;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Set username of databases of shards and of default database pool. Must be set before store was started.
+     * @param user {@link String} username or null for "admin.username" system property
+     */
+    public void setUser(String user) {
+        checkStarted();
+        this.user = user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Set password of databases of shards and of default database pool. Must be set before store was started.
+     * @param password {@link String} password or null for "admin.password" system property
+     */
+    public void setPassword(String password) {
+        checkStarted();
+        this.password = password;
+    }
+
+    private String getActiveUser() {
+        return user != null ? user : OrientDbJettyModule.getUser();
+    }
+
+    private String getActivePassword() {
+        return password != null ? password : OrientDbJettyModule.getPassword();
+    }
+
+    /**
+     * @return {@link String} name of database of sessions or comma separated urls of shards
+     */
+    @ManagedAttribute(value = "name of database of sessions", readonly = true)
+    public String getDatabaseName() {
+        if (!shardUrls.isEmpty()) {
+            return String.join(",", shardUrls);
+        }
+        IDatabasePoolFactory factory = activePoolFactory != null ? activePoolFactory : databasePoolFactory;
+        return factory != null ? factory.getName() : OrientDbJettyModule.getDatabaseUrl();
+    }
+
+    @ManagedAttribute(value = "urls of databases which session data is sharded across", readonly = true)
+    public List<String> getShardUrls() {
+        return new ArrayList<>(shardUrls);
+    }
+
+    /**
+     * Set urls of databases which session data is sharded across, for example in Jetty XML.
+     * Every session id is stored in one database which is chosen by consistent hashing.
+     * Databases are opened with username and password of store, which are "admin.username" and "admin.password"
+     * system properties by default, and schema of session data is created in them by store. Must be set before store was started.
+     * @param shardUrls {@link String} comma separated urls of databases or empty string for single database
+     */
+    public void setShardUrls(String shardUrls) {
+        checkStarted();
+        this.shardUrls.clear();
+        for (String url : shardUrls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                this.shardUrls.add(url.trim());
+            }
+        }
+    }
+
+    @ManagedAttribute(value = "count of virtual nodes of every shard on ring of consistent hashing", readonly = true)
+    public int getShardVirtualNodes() {
+        return shardVirtualNodes;
+    }
+
+    /**
+     * Set count of virtual nodes of every shard on ring of consistent hashing. More virtual nodes spread sessions
+     * between shards more evenly. Must be set before store was started.
+     * @param shardVirtualNodes count of virtual nodes
+     */
+    public void setShardVirtualNodes(int shardVirtualNodes) {
+        checkStarted();
+        this.shardVirtualNodes = shardVirtualNodes;
+    }
+
+    @ManagedAttribute(value = "count of sessions which were moved to added shard", readonly = true)
+    public long getMovedSessions() {
+        SessionShardMigrator migrator = shardMigrator;
+        return migrator != null ? migrator.getMovedSessions() : 0;
+    }
+
+    /**
+     * @return true if sessions can be stored in previous shards of their ids, so they are searched and deleted there too
+     */
+    @ManagedAttribute(value = "true if sessions which were remapped to added shards aren't moved yet", readonly = true)
+    public boolean isShardsMigrating() {
+        SessionShards current = shards;
+        return current != null && current.isMigrating();
+    }
+
+    @ManagedAttribute(value = "interval in seconds between reads of list of shards", readonly = true)
+    public int getShardRefreshIntervalSec() {
+        return shardRefreshIntervalSec;
+    }
+
+    /**
+     * Set interval in seconds between reads of list of shards, so shards which were added by other nodes are added by store too.
+     * List is read on scavenge of Jetty, so interval isn't shorter than scavenge interval. Must be set before store was started.
+     * @param shardRefreshIntervalSec interval in seconds
+     */
+    public void setShardRefreshIntervalSec(int shardRefreshIntervalSec) {
+        checkStarted();
+        this.shardRefreshIntervalSec = shardRefreshIntervalSec;
+    }
+
+    @ManagedAttribute(value = "delay in seconds after shard was added before remapped sessions are moved in background", readonly = true)
+    public int getShardMigrationDelaySec() {
+        return shardMigrationDelaySec;
+    }
+
+    /**
+     * Set delay in seconds after shard was added before sessions which are remapped to it are moved in background.
+     * Every node must add shard before migration, so delay must be longer than refresh interval of list of shards
+     * and scavenge interval of Jetty. Must be set before store was started.
+     * @param shardMigrationDelaySec delay in seconds
+     */
+    public void setShardMigrationDelaySec(int shardMigrationDelaySec) {
+        checkStarted();
+        this.shardMigrationDelaySec = shardMigrationDelaySec;
+    }
+
+    @ManagedAttribute(value = "max count of databases which are acquired from pool", readonly = true)
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    /**
+     * Set max count of databases which are acquired from pool. It is ignored if pool is shared between stores by
+     * {@link org.orienteer.jetty.pool.SharedDatabasePoolFactory}, because count of databases is limited by shared pool.
+     * Must be set before store was started.
+     * @param poolMaxSize max count of databases
+     */
+    public void setPoolMaxSize(int poolMaxSize) {
+        checkStarted();
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    @ManagedAttribute(value = "max time in milliseconds of waiting free database from pool", readonly = true)
+    public long getPoolAcquireTimeoutMs() {
+        return poolAcquireTimeoutMs;
+    }
+
+    /**
+     * Set max time in milliseconds of waiting free database from pool. Must be set before store was started.
+     * @param poolAcquireTimeoutMs time in milliseconds
+     */
+    public void setPoolAcquireTimeoutMs(long poolAcquireTimeoutMs) {
+        checkStarted();
+        this.poolAcquireTimeoutMs = poolAcquireTimeoutMs;
+    }
+
+    @ManagedAttribute(value = "delay in milliseconds before first attempt of reconnect to database", readonly = true)
+    public long getReconnectInitialBackoffMs() {
+        return reconnectInitialBackoffMs;
+    }
+
+    /**
+     * Set delay in milliseconds before first attempt of reconnect to database. Delay is doubled after every failed attempt.
+     * Must be set before store was started.
+     * @param reconnectInitialBackoffMs delay in milliseconds
+     */
+    public void setReconnectInitialBackoffMs(long reconnectInitialBackoffMs) {
+        checkStarted();
+        this.reconnectInitialBackoffMs = reconnectInitialBackoffMs;
+    }
+
+    @ManagedAttribute(value = "max delay in milliseconds between attempts of reconnect to database", readonly = true)
+    public long getReconnectMaxBackoffMs() {
+        return reconnectMaxBackoffMs;
+    }
+
+    /**
+     * Set max delay in milliseconds between attempts of reconnect to database. Must be set before store was started.
+     * @param reconnectMaxBackoffMs delay in milliseconds
+     */
+    public void setReconnectMaxBackoffMs(long reconnectMaxBackoffMs) {
+        checkStarted();
+        this.reconnectMaxBackoffMs = reconnectMaxBackoffMs;
+    }
+
+    @ManagedAttribute(value = "interval in milliseconds between health checks of database", readonly = true)
+    public long getHealthCheckIntervalMs() {
+        return healthCheckIntervalMs;
+    }
+
+    /**
+     * Set interval in milliseconds between health checks of database. Must be set before store was started.
+     * @param healthCheckIntervalMs interval in milliseconds
+     */
+    public void setHealthCheckIntervalMs(long healthCheckIntervalMs) {
+        checkStarted();
+        this.healthCheckIntervalMs = healthCheckIntervalMs;
+    }
+
+    @ManagedAttribute(value = "true if requests fail fast because database or any shard is unavailable", readonly = true)
+    public boolean isDatabaseUnavailable() {
+        List<OrientDbConnectionManager> managers = getConnectionManagers();
+        return managers.isEmpty() || managers.stream().anyMatch(OrientDbConnectionManager::isCircuitOpen);
+    }
+
+    /**
+     * @return count of failed attempts of acquire or reconnect database of all shards
+     */
+    @ManagedAttribute(value = "count of failed attempts of acquire or reconnect database", readonly = true)
+    public long getDatabaseFailures() {
+        return getConnectionManagers().stream()
+                .mapToLong(OrientDbConnectionManager::getFailures)
+                .sum();
+    }
+
+    @ManagedAttribute(value = "min size in bytes of serialized session data which is compressed", readonly = true)
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Set min size in bytes of serialized session data which is compressed. Must be set before store was started.
+     * Compressed session data is always loaded, even if compression is disabled.
+     * @param compressionThreshold min size in bytes or negative value for disable compression
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        checkStarted();
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @ManagedAttribute(value = "compression level of session data", readonly = true)
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Set compression level of session data. Must be set before store was started.
+     * @param compressionLevel compression level of {@link Deflater} from 0 to 9
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        checkStarted();
+        this.compressionLevel = compressionLevel;
+    }
+
+    @ManagedAttribute(value = "count of compressed writes of session data", readonly = true)
+    public long getCompressedWrites() {
+        return activeSerializer.getCompressedWrites();
+    }
+
+    @ManagedAttribute(value = "ratio of compressed size to uncompressed size of session data", readonly = true)
+    public double getCompressionRatio() {
+        return activeSerializer.getCompressionRatio();
+    }
+
+    @ManagedAttribute(value = "time in milliseconds spent in compression of session data", readonly = true)
+    public long getCompressionTimeMs() {
+        return activeSerializer.getCompressionTimeMs();
+    }
+
+    @ManagedAttribute(value = "time in milliseconds spent in decompression of session data", readonly = true)
+    public long getDecompressionTimeMs() {
+        return activeSerializer.getDecompressionTimeMs();
+    }
+
+    @ManagedAttribute(value = "store only access and expiry time if session attributes weren't changed", readonly = true)
+    public boolean isTouchWritesEnabled() {
+        return touchWritesEnabled;
+    }
+
+    /**
+     * Enable or disable metadata-only writes of session data which attributes weren't changed.
+     * Should be disabled if application changes state of session attributes without {@link SessionData#setAttribute(String, Object)}.
+     * Must be set before store was started.
+     * @param touchWritesEnabled true for enable touch writes
+     */
+    public void setTouchWritesEnabled(boolean touchWritesEnabled) {
+        checkStarted();
+        this.touchWritesEnabled = touchWritesEnabled;
+    }
+
+    @ManagedAttribute(value = "count of writes of only access and expiry time", readonly = true)
+    public long getTouchWrites() {
+        return touchWrites.sum();
+    }
+
+    @ManagedAttribute(value = "count of writes of whole session data", readonly = true)
+    public long getFullWrites() {
+        return fullWrites.sum();
+    }
+
+    @ManagedAttribute(value = "buffer session writes and store them by batches in background", readonly = true)
+    public boolean isWriteBehindEnabled() {
+        return writeBehindEnabled;
+    }
+
+    /**
+     * Enable or disable write-behind mode. Must be set before store was started.
+     * @param writeBehindEnabled true for store session writes by batches in background
+     */
+    public void setWriteBehindEnabled(boolean writeBehindEnabled) {
+        checkStarted();
+        this.writeBehindEnabled = writeBehindEnabled;
+    }
+
+    @ManagedAttribute(value = "max time in milliseconds which session write can be pending", readonly = true)
+    public long getWriteBehindFlushIntervalMs() {
+        return writeBehindFlushIntervalMs;
+    }
+
+    /**
+     * Set max time which session write can stay in write-behind buffer. Must be set before store was started.
+     * @param writeBehindFlushIntervalMs time in milliseconds
+     */
+    public void setWriteBehindFlushIntervalMs(long writeBehindFlushIntervalMs) {
+        checkStarted();
+        this.writeBehindFlushIntervalMs = writeBehindFlushIntervalMs;
+    }
+
+    @ManagedAttribute(value = "max count of session writes which are stored in one transaction", readonly = true)
+    public int getWriteBehindMaxBatchSize() {
+        return writeBehindMaxBatchSize;
+    }
+
+    /**
+     * Set max count of session writes which are stored in one transaction. Must be set before store was started.
+     * @param writeBehindMaxBatchSize max batch size
+     */
+    public void setWriteBehindMaxBatchSize(int writeBehindMaxBatchSize) {
+        checkStarted();
+        this.writeBehindMaxBatchSize = writeBehindMaxBatchSize;
+    }
+
+    @ManagedAttribute(value = "max count of pending session writes", readonly = true)
+    public int getWriteBehindMaxPending() {
+        return writeBehindMaxPending;
+    }
+
+    /**
+     * Set max count of pending session writes. Writing threads flush buffer synchronously if it is reached.
+     * Must be set before store was started.
+     * @param writeBehindMaxPending max count of pending writes
+     */
+    public void setWriteBehindMaxPending(int writeBehindMaxPending) {
+        checkStarted();
+        this.writeBehindMaxPending = writeBehindMaxPending;
+    }
+
+    @ManagedAttribute(value = "store and delete session data by background threads instead of request thread", readonly = true)
+    public boolean isAsyncWritesEnabled() {
+        return asyncWritesEnabled;
     }
 
-    @Override
-    public void doStore(String id, SessionData data, long lastSaveTime) throws Exception {
-        sudoExecute(db -> DbUtils.storeSession(db, id, data));
+    /**
+     * Enable or disable async writes. Disabled async writes store session data synchronously by request thread,
+     * so store completes only after session data was committed. Must be set before store was started.
+     * Ignored if write-behind mode is enabled.
+     * @param asyncWritesEnabled true for store and delete session data by background threads
+     */
+    public void setAsyncWritesEnabled(boolean asyncWritesEnabled) {
+        checkStarted();
+        this.asyncWritesEnabled = asyncWritesEnabled;
     }
 
-    @Override
-    public Set<String> doGetExpired(Set<String> candidates) {
-        return sudoGet(db -> DbUtils.getExpiredSessions(db, candidates))
-                .orElse(Collections.emptySet());
+    @ManagedAttribute(value = "count of threads which store session data if virtual threads aren't used", readonly = true)
+    public int getAsyncWriteThreads() {
+        return asyncWriteThreads;
     }
 
-    @Override
-    public boolean isPassivating() {
-        return true;
+    /**
+     * Set count of threads which store session data in async mode if virtual threads aren't used.
+     * Must be set before store was started.
+     * @param asyncWriteThreads count of threads
+     */
+    public void setAsyncWriteThreads(int asyncWriteThreads) {
+        checkStarted();
+        this.asyncWriteThreads = asyncWriteThreads;
     }
 
-    @Override
-    public boolean exists(String id) throws Exception {
-        return sudoGet(db -> DbUtils.isSessionExistsById(db, id))
-                .orElse(false);
+    @ManagedAttribute(value = "store session data by virtual threads if JVM supports them", readonly = true)
+    public boolean isAsyncVirtualThreadsEnabled() {
+        return asyncVirtualThreadsEnabled;
     }
 
-    @Override
-    public SessionData load(String id) throws Exception {
-        return sudoGet(db ->
-                DbUtils.getSessionById(db, id).orElse(null)
-        ).orElse(null);
+    /**
+     * Enable or disable virtual threads of async writes. Must be set before store was started.
+     * @param asyncVirtualThreadsEnabled true for store session data by virtual threads if JVM supports them
+     */
+    public void setAsyncVirtualThreadsEnabled(boolean asyncVirtualThreadsEnabled) {
+        checkStarted();
+        this.asyncVirtualThreadsEnabled = asyncVirtualThreadsEnabled;
     }
 
-    @Override
-    public boolean delete(String id) throws Exception {
-        sudoExecute(db -> DbUtils.deleteSessionById(db, id));
-        return true;
+    @ManagedAttribute(value = "max count of sessions with pending async writes", readonly = true)
+    public int getAsyncWriteMaxPending() {
+        return asyncWriteMaxPending;
+    }
+
+    /**
+     * Set max count of sessions with pending async writes. Request threads wait for free space if it is reached.
+     * Must be set before store was started.
+     * @param asyncWriteMaxPending max count of sessions with pending writes
+     */
+    public void setAsyncWriteMaxPending(int asyncWriteMaxPending) {
+        checkStarted();
+        this.asyncWriteMaxPending = asyncWriteMaxPending;
+    }
+
+    @ManagedAttribute(value = "max time in milliseconds which request thread waits for free space of async writes", readonly = true)
+    public long getAsyncWriteMaxWaitMs() {
+        return asyncWriteMaxWaitMs;
+    }
+
+    /**
+     * Set max time which request thread waits for free space of async writes. Store fails if time is elapsed.
+     * Must be set before store was started.
+     * @param asyncWriteMaxWaitMs time in milliseconds
+     */
+    public void setAsyncWriteMaxWaitMs(long asyncWriteMaxWaitMs) {
+        checkStarted();
+        this.asyncWriteMaxWaitMs = asyncWriteMaxWaitMs;
+    }
+
+    @ManagedAttribute(value = "max count of retries of async write which can't be stored", readonly = true)
+    public int getAsyncWriteMaxRetries() {
+        return asyncWriteMaxRetries;
+    }
+
+    /**
+     * Set max count of retries of async write which can't be stored, for example while database is unavailable.
+     * Write is dropped after the last retry. Must be set before store was started.
+     * @param asyncWriteMaxRetries max count of retries
+     */
+    public void setAsyncWriteMaxRetries(int asyncWriteMaxRetries) {
+        checkStarted();
+        this.asyncWriteMaxRetries = asyncWriteMaxRetries;
+    }
+
+    @ManagedAttribute(value = "time in milliseconds before the first retry of async write", readonly = true)
+    public long getAsyncWriteRetryBackoffMs() {
+        return asyncWriteRetryBackoffMs;
+    }
+
+    /**
+     * Set time before the first retry of async write which can't be stored. Every next retry waits twice as long.
+     * Must be set before store was started.
+     * @param asyncWriteRetryBackoffMs time in milliseconds
+     */
+    public void setAsyncWriteRetryBackoffMs(long asyncWriteRetryBackoffMs) {
+        checkStarted();
+        this.asyncWriteRetryBackoffMs = asyncWriteRetryBackoffMs;
+    }
+
+    @ManagedAttribute(value = "count of sessions with pending async writes", readonly = true)
+    public int getAsyncPendingWrites() {
+        return asyncWriter != null ? asyncWriter.getPendingCount() : 0;
+    }
+
+    @ManagedAttribute(value = "count of retries of async writes which failed", readonly = true)
+    public long getAsyncRetriedWrites() {
+        return asyncWriter != null ? asyncWriter.getRetriedWrites() : 0;
+    }
+
+    @ManagedAttribute(value = "count of async writes which weren't stored because of errors", readonly = true)
+    public long getAsyncFailedWrites() {
+        return asyncWriter != null ? asyncWriter.getFailedWrites() : 0;
+    }
+
+    @ManagedAttribute(value = "count of async writes which were rejected because of no free space", readonly = true)
+    public long getAsyncRejectedWrites() {
+        return asyncWriter != null ? asyncWriter.getRejectedWrites() : 0;
+    }
+
+    @ManagedAttribute(value = "periodically sweep expired sessions which are not known by any node", readonly = true)
+    public boolean isSweepEnabled() {
+        return sweepEnabled;
+    }
+
+    /**
+     * Enable or disable sweep of expired sessions. Disabled by default. Must be set before store was started.
+     * @param sweepEnabled true for enable sweep
+     */
+    public void setSweepEnabled(boolean sweepEnabled) {
+        checkStarted();
+        this.sweepEnabled = sweepEnabled;
+    }
+
+    @ManagedAttribute(value = "interval in secs between sweeps of expired sessions", readonly = true)
+    public int getSweepIntervalSec() {
+        return sweepIntervalSec;
+    }
+
+    /**
+     * Set interval between sweeps of expired sessions. Only one node sweeps sessions every interval.
+     * Must be set before store was started.
+     * @param sweepIntervalSec interval in seconds
+     */
+    public void setSweepIntervalSec(int sweepIntervalSec) {
+        checkStarted();
+        this.sweepIntervalSec = sweepIntervalSec;
+    }
+
+    @ManagedAttribute(value = "count of expired sessions in one page of sweep", readonly = true)
+    public int getSweepPageSize() {
+        return sweepPageSize;
+    }
+
+    /**
+     * Set count of expired sessions in one page of sweep. Must be set before store was started.
+     * @param sweepPageSize page size
+     */
+    public void setSweepPageSize(int sweepPageSize) {
+        checkStarted();
+        this.sweepPageSize = sweepPageSize;
+    }
+
+    @ManagedAttribute(value = "max count of pages in one sweep", readonly = true)
+    public int getSweepMaxPages() {
+        return sweepMaxPages;
+    }
+
+    /**
+     * Set max count of pages in one sweep. Must be set before store was started.
+     * @param sweepMaxPages max count of pages
+     */
+    public void setSweepMaxPages(int sweepMaxPages) {
+        checkStarted();
+        this.sweepMaxPages = sweepMaxPages;
+    }
+
+    @ManagedAttribute(value = "delete expired sessions in database instead of expire them by Jetty", readonly = true)
+    public boolean isSweepDeleteExpired() {
+        return sweepDeleteExpired;
+    }
+
+    /**
+     * Set mode of sweep. Expired sessions of all contexts are deleted in database by bulk delete if true,
+     * otherwise expired sessions of this context are returned to Jetty from {@link #doGetExpired(Set)},
+     * so session listeners will be notified. Must be set before store was started.
+     * @param sweepDeleteExpired true for delete expired sessions in database
+     */
+    public void setSweepDeleteExpired(boolean sweepDeleteExpired) {
+        checkStarted();
+        this.sweepDeleteExpired = sweepDeleteExpired;
+    }
+
+    @ManagedAttribute(value = "max count of candidates which are checked for expiry by one query", readonly = true)
+    public int getExpiryCheckBatchSize() {
+        return expiryCheckBatchSize;
+    }
+
+    /**
+     * Set max count of candidates which are checked for expiry by one query. Must be set before store was started.
+     * @param expiryCheckBatchSize max count of candidates
+     */
+    public void setExpiryCheckBatchSize(int expiryCheckBatchSize) {
+        checkStarted();
+        this.expiryCheckBatchSize = expiryCheckBatchSize;
+    }
+
+    @ManagedAttribute(value = "count of sessions which were swept by this node", readonly = true)
+    public long getSweptSessions() {
+        return sweeper != null ? sweeper.getSweptSessions() : 0;
+    }
+
+    @ManagedAttribute(value = "count of sessions which were swept by the last sweep of this node", readonly = true)
+    public long getLastSweptSessions() {
+        return sweeper != null ? sweeper.getLastSweptSessions() : 0;
+    }
+
+    @ManagedAttribute(value = "duration in milliseconds of the last sweep of this node", readonly = true)
+    public long getLastSweepDurationMs() {
+        return sweeper != null ? sweeper.getLastSweepDurationMs() : 0;
+    }
+
+    @ManagedAttribute(value = "store session data in clusters of expiry time buckets", readonly = true)
+    public boolean isExpiryBucketsEnabled() {
+        return expiryBucketsEnabled;
+    }
+
+    /**
+     * Enable or disable storage of session data in clusters of expiry time buckets.
+     * Clusters of expired buckets are dropped entirely instead of delete of every expired session.
+     * Clusters are maintained every {@link #getSweepIntervalSec()} by one node. Must be set before store was started.
+     * @param expiryBucketsEnabled true for enable expiry time buckets
+     */
+    public void setExpiryBucketsEnabled(boolean expiryBucketsEnabled) {
+        checkStarted();
+        this.expiryBucketsEnabled = expiryBucketsEnabled;
+    }
+
+    @ManagedAttribute(value = "length in secs of expiry time bucket", readonly = true)
+    public int getExpiryBucketLengthSec() {
+        return expiryBucketLengthSec;
+    }
+
+    /**
+     * Set length of expiry time bucket. Must be set before store was started.
+     * @param expiryBucketLengthSec length in seconds
+     */
+    public void setExpiryBucketLengthSec(int expiryBucketLengthSec) {
+        checkStarted();
+        this.expiryBucketLengthSec = expiryBucketLengthSec;
+    }
+
+    @ManagedAttribute(value = "count of expiry time buckets which are created in advance", readonly = true)
+    public int getExpiryBucketsAhead() {
+        return expiryBucketsAhead;
+    }
+
+    /**
+     * Set count of expiry time buckets which are created in advance.
+     * Session data which expires after the last created bucket is stored in default cluster. Must be set before store was started.
+     * @param expiryBucketsAhead count of buckets
+     */
+    public void setExpiryBucketsAhead(int expiryBucketsAhead) {
+        checkStarted();
+        this.expiryBucketsAhead = expiryBucketsAhead;
+    }
+
+    @ManagedAttribute(value = "count of expiry time buckets which were created by this node", readonly = true)
+    public long getCreatedExpiryBuckets() {
+        return bucketMaintainer != null ? bucketMaintainer.getCreatedBuckets() : 0;
+    }
+
+    @ManagedAttribute(value = "count of expiry time buckets which were dropped by this node", readonly = true)
+    public long getDroppedExpiryBuckets() {
+        return bucketMaintainer != null ? bucketMaintainer.getDroppedBuckets() : 0;
+    }
+
+    @ManagedAttribute(value = "count of sessions which were dropped with expiry time buckets by this node", readonly = true)
+    public long getDroppedExpirySessions() {
+        return bucketMaintainer != null ? bucketMaintainer.getDroppedSessions() : 0;
+    }
+
+    /**
+     * @return {@link SessionWriteBehindBuffer} write-behind buffer or null if write-behind mode disabled or store isn't started
+     */
+    public SessionWriteBehindBuffer getWriteBehindBuffer() {
+        return writeBehindBuffer;
+    }
+
+    /**
+     * @return {@link SessionAsyncWriter} async writer or null if async writes are disabled or store isn't started
+     */
+    public SessionAsyncWriter getAsyncWriter() {
+        return asyncWriter;
+    }
+
+    /**
+     * Add write of session data to write-behind buffer or async writer
+     * @param write {@link PendingSessionWrite} write
+     */
+    private void addPendingWrite(PendingSessionWrite write) {
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.add(write);
+        } else {
+            asyncWriter.add(write);
+        }
+    }
+
+    /**
+     * Get write of session which wasn't stored yet by write-behind buffer or async writer
+     * @param id {@link String} session id
+     * @return {@link PendingSessionWrite} or null if there is no pending write of given session
+     */
+    private PendingSessionWrite getPendingWrite(String id) {
+        if (writeBehindBuffer != null) {
+            return writeBehindBuffer.get(id);
+        }
+        return asyncWriter != null ? asyncWriter.get(id) : null;
+    }
+
+    /**
+     * @return {@link String} canonical context path of sessions of store, it is a part of key of session data document
+     */
+    private String getContextPath() {
+        return _context.getCanonicalContextPath();
+    }
+
+    /**
+     * @return {@link String} virtual host of sessions of store, it is a part of key of session data document
+     */
+    private String getVhost() {
+        return _context.getVhost();
+    }
+
+    /**
+     * Get serializer which is compressed by store
+     * @return {@link ISessionDataSerializer} per-attribute serializer if lazy deserialization or delta writes of attributes are enabled
+     * or {@link OrientDbSessionDataStore#serializer}
+     */
+    private ISessionDataSerializer getBaseSerializer() {
+        if (!lazyAttributesEnabled && !deltaWritesEnabled) {
+            return serializer;
+        }
+        ISessionDataSerializer base = serializer instanceof CompressingSessionDataSerializer
+                ? ((CompressingSessionDataSerializer) serializer).getDelegate() : serializer;
+        if (base instanceof CompactSessionDataSerializer) {
+            return new CompactSessionDataSerializer(true);
+        }
+        LOG.warn("Lazy deserialization and delta writes of session attributes aren't supported by {}", serializer.getClass().getName());
+        return serializer;
+    }
+
+    /**
+     * Restore session data from metadata and serialized attributes of pending full write or near cache
+     * @param id {@link String} session id
+     * @param metadata {@link SessionData} metadata of session data
+     * @param bytes serialized attributes of session data
+     * @return {@link SessionData} session data or null if can't deserialize session data
+     */
+    private SessionData toSessionData(String id, SessionData metadata, byte[] bytes) {
+        SessionData data = PendingSessionWrite.copyMetadata(metadata, activeSerializer.newSessionData(id));
+        try {
+            activeSerializer.deserialize(bytes, data);
+        } catch (Exception e) {
+            LOG.error("Can't read {} from byte array!", SessionData.class.getName(), e);
+            listener.onDeserializationFailure(id, e);
+            return null;
+        }
+        data.setDirty(false);
+        return data;
+    }
+
+    /**
+     * Restore session data from session data document
+     * @param id {@link String} session id
+     * @param doc {@link ODocument} session data document
+     * @return {@link SessionData} session data or null if can't deserialize session data
+     */
+    private SessionData toSessionData(String id, ODocument doc) {
+        try {
+            return DbUtils.fromDocument(doc, activeSerializer);
+        } catch (IllegalStateException e) {
+            // Exception of deserialization is wrapped by DbUtils, so listeners get the original one
+            Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            LOG.error("Can't read {} from byte array!", SessionData.class.getName(), cause);
+            listener.onDeserializationFailure(id, cause);
+            return null;
+        }
+    }
+
+    /**
+     * Store pending writes of write-behind buffer or async writer. Writes are stored by batches of their shards
+     * @param batch {@link List} pending writes
+     * @throws IllegalStateException if database can't be acquired
+     */
+    private void storePendingWrites(List<PendingSessionWrite> batch) {
+        if (shards == null) {
+            requireDatabase(connectionManager, db -> DbUtils.storeSessions(db, batch, writer));
+            return;
+        }
+        Map<OrientDbConnectionManager, List<PendingSessionWrite>> byShard = batch.stream()
+                .collect(Collectors.groupingBy(write -> getConnectionManager(write.getId()), LinkedHashMap::new, Collectors.toList()));
+        byShard.forEach((manager, writes) -> requireDatabase(manager, db -> DbUtils.storeSessions(db, writes, writer)));
+    }
+
+    /**
+     * Execute function for every group of keys in parallel if session data is sharded and merge results
+     * @param groups {@link Collection} groups of keys, for example connection managers of shards
+     * @param func function for execute
+     * @param <K> type of group
+     * @return {@link Set} merged results
+     */
+    private <K> Set<String> fanOut(Collection<K> groups, Function<K, Set<String>> func) {
+        SessionShards current = shards;
+        if (current == null || groups.size() <= 1) {
+            Set<String> result = new HashSet<>();
+            groups.forEach(group -> result.addAll(func.apply(group)));
+            return result;
+        }
+        List<CompletableFuture<Set<String>>> futures = groups.stream()
+                .map(group -> CompletableFuture.supplyAsync(() -> func.apply(group), current.getExecutor()))
+                .collect(Collectors.toList());
+        Set<String> result = new HashSet<>();
+        for (CompletableFuture<Set<String>> future : futures) {
+            try {
+                result.addAll(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Group session ids by connection managers of their shards
+     * @param ids {@link Set} session ids
+     * @return {@link Map} session ids by connection managers
+     */
+    private Map<OrientDbConnectionManager, Set<String>> groupByShard(Set<String> ids) {
+        if (shards == null) {
+            OrientDbConnectionManager manager = connectionManager;
+            return manager != null ? Collections.singletonMap(manager, ids) : Collections.emptyMap();
+        }
+        return ids.stream().collect(Collectors.groupingBy(this::getConnectionManager, LinkedHashMap::new, Collectors.toSet()));
+    }
+
+    /**
+     * @return {@link List} connection managers of all shards or single connection manager if session data isn't sharded
+     */
+    private List<OrientDbConnectionManager> getConnectionManagers() {
+        SessionShards current = shards;
+        if (current != null) {
+            return current.getConnectionManagers();
+        }
+        OrientDbConnectionManager manager = connectionManager;
+        return manager != null ? Collections.singletonList(manager) : Collections.emptyList();
+    }
+
+    /**
+     * Get connection manager of database which stores given session
+     * @param id {@link String} session id
+     * @return {@link OrientDbConnectionManager} connection manager of shard of session or single connection manager
+     */
+    private OrientDbConnectionManager getConnectionManager(String id) {
+        SessionShards current = shards;
+        return current != null ? current.get(id) : connectionManager;
+    }
+
+    /**
+     * Execute some action and close database. Throws exception if database can't be acquired
+     * @param manager {@link OrientDbConnectionManager} connection manager of database
+     * @param func function for execute
+     * @throws IllegalStateException if database can't be acquired
+     */
+    private void requireDatabase(OrientDbConnectionManager manager, Consumer<ODatabaseDocument> func) {
+        ODatabaseDocument db = getDatabase(manager)
+                .orElseThrow(() -> new IllegalStateException("Can't acquire database from pool!"));
+        try {
+            func.accept(db);
+        } finally {
+            manager.release(db);
+        }
     }
 
+    /**
+     * Execute read function without transaction in database of given session and close database.
+     * @param id {@link String} session id
+     * @param func function for execute
+     * @param <T> type of return value
+     * @return value from function
+     */
+    private <T> Optional<T> sudoGet(String id, Function<ODatabaseDocument, T> func) {
+        return sudoGet(getConnectionManager(id), func);
+    }
 
     /**
-     * Execute get function and close database.
+     * Execute read function without transaction and close database.
+     * @param manager {@link OrientDbConnectionManager} connection manager of database
      * @param func function for execute
      * @param <T> type of return value
      * @return value from function
      */
-    private <T> Optional<T> sudoGet(Function<ODatabaseDocument, T> func) {
-        return getDatabase()
+    private <T> Optional<T> sudoGet(OrientDbConnectionManager manager, Function<ODatabaseDocument, T> func) {
+        return getDatabase(manager)
                 .map(db -> {
                     try {
                         return func.apply(db);
                     } finally {
-                        db.commit();
-                        db.close();
+                        manager.release(db);
                     }
                 });
     }
 
     /**
-     * Execute some action and close database
-     * @param func function for execute
+     * Execute write function in transaction in database of given session and close database.
+     * @param id {@link String} session id
+     * @param func function for execute. Can be executed several times
+     * @param <T> type of return value
+     * @return value from function
      */
-    private void sudoExecute(Consumer<ODatabaseDocument> func) {
-        getDatabase()
-                .ifPresent(db -> {
-                    try {
-                        func.accept(db);
-                    } finally {
-                        db.commit();
-                        db.close();
+    private <T> Optional<T> sudoWrite(String id, Function<ODatabaseDocument, T> func) {
+        return sudoWrite(getConnectionManager(id), func);
+    }
+
+    /**
+     * Execute write function in transaction and close database.
+     * Transaction is retried if it was concurrently modified by another node.
+     * @param manager {@link OrientDbConnectionManager} connection manager of database
+     * @param func function for execute. Can be executed several times
+     * @param <T> type of return value
+     * @return value from function
+     */
+    private <T> Optional<T> sudoWrite(OrientDbConnectionManager manager, Function<ODatabaseDocument, T> func) {
+        return getDatabase(manager).map(db -> write(manager, db, func));
+    }
+
+    /**
+     * Execute write function in transaction in database of given session and close database.
+     * Doesn't silently skip write if database can't be acquired, so caller doesn't treat session data as stored.
+     * @param id {@link String} session id
+     * @param func function for execute. Can be executed several times
+     * @param <T> type of return value
+     * @return value from function
+     * @throws IOException if database can't be acquired, for example circuit breaker is open
+     */
+    private <T> T requireWrite(String id, Function<ODatabaseDocument, T> func) throws IOException {
+        OrientDbConnectionManager manager = getConnectionManager(id);
+        Optional<ODatabaseDocument> db = getDatabase(manager);
+        if (!db.isPresent()) {
+            throw new IOException(String.format("Can't write session '%s', database of sessions is unavailable", id));
+        }
+        return write(manager, db.get(), func);
+    }
+
+    /**
+     * Execute write function in transaction and release database.
+     * Transaction is retried if it was concurrently modified by another node.
+     */
+    private <T> T write(OrientDbConnectionManager manager, ODatabaseDocument db, Function<ODatabaseDocument, T> func) {
+        try {
+            for (int attempt = 1; ; attempt++) {
+                db.begin();
+                try {
+                    T result = func.apply(db);
+                    db.commit();
+                    return result;
+                } catch (OConcurrentModificationException | ORecordDuplicatedException e) {
+                    db.rollback();
+                    if (attempt >= DbUtils.STORE_ATTEMPTS) {
+                        throw e;
                     }
-                });
+                } catch (RuntimeException e) {
+                    db.rollback();
+                    throw e;
+                }
+            }
+        } finally {
+            manager.release(db);
+        }
     }
 
     /**
-     * Get database.
-     * Creates {@link OrientDbSessionDataStore#pool} if it is null.
-     * For create database pool requires System properties:
+     * Get database from {@link OrientDbConnectionManager}. Never waits reconnect of database.
+     * Pool of single database is opened by url from System properties if factory of pool isn't set:
      * 1. admin.username - username of admin user
      * 2. admin.password - password of admin user
      * 3. remote.url - remote url for connect to database
+     * @param manager {@link OrientDbConnectionManager} connection manager of database or null if store isn't started
      * @return {@link Optional<ODatabaseDocument>} database or {@link Optional#empty()} if can't acquire database;
      */
-    private Optional<ODatabaseDocument> getDatabase() {
-        try {
-            return acquirePool().map(OPartitionedDatabasePool::acquire);
-        } catch (Exception ex) {
-            // Exception throws when connection to database was lost
-            // Close pool and try open it again
-            closePool();
-            try {
-                return acquirePool().map(OPartitionedDatabasePool::acquire);
-            } catch (Exception e) {
-                LOG.error("Can't acquire database from pool!", ex);
-                // Close pool if it is not null
-                closePool();
-            }
+    private Optional<ODatabaseDocument> getDatabase(OrientDbConnectionManager manager) {
+        if (manager == null) {
+            return empty();
         }
-        return empty();
+        long start = instrumented ? System.nanoTime() : 0;
+        Optional<ODatabaseDocument> db = manager.acquire();
+        if (instrumented) {
+            listener.onAcquireDatabase(System.nanoTime() - start, db.isPresent());
+        }
+        return db;
     }
 
-    private Optional<OPartitionedDatabasePool> acquirePool() {
-        if (pool == null) {
-            synchronized (this) {
-                if (pool == null) {
-                    String username = OrientDbJettyModule.getUser();
-                    String password = OrientDbJettyModule.getPassword();
-                    String url = OrientDbJettyModule.getDatabaseUrl();
-                    if (username != null && password != null && url != null) {
-                        pool = new OPartitionedDatabasePool(url, username, password);
-                    }
-                }
+    /**
+     * Access of shard migrator to databases of shards
+     */
+    private final class ShardStore implements SessionShardMigrator.IShardStore {
+
+        /**
+         * Open connection manager of shard and create schema and expiry buckets of session data in database of shard.
+         * Url of shard which was added at runtime is added to {@link OrientDbSessionDataStore#shardUrls}
+         * @param url {@link String} url of database of shard
+         * @return {@link OrientDbConnectionManager} started connection manager
+         */
+        @Override
+        public OrientDbConnectionManager openShard(String url) {
+            IDatabasePoolFactory poolFactory = shardPoolFactories != null ? shardPoolFactories.apply(url)
+                    : new PartitionedDatabasePoolFactory(url, getActiveUser(), getActivePassword());
+            OrientDbConnectionManager manager = new OrientDbConnectionManager(poolFactory, poolMaxSize, poolAcquireTimeoutMs,
+                    reconnectInitialBackoffMs, reconnectMaxBackoffMs, healthCheckIntervalMs);
+            manager.start();
+            // Databases of shards are used only for sessions, so store creates schema instead of application
+            if (!sudoGet(manager, db -> {
+                OrientDbJettyModule.initSchema(db);
+                OrientDbJettyModule.initShardSchema(db);
+                return true;
+            }).isPresent()) {
+                LOG.warn("Schema of session data isn't created in unavailable shard {}", url);
             }
+            if (bucketMaintainer != null) {
+                sudoGet(manager, db -> bucketMaintainer.maintain(db, System.currentTimeMillis()));
+            }
+            shardUrls.addIfAbsent(url);
+            return manager;
+        }
+
+        @Override
+        public <T> Optional<T> read(OrientDbConnectionManager manager, Function<ODatabaseDocument, T> func) {
+            return sudoGet(manager, func);
+        }
+
+        @Override
+        public <T> Optional<T> write(OrientDbConnectionManager manager, Function<ODatabaseDocument, T> func) {
+            return sudoWrite(manager, func);
+        }
+
+        @Override
+        public SessionData toSessionData(String id, ODocument doc) {
+            return OrientDbSessionDataStore.this.toSessionData(id, doc);
+        }
+
+        @Override
+        public byte[] toBytes(SessionData data) {
+            return DbUtils.toBytes(data, activeSerializer);
         }
-        return ofNullable(pool);
     }
 
-    private void closePool() {
-        if (pool != null) {
-            synchronized (this) {
-                if (pool != null) {
-                    pool.close();
-                    pool = null;
-                }
-            }
+    /**
+     * Result of store of session data in database
+     */
+    private static final class StoreResult {
+        /**
+         * Serialized attributes or null if only access and expiry time or separate attributes were stored
+         */
+        private final byte[] bytes;
+        /**
+         * Size of stored attributes in bytes or 0 if only access and expiry time were stored
+         */
+        private final int size;
+        private final int version;
+
+        private StoreResult(byte[] bytes, int version) {
+            this.bytes = bytes;
+            this.size = bytes != null ? bytes.length : 0;
+            this.version = version;
+        }
+
+        private StoreResult(int size, int version) {
+            this.bytes = null;
+            this.size = size;
+            this.version = version;
         }
     }
 }
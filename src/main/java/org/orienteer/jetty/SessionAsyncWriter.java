@@ -0,0 +1,318 @@
+package org.orienteer.jetty;
+
+import org.orienteer.jetty.util.PendingSessionWrite;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Writer which stores session writes by background threads, so request thread doesn't wait for database.
+ * Writes of the same session are stored one by one in order of adding: only one thread stores writes of given session
+ * and later writes which are added while previous write is storing coalesce into one next write.
+ * Writes of different sessions are stored in parallel by virtual threads if JVM supports them, otherwise by bounded pool.
+ * If count of sessions with pending writes reaches max pending, writing thread waits for free space.
+ * Write which can't be stored stays in slot of its session and is retried with exponential backoff before newer writes
+ * of the same session. Write which can't be stored after max retries is logged and dropped,
+ * so synchronous mode must be used if every write must be durable.
+ */
+public class SessionAsyncWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionAsyncWriter.class);
+
+    /**
+     * Max power of two by which retry backoff is multiplied
+     */
+    private static final int MAX_BACKOFF_SHIFT = 10;
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    private final Consumer<PendingSessionWrite> writer;
+    private final int maxPending;
+    private final long maxWaitMs;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService retryScheduler;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder coalescedWrites = new LongAdder();
+    private final LongAdder storedWrites = new LongAdder();
+    private final LongAdder retriedWrites = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private final LongAdder rejectedWrites = new LongAdder();
+
+    /**
+     * Constructor
+     * @param writer {@link Consumer} which stores one write. Must throw exception if write wasn't stored
+     * @param threads count of threads which store writes if virtual threads aren't used
+     * @param virtualThreads true for store writes by virtual threads if JVM supports them
+     * @param maxPending max count of sessions with pending writes
+     * @param maxWaitMs max time in milliseconds which writing thread waits for free space
+     * @param maxRetries max count of retries of write which can't be stored
+     * @param retryBackoffMs time in milliseconds before the first retry, every next retry waits twice as long
+     */
+    public SessionAsyncWriter(Consumer<PendingSessionWrite> writer, int threads, boolean virtualThreads, int maxPending, long maxWaitMs,
+                              int maxRetries, long retryBackoffMs) {
+        this.writer = writer;
+        this.maxPending = maxPending;
+        this.maxWaitMs = maxWaitMs;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoffMs;
+        this.permits = new Semaphore(maxPending);
+        this.executor = newExecutor(threads, virtualThreads);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "OrientDbSessionAsyncWriter-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add write for store in background. Coalesces it with pending write of the same session
+     * which isn't storing yet
+     * @param write {@link PendingSessionWrite} write
+     * @throws IllegalStateException if there is no free space for write during max wait time
+     */
+    public void add(PendingSessionWrite write) {
+        writes.increment();
+        // Write of session which is already storing doesn't take more space
+        if (slots.computeIfPresent(write.getId(), (id, slot) -> addTo(slot, write)) != null) {
+            return;
+        }
+        acquirePermit();
+        boolean[] created = new boolean[1];
+        slots.compute(write.getId(), (id, slot) -> {
+            if (slot == null) {
+                created[0] = true;
+                return new Slot(write);
+            }
+            return addTo(slot, write);
+        });
+        if (!created[0]) {
+            // Writes of session are already stored by another thread which will take this write too
+            permits.release();
+            return;
+        }
+        execute(write.getId());
+    }
+
+    /**
+     * Get write of session which wasn't stored yet
+     * @param id {@link String} session id
+     * @return {@link PendingSessionWrite} or null if all writes of given session were stored
+     */
+    public PendingSessionWrite get(String id) {
+        Slot slot = slots.get(id);
+        if (slot == null) {
+            return null;
+        }
+        // Next write is read first, because storing thread moves it to current write
+        PendingSessionWrite next = slot.next;
+        PendingSessionWrite current = slot.current;
+        if (current == null) {
+            return next;
+        }
+        return next != null ? current.merge(next) : current;
+    }
+
+    /**
+     * Wait until all pending writes are stored
+     */
+    public void flush() {
+        permits.acquireUninterruptibly(maxPending);
+        permits.release(maxPending);
+    }
+
+    /**
+     * Store all pending writes and stop background threads
+     */
+    public void close() {
+        flush();
+        retryScheduler.shutdown();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Slot addTo(Slot slot, PendingSessionWrite write) {
+        if (slot.next != null) {
+            coalescedWrites.increment();
+            slot.next = slot.next.merge(write);
+        } else {
+            slot.next = write;
+        }
+        return slot;
+    }
+
+    private void acquirePermit() {
+        try {
+            if (permits.tryAcquire() || permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejectedWrites.increment();
+        throw new IllegalStateException(String.format("Can't add session write, %d sessions have pending writes", slots.size()));
+    }
+
+    private void execute(String id) {
+        try {
+            executor.execute(() -> drain(id));
+        } catch (RejectedExecutionException e) {
+            // Writer is closed, so slot is drained by calling thread
+            drain(id);
+        }
+    }
+
+    /**
+     * Store writes of given session until there are no more pending writes of it or write failed and its retry was scheduled
+     * @param id {@link String} session id
+     */
+    private void drain(String id) {
+        PendingSessionWrite write;
+        while ((write = takeNext(id)) != null) {
+            // Slot is removed only by draining thread, so it exists until takeNext returns null
+            Slot slot = slots.get(id);
+            try {
+                writer.accept(write);
+                storedWrites.increment();
+                slot.failures = 0;
+            } catch (Exception e) {
+                if (slot.failures < maxRetries) {
+                    scheduleRetry(id, slot, write, e);
+                    return;
+                }
+                slot.failures = 0;
+                failedWrites.increment();
+                LOG.error("Can't store {} write of session {} after {} retries!", write.getType(), id, maxRetries, e);
+            }
+        }
+    }
+
+    /**
+     * Return failed write to slot before newer writes of the same session and drain slot again after backoff
+     */
+    private void scheduleRetry(String id, Slot slot, PendingSessionWrite write, Exception e) {
+        long delay = retryBackoffMs << Math.min(slot.failures, MAX_BACKOFF_SHIFT);
+        slot.failures++;
+        retriedWrites.increment();
+        LOG.warn("Can't store {} write of session {}, retry {} in {} ms: {}", write.getType(), id, slot.failures, delay, e.toString());
+        slots.computeIfPresent(id, (key, s) -> {
+            s.next = s.next != null ? write.merge(s.next) : write;
+            return s;
+        });
+        try {
+            retryScheduler.schedule(() -> execute(id), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // Writer is closed, so slot is retried by calling thread without waiting
+            execute(id);
+        }
+    }
+
+    /**
+     * Move next write of session to current write or remove slot of session if there is no next write
+     * @param id {@link String} session id
+     * @return {@link PendingSessionWrite} write which must be stored or null if slot of session was removed
+     */
+    private PendingSessionWrite takeNext(String id) {
+        Slot slot = slots.computeIfPresent(id, (key, s) -> {
+            if (s.next == null) {
+                return null;
+            }
+            s.current = s.next;
+            s.next = null;
+            return s;
+        });
+        if (slot == null) {
+            permits.release();
+            return null;
+        }
+        return slot.current;
+    }
+
+    private static ExecutorService newExecutor(int threads, boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOG.info("Virtual threads aren't supported by JVM, session writes are stored by {} threads", threads);
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "OrientDbSessionAsyncWriter-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getPendingCount() {
+        return slots.size();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getCoalescedWrites() {
+        return coalescedWrites.sum();
+    }
+
+    public long getStoredWrites() {
+        return storedWrites.sum();
+    }
+
+    public long getRetriedWrites() {
+        return retriedWrites.sum();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+
+    public long getRejectedWrites() {
+        return rejectedWrites.sum();
+    }
+
+    /**
+     * Pending writes of one session. Exists while writes of session are storing
+     */
+    private static final class Slot {
+        /**
+         * Write which is storing now
+         */
+        private volatile PendingSessionWrite current;
+
+        /**
+         * Write which will be stored after current write
+         */
+        private volatile PendingSessionWrite next;
+
+        /**
+         * Count of failed attempts of current write. Changed only by draining thread
+         */
+        private int failures;
+
+        private Slot(PendingSessionWrite next) {
+            this.next = next;
+        }
+    }
+}
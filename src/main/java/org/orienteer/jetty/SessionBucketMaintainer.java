@@ -0,0 +1,96 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import org.orienteer.jetty.util.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Periodic maintenance of clusters of expiry time buckets of session data.
+ * Creates clusters of buckets in advance and drops clusters of expired buckets entirely.
+ * Maintenance is coordinated between nodes by lease in database, so only one node changes clusters every interval.
+ */
+public class SessionBucketMaintainer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionBucketMaintainer.class);
+
+    private static final String LEASE_NAME = "session-buckets";
+
+    private final String owner;
+    private final long bucketLengthMs;
+    private final int bucketsAhead;
+    private final long intervalMs;
+    private final long gracePeriodMs;
+
+    private volatile long nextMaintenanceTime;
+
+    private final LongAdder createdBuckets = new LongAdder();
+    private final LongAdder droppedBuckets = new LongAdder();
+    private final LongAdder droppedSessions = new LongAdder();
+
+    /**
+     * Constructor
+     * @param owner {@link String} unique name of node which maintains buckets
+     * @param bucketLengthMs length of expiry time bucket in milliseconds
+     * @param bucketsAhead count of buckets which are created in advance
+     * @param intervalMs interval in milliseconds between maintenance
+     * @param gracePeriodMs time in milliseconds after end of bucket when bucket can be dropped
+     */
+    public SessionBucketMaintainer(String owner, long bucketLengthMs, int bucketsAhead, long intervalMs, long gracePeriodMs) {
+        this.owner = owner;
+        this.bucketLengthMs = bucketLengthMs;
+        this.bucketsAhead = bucketsAhead;
+        this.intervalMs = intervalMs;
+        this.gracePeriodMs = gracePeriodMs;
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return true if maintenance interval was elapsed since previous maintenance
+     */
+    public boolean isDue(long now) {
+        return now >= nextMaintenanceTime;
+    }
+
+    /**
+     * Create clusters of next buckets and drop clusters of expired buckets if lease of maintenance was acquired
+     * @param db {@link ODatabaseDocument} database. Must not be in transaction
+     * @param now current time in milliseconds
+     * @return count of dropped session data
+     */
+    public int maintain(ODatabaseDocument db, long now) {
+        nextMaintenanceTime = now + intervalMs;
+        if (!DbUtils.acquireLease(db, LEASE_NAME, owner, now + intervalMs)) {
+            LOG.debug("Maintenance of session buckets is held by another node");
+            return 0;
+        }
+        createdBuckets.add(OrientDbJettyModule.initExpiryBuckets(db, bucketLengthMs, now, now + bucketsAhead * bucketLengthMs));
+        long expiredBefore = now - gracePeriodMs;
+        List<String> expired = DbUtils.getExpiredBucketClusters(db, expiredBefore);
+        int dropped = 0;
+        for (String cluster : expired) {
+            dropped += DbUtils.dropExpiryBucket(db, cluster, expiredBefore, bucketLengthMs);
+            droppedBuckets.increment();
+        }
+        droppedSessions.add(dropped);
+        if (!expired.isEmpty()) {
+            LOG.info("Dropped {} buckets with {} expired sessions", expired.size(), dropped);
+        }
+        return dropped;
+    }
+
+    public long getCreatedBuckets() {
+        return createdBuckets.sum();
+    }
+
+    public long getDroppedBuckets() {
+        return droppedBuckets.sum();
+    }
+
+    public long getDroppedSessions() {
+        return droppedSessions.sum();
+    }
+}
@@ -0,0 +1,156 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.orienteer.jetty.util.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Periodic sweep of expired sessions which are not known by any node. For example sessions of crashed node.
+ * Uses index of expiry time and processes sessions by bounded pages.
+ * Sweep is coordinated between nodes by lease in database, so only one node sweeps every interval.
+ * Expired sessions can be deleted in database by bulk delete or returned to Jetty for expire them,
+ * so session listeners will be notified.
+ */
+public class SessionExpirySweeper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionExpirySweeper.class);
+
+    private static final String LEASE_NAME = "session-sweep";
+
+    private final String contextPath;
+    private final String vhost;
+    private final String owner;
+    private final long intervalMs;
+    private final long gracePeriodMs;
+    private final int pageSize;
+    private final int maxPages;
+    private final boolean deleteExpired;
+
+    private volatile long nextSweepTime;
+
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder sweptSessions = new LongAdder();
+    private volatile long lastSweptSessions;
+    private volatile long lastSweepDurationMs;
+
+    /**
+     * Constructor
+     * @param contextPath {@link String} canonical context path of sessions for sweep
+     * @param vhost {@link String} virtual host of sessions for sweep
+     * @param owner {@link String} unique name of node which sweeps sessions
+     * @param intervalMs interval in milliseconds between sweeps
+     * @param gracePeriodMs time in milliseconds after expiry when session can be swept
+     * @param pageSize count of sessions in one page
+     * @param maxPages max count of pages in one sweep
+     * @param deleteExpired true for delete expired sessions in database and false for return them to Jetty
+     */
+    public SessionExpirySweeper(String contextPath, String vhost, String owner, long intervalMs, long gracePeriodMs,
+                                int pageSize, int maxPages, boolean deleteExpired) {
+        this.contextPath = contextPath;
+        this.vhost = vhost;
+        this.owner = owner;
+        this.intervalMs = intervalMs;
+        this.gracePeriodMs = gracePeriodMs;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.deleteExpired = deleteExpired;
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return true if sweep interval was elapsed since previous sweep
+     */
+    public boolean isDue(long now) {
+        return now >= nextSweepTime;
+    }
+
+    /**
+     * Sweep expired sessions if lease of sweep was acquired
+     * @param db {@link ODatabaseDocument} database
+     * @param now current time in milliseconds
+     * @return {@link Set<String>} ids of expired sessions which need expire by Jetty.
+     * Always empty if expired sessions are deleted in database.
+     */
+    public Set<String> sweep(ODatabaseDocument db, long now) {
+        nextSweepTime = now + intervalMs;
+        if (!DbUtils.acquireLease(db, getLeaseName(), owner, now + intervalMs)) {
+            LOG.debug("Sweep of expired sessions is held by another node");
+            return Collections.emptySet();
+        }
+        long start = System.currentTimeMillis();
+        long expiredBefore = now - gracePeriodMs;
+        Set<String> expired = Collections.emptySet();
+        long count = 0;
+        if (deleteExpired) {
+            for (int page = 0; page < maxPages; page++) {
+                int deleted = DbUtils.deleteExpiredSessions(db, expiredBefore, pageSize);
+                count += deleted;
+                if (deleted < pageSize) {
+                    break;
+                }
+            }
+        } else {
+            expired = getExpiredSessions(db, expiredBefore);
+            count = expired.size();
+        }
+        lastSweepDurationMs = System.currentTimeMillis() - start;
+        lastSweptSessions = count;
+        sweptSessions.add(count);
+        sweeps.increment();
+        LOG.info("Swept {} expired sessions in {} ms", count, lastSweepDurationMs);
+        return expired;
+    }
+
+    /**
+     * Read expired sessions of context by pages with cursor by expiry time.
+     * Sessions with the same expiry time as the last session of previous page are read again, so page is extended by their count
+     */
+    private Set<String> getExpiredSessions(ODatabaseDocument db, long expiredBefore) {
+        Set<String> expired = new HashSet<>();
+        long cursor = 1;
+        int tied = 0;
+        for (int page = 0; page < maxPages; page++) {
+            int limit = pageSize + tied;
+            List<ODocument> docs = DbUtils.getExpiredSessionsPage(db, contextPath, vhost, cursor, expiredBefore, limit);
+            for (ODocument doc : docs) {
+                long expiry = doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME);
+                if (expired.add(doc.field(OrientDbJettyModule.PROP_ID))) {
+                    tied = expiry == cursor ? tied + 1 : 1;
+                    cursor = expiry;
+                }
+            }
+            if (docs.size() < limit) {
+                break;
+            }
+        }
+        return expired;
+    }
+
+    private String getLeaseName() {
+        return deleteExpired ? LEASE_NAME : LEASE_NAME + ":" + contextPath + ":" + vhost;
+    }
+
+    public long getSweeps() {
+        return sweeps.sum();
+    }
+
+    public long getSweptSessions() {
+        return sweptSessions.sum();
+    }
+
+    public long getLastSweptSessions() {
+        return lastSweptSessions;
+    }
+
+    public long getLastSweepDurationMs() {
+        return lastSweepDurationMs;
+    }
+}
@@ -0,0 +1,325 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.ORecordOperation;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OLiveQuery;
+import com.orientechnologies.orient.core.sql.query.OLiveResultListener;
+import org.eclipse.jetty.server.session.SessionData;
+import org.orienteer.jetty.util.DbUtils;
+import org.orienteer.jetty.util.PendingSessionWrite;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of session data which was loaded or stored by this node.
+ * Contains serialized attributes, metadata and record version of session data document.
+ * Entries are invalidated by OrientDB live query on {@link OrientDbJettyModule#SESSION_DATA_CLASS_NAME}
+ * if session data was updated or deleted by another node. Cache is cleared and not used while live query isn't subscribed,
+ * so loads never return session data which could be changed by another node.
+ * If entries are validated by record version on every load, cache is used without live query too.
+ */
+public class SessionNearCache implements OLiveResultListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionNearCache.class);
+
+    private final String writer;
+    private final String contextPath;
+    private final String vhost;
+    private final boolean versionValidated;
+    private final Map<String, Entry> entries;
+
+    private ODatabaseDocument liveDatabase;
+    private volatile Integer token;
+
+    /**
+     * Incremented on every invalidation by another node, so loads which were started before invalidation aren't cached
+     */
+    private long epoch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Constructor
+     * @param writer {@link String} unique id of store of this cache. Updates of session data which were written by it aren't invalidated
+     * @param maxSize max count of cached sessions
+     * @param versionValidated true if entries are validated by record version before use, so they can be used without live query
+     */
+    public SessionNearCache(String writer, int maxSize, boolean versionValidated) {
+        this(writer, null, null, maxSize, versionValidated);
+    }
+
+    /**
+     * Constructor of cache of sessions of one context. Changes of session data of other contexts
+     * which are stored in the same class are ignored, even if sessions have the same id
+     * @param writer {@link String} unique id of store of this cache. Updates of session data which were written by it aren't invalidated
+     * @param contextPath {@link String} canonical context path of sessions or null for sessions of all contexts
+     * @param vhost {@link String} virtual host of sessions or null for sessions of all virtual hosts
+     * @param maxSize max count of cached sessions
+     * @param versionValidated true if entries are validated by record version before use, so they can be used without live query
+     */
+    public SessionNearCache(String writer, String contextPath, String vhost, int maxSize, boolean versionValidated) {
+        this.writer = writer;
+        this.contextPath = contextPath;
+        this.vhost = vhost;
+        this.versionValidated = versionValidated;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SessionNearCache.Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Subscribe to changes of session data by live query on separate database connection
+     * @param databaseFactory {@link Supplier} which opens database for live query
+     * @return true if live query was subscribed
+     */
+    public synchronized boolean subscribe(Supplier<ODatabaseDocument> databaseFactory) {
+        if (token != null) {
+            return true;
+        }
+        closeLiveDatabase();
+        try {
+            liveDatabase = databaseFactory.get();
+            String sql = "live select from " + OrientDbJettyModule.SESSION_DATA_CLASS_NAME;
+            List<ODocument> result = liveDatabase.query(new OLiveQuery<ODocument>(sql, this));
+            token = result.get(0).field("token");
+            LOG.info("Near cache of sessions is subscribed to changes of session data");
+            return true;
+        } catch (Exception e) {
+            LOG.warn("Can't subscribe near cache of sessions to changes of session data: {}", e.getMessage());
+            closeLiveDatabase();
+            return false;
+        }
+    }
+
+    /**
+     * Unsubscribe from changes of session data and clear cache
+     */
+    public synchronized void close() {
+        Integer current = token;
+        token = null;
+        if (current != null && liveDatabase != null) {
+            try {
+                liveDatabase.activateOnCurrentThread();
+                liveDatabase.command(new OCommandSQL("live unsubscribe " + current)).execute();
+            } catch (Exception e) {
+                LOG.debug("Can't unsubscribe live query of near cache", e);
+            }
+        }
+        closeLiveDatabase();
+        entries.clear();
+    }
+
+    /**
+     * @return current epoch of cache which must be captured before load or store of session data in database
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Get cached entry of session data
+     * @param id {@link String} session id
+     * @return {@link Entry} cached entry or null if session data isn't cached or cache isn't usable
+     */
+    public synchronized Entry get(String id) {
+        Entry entry = isUsable() ? entries.get(id) : null;
+        (entry != null ? hits : misses).increment();
+        return entry;
+    }
+
+    /**
+     * Cache session data which was loaded from database
+     * @param id {@link String} session id
+     * @param version record version of session data document
+     * @param data {@link SessionData} loaded session data
+     * @param bytes serialized attributes of session data
+     * @param loadEpoch epoch of cache before load was started
+     */
+    public synchronized void putLoaded(String id, int version, SessionData data, byte[] bytes, long loadEpoch) {
+        if (isUsable() && loadEpoch == epoch) {
+            entries.put(id, new Entry(version, PendingSessionWrite.copyMetadata(data), bytes));
+        }
+    }
+
+    /**
+     * Cache session data which was stored by this node
+     * @param id {@link String} session id
+     * @param data {@link SessionData} stored session data
+     * @param bytes serialized attributes of session data
+     * @param version new record version of session data document or {@link DbUtils#UNKNOWN_VERSION}
+     * @param storeEpoch epoch of cache before store was started
+     */
+    public synchronized void putStored(String id, SessionData data, byte[] bytes, int version, long storeEpoch) {
+        if (isUsable() && storeEpoch == epoch) {
+            entries.put(id, new Entry(version, PendingSessionWrite.copyMetadata(data), bytes));
+        } else {
+            entries.remove(id);
+        }
+    }
+
+    /**
+     * Update access and expiry time of cached session data which was touched by this node
+     * @param id {@link String} session id
+     * @param data {@link SessionData} touched session data
+     * @param version new record version of session data document or {@link DbUtils#UNKNOWN_VERSION}
+     * @param storeEpoch epoch of cache before store was started
+     */
+    public synchronized void touch(String id, SessionData data, int version, long storeEpoch) {
+        Entry entry = entries.get(id);
+        if (entry != null && storeEpoch == epoch) {
+            entries.put(id, new Entry(version, PendingSessionWrite.copyMetadata(data), entry.bytes));
+        } else if (entry != null) {
+            entries.remove(id);
+        }
+    }
+
+    /**
+     * Remove session data from cache
+     * @param id {@link String} session id
+     */
+    public synchronized void remove(String id) {
+        entries.remove(id);
+    }
+
+    @Override
+    public void onLiveResult(int liveToken, ORecordOperation operation) {
+        ORecord record = operation.getRecord();
+        if (!(record instanceof ODocument)) {
+            return;
+        }
+        ODocument doc = (ODocument) record;
+        String id = doc.field(OrientDbJettyModule.PROP_ID);
+        if (id == null || !isOfContext(doc)) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(id);
+            boolean own = operation.type != ORecordOperation.DELETED
+                    && Objects.equals(writer, doc.field(OrientDbJettyModule.PROP_WRITER));
+            int version = DbUtils.getSessionVersion(doc);
+            if (own) {
+                if (entry != null && entry.version < version) {
+                    entries.put(id, new Entry(version, entry.metadata, entry.bytes));
+                }
+                return;
+            }
+            epoch++;
+            if (entry != null && operation.type != ORecordOperation.DELETED && entry.version >= version) {
+                // Cached entry is already newer than this delayed event
+                return;
+            }
+            if (entries.remove(id) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * Check if session data document belongs to context of cache. Document without context fields
+     * (for example deleted document without content) is considered as belonging to it
+     */
+    private boolean isOfContext(ODocument doc) {
+        String docContextPath = doc.field(OrientDbJettyModule.PROP_CONTEXT_PATH);
+        String docVhost = doc.field(OrientDbJettyModule.PROP_VHOST);
+        return (contextPath == null || docContextPath == null || contextPath.equals(docContextPath))
+                && (vhost == null || docVhost == null || vhost.equals(docVhost));
+    }
+
+    @Override
+    public void onError(int liveToken) {
+        LOG.warn("Live query of near cache failed, near cache is cleared");
+        unsubscribed();
+    }
+
+    @Override
+    public void onUnsubscribe(int liveToken) {
+        unsubscribed();
+    }
+
+    private synchronized void unsubscribed() {
+        token = null;
+        epoch++;
+        entries.clear();
+    }
+
+    private void closeLiveDatabase() {
+        if (liveDatabase != null) {
+            try {
+                liveDatabase.activateOnCurrentThread();
+                liveDatabase.close();
+            } catch (Exception e) {
+                LOG.debug("Can't close database of near cache", e);
+            }
+            liveDatabase = null;
+        }
+    }
+
+    /**
+     * @return true if live query is subscribed, so entries are invalidated by changes of another nodes
+     */
+    public boolean isSubscribed() {
+        return token != null;
+    }
+
+    private boolean isUsable() {
+        return token != null || versionValidated;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Cached session data
+     */
+    public static final class Entry {
+        private final int version;
+        private final SessionData metadata;
+        private final byte[] bytes;
+
+        private Entry(int version, SessionData metadata, byte[] bytes) {
+            this.version = version;
+            this.metadata = metadata;
+            this.bytes = bytes;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public SessionData getMetadata() {
+            return metadata;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
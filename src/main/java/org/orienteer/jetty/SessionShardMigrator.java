@@ -0,0 +1,485 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.eclipse.jetty.server.session.SessionData;
+import org.orienteer.jetty.util.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static java.util.Optional.empty;
+
+/**
+ * Maintenance of {@link SessionShards} of context. List of shards with time of adding and state of migration is stored
+ * in every shard, so shards which were added by any node are opened by other nodes on refresh and after restart.
+ * Sessions which were remapped to added shard are moved to it on first load and all remaining ones are moved
+ * by migration after delay, when every node routes sessions by added shard.
+ * Refresh and migration are executed in background by executor of shards, at most one at a time,
+ * so scavenge of Jetty isn't blocked by them.
+ */
+public class SessionShardMigrator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionShardMigrator.class);
+
+    private static final int PAGE_SIZE = 1000;
+
+    private final IShardStore store;
+    private final String contextPath;
+    private final String vhost;
+    private final String owner;
+    private final int virtualNodes;
+    private final long refreshIntervalMs;
+    private final long migrationDelayMs;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final LongAdder movedSessions = new LongAdder();
+    private volatile long nextRefreshTime;
+    private volatile boolean closed;
+
+    private SessionShards shards;
+
+    /**
+     * Constructor
+     * @param store {@link IShardStore} access of migrator to databases of shards
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @param owner {@link String} unique name of node which migrates sessions
+     * @param virtualNodes count of virtual nodes of every shard on ring
+     * @param refreshIntervalMs interval in milliseconds between reads of list of shards
+     * @param migrationDelayMs delay in milliseconds after shard was added before remapped sessions are moved
+     */
+    public SessionShardMigrator(IShardStore store, String contextPath, String vhost, String owner, int virtualNodes,
+                                long refreshIntervalMs, long migrationDelayMs) {
+        this.store = store;
+        this.contextPath = contextPath;
+        this.vhost = vhost;
+        this.owner = owner;
+        this.virtualNodes = virtualNodes;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.migrationDelayMs = migrationDelayMs;
+    }
+
+    /**
+     * Open configured shards and shards which were added at runtime by any node.
+     * Shards which aren't migrated yet are added to ring after migrated ones, so sessions which are remapped to them
+     * are still found in their previous shards. Configured shard which is missing in existing list of shards is added now.
+     * @param urls {@link List} configured urls of databases of shards
+     * @return {@link SessionShards} opened shards
+     */
+    public SessionShards open(List<String> urls) {
+        Map<String, OrientDbConnectionManager> managers = new LinkedHashMap<>();
+        for (String url : urls) {
+            managers.put(url, store.openShard(url));
+        }
+        Map<String, ShardRecord> records = readShards(managers.values());
+        boolean listed = !records.isEmpty();
+        long now = System.currentTimeMillis();
+        for (String url : managers.keySet()) {
+            records.putIfAbsent(url, new ShardRecord(url, listed ? now : 0, !listed));
+        }
+        Map<String, OrientDbConnectionManager> migrated = new LinkedHashMap<>();
+        List<ShardRecord> pending = new ArrayList<>();
+        for (ShardRecord record : records.values()) {
+            managers.computeIfAbsent(record.url, store::openShard);
+            if (record.migrated) {
+                migrated.put(record.url, managers.get(record.url));
+            } else {
+                pending.add(record);
+            }
+        }
+        pending.sort(Comparator.comparingLong(record -> record.added));
+        if (migrated.isEmpty()) {
+            ShardRecord first = pending.remove(0);
+            migrated.put(first.url, managers.get(first.url));
+        }
+        SessionShards opened = new SessionShards(migrated, virtualNodes);
+        for (ShardRecord record : pending) {
+            opened.add(record.url, managers.get(record.url), record.added);
+        }
+        storeShards(managers.values(), records.values());
+        shards = opened;
+        nextRefreshTime = 0;
+        return opened;
+    }
+
+    /**
+     * Add database to shards. Added shard is stored in list of shards in databases of all shards
+     * @param url {@link String} url of database
+     * @throws IllegalArgumentException if database is already a shard
+     */
+    public void add(String url) {
+        long now = System.currentTimeMillis();
+        add(url, now);
+        Map<String, ShardRecord> records = readShards(shards.getConnectionManagers());
+        records.put(url, new ShardRecord(url, now, false));
+        storeShards(shards.getConnectionManagers(), records.values());
+        LOG.info("Shard {} is added to session data of {}", url, contextPath);
+    }
+
+    private void add(String url, long addedTime) {
+        OrientDbConnectionManager manager = store.openShard(url);
+        try {
+            shards.add(url, manager, addedTime);
+        } catch (IllegalArgumentException e) {
+            manager.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start refresh of list of shards and migration in background if refresh interval was elapsed
+     * and previous maintenance isn't running anymore
+     * @param now current time in milliseconds
+     */
+    public void maintain(long now) {
+        if (now < nextRefreshTime || closed || !running.compareAndSet(false, true)) {
+            return;
+        }
+        nextRefreshTime = now + refreshIntervalMs;
+        try {
+            shards.getExecutor().execute(() -> {
+                try {
+                    refresh(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    LOG.warn("Maintenance of shards of {} failed", contextPath, e);
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shards are closed
+            running.set(false);
+        }
+    }
+
+    /**
+     * Add shards which were added by other nodes and migrate sessions which are stored in previous shards of their ids.
+     * When all remapped sessions of context are moved, shards are marked as migrated, so every node stops searching
+     * and deleting sessions in previous shards.
+     * @param now current time in milliseconds
+     */
+    private void refresh(long now) {
+        int generation = shards.getGeneration();
+        Map<String, ShardRecord> records = readShards(shards.getConnectionManagers());
+        for (ShardRecord record : records.values()) {
+            if (!closed && !shards.contains(record.url)) {
+                try {
+                    add(record.url, record.added);
+                    LOG.info("Shard {} which was added by another node is added to session data of {}", record.url, contextPath);
+                } catch (IllegalArgumentException e) {
+                    LOG.debug("Shard {} is already added", record.url);
+                }
+            }
+        }
+        if (closed || !shards.isMigrating()) {
+            return;
+        }
+        if (!records.isEmpty() && records.values().stream().allMatch(record -> record.migrated)) {
+            // Migration was completed by another node
+            shards.completeMigration(generation);
+        } else if (now - shards.getLastAddedTime() >= migrationDelayMs) {
+            migrate(now);
+        }
+    }
+
+    /**
+     * Move all sessions of context which are stored not in their shards. Migration is coordinated between nodes by lease
+     * in shard with the least url, so only one node moves sessions.
+     * @param now current time in milliseconds
+     */
+    private void migrate(long now) {
+        int generation = shards.getGeneration();
+        long addedUntil = shards.getLastAddedTime();
+        String leaseName = "shard-migration:" + contextPath + ":" + vhost;
+        long until = now + migrationDelayMs;
+        OrientDbConnectionManager leaseShard = shards.getShard(Collections.min(shards.getNames()));
+        if (!store.read(leaseShard, db -> DbUtils.acquireLease(db, leaseName, owner, until)).orElse(false)) {
+            LOG.debug("Migration of shards is held by another node");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long moved = movedSessions.sum();
+        boolean completed = true;
+        for (OrientDbConnectionManager manager : shards.getConnectionManagers()) {
+            completed &= !closed && migrateShard(manager);
+        }
+        if (!completed) {
+            LOG.warn("Migration of shards of {} isn't completed, because some sessions weren't moved", contextPath);
+        } else if (shards.completeMigration(generation)) {
+            for (OrientDbConnectionManager manager : shards.getConnectionManagers()) {
+                store.read(manager, db -> {
+                    DbUtils.markShardsMigrated(db, contextPath, vhost, addedUntil);
+                    return null;
+                });
+            }
+            LOG.info("Migration of shards of {} is completed: {} sessions moved in {} ms", contextPath,
+                    movedSessions.sum() - moved, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Move sessions of context which are stored in given shard, but belong to another shard
+     * @param manager {@link OrientDbConnectionManager} connection manager of shard
+     * @return true if all sessions of shard were checked and remapped ones were moved
+     */
+    private boolean migrateShard(OrientDbConnectionManager manager) {
+        boolean completed = true;
+        String after = "";
+        while (!closed) {
+            String cursor = after;
+            Optional<List<String>> page = store.read(manager, db -> DbUtils.getSessionIdsPage(db, contextPath, vhost, cursor, PAGE_SIZE));
+            if (!page.isPresent()) {
+                return false;
+            }
+            for (String id : page.get()) {
+                if (shards.get(id) != manager) {
+                    completed &= moveSession(manager, id);
+                }
+            }
+            if (page.get().size() < PAGE_SIZE) {
+                return completed;
+            }
+            after = page.get().get(page.get().size() - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Move session from given shard to current shard of session. Session which was stored in current shard since
+     * migration started is newer than its copy in previous shard, so copy is only deleted.
+     * @param from {@link OrientDbConnectionManager} connection manager of previous shard of session
+     * @param id {@link String} session id
+     * @return true if session was moved or it doesn't exist in given shard anymore
+     */
+    private boolean moveSession(OrientDbConnectionManager from, String id) {
+        Optional<Optional<SessionData>> loaded = store.read(from, db -> DbUtils.getSessionDocumentById(db, contextPath, vhost, id)
+                .map(doc -> store.toSessionData(id, doc)));
+        if (!loaded.isPresent()) {
+            return false;
+        }
+        if (!loaded.get().isPresent()) {
+            // Session was moved by load or deleted since page was read, session which can't be deserialized is left for sweep
+            return true;
+        }
+        Optional<Boolean> stored = storeMovedSession(loaded.get().get());
+        if (!stored.isPresent() || !store.write(from, db -> {
+            DbUtils.deleteSessionById(db, contextPath, vhost, id);
+            return true;
+        }).isPresent()) {
+            return false;
+        }
+        if (stored.get()) {
+            movedSessions.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Load session data from shards which owned session before shards which aren't migrated yet were added
+     * and move it to current shard of session. Session which is already stored in current shard is reloaded from it.
+     * Copies in previous shards are deleted only after session is stored in current shard
+     * @param id {@link String} session id
+     * @return {@link SessionData} session data or null if previous shards don't have session
+     */
+    public SessionData loadMoved(String id) {
+        for (OrientDbConnectionManager previous : shards.getPrevious(id)) {
+            SessionData data = store.read(previous, db -> DbUtils.getSessionDocumentById(db, contextPath, vhost, id)
+                    .map(doc -> store.toSessionData(id, doc))
+                    .orElse(null)
+            ).orElse(null);
+            if (data == null) {
+                continue;
+            }
+            Optional<Boolean> stored = storeMovedSession(data);
+            if (!stored.isPresent()) {
+                // Copy in previous shard is kept until current shard is available
+                return data;
+            }
+            if (stored.get()) {
+                movedSessions.increment();
+                deleteFromPrevious(id);
+                return data;
+            }
+            // Session was moved by another node since it was read, so copy in previous shard can be stale
+            Optional<SessionData> current = store.read(shards.get(id), db -> DbUtils.getSessionDocumentById(db, contextPath, vhost, id)
+                    .map(doc -> store.toSessionData(id, doc))).orElse(empty());
+            if (current.isPresent()) {
+                deleteFromPrevious(id);
+            }
+            return current.orElse(data);
+        }
+        return null;
+    }
+
+    /**
+     * Store session data which was read from previous shard in current shard of session, if it isn't stored there yet
+     * @param data {@link SessionData} session data of previous shard
+     * @return {@link Optional} true if session data was stored, false if current shard already has session
+     * or empty if current shard is unavailable
+     */
+    private Optional<Boolean> storeMovedSession(SessionData data) {
+        String id = data.getId();
+        byte[] bytes = store.toBytes(data);
+        return store.write(shards.get(id), db -> {
+            if (DbUtils.isSessionExistsById(db, contextPath, vhost, id)) {
+                return false;
+            }
+            DbUtils.storeSession(db, id, data, bytes, owner);
+            return true;
+        });
+    }
+
+    /**
+     * Delete copies of session data from previous shards of session while shards are migrating,
+     * otherwise sweep of previous shard can expire session which is alive in current shard
+     * @param id {@link String} session id
+     */
+    public void deleteFromPrevious(String id) {
+        for (OrientDbConnectionManager previous : shards.getPrevious(id)) {
+            store.write(previous, db -> {
+                DbUtils.deleteSessionById(db, contextPath, vhost, id);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Read list of shards of context from all available shards
+     * @param managers {@link Collection} connection managers of shards
+     * @return {@link Map} shards by urls in order of adding
+     */
+    private Map<String, ShardRecord> readShards(Collection<OrientDbConnectionManager> managers) {
+        Map<String, ShardRecord> records = new LinkedHashMap<>();
+        for (OrientDbConnectionManager manager : managers) {
+            List<ODocument> docs = store.read(manager, db -> DbUtils.getShards(db, contextPath, vhost))
+                    .orElse(Collections.emptyList());
+            for (ODocument doc : docs) {
+                String url = doc.field(OrientDbJettyModule.PROP_SHARD_URL);
+                Long added = doc.field(OrientDbJettyModule.PROP_SHARD_ADDED);
+                Boolean migrated = doc.field(OrientDbJettyModule.PROP_SHARD_MIGRATED);
+                records.merge(url, new ShardRecord(url, added != null ? added : 0, Boolean.TRUE.equals(migrated)), ShardRecord::merge);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Store list of shards in every available shard, so it can be read from any of them
+     * @param managers {@link Collection} connection managers of shards
+     * @param records {@link Collection} shards
+     */
+    private void storeShards(Collection<OrientDbConnectionManager> managers, Collection<ShardRecord> records) {
+        for (OrientDbConnectionManager manager : managers) {
+            // Upsert of every shard is single statement, so it doesn't need transaction
+            if (!store.read(manager, db -> {
+                records.forEach(record -> DbUtils.storeShard(db, contextPath, vhost, record.url, record.added, record.migrated));
+                return true;
+            }).isPresent()) {
+                LOG.warn("List of shards of {} isn't stored in unavailable shard", contextPath);
+            }
+        }
+    }
+
+    /**
+     * @return true if refresh of list of shards or migration is running in background
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return count of sessions which were moved to added shards
+     */
+    public long getMovedSessions() {
+        return movedSessions.sum();
+    }
+
+    /**
+     * Stop maintenance: running migration stops after current session and added shards aren't opened anymore.
+     * Shards are closed by store
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Access of migrator to databases of shards and to serialization of store
+     */
+    public interface IShardStore {
+        /**
+         * Open connection manager of shard and create schema of session data in database of shard
+         * @param url {@link String} url of database of shard
+         * @return {@link OrientDbConnectionManager} started connection manager
+         */
+        OrientDbConnectionManager openShard(String url);
+
+        /**
+         * Execute read function without transaction in database of shard
+         * @param manager {@link OrientDbConnectionManager} connection manager of shard
+         * @param func {@link Function} function for execute
+         * @param <T> type of return value
+         * @return {@link Optional} value from function or {@link Optional#empty()} if database isn't available
+         */
+        <T> Optional<T> read(OrientDbConnectionManager manager, Function<ODatabaseDocument, T> func);
+
+        /**
+         * Execute write function in transaction in database of shard
+         * @param manager {@link OrientDbConnectionManager} connection manager of shard
+         * @param func {@link Function} function for execute. Can be executed several times
+         * @param <T> type of return value
+         * @return {@link Optional} value from function or {@link Optional#empty()} if database isn't available
+         */
+        <T> Optional<T> write(OrientDbConnectionManager manager, Function<ODatabaseDocument, T> func);
+
+        /**
+         * Deserialize session data of document
+         * @param id {@link String} session id
+         * @param doc {@link ODocument} document of session data
+         * @return {@link SessionData} session data or null if it can't be deserialized
+         */
+        SessionData toSessionData(String id, ODocument doc);
+
+        /**
+         * Serialize attributes of session data
+         * @param data {@link SessionData} session data
+         * @return serialized attributes
+         */
+        byte[] toBytes(SessionData data);
+    }
+
+    /**
+     * Shard of context in list of shards
+     */
+    private static final class ShardRecord {
+        private final String url;
+        private final long added;
+        private final boolean migrated;
+
+        private ShardRecord(String url, long added, boolean migrated) {
+            this.url = url;
+            this.added = added;
+            this.migrated = migrated;
+        }
+
+        /**
+         * Merge copies of the same shard from different databases. Shard is migrated if any copy is migrated,
+         * because databases which were unavailable on completion of migration keep outdated copy
+         */
+        private ShardRecord merge(ShardRecord other) {
+            return new ShardRecord(url, Math.min(added, other.added), migrated || other.migrated);
+        }
+    }
+}
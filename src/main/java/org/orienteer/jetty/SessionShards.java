@@ -0,0 +1,185 @@
+package org.orienteer.jetty;
+
+import org.orienteer.jetty.util.ConsistentHashRing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Databases which session data is sharded across. Every session id is routed to one shard by {@link ConsistentHashRing},
+ * so added shard takes only about 1/N of sessions from other shards.
+ * Rings before every added shard are kept until migration is completed, so sessions which were stored in previous shards
+ * of their ids can be found and moved, even if several shards were added one after another.
+ * Every shard has own {@link OrientDbConnectionManager}. Queries for all shards are executed in parallel by shared executor.
+ */
+public class SessionShards {
+
+    private final int virtualNodes;
+    private final ExecutorService executor;
+
+    private volatile ConsistentHashRing<OrientDbConnectionManager> ring;
+
+    /**
+     * Rings before shards which weren't migrated yet were added, from the latest one
+     */
+    private volatile List<ConsistentHashRing<OrientDbConnectionManager>> previousRings = Collections.emptyList();
+    private volatile long lastAddedTime;
+    private volatile int generation;
+
+    /**
+     * Constructor
+     * @param shards {@link Map} started connection managers of shards by names of databases
+     * @param virtualNodes count of virtual nodes of every shard on ring
+     */
+    public SessionShards(Map<String, OrientDbConnectionManager> shards, int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        this.ring = new ConsistentHashRing<>(shards, virtualNodes);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "OrientDbSessionShards-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add shard to ring. Sessions which are remapped to added shard stay in previous shard until they are moved,
+     * so shards are migrating until {@link SessionShards#completeMigration(int)}
+     * @param name {@link String} name of database of shard
+     * @param manager {@link OrientDbConnectionManager} started connection manager of shard
+     * @param addedTime time in milliseconds when shard was added
+     * @throws IllegalArgumentException if shard with given name already exists
+     */
+    public synchronized void add(String name, OrientDbConnectionManager manager, long addedTime) {
+        ConsistentHashRing<OrientDbConnectionManager> newRing = ring.with(name, manager);
+        List<ConsistentHashRing<OrientDbConnectionManager>> previous = new ArrayList<>(previousRings.size() + 1);
+        previous.add(ring);
+        previous.addAll(previousRings);
+        previousRings = Collections.unmodifiableList(previous);
+        lastAddedTime = Math.max(lastAddedTime, addedTime);
+        generation++;
+        ring = newRing;
+    }
+
+    /**
+     * Complete migration: previous rings are dropped, so sessions are searched and deleted only in their current shards
+     * @param generation generation of shards which all remapped sessions were moved for
+     * @return true if migration is completed or false if shard was added since migration started
+     */
+    public synchronized boolean completeMigration(int generation) {
+        if (generation != this.generation) {
+            return false;
+        }
+        previousRings = Collections.emptyList();
+        return true;
+    }
+
+    /**
+     * Get shard of given session
+     * @param id {@link String} session id
+     * @return {@link OrientDbConnectionManager} connection manager of shard
+     */
+    public OrientDbConnectionManager get(String id) {
+        return ring.get(id);
+    }
+
+    /**
+     * Get shards which owned given session before shards which aren't migrated yet were added
+     * @param id {@link String} session id
+     * @return {@link List} connection managers of previous shards from the latest one
+     * or empty list if session wasn't remapped or migration is completed
+     */
+    public List<OrientDbConnectionManager> getPrevious(String id) {
+        List<ConsistentHashRing<OrientDbConnectionManager>> previous = previousRings;
+        if (previous.isEmpty()) {
+            return Collections.emptyList();
+        }
+        OrientDbConnectionManager current = ring.get(id);
+        List<OrientDbConnectionManager> managers = new ArrayList<>(1);
+        for (ConsistentHashRing<OrientDbConnectionManager> previousRing : previous) {
+            OrientDbConnectionManager manager = previousRing.get(id);
+            if (manager != current && !managers.contains(manager)) {
+                managers.add(manager);
+            }
+        }
+        return managers;
+    }
+
+    /**
+     * @return true if sessions can be stored in previous shards of their ids
+     */
+    public boolean isMigrating() {
+        return !previousRings.isEmpty();
+    }
+
+    /**
+     * @return time in milliseconds when the last shard was added
+     */
+    public long getLastAddedTime() {
+        return lastAddedTime;
+    }
+
+    /**
+     * @return count of added shards. Uses for detect shards which were added during migration
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get shard by name
+     * @param name {@link String} name of database of shard
+     * @return {@link OrientDbConnectionManager} connection manager of shard or null if database isn't a shard
+     */
+    public OrientDbConnectionManager getShard(String name) {
+        return ring.getNodes().get(name);
+    }
+
+    /**
+     * @param name {@link String} name of database
+     * @return true if database is a shard
+     */
+    public boolean contains(String name) {
+        return ring.getNodes().containsKey(name);
+    }
+
+    /**
+     * @return {@link List} connection managers of all shards in order of adding
+     */
+    public List<OrientDbConnectionManager> getConnectionManagers() {
+        return new ArrayList<>(ring.values());
+    }
+
+    /**
+     * @return {@link List} names of databases of all shards in order of adding
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(ring.getNodes().keySet());
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * @return {@link ExecutorService} executor for queries of all shards in parallel
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Stop executor and close connection managers of all shards
+     */
+    public void close() {
+        executor.shutdownNow();
+        for (OrientDbConnectionManager manager : ring.values()) {
+            manager.close();
+        }
+    }
+}
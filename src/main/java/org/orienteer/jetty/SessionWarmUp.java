@@ -0,0 +1,260 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import org.eclipse.jetty.server.session.SessionData;
+import org.orienteer.jetty.util.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Warm-up of {@link SessionNearCache} on start of node, so first requests after restart don't load sessions one by one.
+ * Not expired sessions of context are streamed by pages from the latest expiry time, so the most recently accessed sessions
+ * are cached first. Pages of every database are read in turn and attributes of read page are deserialized by bounded pool
+ * while next page is read. Sessions which can't be deserialized aren't cached.
+ * Warm-up stops when max count of sessions was read or time budget was elapsed.
+ */
+public class SessionWarmUp {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionWarmUp.class);
+
+    private final SessionNearCache nearCache;
+    private final Function<Candidate, SessionData> deserializer;
+    private final String contextPath;
+    private final String vhost;
+    private final String lastNode;
+    private final int maxSessions;
+    private final int pageSize;
+    private final int threads;
+    private final long timeBudgetMs;
+
+    private final LongAdder warmedSessions = new LongAdder();
+    private volatile long durationMs;
+
+    /**
+     * Constructor
+     * @param nearCache {@link SessionNearCache} cache for warm up
+     * @param deserializer {@link Function} which deserializes session data of candidate or returns null if it can't be deserialized
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @param lastNode {@link String} name of node which last handled sessions or null for sessions of all nodes
+     * @param maxSessions max count of sessions for warm up
+     * @param pageSize count of sessions in one page
+     * @param threads count of threads which deserialize session data
+     * @param timeBudgetMs max time in milliseconds of warm-up
+     */
+    public SessionWarmUp(SessionNearCache nearCache, Function<Candidate, SessionData> deserializer, String contextPath, String vhost,
+                         String lastNode, int maxSessions, int pageSize, int threads, long timeBudgetMs) {
+        this.nearCache = nearCache;
+        this.deserializer = deserializer;
+        this.contextPath = contextPath;
+        this.vhost = vhost;
+        this.lastNode = lastNode;
+        this.maxSessions = maxSessions;
+        this.pageSize = pageSize;
+        this.threads = threads;
+        this.timeBudgetMs = timeBudgetMs;
+    }
+
+    /**
+     * Warm up near cache by sessions of given databases. Returns when all sessions were cached or time budget was elapsed
+     * @param databases {@link List} databases with session data, for example shards
+     * @param now current time in milliseconds. Sessions which expiry time is less or equals it aren't cached
+     * @return count of cached sessions
+     */
+    public int warmUp(List<IDatabase> databases, long now) {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeBudgetMs;
+        AtomicInteger cached = new AtomicInteger();
+        AtomicInteger counter = new AtomicInteger();
+        // Reading thread deserializes page by itself if pool is busy, so count of read sessions in memory stays bounded
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads), r -> {
+                    Thread thread = new Thread(r, "OrientDbSessionWarmUp-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        int read = 0;
+        try {
+            List<Cursor> cursors = new ArrayList<>(databases.size());
+            databases.forEach(database -> cursors.add(new Cursor(database)));
+            while (!cursors.isEmpty() && read < maxSessions && System.currentTimeMillis() < deadline) {
+                for (int i = 0; i < cursors.size() && read < maxSessions; ) {
+                    Cursor cursor = cursors.get(i);
+                    List<Candidate> page = readPage(cursor, now, Math.min(pageSize, maxSessions - read));
+                    read += page.size();
+                    if (cursor.isExhausted()) {
+                        cursors.remove(i);
+                    } else {
+                        i++;
+                    }
+                    for (List<Candidate> chunk : split(page)) {
+                        executor.execute(() -> cache(chunk, deadline, cached));
+                    }
+                    if (System.currentTimeMillis() >= deadline) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        durationMs = System.currentTimeMillis() - start;
+        warmedSessions.add(cached.get());
+        LOG.info("Near cache is warmed up by {} of {} read sessions in {} ms", cached.get(), read, durationMs);
+        return cached.get();
+    }
+
+    /**
+     * Read next page of database. Cursor is exhausted if page is incomplete or database isn't available.
+     * Sessions with the same expiry time as the last session of previous page are read again, so page is extended by their count
+     */
+    private List<Candidate> readPage(Cursor cursor, long now, int limit) {
+        // Epoch is captured before read, so sessions which are changed by another node during warm-up aren't cached
+        long epoch = nearCache.getEpoch();
+        Optional<List<Candidate>> page = cursor.database.query(db -> {
+            int extendedLimit = limit + cursor.tied.size();
+            List<ODocument> docs = DbUtils.getActiveSessionDocuments(db, contextPath, vhost, lastNode, now, cursor.expiresUntil,
+                    extendedLimit);
+            List<Candidate> candidates = new ArrayList<>(docs.size());
+            for (ODocument doc : docs) {
+                if (!cursor.moveTo(doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME), doc.field(OrientDbJettyModule.PROP_ID))) {
+                    continue;
+                }
+                // Separately stored attributes aren't cached, because near cache keeps one blob
+                if (doc.field(OrientDbJettyModule.PROP_ATTRIBUTES) == null) {
+                    candidates.add(new Candidate(DbUtils.readMetadata(doc), DbUtils.getSessionVersion(doc), doc.field(OrientDbJettyModule.PROP_DATA), epoch));
+                }
+            }
+            cursor.exhausted = docs.size() < extendedLimit;
+            return candidates;
+        });
+        if (!page.isPresent()) {
+            LOG.warn("Warm-up of near cache skips unavailable database");
+            cursor.exhausted = true;
+        }
+        return page.orElseGet(ArrayList::new);
+    }
+
+    private List<List<Candidate>> split(List<Candidate> page) {
+        List<List<Candidate>> chunks = new ArrayList<>();
+        int chunkSize = Math.max(page.size() / threads, 1);
+        for (int i = 0; i < page.size(); i += chunkSize) {
+            chunks.add(page.subList(i, Math.min(i + chunkSize, page.size())));
+        }
+        return chunks;
+    }
+
+    private void cache(List<Candidate> chunk, long deadline, AtomicInteger cached) {
+        for (Candidate candidate : chunk) {
+            if (System.currentTimeMillis() >= deadline) {
+                return;
+            }
+            SessionData data = deserializer.apply(candidate);
+            if (data != null) {
+                nearCache.putLoaded(candidate.getId(), candidate.version, data, candidate.bytes, candidate.epoch);
+                cached.incrementAndGet();
+            }
+        }
+    }
+
+    public long getWarmedSessions() {
+        return warmedSessions.sum();
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * Database with session data
+     */
+    @FunctionalInterface
+    public interface IDatabase {
+        /**
+         * Execute query in database
+         * @param func {@link Function} query
+         * @return {@link Optional} result of query or {@link Optional#empty()} if database isn't available
+         */
+        Optional<List<Candidate>> query(Function<ODatabaseDocument, List<Candidate>> func);
+    }
+
+    /**
+     * Position of warm-up in database
+     */
+    private static final class Cursor {
+        private final IDatabase database;
+        private final Set<String> tied = new HashSet<>();
+        private Long expiresUntil;
+        private boolean exhausted;
+
+        private Cursor(IDatabase database) {
+            this.database = database;
+        }
+
+        /**
+         * Move cursor to read session
+         * @return false if session with the same expiry time as cursor was already read
+         */
+        private boolean moveTo(long expiry, String id) {
+            if (expiresUntil == null || expiry != expiresUntil) {
+                expiresUntil = expiry;
+                tied.clear();
+            }
+            return tied.add(id);
+        }
+
+        private boolean isExhausted() {
+            return exhausted;
+        }
+    }
+
+    /**
+     * Session data which was read for warm-up, but isn't deserialized yet
+     */
+    public static final class Candidate {
+        private final SessionData metadata;
+        private final int version;
+        private final byte[] bytes;
+        private final long epoch;
+
+        private Candidate(SessionData metadata, int version, byte[] bytes, long epoch) {
+            this.metadata = metadata;
+            this.version = version;
+            this.bytes = bytes;
+            this.epoch = epoch;
+        }
+
+        public String getId() {
+            return metadata.getId();
+        }
+
+        public SessionData getMetadata() {
+            return metadata;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.orienteer.jetty;
+
+import org.orienteer.jetty.util.PendingSessionWrite;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Buffer of session writes which weren't stored in database yet.
+ * Later writes of the same session coalesce over earlier ones. Background flusher stores pending writes
+ * by batches every flush interval or as soon as count of pending writes reaches max batch size.
+ * If count of pending writes reaches max pending, writing thread flushes buffer synchronously.
+ */
+public class SessionWriteBehindBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionWriteBehindBuffer.class);
+
+    private final Map<String, PendingSessionWrite> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Writes which are storing now. Reads must see them until they will be committed
+     */
+    private final Map<String, PendingSessionWrite> flushing = new ConcurrentHashMap<>();
+
+    private final Consumer<List<PendingSessionWrite>> writer;
+    private final int maxBatchSize;
+    private final int maxPending;
+    private final ScheduledExecutorService flusher;
+    private final Object flushLock = new Object();
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder coalescedWrites = new LongAdder();
+    private final LongAdder flushedWrites = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    /**
+     * Constructor
+     * @param writer {@link Consumer} which stores batch of writes in one transaction. Must throw exception if batch wasn't stored
+     * @param flushIntervalMs max time in milliseconds which write can be pending
+     * @param maxBatchSize max count of writes in one batch
+     * @param maxPending max count of pending writes
+     */
+    public SessionWriteBehindBuffer(Consumer<List<PendingSessionWrite>> writer, long flushIntervalMs, int maxBatchSize, int maxPending) {
+        this.writer = writer;
+        this.maxBatchSize = maxBatchSize;
+        this.maxPending = maxPending;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "OrientDbSessionWriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add write to buffer. Coalesces it with pending write of the same session
+     * @param write {@link PendingSessionWrite} write
+     */
+    public void add(PendingSessionWrite write) {
+        writes.increment();
+        pending.merge(write.getId(), write, (older, newer) -> {
+            coalescedWrites.increment();
+            return older.merge(newer);
+        });
+        int size = pending.size();
+        if (size >= maxPending) {
+            flush();
+        } else if (size >= maxBatchSize) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Get write of session which wasn't committed yet
+     * @param id {@link String} session id
+     * @return {@link PendingSessionWrite} or null if all writes of given session were committed
+     */
+    public PendingSessionWrite get(String id) {
+        PendingSessionWrite write = pending.get(id);
+        if (write == null) {
+            write = flushing.get(id);
+        }
+        return write;
+    }
+
+    /**
+     * Store all pending writes by batches
+     * @throws RuntimeException if some batch can't be stored. Writes of this batch stay pending
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            while (!pending.isEmpty()) {
+                flushBatch();
+            }
+        }
+    }
+
+    /**
+     * Flush all pending writes and stop background flusher
+     */
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flushBatch() {
+        List<PendingSessionWrite> batch = new ArrayList<>(Math.min(pending.size(), maxBatchSize));
+        Iterator<String> ids = pending.keySet().iterator();
+        while (ids.hasNext() && batch.size() < maxBatchSize) {
+            String id = ids.next();
+            PendingSessionWrite write = pending.get(id);
+            if (write != null) {
+                flushing.put(id, write);
+                if (pending.remove(id, write)) {
+                    batch.add(write);
+                } else {
+                    flushing.remove(id, write);
+                }
+            }
+        }
+        try {
+            writer.accept(batch);
+            flushedWrites.add(batch.size());
+            flushes.increment();
+        } catch (RuntimeException e) {
+            // Return writes to buffer before newer writes of the same sessions
+            for (PendingSessionWrite write : batch) {
+                pending.merge(write.getId(), write, (newer, older) -> older.merge(newer));
+            }
+            throw e;
+        } finally {
+            for (PendingSessionWrite write : batch) {
+                flushing.remove(write.getId(), write);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            LOG.error("Can't flush pending session writes! Pending writes: {}", pending.size(), e);
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getCoalescedWrites() {
+        return coalescedWrites.sum();
+    }
+
+    public long getFlushedWrites() {
+        return flushedWrites.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+}
@@ -0,0 +1,81 @@
+package org.orienteer.jetty.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listener which notifies several listeners in order
+ */
+public class CompositeSessionStoreListener implements ISessionStoreListener {
+
+    private final ISessionStoreListener[] listeners;
+
+    /**
+     * Constructor
+     * @param listeners {@link List} listeners for notify
+     */
+    public CompositeSessionStoreListener(List<ISessionStoreListener> listeners) {
+        this.listeners = new ArrayList<>(listeners).toArray(new ISessionStoreListener[0]);
+    }
+
+    /**
+     * Create listener which notifies given listeners
+     * @param listeners {@link List} listeners for notify
+     * @return {@link ISessionStoreListener#NOOP} if there are no listeners, single listener or composite listener
+     */
+    public static ISessionStoreListener of(List<ISessionStoreListener> listeners) {
+        if (listeners.isEmpty()) {
+            return NOOP;
+        }
+        return listeners.size() == 1 ? listeners.get(0) : new CompositeSessionStoreListener(listeners);
+    }
+
+    @Override
+    public void onLoad(String id, long durationNs, boolean found) {
+        for (ISessionStoreListener listener : listeners) {
+            listener.onLoad(id, durationNs, found);
+        }
+    }
+
+    @Override
+    public void onStore(String id, long durationNs, int bytes) {
+        for (ISessionStoreListener listener : listeners) {
+            listener.onStore(id, durationNs, bytes);
+        }
+    }
+
+    @Override
+    public void onDelete(String id, long durationNs) {
+        for (ISessionStoreListener listener : listeners) {
+            listener.onDelete(id, durationNs);
+        }
+    }
+
+    @Override
+    public void onExists(String id, long durationNs) {
+        for (ISessionStoreListener listener : listeners) {
+            listener.onExists(id, durationNs);
+        }
+    }
+
+    @Override
+    public void onGetExpired(int candidates, int expired, long durationNs) {
+        for (ISessionStoreListener listener : listeners) {
+            listener.onGetExpired(candidates, expired, durationNs);
+        }
+    }
+
+    @Override
+    public void onAcquireDatabase(long waitNs, boolean acquired) {
+        for (ISessionStoreListener listener : listeners) {
+            listener.onAcquireDatabase(waitNs, acquired);
+        }
+    }
+
+    @Override
+    public void onDeserializationFailure(String id, Exception e) {
+        for (ISessionStoreListener listener : listeners) {
+            listener.onDeserializationFailure(id, e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.orienteer.jetty.metrics;
+
+/**
+ * Listener of operations of {@link org.orienteer.jetty.OrientDbSessionDataStore}.
+ * Methods are called on request threads, so implementations must be thread safe and fast.
+ * All durations are in nanoseconds.
+ */
+public interface ISessionStoreListener {
+
+    /**
+     * Listener which ignores all operations
+     */
+    ISessionStoreListener NOOP = new ISessionStoreListener() { };
+
+    /**
+     * Called after session data was loaded
+     * @param id {@link String} session id
+     * @param durationNs duration of load
+     * @param found true if session data was found
+     */
+    default void onLoad(String id, long durationNs, boolean found) {
+    }
+
+    /**
+     * Called after session data was stored or added to write-behind buffer
+     * @param id {@link String} session id
+     * @param durationNs duration of store
+     * @param bytes size of serialized attributes or 0 if only access and expiry time were stored
+     */
+    default void onStore(String id, long durationNs, int bytes) {
+    }
+
+    /**
+     * Called after session data was deleted
+     * @param id {@link String} session id
+     * @param durationNs duration of delete
+     */
+    default void onDelete(String id, long durationNs) {
+    }
+
+    /**
+     * Called after existence of session data was checked
+     * @param id {@link String} session id
+     * @param durationNs duration of check
+     */
+    default void onExists(String id, long durationNs) {
+    }
+
+    /**
+     * Called after expired sessions were searched
+     * @param candidates count of candidates for expiry
+     * @param expired count of found expired sessions
+     * @param durationNs duration of search
+     */
+    default void onGetExpired(int candidates, int expired, long durationNs) {
+    }
+
+    /**
+     * Called after database was acquired from pool
+     * @param waitNs time of waiting database
+     * @param acquired true if database was acquired
+     */
+    default void onAcquireDatabase(long waitNs, boolean acquired) {
+    }
+
+    /**
+     * Called if session data can't be deserialized
+     * @param id {@link String} session id
+     * @param e {@link Exception} cause of failure
+     */
+    default void onDeserializationFailure(String id, Exception e) {
+    }
+}
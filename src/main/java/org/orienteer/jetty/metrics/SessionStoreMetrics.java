@@ -0,0 +1,230 @@
+package org.orienteer.jetty.metrics;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of {@link org.orienteer.jetty.OrientDbSessionDataStore} which are exposed through JMX.
+ * Latencies are recorded in {@link Histogram} and exposed in microseconds.
+ */
+@ManagedObject("Metrics of OrientDB session data store")
+public class SessionStoreMetrics implements ISessionStoreListener {
+
+    private final Histogram loadLatency = new Histogram();
+    private final Histogram storeLatency = new Histogram();
+    private final Histogram deleteLatency = new Histogram();
+    private final Histogram existsLatency = new Histogram();
+    private final Histogram getExpiredLatency = new Histogram();
+    private final Histogram acquireLatency = new Histogram();
+    private final Histogram storedBytes = new Histogram();
+    private final Histogram expiredSessions = new Histogram();
+
+    private final LongAdder loadMisses = new LongAdder();
+    private final LongAdder acquireFailures = new LongAdder();
+    private final LongAdder deserializationFailures = new LongAdder();
+
+    @Override
+    public void onLoad(String id, long durationNs, boolean found) {
+        loadLatency.record(durationNs);
+        if (!found) {
+            loadMisses.increment();
+        }
+    }
+
+    @Override
+    public void onStore(String id, long durationNs, int bytes) {
+        storeLatency.record(durationNs);
+        if (bytes > 0) {
+            storedBytes.record(bytes);
+        }
+    }
+
+    @Override
+    public void onDelete(String id, long durationNs) {
+        deleteLatency.record(durationNs);
+    }
+
+    @Override
+    public void onExists(String id, long durationNs) {
+        existsLatency.record(durationNs);
+    }
+
+    @Override
+    public void onGetExpired(int candidates, int expired, long durationNs) {
+        getExpiredLatency.record(durationNs);
+        expiredSessions.record(expired);
+    }
+
+    @Override
+    public void onAcquireDatabase(long waitNs, boolean acquired) {
+        acquireLatency.record(waitNs);
+        if (!acquired) {
+            acquireFailures.increment();
+        }
+    }
+
+    @Override
+    public void onDeserializationFailure(String id, Exception e) {
+        deserializationFailures.increment();
+    }
+
+    @ManagedAttribute(value = "count of loads", readonly = true)
+    public long getLoadCount() {
+        return loadLatency.getCount();
+    }
+
+    @ManagedAttribute(value = "count of loads of not existing sessions", readonly = true)
+    public long getLoadMisses() {
+        return loadMisses.sum();
+    }
+
+    @ManagedAttribute(value = "mean latency of load in microseconds", readonly = true)
+    public double getLoadMeanUs() {
+        return toMicros(loadLatency.getMean());
+    }
+
+    @ManagedAttribute(value = "99th percentile of load latency in microseconds", readonly = true)
+    public long getLoadP99Us() {
+        return toMicros(loadLatency.getPercentile(99));
+    }
+
+    @ManagedAttribute(value = "max latency of load in microseconds", readonly = true)
+    public long getLoadMaxUs() {
+        return toMicros(loadLatency.getMax());
+    }
+
+    @ManagedAttribute(value = "count of stores", readonly = true)
+    public long getStoreCount() {
+        return storeLatency.getCount();
+    }
+
+    @ManagedAttribute(value = "mean latency of store in microseconds", readonly = true)
+    public double getStoreMeanUs() {
+        return toMicros(storeLatency.getMean());
+    }
+
+    @ManagedAttribute(value = "99th percentile of store latency in microseconds", readonly = true)
+    public long getStoreP99Us() {
+        return toMicros(storeLatency.getPercentile(99));
+    }
+
+    @ManagedAttribute(value = "max latency of store in microseconds", readonly = true)
+    public long getStoreMaxUs() {
+        return toMicros(storeLatency.getMax());
+    }
+
+    @ManagedAttribute(value = "mean size of serialized session data in bytes", readonly = true)
+    public double getStoredBytesMean() {
+        return storedBytes.getMean();
+    }
+
+    @ManagedAttribute(value = "99th percentile of serialized session data size in bytes", readonly = true)
+    public long getStoredBytesP99() {
+        return storedBytes.getPercentile(99);
+    }
+
+    @ManagedAttribute(value = "max size of serialized session data in bytes", readonly = true)
+    public long getStoredBytesMax() {
+        return storedBytes.getMax();
+    }
+
+    @ManagedAttribute(value = "count of deletes", readonly = true)
+    public long getDeleteCount() {
+        return deleteLatency.getCount();
+    }
+
+    @ManagedAttribute(value = "mean latency of delete in microseconds", readonly = true)
+    public double getDeleteMeanUs() {
+        return toMicros(deleteLatency.getMean());
+    }
+
+    @ManagedAttribute(value = "99th percentile of delete latency in microseconds", readonly = true)
+    public long getDeleteP99Us() {
+        return toMicros(deleteLatency.getPercentile(99));
+    }
+
+    @ManagedAttribute(value = "count of existence checks", readonly = true)
+    public long getExistsCount() {
+        return existsLatency.getCount();
+    }
+
+    @ManagedAttribute(value = "mean latency of existence check in microseconds", readonly = true)
+    public double getExistsMeanUs() {
+        return toMicros(existsLatency.getMean());
+    }
+
+    @ManagedAttribute(value = "99th percentile of existence check latency in microseconds", readonly = true)
+    public long getExistsP99Us() {
+        return toMicros(existsLatency.getPercentile(99));
+    }
+
+    @ManagedAttribute(value = "count of searches of expired sessions", readonly = true)
+    public long getGetExpiredCount() {
+        return getExpiredLatency.getCount();
+    }
+
+    @ManagedAttribute(value = "mean latency of search of expired sessions in microseconds", readonly = true)
+    public double getGetExpiredMeanUs() {
+        return toMicros(getExpiredLatency.getMean());
+    }
+
+    @ManagedAttribute(value = "count of found expired sessions", readonly = true)
+    public long getExpiredSessions() {
+        return expiredSessions.getSum();
+    }
+
+    @ManagedAttribute(value = "max count of expired sessions found by one search", readonly = true)
+    public long getExpiredSessionsMax() {
+        return expiredSessions.getMax();
+    }
+
+    @ManagedAttribute(value = "mean time of waiting database from pool in microseconds", readonly = true)
+    public double getAcquireMeanUs() {
+        return toMicros(acquireLatency.getMean());
+    }
+
+    @ManagedAttribute(value = "99th percentile of time of waiting database from pool in microseconds", readonly = true)
+    public long getAcquireP99Us() {
+        return toMicros(acquireLatency.getPercentile(99));
+    }
+
+    @ManagedAttribute(value = "count of failed acquires of database", readonly = true)
+    public long getAcquireFailures() {
+        return acquireFailures.sum();
+    }
+
+    @ManagedAttribute(value = "count of session data which can't be deserialized", readonly = true)
+    public long getDeserializationFailures() {
+        return deserializationFailures.sum();
+    }
+
+    /**
+     * @return summary of metrics
+     */
+    @ManagedOperation(value = "summary of metrics", impact = "INFO")
+    public String summary() {
+        return String.format("load: count=%d, misses=%d, mean=%.1fus, p99=%dus; store: count=%d, mean=%.1fus, p99=%dus, bytes p99=%d; "
+                        + "delete: count=%d, p99=%dus; exists: count=%d, p99=%dus; expired: searches=%d, found=%d; "
+                        + "acquire: p99=%dus, failures=%d; deserialization failures=%d",
+                getLoadCount(), getLoadMisses(), getLoadMeanUs(), getLoadP99Us(), getStoreCount(), getStoreMeanUs(), getStoreP99Us(),
+                getStoredBytesP99(), getDeleteCount(), getDeleteP99Us(), getExistsCount(), getExistsP99Us(), getGetExpiredCount(),
+                getExpiredSessions(), getAcquireP99Us(), getAcquireFailures(), getDeserializationFailures());
+    }
+
+    @Override
+    public String toString() {
+        return summary();
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static double toMicros(double nanos) {
+        return nanos / 1000;
+    }
+}
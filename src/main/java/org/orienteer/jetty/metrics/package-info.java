@@ -0,0 +1,4 @@
+/**
+ * Metrics and listeners of operations of HTTP session store
+ */
+package org.orienteer.jetty.metrics;
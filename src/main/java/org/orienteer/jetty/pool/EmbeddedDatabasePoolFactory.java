@@ -0,0 +1,74 @@
+package org.orienteer.jetty.pool;
+
+import com.orientechnologies.orient.core.db.OPartitionedDatabasePool;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Supplier;
+
+/**
+ * Factory of pools which acquire databases from pool of application.
+ * Uses when OrientDB server is embedded in the same JVM as Jetty (for example Orienteer),
+ * so session data is read and written directly by storage without remote binary protocol
+ * and without second pool of databases. Pool of application is never closed by session store.
+ */
+public class EmbeddedDatabasePoolFactory implements IDatabasePoolFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedDatabasePoolFactory.class);
+
+    private final Supplier<ODatabaseDocument> databases;
+    private final String name;
+
+    /**
+     * Constructor
+     * @param databases {@link Supplier} which acquires opened database of application. Database is released by {@link ODatabaseDocument#close()}
+     * @param name {@link String} name of database for logs
+     */
+    public EmbeddedDatabasePoolFactory(Supplier<ODatabaseDocument> databases, String name) {
+        this.databases = databases;
+        this.name = name;
+    }
+
+    /**
+     * Create factory which acquires databases from given pool of application
+     * @param pool {@link OPartitionedDatabasePool} pool of "plocal:" or "memory:" database
+     * @return {@link EmbeddedDatabasePoolFactory} factory
+     */
+    public static EmbeddedDatabasePoolFactory of(OPartitionedDatabasePool pool) {
+        return new EmbeddedDatabasePoolFactory(pool::acquire, pool.getUrl());
+    }
+
+    @Override
+    public IDatabasePool open(int maxPoolSize) {
+        ODatabaseDocument db = databases.get();
+        try {
+            if (db.getStorage().isRemote()) {
+                LOG.warn("Embedded pool of sessions uses remote database {}", name);
+            }
+        } finally {
+            db.close();
+        }
+        return new IDatabasePool() {
+            @Override
+            public ODatabaseDocument acquire() {
+                return databases.get();
+            }
+
+            @Override
+            public void close() {
+                // Pool is owned by application
+            }
+        };
+    }
+
+    @Override
+    public ODatabaseDocument openDatabase() {
+        return databases.get();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
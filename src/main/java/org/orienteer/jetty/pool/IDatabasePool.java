@@ -0,0 +1,27 @@
+package org.orienteer.jetty.pool;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+
+/**
+ * Pool of databases which is used by {@link org.orienteer.jetty.OrientDbConnectionManager}
+ */
+public interface IDatabasePool {
+
+    /**
+     * Acquire database from pool. Database is returned to pool by {@link ODatabaseDocument#close()}
+     * @return {@link ODatabaseDocument} opened database
+     */
+    ODatabaseDocument acquire();
+
+    /**
+     * Close pool. Pool which is owned by application stays opened
+     */
+    void close();
+
+    /**
+     * Mark pool as broken, so next {@link IDatabasePoolFactory#open(int)} doesn't return the same pool again.
+     * Pool stays usable until it is closed. Does nothing for pool which isn't shared
+     */
+    default void invalidate() {
+    }
+}
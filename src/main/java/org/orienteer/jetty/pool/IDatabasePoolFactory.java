@@ -0,0 +1,40 @@
+package org.orienteer.jetty.pool;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Factory of database pools for {@link org.orienteer.jetty.OrientDbSessionDataStore}.
+ * Pool is opened again by factory if database became unavailable.
+ */
+public interface IDatabasePoolFactory {
+
+    /**
+     * Open new pool of databases
+     * @param maxPoolSize max count of acquired databases
+     * @return {@link IDatabasePool} opened pool
+     * @throws IllegalStateException if pool can't be opened
+     */
+    IDatabasePool open(int maxPoolSize);
+
+    /**
+     * Open database which isn't limited by pool size. Uses for long-living connections, for example for live queries
+     * @return {@link ODatabaseDocument} opened database which must be closed by caller
+     */
+    ODatabaseDocument openDatabase();
+
+    /**
+     * @return {@link String} name of database for logs
+     */
+    String getName();
+
+    /**
+     * Permits which limit count of databases acquired from pools of factory
+     * @param maxPoolSize max count of acquired databases which is requested by store
+     * @return {@link Semaphore} new permits of given size, factory which shares pool between stores returns permits of shared pool
+     */
+    default Semaphore getPermits(int maxPoolSize) {
+        return new Semaphore(maxPoolSize, true);
+    }
+}
@@ -0,0 +1,62 @@
+package org.orienteer.jetty.pool;
+
+import com.orientechnologies.orient.core.db.OPartitionedDatabasePool;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+
+/**
+ * Factory of {@link OPartitionedDatabasePool} by url of database.
+ * Url can be "remote:" for standalone OrientDB server or "plocal:" and "memory:" for database in the same JVM.
+ */
+public class PartitionedDatabasePoolFactory implements IDatabasePoolFactory {
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    /**
+     * Constructor
+     * @param url {@link String} url of database
+     * @param user {@link String} username
+     * @param password {@link String} password
+     */
+    public PartitionedDatabasePoolFactory(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    @Override
+    public IDatabasePool open(int maxPoolSize) {
+        checkConfigured();
+        OPartitionedDatabasePool pool = new OPartitionedDatabasePool(url, user, password, maxPoolSize, maxPoolSize);
+        return new IDatabasePool() {
+            @Override
+            public ODatabaseDocument acquire() {
+                return pool.acquire();
+            }
+
+            @Override
+            public void close() {
+                pool.close();
+            }
+        };
+    }
+
+    @Override
+    public ODatabaseDocument openDatabase() {
+        checkConfigured();
+        return new ODatabaseDocumentTx(url).open(user, password);
+    }
+
+    @Override
+    public String getName() {
+        return url;
+    }
+
+    private void checkConfigured() {
+        if (url == null || user == null || password == null) {
+            throw new IllegalStateException("Url, username or password of database are not configured");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.orienteer.jetty.pool;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Factory which shares one pool of another factory between many stores, for example between stores of all contexts of Jetty.
+ * Every {@link SharedDatabasePoolFactory#open(int)} returns new reference to the same pool and pool is closed when
+ * the last reference is closed. Size of shared pool is set by factory and size which is requested by store is ignored:
+ * all stores acquire databases by the same permits of factory, so they can't exhaust shared pool.
+ * Pool which was invalidated by any reference is replaced by new pool for next references,
+ * references to old pool keep it opened until they are closed.
+ */
+public class SharedDatabasePoolFactory implements IDatabasePoolFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedDatabasePoolFactory.class);
+
+    private final IDatabasePoolFactory delegate;
+    private final int maxPoolSize;
+    private final Semaphore permits;
+
+    private SharedPool current;
+
+    /**
+     * Constructor
+     * @param delegate {@link IDatabasePoolFactory} factory which opens shared pool
+     * @param maxPoolSize max count of acquired databases of shared pool
+     */
+    public SharedDatabasePoolFactory(IDatabasePoolFactory delegate, int maxPoolSize) {
+        this.delegate = delegate;
+        this.maxPoolSize = maxPoolSize;
+        this.permits = new Semaphore(maxPoolSize, true);
+    }
+
+    @Override
+    public synchronized IDatabasePool open(int maxPoolSize) {
+        if (current == null) {
+            current = new SharedPool(delegate.open(this.maxPoolSize));
+            LOG.debug("Shared database pool for {} is opened", delegate.getName());
+        }
+        return current.reference();
+    }
+
+    @Override
+    public ODatabaseDocument openDatabase() {
+        return delegate.openDatabase();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public Semaphore getPermits(int maxPoolSize) {
+        return permits;
+    }
+
+    /**
+     * @return count of opened references to current shared pool
+     */
+    public synchronized int getReferences() {
+        return current != null ? current.references : 0;
+    }
+
+    public IDatabasePoolFactory getDelegate() {
+        return delegate;
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    private synchronized void release(SharedPool pool) {
+        pool.references--;
+        if (pool.references > 0) {
+            return;
+        }
+        if (current == pool) {
+            current = null;
+        }
+        pool.pool.close();
+        LOG.debug("Shared database pool for {} is closed", delegate.getName());
+    }
+
+    private synchronized void invalidate(SharedPool pool) {
+        if (current == pool) {
+            current = null;
+        }
+    }
+
+    /**
+     * Pool of delegate factory with count of opened references
+     */
+    private final class SharedPool {
+        private final IDatabasePool pool;
+        private int references;
+
+        private SharedPool(IDatabasePool pool) {
+            this.pool = pool;
+        }
+
+        private IDatabasePool reference() {
+            references++;
+            return new IDatabasePool() {
+                private boolean closed;
+
+                @Override
+                public ODatabaseDocument acquire() {
+                    return pool.acquire();
+                }
+
+                @Override
+                public void close() {
+                    synchronized (SharedDatabasePoolFactory.this) {
+                        if (!closed) {
+                            closed = true;
+                            release(SharedPool.this);
+                        }
+                    }
+                }
+
+                @Override
+                public void invalidate() {
+                    SharedDatabasePoolFactory.this.invalidate(SharedPool.this);
+                }
+            };
+        }
+    }
+}
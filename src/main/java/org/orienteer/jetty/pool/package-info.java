@@ -0,0 +1,4 @@
+/**
+ * Pools of databases which are used by HTTP session store
+ */
+package org.orienteer.jetty.pool;
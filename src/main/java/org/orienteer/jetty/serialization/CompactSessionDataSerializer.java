@@ -0,0 +1,398 @@
+package org.orienteer.jetty.serialization;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Default compact binary serializer of {@link SessionData} attributes.
+ * Format:
+ * 1. version header {@link CompactSessionDataSerializer#VERSION}
+ * 2. count of attributes and pairs of attribute name and type-tagged value.
+ * Values of primitive wrappers, {@link String} and byte[] are written directly,
+ * all other values are written by Java serialization.
+ * Per-attribute format {@link CompactSessionDataSerializer#VERSION_PER_ATTRIBUTE} prefixes every value by its size,
+ * so attributes are restored in {@link LazySessionData} as raw bytes and decoded only when they are accessed.
+ * Bytes of previous versions are still supported:
+ * {@link CompactSessionDataSerializer#VERSION_WITH_METADATA} contains session metadata as raw primitives before attributes
+ * and bytes which was created by {@link JavaSessionDataSerializer} are deserialized by it.
+ */
+public class CompactSessionDataSerializer implements ISessionDataSerializer {
+
+    /**
+     * Version header of compact format
+     */
+    public static final byte VERSION = 2;
+
+    /**
+     * Version header of compact format which contains session metadata
+     */
+    public static final byte VERSION_WITH_METADATA = 1;
+
+    /**
+     * Version header of compact format in which every value is prefixed by its size
+     */
+    public static final byte VERSION_PER_ATTRIBUTE = 3;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INTEGER = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_BOOLEAN = 4;
+    private static final byte TAG_DOUBLE = 5;
+    private static final byte TAG_FLOAT = 6;
+    private static final byte TAG_SHORT = 7;
+    private static final byte TAG_BYTE = 8;
+    private static final byte TAG_CHARACTER = 9;
+    private static final byte TAG_BYTES = 10;
+    private static final byte TAG_SERIALIZABLE = 11;
+
+    private final JavaSessionDataSerializer legacySerializer = new JavaSessionDataSerializer();
+
+    private final boolean perAttribute;
+
+    /**
+     * Constructor of serializer which writes {@link CompactSessionDataSerializer#VERSION}
+     */
+    public CompactSessionDataSerializer() {
+        this(false);
+    }
+
+    /**
+     * Constructor
+     * @param perAttribute true for write {@link CompactSessionDataSerializer#VERSION_PER_ATTRIBUTE}
+     *                     and restore session data as {@link LazySessionData}
+     */
+    public CompactSessionDataSerializer(boolean perAttribute) {
+        this.perAttribute = perAttribute;
+    }
+
+    @Override
+    public byte[] serialize(SessionData data) throws IOException {
+        SerializationBuffer buffer = SerializationBuffer.acquire();
+        try {
+            DataOutputStream out = buffer.getDataOutput();
+            if (perAttribute) {
+                out.writeByte(VERSION_PER_ATTRIBUTE);
+                writeEncodedAttributes(buffer, data);
+            } else {
+                out.writeByte(VERSION);
+                writeAttributes(buffer, data.getAllAttributes());
+            }
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public SessionData newSessionData(String id) {
+        return perAttribute ? new LazySessionData(id, this) : ISessionDataSerializer.super.newSessionData(id);
+    }
+
+    @Override
+    public void deserialize(byte[] bytes, SessionData data) throws IOException, ClassNotFoundException {
+        if (JavaSessionDataSerializer.isJavaSerialized(bytes)) {
+            legacySerializer.deserialize(bytes, data);
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            byte version = in.readByte();
+            if (version == VERSION_PER_ATTRIBUTE) {
+                readEncodedAttributes(in, data);
+                return;
+            }
+            if (version == VERSION_WITH_METADATA) {
+                readMetadata(in, data);
+            } else if (version != VERSION) {
+                throw new IOException("Unsupported version of session data: " + version);
+            }
+            readAttributes(in, data);
+        }
+    }
+
+    /**
+     * Encode value of attribute to type-tagged bytes of {@link CompactSessionDataSerializer#VERSION_PER_ATTRIBUTE}
+     * @param value value of attribute
+     * @return array of bytes
+     * @throws IOException if can't serialize value
+     */
+    public byte[] encodeValue(Object value) throws IOException {
+        SerializationBuffer buffer = SerializationBuffer.acquire();
+        try {
+            writeValue(buffer, value);
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Decode value of attribute from bytes which were created by {@link CompactSessionDataSerializer#encodeValue(Object)}
+     * @param bytes array of bytes
+     * @return value of attribute
+     * @throws IOException if can't read value
+     * @throws ClassNotFoundException if can't find class of value
+     */
+    public Object decodeValue(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return readValue(in);
+        }
+    }
+
+    private void readMetadata(DataInputStream in, SessionData data) throws IOException {
+        readString(in); // id
+        data.setContextPath(readString(in));
+        data.setVhost(readString(in));
+        data.setLastNode(readString(in));
+        data.setCreated(in.readLong());
+        data.setAccessed(in.readLong());
+        data.setLastAccessed(in.readLong());
+        data.setCookieSet(in.readLong());
+        data.setExpiry(in.readLong());
+        data.setMaxInactiveMs(in.readLong());
+    }
+
+    private void writeAttributes(SerializationBuffer buffer, Map<String, Object> attributes) throws IOException {
+        buffer.getDataOutput().writeInt(attributes.size());
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            writeString(buffer.getDataOutput(), entry.getKey());
+            writeValue(buffer, entry.getValue());
+        }
+    }
+
+    /**
+     * Encode every attribute of session data separately by {@link CompactSessionDataSerializer#encodeValue(Object)}.
+     * Attributes of {@link LazySessionData} which weren't accessed are returned as raw bytes without decode.
+     * @param data {@link SessionData} session data
+     * @return {@link Map} encoded attributes by their names
+     * @throws IOException if can't serialize some attribute
+     */
+    public Map<String, byte[]> encodeAttributes(SessionData data) throws IOException {
+        Map<String, byte[]> encoded = new LinkedHashMap<>();
+        if (data instanceof LazySessionData) {
+            LazySessionData lazy = (LazySessionData) data;
+            encoded.putAll(lazy.getRawAttributes());
+            for (Map.Entry<String, Object> entry : lazy.getDecodedAttributes().entrySet()) {
+                encoded.put(entry.getKey(), encodeValue(entry.getValue()));
+            }
+        } else {
+            for (Map.Entry<String, Object> entry : data.getAllAttributes().entrySet()) {
+                encoded.put(entry.getKey(), encodeValue(entry.getValue()));
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Put attributes which were encoded by {@link CompactSessionDataSerializer#encodeValue(Object)} to session data.
+     * {@link LazySessionData} keeps them as raw bytes, other session data gets decoded values
+     * @param encoded {@link Map} encoded attributes by their names
+     * @param data {@link SessionData} session data
+     * @throws IOException if can't read some attribute
+     * @throws ClassNotFoundException if can't find class of some attribute
+     */
+    public void decodeAttributes(Map<String, byte[]> encoded, SessionData data) throws IOException, ClassNotFoundException {
+        if (data instanceof LazySessionData) {
+            ((LazySessionData) data).putRawAttributes(encoded);
+            return;
+        }
+        Map<String, Object> attributes = new HashMap<>(encoded.size() * 2);
+        for (Map.Entry<String, byte[]> entry : encoded.entrySet()) {
+            Object value = decodeValue(entry.getValue());
+            if (value != null) {
+                attributes.put(entry.getKey(), value);
+            }
+        }
+        data.putAllAttributes(attributes);
+    }
+
+    /**
+     * Write attributes of {@link CompactSessionDataSerializer#VERSION_PER_ATTRIBUTE}.
+     * Values are written directly to buffer and prefixed by their size after write
+     */
+    private void writeEncodedAttributes(SerializationBuffer buffer, SessionData data) throws IOException {
+        DataOutputStream out = buffer.getDataOutput();
+        Map<String, byte[]> raw = Collections.emptyMap();
+        Map<String, Object> decoded;
+        if (data instanceof LazySessionData) {
+            raw = ((LazySessionData) data).getRawAttributes();
+            decoded = ((LazySessionData) data).getDecodedAttributes();
+        } else {
+            decoded = data.getAllAttributes();
+        }
+        int sizePosition = buffer.reserveInt();
+        int size = 0;
+        for (Map.Entry<String, byte[]> entry : raw.entrySet()) {
+            if (!decoded.containsKey(entry.getKey())) {
+                writeString(out, entry.getKey());
+                writeBytes(out, entry.getValue());
+                size++;
+            }
+        }
+        for (Map.Entry<String, Object> entry : decoded.entrySet()) {
+            writeString(out, entry.getKey());
+            int lengthPosition = buffer.reserveInt();
+            writeValue(buffer, entry.getValue());
+            buffer.writeIntAt(lengthPosition, buffer.size() - lengthPosition - 4);
+            size++;
+        }
+        buffer.writeIntAt(sizePosition, size);
+    }
+
+    private void readEncodedAttributes(DataInputStream in, SessionData data) throws IOException, ClassNotFoundException {
+        int size = in.readInt();
+        Map<String, byte[]> encoded = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            encoded.put(readString(in), readBytes(in));
+        }
+        decodeAttributes(encoded, data);
+    }
+
+    private void readAttributes(DataInputStream in, SessionData data) throws IOException, ClassNotFoundException {
+        int size = in.readInt();
+        Map<String, Object> attributes = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String name = readString(in);
+            Object value = readValue(in);
+            if (value != null) {
+                attributes.put(name, value);
+            }
+        }
+        data.putAllAttributes(attributes);
+    }
+
+    private void writeValue(SerializationBuffer buffer, Object value) throws IOException {
+        DataOutputStream out = buffer.getDataOutput();
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TAG_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(TAG_CHARACTER);
+            out.writeChar((Character) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(TAG_BYTES);
+            writeBytes(out, (byte[]) value);
+        } else {
+            out.writeByte(TAG_SERIALIZABLE);
+            writeJavaBytes(buffer, value);
+        }
+    }
+
+    private Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readString(in);
+            case TAG_INTEGER:
+                return in.readInt();
+            case TAG_LONG:
+                return in.readLong();
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_SHORT:
+                return in.readShort();
+            case TAG_BYTE:
+                return in.readByte();
+            case TAG_CHARACTER:
+                return in.readChar();
+            case TAG_BYTES:
+                return readBytes(in);
+            case TAG_SERIALIZABLE:
+                return fromJavaBytes(readBytes(in));
+            default:
+                throw new IOException("Unknown type tag of session attribute: " + tag);
+        }
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Write value by Java serialization directly to buffer and prefix it by its size after write
+     */
+    private void writeJavaBytes(SerializationBuffer buffer, Object value) throws IOException {
+        if (!(value instanceof Serializable)) {
+            throw new IOException("Session attribute is not serializable: " + value.getClass().getName());
+        }
+        int lengthPosition = buffer.reserveInt();
+        // Stream isn't closed, because buffer is still used by caller
+        ObjectOutputStream out = new ObjectOutputStream(buffer);
+        out.writeObject(value);
+        out.flush();
+        buffer.writeIntAt(lengthPosition, buffer.size() - lengthPosition - 4);
+    }
+
+    private Object fromJavaBytes(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ClassLoadingObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
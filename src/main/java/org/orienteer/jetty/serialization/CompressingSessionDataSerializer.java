@@ -0,0 +1,184 @@
+package org.orienteer.jetty.serialization;
+
+import org.eclipse.jetty.server.session.SessionData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Serializer which compresses bytes of another serializer by {@link Deflater} if their size reaches threshold.
+ * Format of compressed bytes:
+ * 1. header {@link CompressingSessionDataSerializer#DEFLATED}
+ * 2. size of uncompressed bytes as int
+ * 3. deflated bytes of delegate serializer.
+ * Bytes which are smaller than threshold are written by delegate serializer as is,
+ * so compressed and uncompressed bytes can be stored side by side. Compressed bytes are always decompressed,
+ * even if compression is disabled. First byte of delegate serializer must not be equal to {@link CompressingSessionDataSerializer#DEFLATED}.
+ */
+public class CompressingSessionDataSerializer implements ISessionDataSerializer {
+
+    /**
+     * Header of compressed bytes
+     */
+    public static final byte DEFLATED = 0x44;
+
+    private static final int HEADER_SIZE = 5;
+
+    /**
+     * Inflater of thread is reused, because every new one allocates native memory
+     */
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private final ISessionDataSerializer delegate;
+    private final int threshold;
+    private final int level;
+
+    /**
+     * Deflater of thread with level of this serializer is reused, because every new one allocates native memory
+     */
+    private final ThreadLocal<Deflater> deflaters;
+
+    private final LongAdder compressedWrites = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressionTimeNs = new LongAdder();
+    private final LongAdder decompressionTimeNs = new LongAdder();
+
+    /**
+     * Constructor of serializer which only decompresses bytes
+     * @param delegate {@link ISessionDataSerializer} serializer of session data
+     */
+    public CompressingSessionDataSerializer(ISessionDataSerializer delegate) {
+        this(delegate, -1, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructor
+     * @param delegate {@link ISessionDataSerializer} serializer of session data
+     * @param threshold min size of bytes in bytes which are compressed. Negative value disables compression
+     * @param level compression level of {@link Deflater}
+     */
+    public CompressingSessionDataSerializer(ISessionDataSerializer delegate, int threshold, int level) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public byte[] serialize(SessionData data) throws IOException {
+        byte[] bytes = delegate.serialize(data);
+        if (threshold < 0 || bytes.length < threshold) {
+            return bytes;
+        }
+        long start = System.nanoTime();
+        byte[] compressed = compress(bytes);
+        compressionTimeNs.add(System.nanoTime() - start);
+        if (compressed.length >= bytes.length) {
+            return bytes;
+        }
+        compressedWrites.increment();
+        uncompressedBytes.add(bytes.length);
+        compressedBytes.add(compressed.length);
+        return compressed;
+    }
+
+    @Override
+    public void deserialize(byte[] bytes, SessionData data) throws IOException, ClassNotFoundException {
+        if (bytes != null && bytes.length >= HEADER_SIZE && bytes[0] == DEFLATED) {
+            long start = System.nanoTime();
+            byte[] decompressed = decompress(bytes);
+            decompressionTimeNs.add(System.nanoTime() - start);
+            bytes = decompressed;
+        }
+        delegate.deserialize(bytes, data);
+    }
+
+    @Override
+    public SessionData newSessionData(String id) {
+        return delegate.newSessionData(id);
+    }
+
+    /**
+     * Deflate bytes directly to pooled {@link SerializationBuffer}, so only result of exact size is allocated
+     */
+    private byte[] compress(byte[] bytes) {
+        Deflater deflater = deflaters.get();
+        SerializationBuffer buffer = SerializationBuffer.acquire();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            buffer.write(DEFLATED);
+            buffer.writeIntAt(buffer.reserveInt(), bytes.length);
+            while (!deflater.finished()) {
+                buffer.ensureFree(Math.max(bytes.length / 2, 512));
+                byte[] array = buffer.array();
+                buffer.advance(deflater.deflate(array, buffer.size(), array.length - buffer.size()));
+            }
+            return buffer.toByteArray();
+        } finally {
+            deflater.reset();
+            buffer.release();
+        }
+    }
+
+    private byte[] decompress(byte[] bytes) throws IOException {
+        int size = ByteBuffer.wrap(bytes, 1, 4).getInt();
+        if (size < 0) {
+            throw new IOException("Invalid size of compressed session data: " + size);
+        }
+        Inflater inflater = INFLATERS.get();
+        try {
+            inflater.setInput(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+            byte[] result = new byte[size];
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int inflated = inflater.inflate(result, length, size - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != size) {
+                throw new IOException("Compressed session data is truncated");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Can't decompress session data", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    public ISessionDataSerializer getDelegate() {
+        return delegate;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public long getCompressedWrites() {
+        return compressedWrites.sum();
+    }
+
+    /**
+     * @return ratio of compressed size to uncompressed size of all compressed session data or 1 if nothing was compressed
+     */
+    public double getCompressionRatio() {
+        long uncompressed = uncompressedBytes.sum();
+        return uncompressed == 0 ? 1 : (double) compressedBytes.sum() / uncompressed;
+    }
+
+    public long getCompressionTimeMs() {
+        return compressionTimeNs.sum() / 1_000_000;
+    }
+
+    public long getDecompressionTimeMs() {
+        return decompressionTimeNs.sum() / 1_000_000;
+    }
+}
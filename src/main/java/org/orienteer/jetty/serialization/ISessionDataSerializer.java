@@ -0,0 +1,40 @@
+package org.orienteer.jetty.serialization;
+
+import org.eclipse.jetty.server.session.SessionData;
+
+import java.io.IOException;
+
+/**
+ * Serializer of {@link SessionData} attributes to byte array which stores in {@link org.orienteer.jetty.OrientDbJettyModule#PROP_DATA}.
+ * Session metadata is stored in separate fields of document, so serializer writes only attributes.
+ * Implementations must be thread safe.
+ */
+public interface ISessionDataSerializer {
+
+    /**
+     * Serialize attributes of session data to bytes
+     * @param data {@link SessionData} session data for serialize
+     * @return array of bytes
+     * @throws IOException if can't serialize session data
+     */
+    byte[] serialize(SessionData data) throws IOException;
+
+    /**
+     * Deserialize attributes from bytes and put them to given session data.
+     * Formats of previous versions which contain session metadata also restore it in given session data.
+     * @param bytes array of bytes which was created by {@link ISessionDataSerializer#serialize(SessionData)}
+     * @param data {@link SessionData} session data for put deserialized attributes
+     * @throws IOException if can't read session data from given bytes
+     * @throws ClassNotFoundException if can't find class of some session attribute
+     */
+    void deserialize(byte[] bytes, SessionData data) throws IOException, ClassNotFoundException;
+
+    /**
+     * Create empty session data for {@link ISessionDataSerializer#deserialize(byte[], SessionData)}
+     * @param id {@link String} session id
+     * @return {@link SessionData} session data without metadata and attributes
+     */
+    default SessionData newSessionData(String id) {
+        return new SessionData(id, null, null, 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,51 @@
+package org.orienteer.jetty.serialization;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Serializer which uses Java serialization of whole {@link SessionData}.
+ * It is format of session data which was used by previous versions of orientdb-jetty,
+ * so it writes session metadata together with attributes.
+ */
+public class JavaSessionDataSerializer implements ISessionDataSerializer {
+
+    /**
+     * First byte of stream created by {@link ObjectOutputStream}
+     */
+    public static final byte STREAM_MAGIC_FIRST_BYTE = (byte) 0xAC;
+
+    @Override
+    public byte[] serialize(SessionData data) throws IOException {
+        SerializationBuffer buffer = SerializationBuffer.acquire();
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(buffer);
+            oos.writeObject(data);
+            oos.flush();
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public void deserialize(byte[] bytes, SessionData data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ClassLoadingObjectInputStream(new ByteArrayInputStream(bytes))) {
+            data.copy((SessionData) in.readObject());
+        }
+    }
+
+    /**
+     * Check if given bytes was created by Java serialization
+     * @param bytes array of bytes
+     * @return true if bytes starts with Java serialization stream header
+     */
+    public static boolean isJavaSerialized(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == STREAM_MAGIC_FIRST_BYTE;
+    }
+}
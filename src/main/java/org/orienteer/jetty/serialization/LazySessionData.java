@@ -0,0 +1,206 @@
+package org.orienteer.jetty.serialization;
+
+import org.eclipse.jetty.server.session.SessionData;
+
+import java.io.ObjectStreamException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link SessionData} which keeps attributes as raw bytes of {@link CompactSessionDataSerializer#VERSION_PER_ATTRIBUTE}
+ * and decodes attribute only when it is accessed first time. Attributes which weren't accessed are serialized again
+ * as raw bytes without decode, so big attributes cost nothing for requests which don't use them.
+ * Names of attributes which were set or removed are tracked, so only changed attributes can be stored.
+ */
+public class LazySessionData extends SessionData {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient CompactSessionDataSerializer serializer;
+
+    /**
+     * Raw bytes of attributes which weren't decoded yet
+     */
+    private final transient Map<String, byte[]> raw = new ConcurrentHashMap<>();
+
+    /**
+     * Names of attributes which were set or removed since session data was stored
+     */
+    private final transient Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * True if all attributes are stored separately in database, so only changed attributes need to be stored
+     */
+    private transient volatile boolean attributesStored;
+
+    /**
+     * Constructor
+     * @param id {@link String} session id
+     * @param serializer {@link CompactSessionDataSerializer} serializer which decodes attributes
+     */
+    public LazySessionData(String id, CompactSessionDataSerializer serializer) {
+        super(id, null, null, 0, 0, 0, 0);
+        this.serializer = serializer;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        decode(name);
+        return super.getAttribute(name);
+    }
+
+    @Override
+    public Object setAttribute(String name, Object value) {
+        // Previous value is returned to session for notify its listeners
+        decode(name);
+        Object old = super.setAttribute(name, value);
+        changed.add(name);
+        return old;
+    }
+
+    @Override
+    public Set<String> getKeys() {
+        if (raw.isEmpty()) {
+            return super.getKeys();
+        }
+        Set<String> keys = new HashSet<>(super.getKeys());
+        keys.addAll(raw.keySet());
+        return Collections.unmodifiableSet(keys);
+    }
+
+    @Override
+    public Map<String, Object> getAllAttributes() {
+        for (String name : raw.keySet()) {
+            decode(name);
+        }
+        return super.getAllAttributes();
+    }
+
+    @Override
+    public void clearAllAttributes() {
+        raw.clear();
+        changed.clear();
+        attributesStored = false;
+        super.clearAllAttributes();
+    }
+
+    /**
+     * Put raw bytes of attributes which will be decoded when they are accessed
+     * @param attributes {@link Map} raw bytes of attributes
+     */
+    public void putRawAttributes(Map<String, byte[]> attributes) {
+        raw.putAll(attributes);
+    }
+
+    /**
+     * @return {@link Map} raw bytes of attributes which weren't decoded yet
+     */
+    public Map<String, byte[]> getRawAttributes() {
+        return Collections.unmodifiableMap(raw);
+    }
+
+    /**
+     * @return {@link Map} attributes which were decoded or set. Doesn't decode raw attributes
+     */
+    public Map<String, Object> getDecodedAttributes() {
+        return super.getAllAttributes();
+    }
+
+    /**
+     * @return {@link Set} names of attributes which were set or removed since session data was stored
+     */
+    public Set<String> getChangedAttributes() {
+        return new HashSet<>(changed);
+    }
+
+    /**
+     * @return true if all attributes are stored separately in database
+     */
+    public boolean isAttributesStored() {
+        return attributesStored;
+    }
+
+    /**
+     * Mark attributes as stored in database
+     * @param attributesStored true if all attributes are stored separately in database
+     * @param storedChanges {@link Collection} names of changed attributes which were stored
+     */
+    public void setAttributesStored(boolean attributesStored, Collection<String> storedChanges) {
+        this.attributesStored = attributesStored;
+        changed.removeAll(storedChanges);
+    }
+
+    /**
+     * Copy session data with the same raw bytes and values of decoded attributes
+     * @return {@link LazySessionData} copy of session data
+     */
+    public LazySessionData copyLazy() {
+        LazySessionData copy = new LazySessionData(getId(), serializer);
+        copy.setContextPath(getContextPath());
+        copy.setVhost(getVhost());
+        copy.setLastNode(getLastNode());
+        copy.setCreated(getCreated());
+        copy.setAccessed(getAccessed());
+        copy.setLastAccessed(getLastAccessed());
+        copy.setCookieSet(getCookieSet());
+        copy.setMaxInactiveMs(getMaxInactiveMs());
+        copy.setExpiry(getExpiry());
+        copy.setLastSaved(getLastSaved());
+        copy.putRawAttributes(raw);
+        copy.putAllAttributes(getDecodedAttributes());
+        copy.changed.addAll(changed);
+        copy.attributesStored = attributesStored;
+        copy.setDirty(false);
+        return copy;
+    }
+
+    /**
+     * Decode raw attribute with given name if it wasn't decoded yet
+     * @param name {@link String} name of attribute
+     * @throws IllegalStateException if can't decode attribute
+     */
+    private void decode(String name) {
+        if (name == null || raw.isEmpty()) {
+            return;
+        }
+        synchronized (raw) {
+            byte[] bytes = raw.get(name);
+            if (bytes == null) {
+                return;
+            }
+            Object value;
+            try {
+                value = serializer.decodeValue(bytes);
+            } catch (Exception e) {
+                throw new IllegalStateException("Can't deserialize attribute " + name + " of session data " + getId(), e);
+            }
+            if (value != null) {
+                Map<String, Object> decoded = new HashMap<>(2);
+                decoded.put(name, value);
+                super.putAllAttributes(decoded);
+            }
+            raw.remove(name);
+        }
+    }
+
+    /**
+     * Java serialization writes plain {@link SessionData} with all attributes decoded
+     * @return {@link SessionData} copy of session data
+     * @throws ObjectStreamException never
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        SessionData copy = new SessionData(getId(), getContextPath(), getVhost(), getCreated(), getAccessed(),
+                getLastAccessed(), getMaxInactiveMs());
+        copy.setLastNode(getLastNode());
+        copy.setCookieSet(getCookieSet());
+        copy.setExpiry(getExpiry());
+        copy.setLastSaved(getLastSaved());
+        copy.putAllAttributes(getAllAttributes());
+        return copy;
+    }
+}
@@ -0,0 +1,161 @@
+package org.orienteer.jetty.serialization;
+
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Reusable growable buffer which serializers write session data to. Every thread keeps one buffer,
+ * because session data is serialized by request thread from start to end, so buffer isn't shared between threads.
+ * Capacity grows by powers of two, so buffer of thread stays in a few size classes instead of growing by every write.
+ * Buffers which grew bigger than {@link SerializationBuffer#MAX_RETAINED_SIZE} aren't retained after release,
+ * so big sessions don't pin memory of every thread. Nested acquire in the same thread gets new not pooled buffer.
+ */
+final class SerializationBuffer extends OutputStream {
+
+    /**
+     * Initial capacity of buffer in bytes
+     */
+    static final int INITIAL_SIZE = 4096;
+
+    /**
+     * Max capacity of buffer in bytes which is retained by thread after release
+     */
+    static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final ThreadLocal<SerializationBuffer> BUFFERS = ThreadLocal.withInitial(() -> new SerializationBuffer(true));
+
+    private final boolean pooled;
+    private final DataOutputStream dataOutput = new DataOutputStream(this);
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private int count;
+    private boolean acquired;
+
+    private SerializationBuffer(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Acquire empty buffer of current thread. Buffer must be released by {@link SerializationBuffer#release()}
+     * @return {@link SerializationBuffer} buffer
+     */
+    static SerializationBuffer acquire() {
+        SerializationBuffer buffer = BUFFERS.get();
+        if (buffer.acquired) {
+            return new SerializationBuffer(false);
+        }
+        buffer.acquired = true;
+        return buffer;
+    }
+
+    /**
+     * Release buffer, so it can be acquired again by the same thread. Drops too big array
+     */
+    void release() {
+        count = 0;
+        if (!pooled) {
+            return;
+        }
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[INITIAL_SIZE];
+        }
+        acquired = false;
+    }
+
+    /**
+     * @return {@link DataOutputStream} which writes to this buffer without own buffering
+     */
+    DataOutputStream getDataOutput() {
+        return dataOutput;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Reserve space for int which will be written later by {@link SerializationBuffer#writeIntAt(int, int)}
+     * @return position of reserved int
+     */
+    int reserveInt() {
+        int position = count;
+        ensureCapacity(count + 4);
+        count += 4;
+        return position;
+    }
+
+    /**
+     * Write int to given position of buffer in big-endian order like {@link DataOutputStream#writeInt(int)}
+     * @param position position in buffer
+     * @param value value
+     */
+    void writeIntAt(int position, int value) {
+        buf[position] = (byte) (value >>> 24);
+        buf[position + 1] = (byte) (value >>> 16);
+        buf[position + 2] = (byte) (value >>> 8);
+        buf[position + 3] = (byte) value;
+    }
+
+    /**
+     * Make sure that buffer has at least given count of free bytes
+     * @param free count of bytes
+     */
+    void ensureFree(int free) {
+        ensureCapacity(count + free);
+    }
+
+    /**
+     * @return array which backs buffer. It is valid only until next write
+     */
+    byte[] array() {
+        return buf;
+    }
+
+    /**
+     * @return count of written bytes
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Move position of buffer after bytes which were written directly to {@link SerializationBuffer#array()}
+     * @param written count of bytes
+     */
+    void advance(int written) {
+        count += written;
+    }
+
+    /**
+     * Copy written bytes to array of exact size which can be stored in binary field of document
+     * @return array of written bytes
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0 || capacity > MAX_SIZE) {
+            throw new OutOfMemoryError("Session data is too big for serialization buffer");
+        }
+        if (capacity <= buf.length) {
+            return;
+        }
+        int newCapacity = Integer.highestOneBit(capacity - 1) << 1;
+        if (newCapacity <= 0 || newCapacity > MAX_SIZE) {
+            newCapacity = MAX_SIZE;
+        }
+        buf = Arrays.copyOf(buf, newCapacity);
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Serializers of HTTP session data which is stored in OrientDB
+ */
+package org.orienteer.jetty.serialization;
@@ -0,0 +1,109 @@
+package org.orienteer.jetty.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Immutable ring of consistent hashing which maps keys to nodes.
+ * Every node is placed on ring by many virtual nodes, so keys are spread evenly between nodes.
+ * Key belongs to the first virtual node clockwise from hash of key, so added node takes keys only from
+ * neighbour virtual nodes and about 1/N of keys are remapped.
+ * @param <T> type of node
+ */
+public final class ConsistentHashRing<T> {
+
+    private final Map<String, T> nodes;
+    private final int virtualNodes;
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+
+    /**
+     * Constructor
+     * @param nodes {@link Map} nodes by unique names. Position of node on ring depends only on its name
+     * @param virtualNodes count of virtual nodes of every node
+     */
+    public ConsistentHashRing(Map<String, T> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Ring must contain at least one node");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Count of virtual nodes must be positive: " + virtualNodes);
+        }
+        this.nodes = Collections.unmodifiableMap(new LinkedHashMap<>(nodes));
+        this.virtualNodes = virtualNodes;
+        for (Map.Entry<String, T> node : this.nodes.entrySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(node.getKey() + "#" + i), node.getValue());
+            }
+        }
+    }
+
+    /**
+     * Create new ring which contains nodes of this ring and given node
+     * @param name {@link String} unique name of node
+     * @param node node
+     * @return {@link ConsistentHashRing} new ring
+     * @throws IllegalArgumentException if ring already contains node with given name
+     */
+    public ConsistentHashRing<T> with(String name, T node) {
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Ring already contains node " + name);
+        }
+        Map<String, T> newNodes = new LinkedHashMap<>(nodes);
+        newNodes.put(name, node);
+        return new ConsistentHashRing<>(newNodes, virtualNodes);
+    }
+
+    /**
+     * Get node which owns given key
+     * @param key {@link String} key
+     * @return node of key
+     */
+    public T get(String key) {
+        Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * @return {@link Map} nodes of ring by names in order of adding
+     */
+    public Map<String, T> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return {@link Collection} nodes of ring in order of adding
+     */
+    public Collection<T> values() {
+        return nodes.values();
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of UTF-8 bytes of string with MurmurHash3 finalizer,
+     * so similar session ids and names of virtual nodes are spread over the whole ring
+     * @param value {@link String} value
+     * @return hash of value
+     */
+    static long hash(String value) {
+        Objects.requireNonNull(value);
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -1,25 +1,39 @@
 package org.orienteer.jetty.util;
 
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.command.script.OCommandScript;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OCompositeKey;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLAsynchQuery;
 import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
 import org.eclipse.jetty.server.session.SessionData;
-import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
 import org.orienteer.jetty.OrientDbJettyModule;
+import org.orienteer.jetty.serialization.CompactSessionDataSerializer;
+import org.orienteer.jetty.serialization.CompressingSessionDataSerializer;
+import org.orienteer.jetty.serialization.ISessionDataSerializer;
+import org.orienteer.jetty.serialization.LazySessionData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import static java.util.Optional.empty;
 
@@ -30,23 +44,427 @@ public final class DbUtils {
 
     private static final Logger LOG = LoggerFactory.getLogger(DbUtils.class);
 
+    /**
+     * Serializer which is used if no serializer was provided
+     */
+    public static final ISessionDataSerializer DEFAULT_SERIALIZER = new CompressingSessionDataSerializer(new CompactSessionDataSerializer());
+
+    /**
+     * Serializer of attributes which are stored separately in {@link OrientDbJettyModule#PROP_ATTRIBUTES}
+     */
+    public static final CompactSessionDataSerializer ATTRIBUTE_SERIALIZER = new CompactSessionDataSerializer(true);
+
     private DbUtils() {}
 
     /**
-     * Convert data to OrientDB document and save it in database
+     * Count of attempts for store session data if it was concurrently stored by another thread or node
+     */
+    public static final int STORE_ATTEMPTS = 10;
+
+    /**
+     * Record version of session data document which isn't known
+     */
+    public static final int UNKNOWN_VERSION = -1;
+
+    /**
+     * Save session data in database.
+     * Uses single UPSERT command, so session data is stored in one round-trip and unique index
+     * {@link OrientDbJettyModule#INDEX_SESSION_KEY} guarantees that only one document exists for given id and context of session data.
      * @param db {@link ODatabaseDocument} database
      * @param id {@link String} session id
      * @param data {@link SessionData} session data which need save
      */
     public static void storeSession(ODatabaseDocument db, String id, SessionData data) {
-        Optional<ODocument> docOpt = getSessionDocumentById(db, id);
-        ODocument doc = docOpt.orElse(new ODocument(OrientDbJettyModule.SESSION_DATA_CLASS_NAME));
-        if (doc.getIdentity().isNew()) {
-            doc.field(OrientDbJettyModule.PROP_ID, id);
+        storeSession(db, id, data, DEFAULT_SERIALIZER);
+    }
+
+    /**
+     * Save session data in database.
+     * Uses single UPSERT command, so session data is stored in one round-trip and unique index
+     * {@link OrientDbJettyModule#INDEX_SESSION_KEY} guarantees that only one document exists for given id and context of session data.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data which need save
+     * @param serializer {@link ISessionDataSerializer} serializer of session data
+     */
+    public static void storeSession(ODatabaseDocument db, String id, SessionData data, ISessionDataSerializer serializer) {
+        storeSession(db, id, data, toBytes(data, serializer));
+    }
+
+    /**
+     * Save session data with already serialized attributes in database.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data which need save
+     * @param bytes serialized attributes of session data
+     */
+    public static void storeSession(ODatabaseDocument db, String id, SessionData data, byte[] bytes) {
+        storeSession(db, id, data, bytes, null);
+    }
+
+    /**
+     * Save session data with already serialized attributes in database and mark it by writer,
+     * so near cache of writer doesn't invalidate its own write.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data which need save
+     * @param bytes serialized attributes of session data
+     * @param writer {@link String} unique id of store which writes session data or null
+     */
+    public static void storeSession(ODatabaseDocument db, String id, SessionData data, byte[] bytes, String writer) {
+        upsertSession(db, id, data, toFullFields(data, bytes, writer));
+    }
+
+    /**
+     * Store session data only if its document wasn't changed since it was loaded or stored with expected version.
+     * Inserts session data document if it doesn't exist.
+     * Must be executed in transaction, so version of document is incremented only once.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param bytes serialized attributes of session data
+     * @param expectedVersion record version of session data document which was last loaded or stored
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return new record version of session data document
+     * @throws ConcurrentModificationException if session data document has another version
+     */
+    public static int storeSession(ODatabaseDocument db, String id, SessionData data, byte[] bytes, int expectedVersion, String writer)
+            throws ConcurrentModificationException {
+        return storeFields(db, id, data, toFullFields(data, bytes, writer), expectedVersion);
+    }
+
+    /**
+     * Store session data with separately serialized attributes in field {@link OrientDbJettyModule#PROP_ATTRIBUTES}
+     * instead of {@link OrientDbJettyModule#PROP_DATA}, so later only changed attributes can be stored by
+     * {@link DbUtils#storeChangedAttributes(ODatabaseDocument, String, SessionData, Map, Set, int, String)}
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param attributes {@link Map} attributes which were encoded by {@link DbUtils#ATTRIBUTE_SERIALIZER}
+     * @param writer {@link String} unique id of store which writes session data or null
+     */
+    public static void storeSessionAttributes(ODatabaseDocument db, String id, SessionData data, Map<String, byte[]> attributes,
+                                              String writer) {
+        upsertSession(db, id, data, toAttributeFields(data, attributes, writer));
+    }
+
+    /**
+     * Store session data with separately serialized attributes only if its document wasn't changed since it was loaded
+     * or stored with expected version. Must be executed in transaction, so version of document is incremented only once.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param attributes {@link Map} attributes which were encoded by {@link DbUtils#ATTRIBUTE_SERIALIZER}
+     * @param expectedVersion record version of session data document which was last loaded or stored
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return new record version of session data document
+     * @throws ConcurrentModificationException if session data document has another version
+     */
+    public static int storeSessionAttributes(ODatabaseDocument db, String id, SessionData data, Map<String, byte[]> attributes,
+                                             int expectedVersion, String writer) throws ConcurrentModificationException {
+        return storeFields(db, id, data, toAttributeFields(data, attributes, writer), expectedVersion);
+    }
+
+    /**
+     * Store metadata and only changed attributes of session data which attributes are stored in {@link OrientDbJettyModule#PROP_ATTRIBUTES}.
+     * Only changed attributes are sent to database by one UPDATE command, so size of write doesn't depend on size of session.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param changed {@link Map} changed attributes which were encoded by {@link DbUtils#ATTRIBUTE_SERIALIZER}
+     * @param removed {@link Set} names of removed attributes
+     * @param expectedVersion record version of session data document or {@link DbUtils#UNKNOWN_VERSION} for store without check of version
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return true if session data was updated and false if there is no session data document with separately stored attributes
+     * @throws ConcurrentModificationException if session data document exists and has another version than expected
+     */
+    public static boolean storeChangedAttributes(ODatabaseDocument db, String id, SessionData data, Map<String, byte[]> changed,
+                                                 Set<String> removed, int expectedVersion, String writer)
+            throws ConcurrentModificationException {
+        StringBuilder sql = new StringBuilder("update ").append(OrientDbJettyModule.SESSION_DATA_CLASS_NAME).append(" set ");
+        List<Object> args = new ArrayList<>();
+        boolean first = true;
+        for (Map.Entry<String, Object> field : toMetadataFields(data, writer).entrySet()) {
+            sql.append(first ? "" : ", ").append(field.getKey()).append(" = ?");
+            args.add(field.getValue());
+            first = false;
+        }
+        first = true;
+        for (Map.Entry<String, byte[]> attribute : changed.entrySet()) {
+            sql.append(first ? " put " : ", ").append(OrientDbJettyModule.PROP_ATTRIBUTES).append(" = ")
+                    .append(quote(attribute.getKey())).append(", ?");
+            args.add(attribute.getValue());
+            first = false;
+        }
+        first = true;
+        for (String name : removed) {
+            sql.append(first ? " remove " : ", ").append(OrientDbJettyModule.PROP_ATTRIBUTES).append(" = ").append(quote(name));
+            first = false;
+        }
+        sql.append(" where ").append(toKeyCondition(id, data.getContextPath(), data.getVhost(), args)).append(" and ")
+                .append(OrientDbJettyModule.PROP_ATTRIBUTES).append(" is not null");
+        if (expectedVersion == UNKNOWN_VERSION) {
+            Number updated = db.command(new OCommandSQL(sql.toString())).execute(args.toArray());
+            return updated != null && updated.intValue() > 0;
+        }
+        if (updateWithVersion(db, sql.toString(), args, id, data, expectedVersion)) {
+            return true;
+        }
+        Optional<Integer> version = getSessionVersionById(db, data.getContextPath(), data.getVhost(), id);
+        if (version.isPresent() && version.get() != expectedVersion) {
+            throw new ConcurrentModificationException(String.format("Session data with id %s was changed since version %d", id, expectedVersion));
+        }
+        return false;
+    }
+
+    /**
+     * Update session data document with expected version or insert it if it doesn't exist
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data which context is a part of key of document
+     * @param fields {@link Map} fields of session data document
+     * @param expectedVersion record version of session data document which was last loaded or stored
+     * @return new record version of session data document
+     * @throws ConcurrentModificationException if session data document has another version
+     */
+    private static int storeFields(ODatabaseDocument db, String id, SessionData data, Map<String, Object> fields, int expectedVersion) {
+        if (updateSession(db, id, data, fields, expectedVersion)) {
+            return expectedVersion + 1;
+        }
+        upsertSession(db, id, data, fields);
+        return 1;
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    /**
+     * Update only access and expiry fields of exists session data document.
+     * Field {@link OrientDbJettyModule#PROP_DATA} stays untouched, so it can be used for store session data which attributes weren't changed.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @return true if session data document was updated and false if no session data document with given id
+     */
+    public static boolean touchSession(ODatabaseDocument db, String id, SessionData data) {
+        return touchSession(db, id, data, null);
+    }
+
+    /**
+     * Update only access and expiry fields of exists session data document and mark it by writer
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return true if session data document was updated and false if no session data document with given id
+     */
+    public static boolean touchSession(ODatabaseDocument db, String id, SessionData data, String writer) {
+        Map<String, Object> fields = toTouchFields(data, writer);
+        StringBuilder set = new StringBuilder();
+        List<Object> args = new ArrayList<>(fields.size() + 3);
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            set.append(set.length() > 0 ? ", " : "").append(field.getKey()).append(" = ?");
+            args.add(field.getValue());
+        }
+        String sql = String.format("update %s set %s where %s", OrientDbJettyModule.SESSION_DATA_CLASS_NAME, set,
+                toKeyCondition(id, data.getContextPath(), data.getVhost(), args));
+        Number updated = db.command(new OCommandSQL(sql)).execute(args.toArray());
+        return updated != null && updated.intValue() > 0;
+    }
+
+    /**
+     * Update only access and expiry fields of session data document if it wasn't changed since it was loaded or stored with expected version.
+     * Must be executed in transaction, so version of document is incremented only once.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param expectedVersion record version of session data document which was last loaded or stored
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return true if session data document was updated and false if no session data document with given id
+     * @throws ConcurrentModificationException if session data document has another version
+     */
+    public static boolean touchSession(ODatabaseDocument db, String id, SessionData data, int expectedVersion, String writer)
+            throws ConcurrentModificationException {
+        return updateSession(db, id, data, toTouchFields(data, writer), expectedVersion);
+    }
+
+    /**
+     * Update fields of session data document with expected version
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data which context is a part of key of document
+     * @param fields {@link Map} fields of session data document
+     * @param expectedVersion expected record version of session data document
+     * @return true if session data document was updated and false if no session data document with given id
+     * @throws ConcurrentModificationException if session data document has another version
+     */
+    private static boolean updateSession(ODatabaseDocument db, String id, SessionData data, Map<String, Object> fields,
+                                         int expectedVersion) {
+        StringBuilder set = new StringBuilder();
+        List<Object> args = new ArrayList<>(fields.size() + 4);
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            set.append(set.length() > 0 ? ", " : "").append(field.getKey()).append(" = ?");
+            args.add(field.getValue());
+        }
+        String sql = String.format("update %s set %s where %s", OrientDbJettyModule.SESSION_DATA_CLASS_NAME, set,
+                toKeyCondition(id, data.getContextPath(), data.getVhost(), args));
+        if (updateWithVersion(db, sql, args, id, data, expectedVersion)) {
+            return true;
+        }
+        if (getSessionIdentityById(db, data.getContextPath(), data.getVhost(), id).isPresent()) {
+            throw new ConcurrentModificationException(String.format("Session data with id %s was changed since version %d", id, expectedVersion));
+        }
+        return false;
+    }
+
+    /**
+     * Execute update of session data document only if it has expected version of session data.
+     * Document which was never moved is updated by one command. Otherwise base of version is read first,
+     * so expected version is compared with record version of moved document.
+     * @param db {@link ODatabaseDocument} database
+     * @param sql {@link String} update command with condition by key of session data document
+     * @param args {@link List} arguments of update command
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data which context is a part of key of document
+     * @param expectedVersion expected version of session data
+     * @return true if session data document was updated
+     */
+    private static boolean updateWithVersion(ODatabaseDocument db, String sql, List<Object> args, String id, SessionData data,
+                                             int expectedVersion) {
+        List<Object> versionArgs = new ArrayList<>(args);
+        versionArgs.add(expectedVersion);
+        Number updated = db.command(new OCommandSQL(String.format("%s and @version = ? and %s is null", sql,
+                OrientDbJettyModule.PROP_VERSION_BASE))).execute(versionArgs.toArray());
+        if (updated != null && updated.intValue() > 0) {
+            return true;
+        }
+        Integer base = getSessionVersionDocument(db, data.getContextPath(), data.getVhost(), id)
+                .map(doc -> doc.<Integer>field(OrientDbJettyModule.PROP_VERSION_BASE))
+                .orElse(null);
+        if (base == null || expectedVersion <= base) {
+            return false;
+        }
+        versionArgs = new ArrayList<>(args);
+        versionArgs.add(expectedVersion - base);
+        versionArgs.add(base);
+        updated = db.command(new OCommandSQL(String.format("%s and @version = ? and %s = ?", sql,
+                OrientDbJettyModule.PROP_VERSION_BASE))).execute(versionArgs.toArray());
+        return updated != null && updated.intValue() > 0;
+    }
+
+    /**
+     * Apply batch of pending writes in one transaction.
+     * All writes are sent to database by one SQL script, so batch is applied in one round-trip.
+     * Touch writes of session data which doesn't exist in database are ignored.
+     * @param db {@link ODatabaseDocument} database
+     * @param writes {@link Collection} pending writes. Must contain only one write for every session id
+     */
+    public static void storeSessions(ODatabaseDocument db, Collection<PendingSessionWrite> writes) {
+        storeSessions(db, writes, null);
+    }
+
+    /**
+     * Apply batch of pending writes of given writer in one transaction.
+     * @param db {@link ODatabaseDocument} database
+     * @param writes {@link Collection} pending writes. Must contain only one write for every session id
+     * @param writer {@link String} unique id of store which writes session data or null
+     */
+    public static void storeSessions(ODatabaseDocument db, Collection<PendingSessionWrite> writes, String writer) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        StringBuilder script = new StringBuilder("begin\n");
+        Map<String, Object> args = new HashMap<>();
+        int i = 0;
+        for (PendingSessionWrite write : writes) {
+            String idArg = "id" + i;
+            args.put(idArg, write.getId());
+            switch (write.getType()) {
+                case FULL:
+                    Map<String, Object> fields = toFullFields(write.getMetadata(), write.getData(), writer);
+                    script.append(String.format("update %s set %s = :%s%s upsert where %s\n", OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
+                            OrientDbJettyModule.PROP_ID, idArg, toScriptSet(fields, i, args), toScriptKey(write, idArg, i, args)));
+                    break;
+                case TOUCH:
+                    script.append(String.format("update %s set %s where %s\n", OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
+                            toScriptSet(toTouchFields(write.getMetadata(), writer), i, args).substring(2), toScriptKey(write, idArg, i, args)));
+                    break;
+                default:
+                    script.append(String.format("delete from %s where %s\n", OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
+                            toScriptKey(write, idArg, i, args)));
+            }
+            i++;
+        }
+        script.append("commit retry ").append(STORE_ATTEMPTS);
+        db.command(new OCommandScript("sql", script.toString())).execute(args);
+    }
+
+    /**
+     * Build condition of script which selects session data document of pending write by its key.
+     * Delete without metadata selects session data with given id in all contexts
+     */
+    private static String toScriptKey(PendingSessionWrite write, String idArg, int index, Map<String, Object> args) {
+        StringBuilder condition = new StringBuilder(OrientDbJettyModule.PROP_ID).append(" = :").append(idArg);
+        SessionData metadata = write.getMetadata();
+        if (metadata != null) {
+            appendScriptEquals(condition, OrientDbJettyModule.PROP_CONTEXT_PATH, metadata.getContextPath(), index, args);
+            appendScriptEquals(condition, OrientDbJettyModule.PROP_VHOST, metadata.getVhost(), index, args);
+        }
+        return condition.toString();
+    }
+
+    private static void appendScriptEquals(StringBuilder condition, String field, String value, int index, Map<String, Object> args) {
+        condition.append(" and ").append(field);
+        if (value == null) {
+            condition.append(" is null");
+        } else {
+            String arg = "key" + field + index;
+            condition.append(" = :").append(arg);
+            args.put(arg, value);
+        }
+    }
+
+    private static String toScriptSet(Map<String, Object> fields, int index, Map<String, Object> args) {
+        StringBuilder set = new StringBuilder();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            String arg = field.getKey() + index;
+            set.append(", ").append(field.getKey()).append(" = :").append(arg);
+            args.put(arg, field.getValue());
+        }
+        return set.toString();
+    }
+
+    /**
+     * Update or insert session data document with given fields by one UPSERT command.
+     * Retries command if session data was concurrently inserted or updated by another thread or node.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data which context is a part of key of document
+     * @param fields {@link Map} fields of session data document
+     */
+    private static void upsertSession(ODatabaseDocument db, String id, SessionData data, Map<String, Object> fields) {
+        StringBuilder set = new StringBuilder(OrientDbJettyModule.PROP_ID).append(" = ?");
+        List<Object> args = new ArrayList<>(fields.size() + 4);
+        args.add(id);
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            set.append(", ").append(field.getKey()).append(" = ?");
+            args.add(field.getValue());
+        }
+        String sql = String.format("update %s set %s upsert where %s", OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
+                set, toKeyCondition(id, data.getContextPath(), data.getVhost(), args));
+        for (int attempt = 1; ; attempt++) {
+            try {
+                db.command(new OCommandSQL(sql)).execute(args.toArray());
+                return;
+            } catch (ORecordDuplicatedException | OConcurrentModificationException e) {
+                // Session data was concurrently inserted or updated, so retry update of it
+                if (attempt >= STORE_ATTEMPTS) {
+                    throw e;
+                }
+                LOG.debug("Retry store session data with id {}, attempt {}", id, attempt, e);
+            }
         }
-        doc.field(OrientDbJettyModule.PROP_DATA, toBytes(data));
-        doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME, data.getExpiry());
-        doc.save();
     }
 
     /**
@@ -58,8 +476,109 @@ public final class DbUtils {
      * @return {@link Optional<SessionData>} or {@link Optional#empty()} if can't load session data by given id
      */
     public static Optional<SessionData> getSessionById(ODatabaseDocument db, String id) {
+        return getSessionById(db, id, DEFAULT_SERIALIZER);
+    }
+
+    /**
+     * Search session data by id.
+     * Invokes {@link DbUtils#getSessionDocumentById(ODatabaseDocument, String)} and
+     * then convert field {@link OrientDbJettyModule#PROP_DATA} to {@link SessionData}
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param serializer {@link ISessionDataSerializer} serializer of session data
+     * @return {@link Optional<SessionData>} or {@link Optional#empty()} if can't load session data by given id
+     */
+    public static Optional<SessionData> getSessionById(ODatabaseDocument db, String id, ISessionDataSerializer serializer) {
         return getSessionDocumentById(db, id)
-                .flatMap(d -> fromBytes(d.field(OrientDbJettyModule.PROP_DATA)));
+                .flatMap(d -> toSessionData(d, serializer));
+    }
+
+    /**
+     * Get expiry time of session data by given id.
+     * Loads only field {@link OrientDbJettyModule#PROP_EXPIRY_TIME} without session data attributes.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @return {@link Optional<Long>} expiry time or {@link Optional#empty()} if no session data with given id
+     */
+    public static Optional<Long> getSessionExpiryTimeById(ODatabaseDocument db, String id) {
+        String sql = String.format("select %s from %s where %s = ?", OrientDbJettyModule.PROP_EXPIRY_TIME,
+                OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID);
+        List<ODocument> docs = db.query(new OSQLSynchQuery<>(sql, 1), id);
+        return Optional.ofNullable(docs)
+                .filter(list -> !list.isEmpty())
+                .map(list -> list.get(0).field(OrientDbJettyModule.PROP_EXPIRY_TIME));
+    }
+
+    /**
+     * Get expiry time of session data of given context by given id.
+     * Loads only field {@link OrientDbJettyModule#PROP_EXPIRY_TIME} without session data attributes.
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of session
+     * @param vhost {@link String} virtual host of session
+     * @param id {@link String} session id
+     * @return {@link Optional<Long>} expiry time or {@link Optional#empty()} if no session data with given key
+     */
+    public static Optional<Long> getSessionExpiryTimeById(ODatabaseDocument db, String contextPath, String vhost, String id) {
+        List<Object> args = new ArrayList<>(3);
+        String sql = String.format("select %s from %s where %s", OrientDbJettyModule.PROP_EXPIRY_TIME,
+                OrientDbJettyModule.SESSION_DATA_CLASS_NAME, toKeyCondition(id, contextPath, vhost, args));
+        List<ODocument> docs = db.query(new OSQLSynchQuery<>(sql, 1), args.toArray());
+        return Optional.ofNullable(docs)
+                .filter(list -> !list.isEmpty())
+                .map(list -> list.get(0).field(OrientDbJettyModule.PROP_EXPIRY_TIME));
+    }
+
+    /**
+     * Get version of session data document by given id without load of session data attributes
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @return {@link Optional<Integer>} record version or {@link Optional#empty()} if no session data with given id
+     */
+    public static Optional<Integer> getSessionVersionById(ODatabaseDocument db, String id) {
+        String sql = String.format("select @version as version, %s from %s where %s = ?", OrientDbJettyModule.PROP_VERSION_BASE,
+                OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID);
+        List<ODocument> docs = db.query(new OSQLSynchQuery<>(sql, 1), id);
+        return Optional.ofNullable(docs)
+                .filter(list -> !list.isEmpty())
+                .map(list -> toSessionVersion(list.get(0)));
+    }
+
+    /**
+     * Get version of session data document of given context by given id without load of session data attributes
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of session
+     * @param vhost {@link String} virtual host of session
+     * @param id {@link String} session id
+     * @return {@link Optional<Integer>} record version or {@link Optional#empty()} if no session data with given key
+     */
+    public static Optional<Integer> getSessionVersionById(ODatabaseDocument db, String contextPath, String vhost, String id) {
+        return getSessionVersionDocument(db, contextPath, vhost, id).map(DbUtils::toSessionVersion);
+    }
+
+    /**
+     * Get version of session data by its document. Unlike record version it isn't reset when document is moved to another cluster
+     * @param doc {@link ODocument} session data document
+     * @return version of session data
+     */
+    public static int getSessionVersion(ODocument doc) {
+        Integer base = doc.field(OrientDbJettyModule.PROP_VERSION_BASE);
+        return doc.getVersion() + (base != null ? base : 0);
+    }
+
+    private static Optional<ODocument> getSessionVersionDocument(ODatabaseDocument db, String contextPath, String vhost, String id) {
+        List<Object> args = new ArrayList<>(3);
+        String sql = String.format("select @version as version, %s from %s where %s", OrientDbJettyModule.PROP_VERSION_BASE,
+                OrientDbJettyModule.SESSION_DATA_CLASS_NAME, toKeyCondition(id, contextPath, vhost, args));
+        List<ODocument> docs = db.query(new OSQLSynchQuery<>(sql, 1), args.toArray());
+        return Optional.ofNullable(docs)
+                .filter(list -> !list.isEmpty())
+                .map(list -> list.get(0));
+    }
+
+    private static int toSessionVersion(ODocument projection) {
+        int version = projection.field("version");
+        Integer base = projection.field(OrientDbJettyModule.PROP_VERSION_BASE);
+        return version + (base != null ? base : 0);
     }
 
     /**
@@ -70,14 +589,117 @@ public final class DbUtils {
      * or {@link Optional#empty()} if no session data with given id
      */
     public static Optional<ODocument> getSessionDocumentById(ODatabaseDocument db, String id) {
+        return getSessionIdentityById(db, id)
+                .map(OIdentifiable::getRecord);
+    }
+
+    /**
+     * Search session data document of given context by given id
+     * @param db {@link ODatabaseDocument} database which uses for query
+     * @param contextPath {@link String} canonical context path of session
+     * @param vhost {@link String} virtual host of session
+     * @param id {@link String} session data id
+     * @return {@link Optional<ODocument>} which contains document of session data
+     * or {@link Optional#empty()} if no session data with given key
+     */
+    public static Optional<ODocument> getSessionDocumentById(ODatabaseDocument db, String contextPath, String vhost, String id) {
+        return getSessionIdentityById(db, contextPath, vhost, id)
+                .map(OIdentifiable::getRecord);
+    }
+
+    /**
+     * Search identity of session data document by given id in any context.
+     * Query uses index {@link OrientDbJettyModule#INDEX_SESSION_KEY} by its first field.
+     * @param db {@link ODatabaseDocument} database which uses for lookup
+     * @param id {@link String} session data id
+     * @return {@link Optional<OIdentifiable>} identity of session data document
+     * or {@link Optional#empty()} if no session data with given id
+     */
+    public static Optional<OIdentifiable> getSessionIdentityById(ODatabaseDocument db, String id) {
         String sql = String.format("select from %s where %s = ?", OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID);
-        List<OIdentifiable> identifiables = db.query(new OSQLSynchQuery<>(sql, 1), id);
+        return queryIdentity(db, sql, id);
+    }
+
+    /**
+     * Search identity of session data document of given context by given id.
+     * Uses index {@link OrientDbJettyModule#INDEX_SESSION_KEY} for direct key lookup and
+     * fallback to query if index doesn't exists yet or context isn't known.
+     * @param db {@link ODatabaseDocument} database which uses for lookup
+     * @param contextPath {@link String} canonical context path of session
+     * @param vhost {@link String} virtual host of session
+     * @param id {@link String} session data id
+     * @return {@link Optional<OIdentifiable>} identity of session data document
+     * or {@link Optional#empty()} if no session data with given key
+     */
+    public static Optional<OIdentifiable> getSessionIdentityById(ODatabaseDocument db, String contextPath, String vhost, String id) {
+        Optional<OIndex<?>> index = contextPath != null && vhost != null
+                ? getIndex(db, OrientDbJettyModule.INDEX_SESSION_KEY) : empty();
+        if (index.isPresent()) {
+            return Optional.ofNullable((OIdentifiable) index.get().get(new OCompositeKey(id, contextPath, vhost)));
+        }
+        List<Object> args = new ArrayList<>(3);
+        String sql = String.format("select from %s where %s", OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
+                toKeyCondition(id, contextPath, vhost, args));
+        return queryIdentity(db, sql, args.toArray());
+    }
 
+    private static Optional<OIdentifiable> queryIdentity(ODatabaseDocument db, String sql, Object...args) {
+        List<OIdentifiable> identifiables = db.query(new OSQLSynchQuery<>(sql, 1), args);
         return Optional.ofNullable(identifiables)
                 .filter(list -> !list.isEmpty())
-                .map(list -> list.get(0).getRecord());
+                .map(list -> list.get(0));
+    }
+
+    /**
+     * Build condition which selects session data document by its key: id, context path and virtual host
+     * @param id {@link String} session id
+     * @param contextPath {@link String} canonical context path of session
+     * @param vhost {@link String} virtual host of session
+     * @param args {@link List} arguments of command which are appended by arguments of condition
+     * @return {@link String} condition of SQL command
+     */
+    private static String toKeyCondition(String id, String contextPath, String vhost, List<Object> args) {
+        StringBuilder condition = new StringBuilder(OrientDbJettyModule.PROP_ID).append(" = ?");
+        args.add(id);
+        appendEquals(condition, OrientDbJettyModule.PROP_CONTEXT_PATH, contextPath, args);
+        appendEquals(condition, OrientDbJettyModule.PROP_VHOST, vhost, args);
+        return condition.toString();
+    }
+
+    /**
+     * Build condition which selects documents of given context
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @param args {@link List} arguments of command which are appended by arguments of condition
+     * @return {@link String} condition of SQL command
+     */
+    private static String toContextCondition(String contextPath, String vhost, List<Object> args) {
+        StringBuilder condition = new StringBuilder();
+        appendEquals(condition, OrientDbJettyModule.PROP_CONTEXT_PATH, contextPath, args);
+        appendEquals(condition, OrientDbJettyModule.PROP_VHOST, vhost, args);
+        return condition.substring(" and ".length());
+    }
+
+    private static void appendEquals(StringBuilder condition, String field, String value, List<Object> args) {
+        condition.append(" and ").append(field);
+        if (value == null) {
+            condition.append(" is null");
+        } else {
+            condition.append(" = ?");
+            args.add(value);
+        }
     }
 
+    /**
+     * Default count of candidates which are checked by one query
+     */
+    public static final int DEFAULT_EXPIRY_CHECK_BATCH_SIZE = 1000;
+
+    /**
+     * Count of records of dropped expiry bucket which index entries are removed by one transaction
+     */
+    private static final int BUCKET_DROP_PAGE_SIZE = 1000;
+
     /**
      * Search expired sessions id in provided candidates
      * @param db {@link ODatabaseDocument} database
@@ -85,12 +707,521 @@ public final class DbUtils {
      * @return {@link Set<String>} set of id expired sessions
      */
     public static Set<String> getExpiredSessions(ODatabaseDocument db, Set<String> candidates) {
-        String sql = String.format("select %s from %s where %s in ? and %s <= ?",
+        return getExpiredSessions(db, candidates, DEFAULT_EXPIRY_CHECK_BATCH_SIZE);
+    }
+
+    /**
+     * Search expired sessions id in provided candidates.
+     * Candidates are checked by chunks and results are streamed, so only ids of expired sessions are kept in memory.
+     * Sessions which never expire (expiry time is 0) aren't expired.
+     * @param db {@link ODatabaseDocument} database
+     * @param candidates {@link Set<String>} id of sessions which can be expired
+     * @param batchSize max count of candidates which are checked by one query
+     * @return {@link Set<String>} set of id expired sessions
+     */
+    public static Set<String> getExpiredSessions(ODatabaseDocument db, Set<String> candidates, int batchSize) {
+        String sql = String.format("select %s from %s where %s in ? and %s between 1 and ?",
                 OrientDbJettyModule.PROP_ID, OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID,
                 OrientDbJettyModule.PROP_EXPIRY_TIME);
+        return getExpiredSessions(db, sql, candidates, batchSize, Collections.emptyList());
+    }
+
+    /**
+     * Search expired sessions id of given context in provided candidates.
+     * Candidates are checked by chunks and results are streamed, so only ids of expired sessions are kept in memory.
+     * Sessions which never expire (expiry time is 0) aren't expired.
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @param candidates {@link Set<String>} id of sessions which can be expired
+     * @param batchSize max count of candidates which are checked by one query
+     * @return {@link Set<String>} set of id expired sessions
+     */
+    public static Set<String> getExpiredSessions(ODatabaseDocument db, String contextPath, String vhost, Set<String> candidates,
+                                                 int batchSize) {
+        List<Object> contextArgs = new ArrayList<>(2);
+        String sql = String.format("select %s from %s where %s in ? and %s between 1 and ? and %s",
+                OrientDbJettyModule.PROP_ID, OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID,
+                OrientDbJettyModule.PROP_EXPIRY_TIME, toContextCondition(contextPath, vhost, contextArgs));
+        return getExpiredSessions(db, sql, candidates, batchSize, contextArgs);
+    }
+
+    /**
+     * Search expired sessions by chunks of candidates
+     * @param db {@link ODatabaseDocument} database
+     * @param sql {@link String} query with arguments: chunk of candidates, current time and arguments of context condition
+     * @param candidates {@link Set<String>} id of sessions which can be expired
+     * @param batchSize max count of candidates which are checked by one query
+     * @param contextArgs {@link List} arguments of context condition, empty if query isn't scoped by context
+     * @return {@link Set<String>} set of id expired sessions
+     */
+    private static Set<String> getExpiredSessions(ODatabaseDocument db, String sql, Set<String> candidates, int batchSize,
+                                                  List<Object> contextArgs) {
+        if (candidates == null || candidates.isEmpty()) {
+            return Collections.emptySet();
+        }
         long now = System.currentTimeMillis();
-        List<OIdentifiable> identifiables = db.query(new OSQLSynchQuery<>(sql), candidates, now);
-        return identifiables == null || identifiables.isEmpty() ? Collections.<String>emptySet() : toIdSet(identifiables);
+        Set<String> expired = new HashSet<>();
+        List<String> chunk = new ArrayList<>(Math.min(candidates.size(), batchSize));
+        for (String candidate : candidates) {
+            chunk.add(candidate);
+            if (chunk.size() >= batchSize) {
+                streamChunk(db, sql, expired, chunk, now, contextArgs);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            streamChunk(db, sql, expired, chunk, now, contextArgs);
+        }
+        return expired;
+    }
+
+    private static void streamChunk(ODatabaseDocument db, String sql, Set<String> expired, List<String> chunk, long now,
+                                    List<Object> contextArgs) {
+        List<Object> args = new ArrayList<>(contextArgs.size() + 2);
+        args.add(chunk);
+        args.add(now);
+        args.addAll(contextArgs);
+        streamIds(db, sql, expired, args.toArray());
+    }
+
+    /**
+     * Search page of expired sessions in given context ordered by expiry time ascending.
+     * Uses index {@link OrientDbJettyModule#INDEX_EXPIRY_TIME}, so doesn't scan all session data.
+     * Next page is requested with expiry time of the last document of previous page, documents with exactly the same
+     * expiry time are returned again and must be skipped by caller.
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @param expiredFrom expiry time of the last document of previous page or 1 for the first page
+     * @param expiredBefore time in milliseconds. Sessions which expiry time is less or equals it are expired
+     * @param limit max count of returned documents
+     * @return {@link List<ODocument>} documents with id and expiry time of expired sessions
+     */
+    public static List<ODocument> getExpiredSessionsPage(ODatabaseDocument db, String contextPath, String vhost, long expiredFrom,
+                                                         long expiredBefore, int limit) {
+        String sql = String.format("select %s, %s from %s where %s between ? and ? and %s = ? and %s = ? order by %s asc limit %d",
+                OrientDbJettyModule.PROP_ID, OrientDbJettyModule.PROP_EXPIRY_TIME, OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
+                OrientDbJettyModule.PROP_EXPIRY_TIME, OrientDbJettyModule.PROP_CONTEXT_PATH, OrientDbJettyModule.PROP_VHOST,
+                OrientDbJettyModule.PROP_EXPIRY_TIME, limit);
+        List<ODocument> docs = db.query(new OSQLSynchQuery<>(sql), Math.max(expiredFrom, 1), expiredBefore, contextPath, vhost);
+        return docs != null ? docs : Collections.emptyList();
+    }
+
+    /**
+     * Search documents of not expired session data of given context from the latest expiry time, so the most recently
+     * accessed sessions come first. Uses index {@link OrientDbJettyModule#INDEX_EXPIRY_TIME}.
+     * Next page is requested with expiry time of the last document of previous page, documents with exactly the same
+     * expiry time are returned again and must be skipped by caller. Sessions which never expire aren't returned.
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @param lastNode {@link String} name of node which last handled sessions or null for sessions of all nodes
+     * @param expiredBefore time in milliseconds. Sessions which expiry time is less or equals it aren't returned
+     * @param expiresUntil expiry time of the last document of previous page or null for the first page
+     * @param limit max count of returned documents
+     * @return {@link List<ODocument>} documents of session data ordered by expiry time descending
+     */
+    public static List<ODocument> getActiveSessionDocuments(ODatabaseDocument db, String contextPath, String vhost, String lastNode,
+                                                           long expiredBefore, Long expiresUntil, int limit) {
+        List<Object> args = new ArrayList<>(5);
+        StringBuilder sql = new StringBuilder(String.format("select from %s where %s > ?", OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
+                OrientDbJettyModule.PROP_EXPIRY_TIME));
+        args.add(expiredBefore);
+        if (expiresUntil != null) {
+            sql.append(String.format(" and %s <= ?", OrientDbJettyModule.PROP_EXPIRY_TIME));
+            args.add(expiresUntil);
+        }
+        sql.append(String.format(" and %s = ? and %s = ?", OrientDbJettyModule.PROP_CONTEXT_PATH, OrientDbJettyModule.PROP_VHOST));
+        args.add(contextPath);
+        args.add(vhost);
+        if (lastNode != null) {
+            sql.append(String.format(" and %s = ?", OrientDbJettyModule.PROP_LAST_NODE));
+            args.add(lastNode);
+        }
+        sql.append(String.format(" order by %s desc limit %d", OrientDbJettyModule.PROP_EXPIRY_TIME, limit));
+        List<ODocument> docs = db.query(new OSQLSynchQuery<>(sql.toString()), args.toArray());
+        return docs != null ? docs : Collections.emptyList();
+    }
+
+    /**
+     * Search ids of sessions of given context by pages ordered by id. Uses index {@link OrientDbJettyModule#INDEX_SESSION_KEY}.
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @param after {@link String} the last id of previous page or empty string for the first page
+     * @param limit max count of returned ids
+     * @return {@link List<String>} ids of sessions which are greater than given id
+     */
+    public static List<String> getSessionIdsPage(ODatabaseDocument db, String contextPath, String vhost, String after, int limit) {
+        List<Object> args = new ArrayList<>(3);
+        args.add(after);
+        String sql = String.format("select %s from %s where %s > ? and %s order by %s asc limit %d", OrientDbJettyModule.PROP_ID,
+                OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID, toContextCondition(contextPath, vhost, args),
+                OrientDbJettyModule.PROP_ID, limit);
+        List<ODocument> docs = db.query(new OSQLSynchQuery<>(sql), args.toArray());
+        if (docs == null) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>(docs.size());
+        docs.forEach(doc -> ids.add(doc.field(OrientDbJettyModule.PROP_ID)));
+        return ids;
+    }
+
+    /**
+     * Read metadata of session data from fields of document without deserialization of attributes.
+     * Documents which was stored by previous versions contain only expiry time, their metadata is restored
+     * by deserialization of session data.
+     * @param doc {@link ODocument} session data document
+     * @return {@link SessionData} session data without attributes
+     */
+    public static SessionData readMetadata(ODocument doc) {
+        SessionData data = new SessionData(doc.field(OrientDbJettyModule.PROP_ID), null, null, 0, 0, 0, 0);
+        readMetadataFields(doc, data);
+        return data;
+    }
+
+    /**
+     * Delete expired session data of all contexts.
+     * Uses index {@link OrientDbJettyModule#INDEX_EXPIRY_TIME}, so doesn't scan all session data.
+     * @param db {@link ODatabaseDocument} database
+     * @param expiredBefore time in milliseconds. Sessions which expiry time is less or equals it are expired
+     * @param limit max count of deleted session data
+     * @return count of deleted session data
+     */
+    public static int deleteExpiredSessions(ODatabaseDocument db, long expiredBefore, int limit) {
+        String sql = String.format("delete from %s where %s between 1 and ? limit %d", OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
+                OrientDbJettyModule.PROP_EXPIRY_TIME, limit);
+        Number deleted = db.command(new OCommandSQL(sql)).execute(expiredBefore);
+        return deleted != null ? deleted.intValue() : 0;
+    }
+
+    /**
+     * Store session data in cluster of bucket of its expiry time.
+     * Session data document is moved to another cluster if bucket of its expiry time was changed.
+     * If cluster of bucket doesn't exist or bucket already ended, session data is stored in default cluster of class.
+     * Must be executed in transaction.
+     * @param db {@link ODatabaseDocument} database
+     * @param id {@link String} session id
+     * @param data {@link SessionData} session data
+     * @param bytes serialized attributes of session data
+     * @param expectedVersion record version of session data document which was last loaded or stored
+     *                        or {@link DbUtils#UNKNOWN_VERSION} for store without check of version
+     * @param bucketLengthMs length of expiry time bucket in milliseconds
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return new version of session data, see {@link DbUtils#getSessionVersion(ODocument)}
+     * @throws ConcurrentModificationException if session data document has another version than expected
+     */
+    public static int storeSessionInBucket(ODatabaseDocument db, String id, SessionData data, byte[] bytes, int expectedVersion,
+                                           long bucketLengthMs, String writer) throws ConcurrentModificationException {
+        ODocument doc = getSessionDocumentById(db, data.getContextPath(), data.getVhost(), id).orElse(null);
+        if (doc != null && expectedVersion != UNKNOWN_VERSION && getSessionVersion(doc) != expectedVersion) {
+            throw new ConcurrentModificationException(String.format("Session data with id %s was changed since version %d", id, expectedVersion));
+        }
+        int clusterId = getExpiryBucketClusterId(db, data.getExpiry(), bucketLengthMs);
+        int version = doc != null ? getSessionVersion(doc) + 1 : 1;
+        Integer base = null;
+        if (doc != null && doc.getIdentity().getClusterId() != clusterId) {
+            // Moved document starts from record version 1, so passed versions are kept as base
+            base = getSessionVersion(doc);
+            doc.delete();
+            doc = null;
+        }
+        if (doc == null) {
+            doc = new ODocument(OrientDbJettyModule.SESSION_DATA_CLASS_NAME);
+            doc.field(OrientDbJettyModule.PROP_ID, id);
+            doc.field(OrientDbJettyModule.PROP_VERSION_BASE, base);
+        }
+        doc.fromMap(toFullFields(data, bytes, writer));
+        db.save(doc, db.getClusterNameById(clusterId));
+        return version;
+    }
+
+    /**
+     * Drop cluster of expired bucket of session data by one operation instead of delete of every session data.
+     * Writes never choose ended bucket, but session data which is already in bucket can still be prolonged by update in place.
+     * So session data which was prolonged is moved to actual bucket, then bucket is fenced by removal of its index entries,
+     * so writes can't find its session data anymore, and session data which was prolonged before fence is moved again.
+     * Index entries are removed by pages of records ordered by RID, every page by its own transaction, and read by projection
+     * of indexed fields, so session data attributes aren't loaded. Index entries aren't removed by range of expiry time,
+     * because documents of other clusters can have expiry time of this bucket.
+     * @param db {@link ODatabaseDocument} database. Must not be in transaction
+     * @param clusterName {@link String} name of cluster of bucket
+     * @param expiredBefore time in milliseconds. Sessions which expiry time is less or equals it are expired
+     * @param bucketLengthMs length of actual expiry time buckets in milliseconds
+     * @return count of dropped session data
+     */
+    public static int dropExpiryBucket(ODatabaseDocument db, String clusterName, long expiredBefore, long bucketLengthMs) {
+        moveAliveSessions(db, clusterName, expiredBefore, bucketLengthMs);
+        OClass oClass = db.getMetadata().getSchema().getClass(OrientDbJettyModule.SESSION_DATA_CLASS_NAME);
+        Collection<? extends OIndex<?>> indexes = oClass.getIndexes();
+        Set<String> fields = new HashSet<>();
+        indexes.forEach(index -> fields.addAll(index.getDefinition().getFields()));
+        String projection = String.format("select @rid as rid, %s from cluster:%s", String.join(", ", fields), clusterName);
+        int dropped = 0;
+        ORID last = null;
+        List<ODocument> docs;
+        do {
+            docs = last == null
+                    ? db.query(new OSQLSynchQuery<>(projection + " limit " + BUCKET_DROP_PAGE_SIZE))
+                    : db.query(new OSQLSynchQuery<>(projection + " where @rid > ? limit " + BUCKET_DROP_PAGE_SIZE), last);
+            if (docs == null || docs.isEmpty()) {
+                break;
+            }
+            removeIndexEntries(db, indexes, docs);
+            last = docs.get(docs.size() - 1).<OIdentifiable>field("rid").getIdentity();
+            dropped += docs.size();
+        } while (docs.size() >= BUCKET_DROP_PAGE_SIZE);
+        dropped -= moveAliveSessions(db, clusterName, expiredBefore, bucketLengthMs);
+        oClass.removeClusterId(db.getClusterIdByName(clusterName));
+        db.dropCluster(clusterName, false);
+        return dropped;
+    }
+
+    private static void removeIndexEntries(ODatabaseDocument db, Collection<? extends OIndex<?>> indexes, List<ODocument> docs) {
+        db.begin();
+        try {
+            for (ODocument doc : docs) {
+                OIdentifiable rid = doc.field("rid");
+                for (OIndex<?> index : indexes) {
+                    Object key = index.getDefinition().getDocumentValueToIndex(doc);
+                    if (key != null) {
+                        index.remove(key, rid);
+                    }
+                }
+            }
+            db.commit();
+        } catch (RuntimeException e) {
+            db.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Move session data which was prolonged after it was stored in bucket to actual bucket.
+     * Session data isn't moved if session was concurrently stored again, because the newer copy already exists
+     * @return count of moved session data
+     */
+    private static int moveAliveSessions(ODatabaseDocument db, String clusterName, long expiredBefore, long bucketLengthMs) {
+        String sql = String.format("select from cluster:%s where %s > ? or %s <= 0", clusterName,
+                OrientDbJettyModule.PROP_EXPIRY_TIME, OrientDbJettyModule.PROP_EXPIRY_TIME);
+        List<ODocument> alive = db.query(new OSQLSynchQuery<>(sql), expiredBefore);
+        if (alive == null) {
+            return 0;
+        }
+        int moved = 0;
+        for (ODocument doc : alive) {
+            long expiry = doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME);
+            ODocument copy = new ODocument(OrientDbJettyModule.SESSION_DATA_CLASS_NAME);
+            for (String field : doc.fieldNames()) {
+                copy.field(field, (Object) doc.field(field));
+            }
+            copy.field(OrientDbJettyModule.PROP_VERSION_BASE, getSessionVersion(doc));
+            db.begin();
+            try {
+                doc.delete();
+                db.save(copy, db.getClusterNameById(getExpiryBucketClusterId(db, expiry, bucketLengthMs)));
+                db.commit();
+                moved++;
+            } catch (ORecordDuplicatedException e) {
+                db.rollback();
+                String id = doc.field(OrientDbJettyModule.PROP_ID);
+                LOG.debug("Session data with id {} was stored again while its bucket was dropped", id);
+            } catch (RuntimeException e) {
+                db.rollback();
+                throw e;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Get names of clusters of expiry time buckets which ended before given time
+     * @param db {@link ODatabaseDocument} database
+     * @param before time in milliseconds
+     * @return {@link List} names of clusters
+     */
+    public static List<String> getExpiredBucketClusters(ODatabaseDocument db, long before) {
+        OClass oClass = db.getMetadata().getSchema().getClass(OrientDbJettyModule.SESSION_DATA_CLASS_NAME);
+        List<String> clusters = new ArrayList<>();
+        for (int clusterId : oClass.getClusterIds()) {
+            String name = db.getClusterNameById(clusterId);
+            long end = OrientDbJettyModule.getExpiryBucketEnd(name);
+            if (end >= 0 && end <= before) {
+                clusters.add(name);
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Get cluster of bucket of given expiry time
+     * @param db {@link ODatabaseDocument} database
+     * @param expiry expiry time in milliseconds
+     * @param bucketLengthMs length of expiry time bucket in milliseconds
+     * @return id of cluster of bucket or id of default cluster of session data if bucket doesn't exist or already ended
+     */
+    private static int getExpiryBucketClusterId(ODatabaseDocument db, long expiry, long bucketLengthMs) {
+        int clusterId = -1;
+        if (expiry > 0 && expiry - expiry % bucketLengthMs + bucketLengthMs > System.currentTimeMillis()) {
+            clusterId = db.getClusterIdByName(OrientDbJettyModule.getExpiryBucketClusterName(expiry, bucketLengthMs));
+        }
+        if (clusterId < 0) {
+            clusterId = db.getMetadata().getSchema().getClass(OrientDbJettyModule.SESSION_DATA_CLASS_NAME).getDefaultClusterId();
+        }
+        return clusterId;
+    }
+
+    /**
+     * Try to acquire lease with given name.
+     * Lease is acquired if it doesn't exist, it was expired or it is already held by given owner.
+     * @param db {@link ODatabaseDocument} database
+     * @param name {@link String} lease name
+     * @param owner {@link String} owner which tries to acquire lease
+     * @param until time in milliseconds until which lease will be held if it will be acquired
+     * @return true if lease was acquired
+     */
+    public static boolean acquireLease(ODatabaseDocument db, String name, String owner, long until) {
+        String update = String.format("update %s set %s = ?, %s = ? where %s = ? and (%s < ? or %s = ?)",
+                OrientDbJettyModule.LEASE_CLASS_NAME, OrientDbJettyModule.PROP_LEASE_OWNER, OrientDbJettyModule.PROP_LEASE_UNTIL,
+                OrientDbJettyModule.PROP_LEASE_NAME, OrientDbJettyModule.PROP_LEASE_UNTIL, OrientDbJettyModule.PROP_LEASE_OWNER);
+        try {
+            Number updated = db.command(new OCommandSQL(update)).execute(owner, until, name, System.currentTimeMillis(), owner);
+            if (updated != null && updated.intValue() > 0) {
+                return true;
+            }
+            String insert = String.format("insert into %s set %s = ?, %s = ?, %s = ?", OrientDbJettyModule.LEASE_CLASS_NAME,
+                    OrientDbJettyModule.PROP_LEASE_NAME, OrientDbJettyModule.PROP_LEASE_OWNER, OrientDbJettyModule.PROP_LEASE_UNTIL);
+            db.command(new OCommandSQL(insert)).execute(name, owner, until);
+            return true;
+        } catch (ORecordDuplicatedException | OConcurrentModificationException e) {
+            // Lease exists and held by another owner or was concurrently acquired by another owner
+            return false;
+        }
+    }
+
+    /**
+     * Store shard of context in list of shards of database. Shard which already exists is updated
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @param url {@link String} url of database of shard
+     * @param added time in milliseconds when shard was added
+     * @param migrated true if sessions which were remapped to shard are moved to it
+     */
+    public static void storeShard(ODatabaseDocument db, String contextPath, String vhost, String url, long added, boolean migrated) {
+        List<Object> args = new ArrayList<>(8);
+        args.add(url);
+        args.add(contextPath);
+        args.add(vhost);
+        args.add(added);
+        args.add(migrated);
+        StringBuilder condition = new StringBuilder(OrientDbJettyModule.PROP_SHARD_URL).append(" = ?");
+        args.add(url);
+        appendEquals(condition, OrientDbJettyModule.PROP_CONTEXT_PATH, contextPath, args);
+        appendEquals(condition, OrientDbJettyModule.PROP_VHOST, vhost, args);
+        String sql = String.format("update %s set %s = ?, %s = ?, %s = ?, %s = ?, %s = ? upsert where %s", OrientDbJettyModule.SHARD_CLASS_NAME,
+                OrientDbJettyModule.PROP_SHARD_URL, OrientDbJettyModule.PROP_CONTEXT_PATH, OrientDbJettyModule.PROP_VHOST,
+                OrientDbJettyModule.PROP_SHARD_ADDED, OrientDbJettyModule.PROP_SHARD_MIGRATED, condition);
+        db.command(new OCommandSQL(sql)).execute(args.toArray());
+    }
+
+    /**
+     * Search shards of context in list of shards of database
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @return {@link List<ODocument>} documents of shards ordered by time of adding
+     */
+    public static List<ODocument> getShards(ODatabaseDocument db, String contextPath, String vhost) {
+        List<Object> args = new ArrayList<>(2);
+        String sql = String.format("select from %s where %s order by %s asc", OrientDbJettyModule.SHARD_CLASS_NAME,
+                toContextCondition(contextPath, vhost, args), OrientDbJettyModule.PROP_SHARD_ADDED);
+        List<ODocument> docs = db.query(new OSQLSynchQuery<>(sql), args.toArray());
+        return docs != null ? docs : Collections.emptyList();
+    }
+
+    /**
+     * Mark shards of context in list of shards of database as migrated.
+     * Shards which were added later are left as is, because their sessions can be not moved yet
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of sessions
+     * @param vhost {@link String} virtual host of sessions
+     * @param addedUntil time in milliseconds. Shards which were added before or at it are marked
+     */
+    public static void markShardsMigrated(ODatabaseDocument db, String contextPath, String vhost, long addedUntil) {
+        List<Object> args = new ArrayList<>(3);
+        String condition = toContextCondition(contextPath, vhost, args);
+        args.add(addedUntil);
+        String sql = String.format("update %s set %s = true where %s and %s <= ?", OrientDbJettyModule.SHARD_CLASS_NAME,
+                OrientDbJettyModule.PROP_SHARD_MIGRATED, condition, OrientDbJettyModule.PROP_SHARD_ADDED);
+        db.command(new OCommandSQL(sql)).execute(args.toArray());
+    }
+
+    /**
+     * Default count of session data documents of previous versions which are migrated by one transaction
+     */
+    public static final int DEFAULT_LEGACY_MIGRATION_BATCH_SIZE = 1000;
+
+    /**
+     * Restore metadata fields of session data documents which were stored by previous versions, so such sessions can be found
+     * by context. Metadata is read from serialized data by {@link DbUtils#DEFAULT_SERIALIZER}.
+     * Documents which can't be deserialized are left as is.
+     * @param db {@link ODatabaseDocument} database. Must not be in transaction
+     * @return count of migrated documents
+     */
+    public static int migrateLegacySessions(ODatabaseDocument db) {
+        return migrateLegacySessions(db, DEFAULT_LEGACY_MIGRATION_BATCH_SIZE);
+    }
+
+    /**
+     * Restore metadata fields of session data documents which were stored by previous versions.
+     * Documents are read by one pass over class and migrated by batches, every batch is committed by its own transaction,
+     * so interrupted migration keeps already migrated documents and is continued by next call.
+     * @param db {@link ODatabaseDocument} database. Must not be in transaction
+     * @param batchSize max count of documents which are migrated by one transaction
+     * @return count of migrated documents
+     */
+    public static int migrateLegacySessions(ODatabaseDocument db, int batchSize) {
+        int migrated = 0;
+        List<ODocument> batch = new ArrayList<>(batchSize);
+        for (ODocument doc : db.browseClass(OrientDbJettyModule.SESSION_DATA_CLASS_NAME)) {
+            if (doc.containsField(OrientDbJettyModule.PROP_CREATED)) {
+                continue;
+            }
+            try {
+                SessionData data = fromDocument(doc, DEFAULT_SERIALIZER);
+                toMetadataFields(data, null).forEach((name, value) -> doc.field(name, value));
+                batch.add(doc);
+            } catch (IllegalStateException e) {
+                String id = doc.field(OrientDbJettyModule.PROP_ID);
+                LOG.warn("Can't migrate session data {} of previous version", id, e.getCause());
+            }
+            if (batch.size() >= batchSize) {
+                migrated += saveLegacySessions(db, batch);
+                LOG.info("Migrated {} session data of previous version", migrated);
+            }
+        }
+        if (!batch.isEmpty()) {
+            migrated += saveLegacySessions(db, batch);
+            LOG.info("Migrated {} session data of previous version", migrated);
+        }
+        return migrated;
+    }
+
+    private static int saveLegacySessions(ODatabaseDocument db, List<ODocument> batch) {
+        int saved = batch.size();
+        db.begin();
+        try {
+            batch.forEach(ODocument::save);
+            db.commit();
+        } catch (RuntimeException e) {
+            db.rollback();
+            throw e;
+        } finally {
+            batch.clear();
+        }
+        return saved;
     }
 
     /**
@@ -99,9 +1230,20 @@ public final class DbUtils {
      * @param id {@link String} session id
      */
     public static void deleteSessionById(ODatabaseDocument db, String id) {
-        String sql = String.format("delete from %s where %s = ?", OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
-                OrientDbJettyModule.PROP_ID);
-        db.command(new OCommandSQL(sql)).execute(id);
+        getSessionIdentityById(db, id)
+                .ifPresent(identifiable -> db.delete(identifiable.getIdentity()));
+    }
+
+    /**
+     * Delete session data of given context by given id
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of session
+     * @param vhost {@link String} virtual host of session
+     * @param id {@link String} session id
+     */
+    public static void deleteSessionById(ODatabaseDocument db, String contextPath, String vhost, String id) {
+        getSessionIdentityById(db, contextPath, vhost, id)
+                .ifPresent(identifiable -> db.delete(identifiable.getIdentity()));
     }
 
     /**
@@ -111,54 +1253,206 @@ public final class DbUtils {
      * @return tru if session exists in database
      */
     public static boolean isSessionExistsById(ODatabaseDocument db, String id) {
-        String sql = String.format("select %s from %s where %s = ?", OrientDbJettyModule.PROP_ID,
-                OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID);
-        List<OIdentifiable> identifiables = db.query(new OSQLSynchQuery<>(sql, 1), id);
-        return identifiables != null && !identifiables.isEmpty();
+        return getSessionIdentityById(db, id).isPresent();
+    }
+
+    /**
+     * Check if session of given context with given id exists in database
+     * @param db {@link ODatabaseDocument} database
+     * @param contextPath {@link String} canonical context path of session
+     * @param vhost {@link String} virtual host of session
+     * @param id {@link String} session id
+     * @return true if session exists in database
+     */
+    public static boolean isSessionExistsById(ODatabaseDocument db, String contextPath, String vhost, String id) {
+        return getSessionIdentityById(db, contextPath, vhost, id).isPresent();
+    }
+
+    /**
+     * Get index by given name
+     * @param db {@link ODatabaseDocument} database
+     * @param name {@link String} index name
+     * @return {@link Optional<OIndex>} index or {@link Optional#empty()} if index doesn't exists
+     */
+    private static Optional<OIndex<?>> getIndex(ODatabaseDocument db, String name) {
+        return Optional.ofNullable(db.getMetadata().getIndexManager().getIndex(name));
     }
 
     /**
      * Serialize data to bytes.
      * @param data {@link SessionData} for serialize it
+     * @param serializer {@link ISessionDataSerializer} serializer of session data
      * @return array of bytes or throw exception if can't convert data to bytes
      * @throws IllegalStateException if can't serialize data
      */
-    private static byte[] toBytes(SessionData data) throws IllegalStateException {
+    public static byte[] toBytes(SessionData data, ISessionDataSerializer serializer) throws IllegalStateException {
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(out);
-            oos.writeObject(data);
-            oos.close();
-            return out.toByteArray();
+            return serializer.serialize(data);
         } catch (Exception e) {
             throw new IllegalStateException("Can't serialize " + data, e);
         }
     }
 
     /**
-     * Convert list of indentifiables to set of ids.
-     * Uses {@link OrientDbJettyModule#PROP_ID} for get value which stores in field id.
-     * @param identifiables {@link List<OIdentifiable>}
-     * @return {@link Set<String>} set of id
+     * Execute query asynchronously and collect values of field {@link OrientDbJettyModule#PROP_ID} from results.
+     * Results are processed one by one, so list of all results isn't materialized.
+     * @param db {@link ODatabaseDocument} database
+     * @param sql {@link String} query which selects {@link OrientDbJettyModule#PROP_ID}
+     * @param ids {@link Set<String>} set for collect ids
+     * @param args arguments of query
+     */
+    private static void streamIds(ODatabaseDocument db, String sql, Set<String> ids, Object...args) {
+        OSQLAsynchQuery<ODocument> query = new OSQLAsynchQuery<>(sql, new OCommandResultListener() {
+            @Override
+            public boolean result(Object record) {
+                ids.add(((ODocument) record).field(OrientDbJettyModule.PROP_ID));
+                return true;
+            }
+
+            @Override
+            public void end() {
+            }
+
+            @Override
+            public Object getResult() {
+                return null;
+            }
+        });
+        db.command(query).execute(args);
+    }
+
+    /**
+     * Convert session metadata to fields of session data document
+     * @param data {@link SessionData} session data
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return {@link Map} fields of session data document
+     */
+    private static Map<String, Object> toMetadataFields(SessionData data, String writer) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put(OrientDbJettyModule.PROP_CONTEXT_PATH, data.getContextPath());
+        fields.put(OrientDbJettyModule.PROP_VHOST, data.getVhost());
+        fields.put(OrientDbJettyModule.PROP_LAST_NODE, data.getLastNode());
+        fields.put(OrientDbJettyModule.PROP_WRITER, writer);
+        fields.put(OrientDbJettyModule.PROP_CREATED, data.getCreated());
+        fields.put(OrientDbJettyModule.PROP_ACCESSED, data.getAccessed());
+        fields.put(OrientDbJettyModule.PROP_LAST_ACCESSED, data.getLastAccessed());
+        fields.put(OrientDbJettyModule.PROP_COOKIE_SET, data.getCookieSet());
+        fields.put(OrientDbJettyModule.PROP_MAX_INACTIVE, data.getMaxInactiveMs());
+        fields.put(OrientDbJettyModule.PROP_LAST_SAVED, data.getLastSaved());
+        fields.put(OrientDbJettyModule.PROP_EXPIRY_TIME, data.getExpiry());
+        return fields;
+    }
+
+    /**
+     * Convert session metadata and serialized attributes to fields of session data document.
+     * Clears separately stored attributes, so attributes are loaded from {@link OrientDbJettyModule#PROP_DATA}
+     * @param data {@link SessionData} session data
+     * @param bytes serialized attributes of session data
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return {@link Map} fields of session data document
+     */
+    private static Map<String, Object> toFullFields(SessionData data, byte[] bytes, String writer) {
+        Map<String, Object> fields = toMetadataFields(data, writer);
+        fields.put(OrientDbJettyModule.PROP_DATA, bytes);
+        fields.put(OrientDbJettyModule.PROP_ATTRIBUTES, null);
+        return fields;
+    }
+
+    /**
+     * Convert session metadata and separately serialized attributes to fields of session data document
+     * @param data {@link SessionData} session data
+     * @param attributes {@link Map} attributes which were encoded by {@link DbUtils#ATTRIBUTE_SERIALIZER}
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return {@link Map} fields of session data document
+     */
+    private static Map<String, Object> toAttributeFields(SessionData data, Map<String, byte[]> attributes, String writer) {
+        Map<String, Object> fields = toMetadataFields(data, writer);
+        fields.put(OrientDbJettyModule.PROP_DATA, new byte[0]);
+        fields.put(OrientDbJettyModule.PROP_ATTRIBUTES, attributes);
+        return fields;
+    }
+
+    /**
+     * Convert access and expiry time of session data to fields of session data document
+     * @param data {@link SessionData} session data
+     * @param writer {@link String} unique id of store which writes session data or null
+     * @return {@link Map} fields of session data document
      */
-    private static Set<String> toIdSet(List<OIdentifiable> identifiables) {
-        return identifiables.stream()
-                .map(i -> (ODocument) i.getRecord())
-                .map(d -> (String) d.field(OrientDbJettyModule.PROP_ID))
-                .collect(Collectors.toSet());
+    private static Map<String, Object> toTouchFields(SessionData data, String writer) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put(OrientDbJettyModule.PROP_LAST_NODE, data.getLastNode());
+        fields.put(OrientDbJettyModule.PROP_WRITER, writer);
+        fields.put(OrientDbJettyModule.PROP_ACCESSED, data.getAccessed());
+        fields.put(OrientDbJettyModule.PROP_LAST_ACCESSED, data.getLastAccessed());
+        fields.put(OrientDbJettyModule.PROP_COOKIE_SET, data.getCookieSet());
+        fields.put(OrientDbJettyModule.PROP_LAST_SAVED, data.getLastSaved());
+        fields.put(OrientDbJettyModule.PROP_EXPIRY_TIME, data.getExpiry());
+        return fields;
     }
 
     /**
-     * Deserialize bytes to {@link SessionData}.
-     * @param bytes byte array for deserialize
+     * Convert session data document to {@link SessionData} or log error if can't deserialize data.
+     * @param doc {@link ODocument} session data document
+     * @param serializer {@link ISessionDataSerializer} serializer of session data
      * @return {@link Optional<SessionData>} which contains {@link SessionData} or {@link Optional#empty()} if can't deserialize data
      */
-    private static Optional<SessionData> fromBytes(byte [] bytes) {
-        try (ObjectInputStream in = new ClassLoadingObjectInputStream(new ByteArrayInputStream(bytes))) {
-            return Optional.of((SessionData) in.readObject());
+    private static Optional<SessionData> toSessionData(ODocument doc, ISessionDataSerializer serializer) {
+        try {
+            return Optional.of(fromDocument(doc, serializer));
+        } catch (IllegalStateException e) {
+            LOG.error("Can't read {} from byte array!", SessionData.class.getName(), e.getCause());
+            return empty();
+        }
+    }
+
+    /**
+     * Convert session data document to {@link SessionData}.
+     * Session metadata is restored from document fields and attributes are deserialized from
+     * field {@link OrientDbJettyModule#PROP_DATA} or from {@link OrientDbJettyModule#PROP_ATTRIBUTES} if attributes are stored separately.
+     * Documents which was stored by previous versions don't contain metadata fields, so metadata of them is restored from serialized data.
+     * @param doc {@link ODocument} session data document
+     * @param serializer {@link ISessionDataSerializer} serializer of session data
+     * @return {@link SessionData} session data
+     * @throws IllegalStateException if can't deserialize data
+     */
+    public static SessionData fromDocument(ODocument doc, ISessionDataSerializer serializer) throws IllegalStateException {
+        String id = doc.field(OrientDbJettyModule.PROP_ID);
+        SessionData data = serializer.newSessionData(id);
+        Map<String, byte[]> attributes = doc.field(OrientDbJettyModule.PROP_ATTRIBUTES);
+        try {
+            if (attributes != null) {
+                ATTRIBUTE_SERIALIZER.decodeAttributes(attributes, data);
+                if (data instanceof LazySessionData) {
+                    ((LazySessionData) data).setAttributesStored(true, Collections.emptySet());
+                }
+            } else {
+                serializer.deserialize(doc.field(OrientDbJettyModule.PROP_DATA), data);
+            }
         } catch (Exception e) {
-            LOG.error("Can't read {} from byte array!", SessionData.class.getName(), e);
+            throw new IllegalStateException("Can't deserialize session data " + id, e);
+        }
+        readMetadataFields(doc, data);
+        data.setDirty(false);
+        return data;
+    }
+
+    private static void readMetadataFields(ODocument doc, SessionData data) {
+        if (doc.containsField(OrientDbJettyModule.PROP_CREATED)) {
+            data.setContextPath(doc.field(OrientDbJettyModule.PROP_CONTEXT_PATH));
+            data.setVhost(doc.field(OrientDbJettyModule.PROP_VHOST));
+            data.setLastNode(doc.field(OrientDbJettyModule.PROP_LAST_NODE));
+            data.setCreated(getLong(doc, OrientDbJettyModule.PROP_CREATED));
+            data.setAccessed(getLong(doc, OrientDbJettyModule.PROP_ACCESSED));
+            data.setLastAccessed(getLong(doc, OrientDbJettyModule.PROP_LAST_ACCESSED));
+            data.setCookieSet(getLong(doc, OrientDbJettyModule.PROP_COOKIE_SET));
+            data.setMaxInactiveMs(getLong(doc, OrientDbJettyModule.PROP_MAX_INACTIVE));
+            data.setLastSaved(getLong(doc, OrientDbJettyModule.PROP_LAST_SAVED));
         }
-        return empty();
+        data.setExpiry(getLong(doc, OrientDbJettyModule.PROP_EXPIRY_TIME));
+    }
+
+    private static long getLong(ODocument doc, String field) {
+        Long value = doc.field(field);
+        return value != null ? value : 0;
     }
 }
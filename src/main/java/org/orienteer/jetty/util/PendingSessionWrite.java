@@ -0,0 +1,176 @@
+package org.orienteer.jetty.util;
+
+import org.eclipse.jetty.server.session.SessionData;
+
+/**
+ * Write of session data which wasn't stored in database yet.
+ * Contains snapshot of session metadata and serialized attributes which were actual when write was created.
+ */
+public final class PendingSessionWrite {
+
+    /**
+     * Type of pending write
+     */
+    public enum Type {
+        /**
+         * Store whole session data
+         */
+        FULL,
+        /**
+         * Store only access and expiry time of session data
+         */
+        TOUCH,
+        /**
+         * Delete session data
+         */
+        DELETE
+    }
+
+    private final String id;
+    private final Type type;
+    private final SessionData metadata;
+    private final byte[] data;
+
+    private PendingSessionWrite(String id, Type type, SessionData metadata, byte[] data) {
+        this.id = id;
+        this.type = type;
+        this.metadata = metadata;
+        this.data = data;
+    }
+
+    /**
+     * Create write of whole session data
+     * @param id {@link String} session id
+     * @param sessionData {@link SessionData} session data
+     * @param data serialized attributes of session data
+     * @return {@link PendingSessionWrite} pending write
+     */
+    public static PendingSessionWrite full(String id, SessionData sessionData, byte[] data) {
+        return new PendingSessionWrite(id, Type.FULL, copyMetadata(sessionData), data);
+    }
+
+    /**
+     * Create write of only access and expiry time of session data
+     * @param id {@link String} session id
+     * @param sessionData {@link SessionData} session data
+     * @return {@link PendingSessionWrite} pending write
+     */
+    public static PendingSessionWrite touch(String id, SessionData sessionData) {
+        return new PendingSessionWrite(id, Type.TOUCH, copyMetadata(sessionData), null);
+    }
+
+    /**
+     * Create delete of session data with given id in all contexts
+     * @param id {@link String} session id
+     * @return {@link PendingSessionWrite} pending write
+     */
+    public static PendingSessionWrite delete(String id) {
+        return new PendingSessionWrite(id, Type.DELETE, null, null);
+    }
+
+    /**
+     * Create delete of session data of given context
+     * @param id {@link String} session id
+     * @param contextPath {@link String} canonical context path of session
+     * @param vhost {@link String} virtual host of session
+     * @return {@link PendingSessionWrite} pending write
+     */
+    public static PendingSessionWrite delete(String id, String contextPath, String vhost) {
+        return new PendingSessionWrite(id, Type.DELETE, new SessionData(id, contextPath, vhost, 0, 0, 0, 0), null);
+    }
+
+    /**
+     * Coalesce this write with newer write of the same session.
+     * Newer full write or delete replaces this write. Newer touch write of pending full write
+     * keeps serialized attributes and takes metadata from newer write.
+     * @param newer {@link PendingSessionWrite} newer write of the same session
+     * @return {@link PendingSessionWrite} write which has the same effect as both writes
+     */
+    public PendingSessionWrite merge(PendingSessionWrite newer) {
+        if (newer.type != Type.TOUCH) {
+            return newer;
+        }
+        switch (type) {
+            case FULL:
+                return new PendingSessionWrite(id, Type.FULL, newer.metadata, data);
+            case DELETE:
+                return this;
+            default:
+                return newer;
+        }
+    }
+
+    /**
+     * Check if session data will be expired at given time after this write
+     * @param time time in milliseconds
+     * @return true if session data is deleted or expired at given time
+     */
+    public boolean isExpiredAt(long time) {
+        return type == Type.DELETE || (metadata.getExpiry() > 0 && metadata.getExpiry() <= time);
+    }
+
+    /**
+     * Apply access and expiry time of this write to given session data
+     * @param data {@link SessionData} session data
+     */
+    public void applyTouchTo(SessionData data) {
+        data.setLastNode(metadata.getLastNode());
+        data.setAccessed(metadata.getAccessed());
+        data.setLastAccessed(metadata.getLastAccessed());
+        data.setCookieSet(metadata.getCookieSet());
+        data.setLastSaved(metadata.getLastSaved());
+        data.setExpiry(metadata.getExpiry());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public SessionData getMetadata() {
+        return metadata;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Copy metadata of session data without attributes
+     * @param data {@link SessionData} session data
+     * @return {@link SessionData} copy of session data without attributes
+     */
+    public static SessionData copyMetadata(SessionData data) {
+        SessionData copy = new SessionData(data.getId(), data.getContextPath(), data.getVhost(), data.getCreated(),
+                data.getAccessed(), data.getLastAccessed(), data.getMaxInactiveMs());
+        copy.setLastNode(data.getLastNode());
+        copy.setCookieSet(data.getCookieSet());
+        copy.setExpiry(data.getExpiry());
+        copy.setLastSaved(data.getLastSaved());
+        return copy;
+    }
+
+    /**
+     * Copy metadata of session data to another session data with the same id
+     * @param data {@link SessionData} session data
+     * @param copy {@link SessionData} session data for copy metadata
+     * @param <T> type of session data
+     * @return given copy of session data
+     */
+    public static <T extends SessionData> T copyMetadata(SessionData data, T copy) {
+        copy.setContextPath(data.getContextPath());
+        copy.setVhost(data.getVhost());
+        copy.setCreated(data.getCreated());
+        copy.setAccessed(data.getAccessed());
+        copy.setLastAccessed(data.getLastAccessed());
+        copy.setMaxInactiveMs(data.getMaxInactiveMs());
+        copy.setLastNode(data.getLastNode());
+        copy.setCookieSet(data.getCookieSet());
+        copy.setExpiry(data.getExpiry());
+        copy.setLastSaved(data.getLastSaved());
+        return copy;
+    }
+}
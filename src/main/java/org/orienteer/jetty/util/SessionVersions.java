@@ -0,0 +1,60 @@
+package org.orienteer.jetty.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU map of record versions of session data documents which were last loaded or stored by this node.
+ * Versions aren't changed by writes of another nodes, so they can be used for optimistic concurrency checks.
+ */
+public final class SessionVersions {
+
+    private final Map<String, Integer> versions;
+
+    /**
+     * Constructor
+     * @param maxSize max count of remembered versions
+     */
+    public SessionVersions(int maxSize) {
+        this.versions = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param id {@link String} session id
+     * @return record version of session data document or {@link DbUtils#UNKNOWN_VERSION} if version isn't known
+     */
+    public synchronized int get(String id) {
+        Integer version = versions.get(id);
+        return version != null ? version : DbUtils.UNKNOWN_VERSION;
+    }
+
+    /**
+     * Remember record version of session data document
+     * @param id {@link String} session id
+     * @param version record version or {@link DbUtils#UNKNOWN_VERSION} for forget version
+     */
+    public synchronized void put(String id, int version) {
+        if (version == DbUtils.UNKNOWN_VERSION) {
+            versions.remove(id);
+        } else {
+            versions.put(id, version);
+        }
+    }
+
+    /**
+     * Forget record version of session data document
+     * @param id {@link String} session id
+     */
+    public synchronized void remove(String id) {
+        versions.remove(id);
+    }
+
+    public synchronized int getSize() {
+        return versions.size();
+    }
+}
@@ -0,0 +1,73 @@
+package org.orienteer.jetty.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces concurrent calls with the same key into one call.
+ * First caller executes call and other callers which came while call is in flight wait for its result.
+ * Result isn't cached after call is completed.
+ * @param <K> type of key
+ * @param <V> type of result
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Execute call or wait for result of call with the same key which is in flight
+     * @param key key of call
+     * @param call {@link Supplier} call
+     * @param share {@link UnaryOperator} function which gets result for waiting caller from result of call,
+     *                                   for example copy of mutable result. Isn't applied to null result
+     * @return result of call
+     */
+    public V execute(K key, Supplier<V> call, UnaryOperator<V> share) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            coalesced.increment();
+            V result = join(inFlight);
+            return result != null ? share.apply(result) : null;
+        }
+        try {
+            V result = call.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    private V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return count of calls which waited for result of another call
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+}
@@ -2,13 +2,18 @@ package org.orienteer.jetty;
 
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.eclipse.jetty.server.session.SessionContext;
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 public abstract class AbstractOrientDbJettyTest {
 
+    private final List<OrientDbSessionDataStore> stores = new ArrayList<>();
 
     @BeforeClass
     public static void initDatabase() {
@@ -42,6 +47,16 @@ public abstract class AbstractOrientDbJettyTest {
         }
     }
 
+    @After
+    public void stopStores() throws Exception {
+        for (OrientDbSessionDataStore store : stores) {
+            if (store.isStarted()) {
+                store.stop();
+            }
+        }
+        stores.clear();
+    }
+
 
     protected void sudoExecute(Consumer<ODatabaseDocument> consumer) {
         String url = OrientDbJettyModule.getDatabaseUrl();
@@ -56,4 +71,20 @@ public abstract class AbstractOrientDbJettyTest {
             db.close();
         }
     }
+
+    /**
+     * Create and start store of session data. Store is stopped after test
+     * @param workerName {@link String} name of node of store
+     * @param configurer {@link Consumer} which configures store before start
+     * @return started store
+     * @throws Exception if store can't be started
+     */
+    protected OrientDbSessionDataStore createStore(String workerName, Consumer<OrientDbSessionDataStore> configurer) throws Exception {
+        OrientDbSessionDataStore store = new OrientDbSessionDataStore();
+        configurer.accept(store);
+        store.initialize(new SessionContext(workerName, null));
+        stores.add(store);
+        store.start();
+        return store;
+    }
 }
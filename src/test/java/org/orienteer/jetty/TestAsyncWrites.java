@@ -0,0 +1,173 @@
+package org.orienteer.jetty;
+
+import org.eclipse.jetty.server.session.SessionContext;
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.orienteer.jetty.util.DbUtils;
+import org.orienteer.jetty.util.PendingSessionWrite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestAsyncWrites extends AbstractOrientDbJettyTest {
+
+    private OrientDbSessionDataStore store;
+
+    @Before
+    public void before() throws Exception {
+        store = new OrientDbSessionDataStore();
+        store.setAsyncWritesEnabled(true);
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        if (store.isStarted()) {
+            store.stop();
+        }
+    }
+
+    @Test
+    public void testOrderOfSessionWrites() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<PendingSessionWrite> stored = Collections.synchronizedList(new ArrayList<>());
+        SessionAsyncWriter writer = new SessionAsyncWriter(write -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            stored.add(write);
+        }, 2, false, 1, 100, 0, 10);
+        try {
+            SessionData data = new SessionData("ordered", "", "0.0.0.0", 1, 1, 1, 60000);
+            writer.add(PendingSessionWrite.full(data.getId(), data, new byte[] {1}));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // First write is storing now, so next writes wait for it and coalesce
+            writer.add(PendingSessionWrite.touch(data.getId(), data));
+            writer.add(PendingSessionWrite.full(data.getId(), data, new byte[] {2}));
+            assertEquals(1, writer.getCoalescedWrites());
+            assertEquals(1, writer.getPendingCount());
+            assertArrayEquals("Pending write isn't visible", new byte[] {2}, writer.get(data.getId()).getData());
+
+            try {
+                writer.add(PendingSessionWrite.delete("other", "", "0.0.0.0"));
+                fail("Write was added over max pending");
+            } catch (IllegalStateException e) {
+                assertEquals(1, writer.getRejectedWrites());
+            }
+
+            release.countDown();
+            writer.flush();
+            assertEquals(2, stored.size());
+            assertArrayEquals(new byte[] {1}, stored.get(0).getData());
+            assertArrayEquals(new byte[] {2}, stored.get(1).getData());
+            assertNull(writer.get(data.getId()));
+            assertEquals(0, writer.getPendingCount());
+        } finally {
+            release.countDown();
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testRetryOfFailedWrites() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<PendingSessionWrite> stored = Collections.synchronizedList(new ArrayList<>());
+        SessionAsyncWriter writer = new SessionAsyncWriter(write -> {
+            if (attempts.incrementAndGet() <= 2) {
+                throw new IllegalStateException("Database is unavailable");
+            }
+            stored.add(write);
+        }, 2, false, 10, 100, 3, 10);
+        try {
+            SessionData data = new SessionData("retried", "", "0.0.0.0", 1, 1, 1, 60000);
+            writer.add(PendingSessionWrite.full(data.getId(), data, new byte[] {1}));
+            writer.flush();
+
+            assertEquals(3, attempts.get());
+            assertEquals(2, writer.getRetriedWrites());
+            assertEquals(0, writer.getFailedWrites());
+            assertEquals(1, stored.size());
+            assertArrayEquals(new byte[] {1}, stored.get(0).getData());
+            assertEquals(0, writer.getPendingCount());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testFailedWriteIsDroppedAfterRetries() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        SessionAsyncWriter writer = new SessionAsyncWriter(write -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("Database is unavailable");
+        }, 2, false, 10, 100, 2, 10);
+        try {
+            SessionData data = new SessionData("dropped", "", "0.0.0.0", 1, 1, 1, 60000);
+            writer.add(PendingSessionWrite.full(data.getId(), data, new byte[] {1}));
+            writer.flush();
+
+            assertEquals(3, attempts.get());
+            assertEquals(2, writer.getRetriedWrites());
+            assertEquals(1, writer.getFailedWrites());
+            assertNull(writer.get(data.getId()));
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testReadThroughPendingWrites() throws Exception {
+        SessionData data = store.newSessionData("async", 1, 1, 1, 60000);
+        for (int i = 0; i < 100; i++) {
+            data.setAttribute("counter", i);
+            store.store(data.getId(), data);
+            assertEquals("Load doesn't see pending write", i, store.load(data.getId()).getAttribute("counter"));
+        }
+        SessionAsyncWriter writer = store.getAsyncWriter();
+        writer.flush();
+        assertEquals(100, writer.getWrites());
+        assertEquals(100, writer.getStoredWrites() + writer.getCoalescedWrites());
+        sudoExecute(db -> assertEquals(99, DbUtils.getSessionById(db, data.getId()).get().getAttribute("counter")));
+
+        store.delete(data.getId());
+        assertNull("Load doesn't see pending delete", store.load(data.getId()));
+        assertFalse("Exists doesn't see pending delete", store.exists(data.getId()));
+        writer.flush();
+        sudoExecute(db -> assertFalse("Session not deleted", DbUtils.isSessionExistsById(db, data.getId())));
+        assertEquals(0, store.getAsyncFailedWrites());
+    }
+
+    @Test
+    public void testNoLostWritesOnStop() throws Exception {
+        int sessions = 500;
+        for (int i = 0; i < sessions; i++) {
+            SessionData data = store.newSessionData("asyncStop" + i, 1, 1, 1, 60000);
+            data.setAttribute("index", i);
+            store.store(data.getId(), data);
+        }
+
+        store.stop();
+
+        sudoExecute(db -> {
+            for (int i = 0; i < sessions; i++) {
+                String id = "asyncStop" + i;
+                assertEquals(i, DbUtils.getSessionById(db, id).get().getAttribute("index"));
+                DbUtils.deleteSessionById(db, id);
+            }
+        });
+    }
+}
@@ -0,0 +1,221 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.OPartitionedDatabasePool;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.eclipse.jetty.server.session.SessionContext;
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.After;
+import org.junit.Test;
+import org.orienteer.jetty.pool.EmbeddedDatabasePoolFactory;
+import org.orienteer.jetty.pool.IDatabasePool;
+import org.orienteer.jetty.pool.IDatabasePoolFactory;
+import org.orienteer.jetty.pool.PartitionedDatabasePoolFactory;
+import org.orienteer.jetty.pool.SharedDatabasePoolFactory;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestConnectionManager extends AbstractOrientDbJettyTest {
+
+    private static final String UNAVAILABLE_URL = "memory:unavailabledb";
+
+    private OrientDbConnectionManager manager;
+
+    @After
+    public void after() {
+        if (manager != null) {
+            manager.close();
+        }
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx(UNAVAILABLE_URL);
+        if (db.exists()) {
+            db.open("admin", "admin");
+            db.drop();
+        }
+    }
+
+    @Test
+    public void testAcquireAndRelease() {
+        manager = createManager(OrientDbJettyModule.getDatabaseUrl(), 2, 100);
+        assertFalse(manager.isCircuitOpen());
+
+        ODatabaseDocument db = manager.acquire().orElseThrow(AssertionError::new);
+        assertEquals(1, manager.getAvailablePermits());
+        manager.release(db);
+        assertEquals(2, manager.getAvailablePermits());
+    }
+
+    @Test
+    public void testAcquireTimeout() {
+        manager = createManager(OrientDbJettyModule.getDatabaseUrl(), 1, 100);
+        ODatabaseDocument db = manager.acquire().orElseThrow(AssertionError::new);
+        try {
+            long start = System.currentTimeMillis();
+            assertFalse(manager.acquire().isPresent());
+            assertTrue(System.currentTimeMillis() - start >= 100);
+            assertEquals(1, manager.getTimedOutAcquires());
+        } finally {
+            manager.release(db);
+        }
+        assertFalse("Circuit breaker opened by exhausted pool", manager.isCircuitOpen());
+    }
+
+    @Test
+    public void testFailFastAndReconnect() throws Exception {
+        manager = createManager(UNAVAILABLE_URL, 2, 1000);
+        assertTrue(manager.isCircuitOpen());
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            assertFalse(manager.acquire().isPresent());
+        }
+        assertTrue("Requests wait unavailable database", System.currentTimeMillis() - start < 1000);
+        assertEquals(100, manager.getRejectedAcquires());
+
+        new ODatabaseDocumentTx(UNAVAILABLE_URL).create().close();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (manager.isCircuitOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse("Database wasn't reconnected", manager.isCircuitOpen());
+        Optional<ODatabaseDocument> db = manager.acquire();
+        assertTrue(db.isPresent());
+        manager.release(db.get());
+    }
+
+    @Test
+    public void testStoreFailsFastOnOpenCircuit() throws Exception {
+        OrientDbSessionDataStore store = new OrientDbSessionDataStore();
+        store.setDatabasePoolFactory(new PartitionedDatabasePoolFactory(UNAVAILABLE_URL, "admin", "admin"));
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+        try {
+            assertTrue(store.isDatabaseUnavailable());
+            SessionData data = store.newSessionData("rejected", 1, 1, 1, 60000);
+            data.setAttribute("one", 1);
+            try {
+                store.store(data.getId(), data);
+                fail("Write of session was silently dropped");
+            } catch (IOException e) {
+                assertEquals(0, store.getFullWrites());
+            }
+            try {
+                store.delete(data.getId());
+                fail("Delete of session was silently dropped");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            store.stop();
+        }
+    }
+
+    @Test
+    public void testEmbeddedPool() {
+        OPartitionedDatabasePool applicationPool = new OPartitionedDatabasePool(OrientDbJettyModule.getDatabaseUrl(),
+                OrientDbJettyModule.getUser(), OrientDbJettyModule.getPassword());
+        try {
+            manager = new OrientDbConnectionManager(EmbeddedDatabasePoolFactory.of(applicationPool), 2, 100, 10, 100, 1000);
+            manager.start();
+            assertFalse(manager.isCircuitOpen());
+
+            ODatabaseDocument db = manager.acquire().orElseThrow(AssertionError::new);
+            assertFalse(db.getStorage().isRemote());
+            manager.release(db);
+            manager.close();
+            manager = null;
+
+            // Pool of application stays opened after manager was closed
+            applicationPool.acquire().close();
+        } finally {
+            applicationPool.close();
+        }
+    }
+
+    @Test
+    public void testSharedPool() {
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        IDatabasePoolFactory delegate = new PartitionedDatabasePoolFactory(OrientDbJettyModule.getDatabaseUrl(),
+                OrientDbJettyModule.getUser(), OrientDbJettyModule.getPassword()) {
+            @Override
+            public IDatabasePool open(int maxPoolSize) {
+                IDatabasePool pool = super.open(maxPoolSize);
+                opened.incrementAndGet();
+                return new IDatabasePool() {
+                    @Override
+                    public ODatabaseDocument acquire() {
+                        return pool.acquire();
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.incrementAndGet();
+                        pool.close();
+                    }
+                };
+            }
+        };
+        SharedDatabasePoolFactory factory = new SharedDatabasePoolFactory(delegate, 4);
+        OrientDbConnectionManager first = new OrientDbConnectionManager(factory, 2, 100, 10, 100, 1000);
+        OrientDbConnectionManager second = new OrientDbConnectionManager(factory, 2, 100, 10, 100, 1000);
+        first.start();
+        second.start();
+        try {
+            assertEquals(1, opened.get());
+            assertEquals(2, factory.getReferences());
+
+            ODatabaseDocument db = second.acquire().orElseThrow(AssertionError::new);
+            second.release(db);
+
+            first.close();
+            assertEquals("Shared pool closed while it is used by another manager", 0, closed.get());
+        } finally {
+            second.close();
+        }
+        assertEquals(1, closed.get());
+        assertEquals(0, factory.getReferences());
+    }
+
+    @Test
+    public void testSharedPoolPermits() throws Exception {
+        SharedDatabasePoolFactory factory = new SharedDatabasePoolFactory(new PartitionedDatabasePoolFactory(
+                OrientDbJettyModule.getDatabaseUrl(), OrientDbJettyModule.getUser(), OrientDbJettyModule.getPassword()), 2);
+        OrientDbConnectionManager first = new OrientDbConnectionManager(factory, 100, 100, 10, 100, 50);
+        OrientDbConnectionManager second = new OrientDbConnectionManager(factory, 100, 100, 10, 100, 50);
+        first.start();
+        second.start();
+        try {
+            ODatabaseDocument db1 = first.acquire().orElseThrow(AssertionError::new);
+            ODatabaseDocument db2 = first.acquire().orElseThrow(AssertionError::new);
+            assertEquals("Permits aren't shared", 0, second.getAvailablePermits());
+            assertFalse("Shared pool is exhausted over its size", second.acquire().isPresent());
+            assertEquals(1, second.getTimedOutAcquires());
+            // Health checks must not ping exhausted pool
+            Thread.sleep(200);
+            assertFalse("Circuit breaker opened by exhausted shared pool", second.isCircuitOpen());
+            assertFalse("Circuit breaker opened by exhausted shared pool", first.isCircuitOpen());
+            assertEquals(0, first.getFailures() + second.getFailures());
+            first.release(db1);
+            first.release(db2);
+
+            ODatabaseDocument db = second.acquire().orElseThrow(AssertionError::new);
+            second.release(db);
+            assertEquals("Shared pool was reopened", 2, factory.getReferences());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    private OrientDbConnectionManager createManager(String url, int maxPoolSize, long acquireTimeoutMs) {
+        OrientDbConnectionManager manager = new OrientDbConnectionManager(url, "admin", "admin", maxPoolSize, acquireTimeoutMs,
+                10, 100, 1000);
+        manager.start();
+        return manager;
+    }
+}
@@ -1,11 +1,26 @@
 package org.orienteer.jetty;
 
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.index.OIndex;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OSchema;
 import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.eclipse.jetty.server.session.SessionData;
 import org.junit.Test;
+import org.orienteer.jetty.serialization.JavaSessionDataSerializer;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class TestDatabase extends AbstractOrientDbJettyTest {
@@ -26,10 +41,139 @@ public class TestDatabase extends AbstractOrientDbJettyTest {
             assertPropertyType(oClass, OrientDbJettyModule.PROP_ID, OType.STRING);
             assertPropertyType(oClass, OrientDbJettyModule.PROP_DATA, OType.BINARY);
             assertPropertyType(oClass, OrientDbJettyModule.PROP_EXPIRY_TIME, OType.LONG);
+            assertPropertyType(oClass, OrientDbJettyModule.PROP_CONTEXT_PATH, OType.STRING);
+            assertPropertyType(oClass, OrientDbJettyModule.PROP_VHOST, OType.STRING);
+            assertPropertyType(oClass, OrientDbJettyModule.PROP_LAST_NODE, OType.STRING);
+            assertPropertyType(oClass, OrientDbJettyModule.PROP_CREATED, OType.LONG);
+            assertPropertyType(oClass, OrientDbJettyModule.PROP_ACCESSED, OType.LONG);
+            assertPropertyType(oClass, OrientDbJettyModule.PROP_LAST_ACCESSED, OType.LONG);
+            assertPropertyType(oClass, OrientDbJettyModule.PROP_COOKIE_SET, OType.LONG);
+            assertPropertyType(oClass, OrientDbJettyModule.PROP_MAX_INACTIVE, OType.LONG);
+            assertPropertyType(oClass, OrientDbJettyModule.PROP_LAST_SAVED, OType.LONG);
+
+        });
+    }
+
+    @Test
+    public void testInitSchemaIndexes() {
+        sudoExecute(db -> {
+            assertIndexType(db, OrientDbJettyModule.INDEX_SESSION_KEY, OClass.INDEX_TYPE.UNIQUE);
+            assertIndexType(db, OrientDbJettyModule.INDEX_EXPIRY_TIME, OClass.INDEX_TYPE.NOTUNIQUE);
+            assertNull(db.getMetadata().getIndexManager().getIndex(OrientDbJettyModule.INDEX_ID));
+
+            String byId = String.format("select from %s where %s = 'test'",
+                    OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID);
+            assertIndexUsed(db, byId, OrientDbJettyModule.INDEX_SESSION_KEY);
 
+            String byKey = String.format("select from %s where %s = 'test' and %s = '/' and %s = 'localhost'",
+                    OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID,
+                    OrientDbJettyModule.PROP_CONTEXT_PATH, OrientDbJettyModule.PROP_VHOST);
+            assertIndexUsed(db, byKey, OrientDbJettyModule.INDEX_SESSION_KEY);
+
+            String byExpiry = String.format("select from %s where %s <= %d",
+                    OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_EXPIRY_TIME, System.currentTimeMillis());
+            assertIndexUsed(db, byExpiry, OrientDbJettyModule.INDEX_EXPIRY_TIME);
         });
     }
 
+    @Test
+    public void testInitSchemaMigratesIndexes() {
+        sudoExecute(db -> {
+            db.getMetadata().getIndexManager().dropIndex(OrientDbJettyModule.INDEX_SESSION_KEY);
+            db.getMetadata().getSchema().getClass(OrientDbJettyModule.SESSION_DATA_CLASS_NAME)
+                    .createIndex(OrientDbJettyModule.INDEX_ID, OClass.INDEX_TYPE.NOTUNIQUE, OrientDbJettyModule.PROP_ID);
+            createSessionDocument(db, "duplicate", "/", 1L);
+            createSessionDocument(db, "duplicate", "/", 2L);
+            createSessionDocument(db, "duplicate", "/other", 3L);
+
+            OrientDbJettyModule.initSchema(db);
+
+            assertIndexType(db, OrientDbJettyModule.INDEX_SESSION_KEY, OClass.INDEX_TYPE.UNIQUE);
+            assertNull("Index by id only is not dropped!", db.getMetadata().getIndexManager().getIndex(OrientDbJettyModule.INDEX_ID));
+            String sql = String.format("select from %s where %s = 'duplicate' order by %s",
+                    OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID, OrientDbJettyModule.PROP_EXPIRY_TIME);
+            List<ODocument> sessions = db.query(new OSQLSynchQuery<>(sql));
+            assertEquals("Duplicated sessions not removed!", 2, sessions.size());
+            assertEquals(2L, (long) sessions.get(0).field(OrientDbJettyModule.PROP_EXPIRY_TIME));
+            assertEquals("Session of another context was removed!", "/other", sessions.get(1).field(OrientDbJettyModule.PROP_CONTEXT_PATH));
+            sessions.forEach(ODocument::delete);
+        });
+    }
+
+    @Test
+    public void testInitSchemaMigratesLegacySessions() {
+        SessionData data = new SessionData("legacy", "/context", "0.0.0.0", 1, 2, 3, 60000);
+        data.setAttribute("one", 1);
+        sudoExecute(db -> {
+            db.getMetadata().getIndexManager().dropIndex(OrientDbJettyModule.INDEX_SESSION_KEY);
+            // Session data of previous versions contains only id, serialized data and expiry time
+            ODocument doc = new ODocument(OrientDbJettyModule.SESSION_DATA_CLASS_NAME);
+            doc.field(OrientDbJettyModule.PROP_ID, data.getId());
+            doc.field(OrientDbJettyModule.PROP_DATA, toJavaBytes(data));
+            doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME, data.getExpiry());
+            doc.save();
+
+            OrientDbJettyModule.initSchema(db);
+
+            assertTrue("Session of previous version isn't found by context",
+                    DbUtils.isSessionExistsById(db, data.getContextPath(), data.getVhost(), data.getId()));
+            ODocument migrated = DbUtils.getSessionDocumentById(db, data.getContextPath(), data.getVhost(), data.getId())
+                    .orElseThrow(AssertionError::new);
+            assertEquals(data.getCreated(), (long) migrated.field(OrientDbJettyModule.PROP_CREATED));
+            assertEquals(data.getMaxInactiveMs(), (long) migrated.field(OrientDbJettyModule.PROP_MAX_INACTIVE));
+            assertEquals(1, DbUtils.fromDocument(migrated, DbUtils.DEFAULT_SERIALIZER).getAttribute("one"));
+            migrated.delete();
+        });
+    }
+
+    @Test
+    public void testMigrateLegacySessionsByBatches() {
+        List<SessionData> sessions = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            sessions.add(new SessionData("legacy-" + i, "/context", "0.0.0.0", 1, 2, 3, 60000));
+        }
+        sudoExecute(db -> {
+            for (SessionData data : sessions) {
+                ODocument doc = new ODocument(OrientDbJettyModule.SESSION_DATA_CLASS_NAME);
+                doc.field(OrientDbJettyModule.PROP_ID, data.getId());
+                doc.field(OrientDbJettyModule.PROP_DATA, toJavaBytes(data));
+                doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME, data.getExpiry());
+                doc.save();
+            }
+
+            assertEquals(sessions.size(), DbUtils.migrateLegacySessions(db, 2));
+            assertEquals("Migrated sessions are migrated again", 0, DbUtils.migrateLegacySessions(db, 2));
+            for (SessionData data : sessions) {
+                DbUtils.getSessionDocumentById(db, data.getContextPath(), data.getVhost(), data.getId())
+                        .orElseThrow(AssertionError::new)
+                        .delete();
+            }
+        });
+    }
+
+    private void createSessionDocument(ODatabaseDocument db, String id, String contextPath, long expiryTime) {
+        ODocument doc = new ODocument(OrientDbJettyModule.SESSION_DATA_CLASS_NAME);
+        doc.field(OrientDbJettyModule.PROP_ID, id);
+        doc.field(OrientDbJettyModule.PROP_CONTEXT_PATH, contextPath);
+        doc.field(OrientDbJettyModule.PROP_VHOST, "0.0.0.0");
+        doc.field(OrientDbJettyModule.PROP_DATA, new byte[0]);
+        doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME, expiryTime);
+        doc.save();
+    }
+
+    private void assertIndexType(ODatabaseDocument db, String name, OClass.INDEX_TYPE type) {
+        OIndex<?> index = db.getMetadata().getIndexManager().getIndex(name);
+        assertNotNull(String.format("Index `%s` doesn't exists in database!", name), index);
+        assertEquals(String.format("Index `%s` doesn't have a type `%s`!", name, type.name()), type.name(), index.getType());
+    }
+
+    private void assertIndexUsed(ODatabaseDocument db, String sql, String index) {
+        ODocument plan = db.command(new OCommandSQL("explain " + sql)).execute();
+        Collection<String> involvedIndexes = plan.field("involvedIndexes");
+        String err = String.format("Query `%s` doesn't use index `%s`! Plan: %s", sql, index, plan.toJSON());
+        assertTrue(err, involvedIndexes != null && involvedIndexes.contains(index));
+    }
+
     private void assertExistsProperty(OClass oClass, String name) {
         String err = String.format("Property `%s.%s` doesn't exists in database!", oClass.getName(), name);
         assertTrue(err, oClass.existsProperty(name));
@@ -39,4 +183,12 @@ public class TestDatabase extends AbstractOrientDbJettyTest {
         String err = String.format("Property `%s.%s` doesn't have a type `%s`!", oClass.getName(), name, type.name());
         assertEquals(err, type, oClass.getProperty(name).getType());
     }
+
+    private byte[] toJavaBytes(SessionData data) {
+        try {
+            return new JavaSessionDataSerializer().serialize(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
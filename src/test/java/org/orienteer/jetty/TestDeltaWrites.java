@@ -0,0 +1,122 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import org.eclipse.jetty.server.session.SessionContext;
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.orienteer.jetty.serialization.LazySessionData;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestDeltaWrites extends AbstractOrientDbJettyTest {
+
+    private OrientDbSessionDataStore store;
+
+    @Before
+    public void before() throws Exception {
+        store = new OrientDbSessionDataStore();
+        store.setDeltaWritesEnabled(true);
+        store.setOptimisticLockingEnabled(true);
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        store.stop();
+        sudoExecute(db -> db.command(new OCommandSQL("delete from " + OrientDbJettyModule.SESSION_DATA_CLASS_NAME)).execute());
+    }
+
+    @Test
+    public void testStoreChangedAttributes() throws Exception {
+        String id = "deltaSession";
+        long now = System.currentTimeMillis();
+        SessionData data = store.newSessionData(id, now, now, now, 60000);
+        data.setAttribute("page", new byte[64 * 1024]);
+        data.setAttribute("counter", 1);
+        data.setAttribute("removed", "value");
+        store.store(id, data);
+        assertNull(getAttributes(id));
+
+        // First write of loaded session stores all attributes separately
+        SessionData loaded = store.load(id);
+        assertTrue(loaded instanceof LazySessionData);
+        loaded.setAttribute("counter", 2);
+        store.store(id, loaded);
+        assertEquals(3, getAttributes(id).size());
+
+        loaded = store.load(id);
+        assertTrue(((LazySessionData) loaded).isAttributesStored());
+        loaded.setAttribute("counter", 3);
+        loaded.setAttribute("removed", null);
+        loaded.setAttribute("added", "new");
+        store.store(id, loaded);
+        assertTrue(((LazySessionData) loaded).getChangedAttributes().isEmpty());
+
+        Map<String, byte[]> attributes = getAttributes(id);
+        assertEquals(3, attributes.size());
+        assertFalse(attributes.containsKey("removed"));
+
+        SessionData restored = store.load(id);
+        assertEquals(3, restored.getAttribute("counter"));
+        assertEquals("new", restored.getAttribute("added"));
+        assertNull(restored.getAttribute("removed"));
+        assertEquals(64 * 1024, ((byte[]) restored.getAttribute("page")).length);
+    }
+
+    @Test
+    public void testFallbackToFullWrite() throws Exception {
+        String id = "deltaFallback";
+        long now = System.currentTimeMillis();
+        SessionData data = store.newSessionData(id, now, now, now, 60000);
+        data.setAttribute("counter", 1);
+        store.store(id, data);
+        SessionData loaded = store.load(id);
+        loaded.setAttribute("counter", 2);
+        store.store(id, loaded);
+        loaded = store.load(id);
+
+        // Another writer replaces separately stored attributes by blob
+        SessionData blob = store.newSessionData(id, now, now, now, 60000);
+        blob.setAttribute("counter", 10);
+        blob.setAttribute("other", "value");
+        sudoExecute(db -> {
+            db.begin();
+            DbUtils.storeSession(db, id, blob, DbUtils.toBytes(blob, DbUtils.DEFAULT_SERIALIZER));
+            db.commit();
+        });
+
+        loaded.setAttribute("counter", 3);
+        try {
+            store.store(id, loaded);
+            fail("Session data was changed by another writer");
+        } catch (Exception e) {
+            assertTrue(store.getVersionConflicts() > 0);
+        }
+        assertTrue("Change which wasn't stored isn't dirty anymore", ((LazySessionData) loaded).getChangedAttributes().contains("counter"));
+
+        SessionData reloaded = store.load(id);
+        assertEquals("value", reloaded.getAttribute("other"));
+        reloaded.setAttribute("counter", 4);
+        store.store(id, reloaded);
+        assertEquals(2, getAttributes(id).size());
+        assertEquals(4, store.load(id).getAttribute("counter"));
+    }
+
+    private Map<String, byte[]> getAttributes(String id) {
+        Object[] result = new Object[1];
+        sudoExecute(db -> {
+            ODocument doc = DbUtils.getSessionDocumentById(db, id).orElseThrow(IllegalStateException::new);
+            result[0] = doc.field(OrientDbJettyModule.PROP_ATTRIBUTES);
+        });
+        @SuppressWarnings("unchecked")
+        Map<String, byte[]> attributes = (Map<String, byte[]>) result[0];
+        return attributes;
+    }
+}
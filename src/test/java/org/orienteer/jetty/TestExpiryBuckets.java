@@ -0,0 +1,151 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.After;
+import org.junit.Test;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestExpiryBuckets extends AbstractOrientDbJettyTest {
+
+    private static final long BUCKET_LENGTH = TimeUnit.MINUTES.toMillis(1);
+
+    @After
+    public void after() {
+        sudoExecute(db -> {
+            db.command(new OCommandSQL("delete from " + OrientDbJettyModule.SESSION_DATA_CLASS_NAME)).execute();
+            db.command(new OCommandSQL("delete from " + OrientDbJettyModule.LEASE_CLASS_NAME)).execute();
+        });
+    }
+
+    @Test
+    public void testBucketClusterName() {
+        String name = OrientDbJettyModule.getExpiryBucketClusterName(3 * BUCKET_LENGTH + 1, BUCKET_LENGTH);
+        assertEquals(OrientDbJettyModule.EXPIRY_BUCKET_CLUSTER_PREFIX + "60_3", name);
+        assertEquals(4 * BUCKET_LENGTH, OrientDbJettyModule.getExpiryBucketEnd(name));
+        assertEquals(-1, OrientDbJettyModule.getExpiryBucketEnd("osessiondata"));
+        assertEquals(-1, OrientDbJettyModule.getExpiryBucketEnd(OrientDbJettyModule.EXPIRY_BUCKET_CLUSTER_PREFIX + "x_1"));
+    }
+
+    @Test
+    public void testStoreMovesSessionToBucket() {
+        long now = System.currentTimeMillis();
+        long length = 2 * BUCKET_LENGTH;
+        sudoExecute(db -> {
+            assertEquals(3, OrientDbJettyModule.initExpiryBuckets(db, length, now, now + 2 * length));
+            assertEquals(0, OrientDbJettyModule.initExpiryBuckets(db, length, now, now + 2 * length));
+
+            storeInBucket(db, "moved", now + 1000, length);
+            assertEquals(OrientDbJettyModule.getExpiryBucketClusterName(now + 1000, length), getClusterName(db, "moved"));
+
+            storeInBucket(db, "moved", now + length + 1000, length);
+            assertEquals(OrientDbJettyModule.getExpiryBucketClusterName(now + length + 1000, length), getClusterName(db, "moved"));
+            assertEquals(now + length + 1000, (long) DbUtils.getSessionExpiryTimeById(db, "moved").orElse(0L));
+
+            storeInBucket(db, "eternal", 0, length);
+            assertFalse(getClusterName(db, "eternal").startsWith(OrientDbJettyModule.EXPIRY_BUCKET_CLUSTER_PREFIX));
+        });
+    }
+
+    @Test
+    public void testVersionGrowsAcrossMoves() {
+        long now = System.currentTimeMillis();
+        long length = 2 * BUCKET_LENGTH;
+        sudoExecute(db -> {
+            OrientDbJettyModule.initExpiryBuckets(db, length, now, now + 2 * length);
+            SessionData data = newSessionData("versioned", now + 1000);
+            assertEquals(1, storeInBucket(db, data, DbUtils.UNKNOWN_VERSION, length));
+            assertEquals(2, storeInBucket(db, data, 1, length));
+
+            data.setExpiry(now + length + 1000);
+            assertEquals("Version of moved session data is reset", 3, storeInBucket(db, data, 2, length));
+            assertEquals(3, (int) DbUtils.getSessionVersionById(db, "/", "0.0.0.0", "versioned").orElse(0));
+
+            db.begin();
+            assertTrue(DbUtils.touchSession(db, "versioned", data, 3, null));
+            db.commit();
+            assertEquals(4, (int) DbUtils.getSessionVersionById(db, "/", "0.0.0.0", "versioned").orElse(0));
+            try {
+                storeInBucket(db, data, 1, length);
+                fail("Stale version matches record version of moved session data");
+            } catch (ConcurrentModificationException e) {
+                db.rollback();
+            }
+            try {
+                db.begin();
+                DbUtils.touchSession(db, "versioned", data, 1, null);
+                fail("Stale version matches record version of moved session data");
+            } catch (ConcurrentModificationException e) {
+                db.rollback();
+            }
+        });
+    }
+
+    @Test
+    public void testMaintainerDropsExpiredBuckets() {
+        long now = System.currentTimeMillis();
+        SessionBucketMaintainer maintainer = new SessionBucketMaintainer("node0", BUCKET_LENGTH, 2, 60000, 0);
+        sudoExecute(db -> {
+            maintainer.maintain(db, now);
+            for (int i = 0; i < 10; i++) {
+                storeInBucket(db, "expired" + i, now, BUCKET_LENGTH);
+            }
+            storeInBucket(db, "prolonged", now, BUCKET_LENGTH);
+            storeInBucket(db, "alive", now + BUCKET_LENGTH, BUCKET_LENGTH);
+            String expiredBucket = getClusterName(db, "expired0");
+
+            SessionData prolonged = newSessionData("prolonged", now + 10 * BUCKET_LENGTH);
+            assertTrue(DbUtils.touchSession(db, "prolonged", prolonged));
+
+            assertFalse(maintainer.isDue(now + 1000));
+            assertEquals(10, maintainer.maintain(db, now + BUCKET_LENGTH));
+            assertEquals(1, maintainer.getDroppedBuckets());
+            assertTrue(db.getClusterIdByName(expiredBucket) < 0);
+
+            assertFalse(DbUtils.getSessionDocumentById(db, "expired0").isPresent());
+            List<ODocument> entries = db.query(new OSQLSynchQuery<>("select from index:" + OrientDbJettyModule.INDEX_EXPIRY_TIME
+                    + " where key <= ?"), now);
+            assertTrue("Index entries of dropped bucket are left", entries.isEmpty());
+            assertTrue(DbUtils.getSessionDocumentById(db, "prolonged").isPresent());
+            assertTrue(DbUtils.getSessionDocumentById(db, "alive").isPresent());
+            assertNotEquals(expiredBucket, getClusterName(db, "prolonged"));
+        });
+    }
+
+    private void storeInBucket(ODatabaseDocument db, String id, long expiry, long bucketLengthMs) {
+        SessionData data = newSessionData(id, expiry);
+        db.begin();
+        DbUtils.storeSessionInBucket(db, id, data, DbUtils.toBytes(data, DbUtils.DEFAULT_SERIALIZER),
+                DbUtils.UNKNOWN_VERSION, bucketLengthMs, null);
+        db.commit();
+    }
+
+    private int storeInBucket(ODatabaseDocument db, SessionData data, int expectedVersion, long bucketLengthMs) {
+        db.begin();
+        int version = DbUtils.storeSessionInBucket(db, data.getId(), data, DbUtils.toBytes(data, DbUtils.DEFAULT_SERIALIZER),
+                expectedVersion, bucketLengthMs, null);
+        db.commit();
+        return version;
+    }
+
+    private SessionData newSessionData(String id, long expiry) {
+        SessionData data = new SessionData(id, "/", "0.0.0.0", 1, 1, 1, 60000);
+        data.setLastNode("node0");
+        data.setExpiry(expiry);
+        return data;
+    }
+
+    private String getClusterName(ODatabaseDocument db, String id) {
+        ODocument doc = DbUtils.getSessionDocumentById(db, id).orElseThrow(IllegalStateException::new);
+        return db.getClusterNameById(doc.getIdentity().getClusterId());
+    }
+}
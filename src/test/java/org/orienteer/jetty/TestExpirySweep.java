@@ -0,0 +1,160 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.After;
+import org.junit.Test;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TestExpirySweep extends AbstractOrientDbJettyTest {
+
+    private OrientDbSessionDataStore store;
+
+    @After
+    public void after() throws Exception {
+        stopStores();
+        sudoExecute(db -> {
+            db.command(new OCommandSQL("delete from " + OrientDbJettyModule.SESSION_DATA_CLASS_NAME)).execute();
+            db.command(new OCommandSQL("delete from " + OrientDbJettyModule.LEASE_CLASS_NAME)).execute();
+        });
+    }
+
+    @Test
+    public void testSweepReturnsOrphanedSessions() throws Exception {
+        store = createStore(false);
+        long now = System.currentTimeMillis();
+        sudoExecute(db -> {
+            storeSession(db, store, "orphan", now - 1000);
+            storeSession(db, store, "alive", now + 60000);
+            storeSession(db, store, "eternal", 0);
+        });
+
+        Set<String> expired = store.getExpired(Collections.emptySet());
+        assertEquals(Collections.singleton("orphan"), expired);
+        assertEquals(1, store.getLastSweptSessions());
+
+        assertTrue("Sweep must not run before interval elapsed", store.getExpired(Collections.emptySet()).isEmpty());
+    }
+
+    @Test
+    public void testSweepReturnsOrphanedSessionsByPages() throws Exception {
+        store = createStore(false);
+        long now = System.currentTimeMillis();
+        Set<String> orphans = new HashSet<>();
+        sudoExecute(db -> {
+            // Sessions with the same expiry time overlap pages, so cursor by expiry time must not lose or repeat them
+            for (int i = 0; i < 15; i++) {
+                storeSession(db, store, "tied" + i, now - 1000);
+                orphans.add("tied" + i);
+            }
+            for (int i = 0; i < 12; i++) {
+                storeSession(db, store, "orphan" + i, now - 2000 + i);
+                orphans.add("orphan" + i);
+            }
+            storeSession(db, store, "alive", now + 60000);
+        });
+
+        assertEquals(orphans, store.getExpired(Collections.emptySet()));
+        assertEquals(orphans.size(), store.getLastSweptSessions());
+    }
+
+    @Test
+    public void testSweepDeletesExpiredSessions() throws Exception {
+        store = createStore(true);
+        long now = System.currentTimeMillis();
+        sudoExecute(db -> {
+            for (int i = 0; i < 25; i++) {
+                storeSession(db, store, "expired" + i, now - 1000);
+            }
+            storeSession(db, store, "alive", now + 60000);
+        });
+
+        assertTrue(store.getExpired(Collections.emptySet()).isEmpty());
+        assertEquals(25, store.getSweptSessions());
+
+        sudoExecute(db -> {
+            List<ODocument> docs = db.query(new OSQLSynchQuery<>("select from " + OrientDbJettyModule.SESSION_DATA_CLASS_NAME));
+            assertEquals(1, docs.size());
+            assertEquals("alive", docs.get(0).field(OrientDbJettyModule.PROP_ID));
+        });
+    }
+
+    @Test
+    public void testSweepExpiryTimeIndexUsed() {
+        sudoExecute(db -> {
+            String sql = String.format("explain select from %s where %s between 1 and %d", OrientDbJettyModule.SESSION_DATA_CLASS_NAME,
+                    OrientDbJettyModule.PROP_EXPIRY_TIME, System.currentTimeMillis());
+            ODocument plan = db.command(new OCommandSQL(sql)).execute();
+            Collection<String> indexes = plan.field("involvedIndexes");
+            assertTrue(plan.toJSON(), indexes != null && indexes.contains(OrientDbJettyModule.INDEX_EXPIRY_TIME));
+        });
+    }
+
+    @Test
+    public void testExpiredCandidatesInChunks() throws Exception {
+        store = createStore(false);
+        long now = System.currentTimeMillis();
+        Set<String> candidates = new HashSet<>();
+        Set<String> expected = new HashSet<>();
+        sudoExecute(db -> {
+            for (int i = 0; i < 1000; i++) {
+                String id = "session" + i;
+                long expiry = i % 3 == 0 ? now - 1000 : (i % 3 == 1 ? now + 60000 : 0);
+                storeSession(db, store, id, expiry);
+                candidates.add(id);
+                if (expiry > 0 && expiry <= now) {
+                    expected.add(id);
+                }
+            }
+        });
+        for (int i = 0; i < 1500; i++) {
+            candidates.add("unknown" + i);
+        }
+
+        sudoExecute(db -> {
+            assertEquals(expected, DbUtils.getExpiredSessions(db, candidates, 100));
+            assertEquals(expected, DbUtils.getExpiredSessions(db, candidates, 7));
+            assertEquals(expected, DbUtils.getExpiredSessions(db, candidates));
+            assertTrue(DbUtils.getExpiredSessions(db, Collections.emptySet(), 100).isEmpty());
+        });
+    }
+
+    @Test
+    public void testLease() {
+        long until = System.currentTimeMillis() + 60000;
+        sudoExecute(db -> {
+            assertTrue(DbUtils.acquireLease(db, "test", "node1", until));
+            assertFalse("Lease acquired by another owner", DbUtils.acquireLease(db, "test", "node2", until));
+            assertTrue("Owner can't prolong lease", DbUtils.acquireLease(db, "test", "node1", until + 1));
+            assertTrue("Expired lease can't be acquired", DbUtils.acquireLease(db, "expired", "node1", 1));
+            assertTrue(DbUtils.acquireLease(db, "expired", "node2", until));
+        });
+    }
+
+    private OrientDbSessionDataStore createStore(boolean deleteExpired) throws Exception {
+        return createStore("node0", store -> {
+            store.setGracePeriodSec(0);
+            store.setSweepEnabled(true);
+            store.setSweepDeleteExpired(deleteExpired);
+            store.setSweepPageSize(10);
+        });
+    }
+
+    private void storeSession(ODatabaseDocument db, OrientDbSessionDataStore store, String id, long expiry) {
+        SessionData data = store.newSessionData(id, 1, 1, 1, 60000);
+        data.setLastNode("node0");
+        data.setExpiry(expiry);
+        DbUtils.storeSession(db, id, data);
+    }
+}
@@ -0,0 +1,69 @@
+package org.orienteer.jetty;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestNearCache extends AbstractOrientDbJettyTest {
+
+    private OrientDbSessionDataStore node0;
+    private OrientDbSessionDataStore node1;
+
+    @Before
+    public void before() throws Exception {
+        node0 = createStore("node0", store -> store.setNearCacheEnabled(true));
+        node1 = createStore("node1", store -> store.setNearCacheEnabled(true));
+    }
+
+    @Test
+    public void testInvalidationByAnotherNode() throws Exception {
+        assertInvalidation(node0, node1, "nearCacheSession");
+    }
+
+    @Test
+    public void testInvalidationByAnotherNodeWithSameWorkerName() throws Exception {
+        // Jetty uses worker name "node0" by default, so writes of another node can't be recognized by last node
+        OrientDbSessionDataStore twin = createStore("node0", store -> store.setNearCacheEnabled(true));
+        assertInvalidation(node0, twin, "twinNearCacheSession");
+    }
+
+    private void assertInvalidation(OrientDbSessionDataStore writer, OrientDbSessionDataStore reader, String id) throws Exception {
+        long now = System.currentTimeMillis();
+        SessionData data = writer.newSessionData(id, now, now, now, 60000);
+        data.setAttribute("value", 1);
+        writer.store(id, data);
+
+        waitForHit(reader, id);
+        assertEquals(1, reader.load(id).getAttribute("value"));
+
+        data.setAttribute("value", 2);
+        writer.store(id, data);
+        waitForInvalidations(reader, 1);
+        assertEquals(2, reader.load(id).getAttribute("value"));
+        assertEquals(2, writer.load(id).getAttribute("value"));
+
+        writer.delete(id);
+        waitForInvalidations(reader, 2);
+        assertNull(reader.load(id));
+    }
+
+    private void waitForHit(OrientDbSessionDataStore store, String id) throws Exception {
+        // Load can't be cached while events of another node are delivered
+        long deadline = System.currentTimeMillis() + 5000;
+        long hits = store.getNearCacheHits();
+        while (store.getNearCacheHits() == hits && System.currentTimeMillis() < deadline) {
+            assertNotNull(store.load(id));
+        }
+        assertTrue(store.getNearCacheHits() > hits);
+    }
+
+    private void waitForInvalidations(OrientDbSessionDataStore store, long invalidations) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.getNearCacheInvalidations() < invalidations && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(invalidations, store.getNearCacheInvalidations());
+    }
+}
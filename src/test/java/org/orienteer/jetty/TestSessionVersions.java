@@ -0,0 +1,70 @@
+package org.orienteer.jetty;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.Test;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.ConcurrentModificationException;
+
+import static org.junit.Assert.*;
+
+public class TestSessionVersions extends AbstractOrientDbJettyTest {
+
+    @Test
+    public void testConditionalLoad() throws Exception {
+        OrientDbSessionDataStore node0 = createStore("node0", store -> store.setConditionalLoadEnabled(true));
+        OrientDbSessionDataStore node1 = createStore("node1", store -> store.setConditionalLoadEnabled(true));
+        String id = "conditionalLoadSession";
+        SessionData data = newSessionData(node0, id);
+        data.setAttribute("value", 1);
+        node0.store(id, data);
+
+        assertEquals(1, node1.load(id).getAttribute("value"));
+        assertEquals(1, node1.load(id).getAttribute("value"));
+        assertEquals(1, node1.getNotModifiedLoads());
+
+        data.setAttribute("value", 2);
+        node0.store(id, data);
+        assertEquals(2, node1.load(id).getAttribute("value"));
+        assertEquals(1, node1.getNotModifiedLoads());
+        assertEquals(2, node0.load(id).getAttribute("value"));
+        assertEquals(1, node0.getNotModifiedLoads());
+
+        node0.delete(id);
+        assertNull(node1.load(id));
+    }
+
+    @Test
+    public void testOptimisticLocking() throws Exception {
+        OrientDbSessionDataStore node0 = createStore("node0", store -> store.setOptimisticLockingEnabled(true));
+        OrientDbSessionDataStore node1 = createStore("node1", store -> store.setOptimisticLockingEnabled(true));
+        String id = "optimisticLockingSession";
+        SessionData data = newSessionData(node0, id);
+        data.setAttribute("value", 1);
+        node0.store(id, data);
+
+        SessionData data1 = node1.load(id);
+        data1.setAttribute("value", 2);
+        node1.store(id, data1);
+
+        data.setAttribute("value", 3);
+        try {
+            node0.store(id, data);
+            fail("Session data changed by another node was overwritten");
+        } catch (ConcurrentModificationException e) {
+            assertEquals(1, node0.getVersionConflicts());
+        }
+        sudoExecute(db -> assertEquals(2, DbUtils.getSessionById(db, id).get().getAttribute("value")));
+
+        SessionData reloaded = node0.load(id);
+        reloaded.setAttribute("value", 3);
+        node0.store(id, reloaded);
+        sudoExecute(db -> assertEquals(3, DbUtils.getSessionById(db, id).get().getAttribute("value")));
+        node0.delete(id);
+    }
+
+    private SessionData newSessionData(OrientDbSessionDataStore store, String id) {
+        long now = System.currentTimeMillis();
+        return store.newSessionData(id, now, now, now, 60000);
+    }
+}
@@ -0,0 +1,330 @@
+package org.orienteer.jetty;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.session.SessionContext;
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.orienteer.jetty.util.ConsistentHashRing;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class TestShards extends AbstractOrientDbJettyTest {
+
+    private static final List<String> SHARDS = Arrays.asList("memory:shard0", "memory:shard1", "memory:shard2");
+
+    private OrientDbSessionDataStore store;
+
+    @Before
+    public void before() throws Exception {
+        for (String url : SHARDS) {
+            new ODatabaseDocumentTx(url).create().close();
+        }
+        store = new OrientDbSessionDataStore();
+        store.initialize(new SessionContext("node0", null));
+    }
+
+    @After
+    public void after() throws Exception {
+        if (store.isStarted()) {
+            store.stop();
+        }
+        for (String url : SHARDS) {
+            ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+            if (db.exists()) {
+                db.open("admin", "admin");
+                db.drop();
+            }
+        }
+    }
+
+    @Test
+    public void testRingRemapsOnlyKeysOfAddedNode() {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        nodes.put("a", "a");
+        nodes.put("b", "b");
+        nodes.put("c", "c");
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes, 160);
+        ConsistentHashRing<String> extended = ring.with("d", "d");
+
+        int keys = 10000;
+        Map<String, Integer> counts = new HashMap<>();
+        int remapped = 0;
+        for (int i = 0; i < keys; i++) {
+            String key = "session" + i;
+            String owner = ring.get(key);
+            counts.merge(owner, 1, Integer::sum);
+            String newOwner = extended.get(key);
+            if (!owner.equals(newOwner)) {
+                assertEquals("Key moved between old nodes", "d", newOwner);
+                remapped++;
+            }
+        }
+        for (int count : counts.values()) {
+            assertTrue("Keys are spread unevenly: " + counts, count > keys / 5 && count < keys / 2);
+        }
+        assertTrue("Too many keys remapped: " + remapped, remapped > keys / 8 && remapped < keys / 3);
+    }
+
+    @Test
+    public void testSessionsAreRoutedToShards() throws Exception {
+        store.setShardUrls(String.join(",", SHARDS));
+        store.start();
+        Map<String, String> owners = getOwners(SHARDS);
+
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 60; i++) {
+            SessionData data = store.newSessionData("sharded" + i, 1, 1, 1, 1000);
+            data.setAttribute("index", i);
+            store.store(data.getId(), data);
+            ids.add(data.getId());
+        }
+        for (String id : ids) {
+            for (String url : SHARDS) {
+                assertEquals(String.format("Session %s is stored in wrong shard %s", id, url),
+                        url.equals(owners.get(id)), isStoredIn(url, id));
+            }
+        }
+        assertEquals("Expired sessions weren't found in all shards", ids, store.doGetExpired(ids));
+    }
+
+    @Test
+    public void testAddShard() throws Exception {
+        List<String> initial = SHARDS.subList(0, 2);
+        store.setShardUrls(String.join(",", initial));
+        store.start();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            SessionData data = store.newSessionData("added" + i, now, now, now, 60000);
+            data.setAttribute("index", i);
+            store.store(data.getId(), data);
+        }
+
+        store.addShard(SHARDS.get(2));
+        Map<String, String> owners = getOwners(SHARDS);
+        int remapped = 0;
+        for (int i = 0; i < 100; i++) {
+            String id = "added" + i;
+            boolean moved = SHARDS.get(2).equals(owners.get(id));
+            if (moved) {
+                remapped++;
+                assertFalse(isStoredIn(SHARDS.get(2), id));
+            }
+            assertTrue("Remapped session isn't found", store.exists(id));
+            assertEquals(i, store.load(id).getAttribute("index"));
+            assertEquals(moved, isStoredIn(SHARDS.get(2), id));
+            for (String url : initial) {
+                assertEquals(url.equals(owners.get(id)), isStoredIn(url, id));
+            }
+        }
+        assertTrue("Added shard didn't take sessions", remapped > 0);
+        assertTrue("Too many sessions remapped: " + remapped, remapped < 60);
+        assertEquals(remapped, store.getMovedSessions());
+    }
+
+    @Test
+    public void testLoadOfSessionMovedByAnotherNode() throws Exception {
+        List<String> initial = SHARDS.subList(0, 2);
+        store.setShardUrls(String.join(",", initial));
+        store.start();
+        storeSessions(store);
+        store.addShard(SHARDS.get(2));
+        Map<String, String> owners = getOwners(SHARDS);
+        String id = null;
+        for (int i = 0; i < 100 && id == null; i++) {
+            if (SHARDS.get(2).equals(owners.get("added" + i))) {
+                id = "added" + i;
+            }
+        }
+        assertNotNull("Added shard didn't take sessions", id);
+        long now = System.currentTimeMillis();
+        SessionData moved = store.newSessionData(id, now, now, now, 60000);
+        moved.setAttribute("index", -1);
+        execute(SHARDS.get(2), db -> {
+            DbUtils.storeSession(db, moved.getId(), moved);
+            return null;
+        });
+
+        assertEquals("Stale copy of previous shard is loaded", -1, store.load(id).getAttribute("index"));
+        assertEquals(0, store.getMovedSessions());
+        for (String url : initial) {
+            assertFalse("Stale copy isn't deleted from previous shard", isStoredIn(url, id));
+        }
+    }
+
+    @Test
+    public void testShardPoolsAreSharedByContexts() throws Exception {
+        List<String> urls = SHARDS.subList(0, 2);
+        JettyOrientDbSessionDataStoreFactory factory = new JettyOrientDbSessionDataStoreFactory();
+        OrientDbSessionDataStore first = (OrientDbSessionDataStore) factory.getSessionDataStore(null);
+        OrientDbSessionDataStore second = (OrientDbSessionDataStore) factory.getSessionDataStore(null);
+        first.initialize(new SessionContext("node0", new ContextHandler("/first").getServletContext()));
+        second.initialize(new SessionContext("node0", new ContextHandler("/second").getServletContext()));
+        first.setShardUrls(String.join(",", urls));
+        second.setShardUrls(String.join(",", urls));
+        first.start();
+        second.start();
+        try {
+            for (String url : urls) {
+                assertEquals("Pool of shard isn't shared by contexts", 2, factory.getShardPoolFactory(url).getReferences());
+            }
+            long now = System.currentTimeMillis();
+            SessionData data = first.newSessionData("sharedShard", now, now, now, 60000);
+            data.setAttribute("context", "first");
+            first.store(data.getId(), data);
+            assertFalse("Session of another context is visible", second.exists(data.getId()));
+            assertEquals("first", first.load(data.getId()).getAttribute("context"));
+            assertTrue(first.delete(data.getId()));
+        } finally {
+            first.stop();
+            second.stop();
+        }
+        for (String url : urls) {
+            assertEquals("Pool of shard isn't closed", 0, factory.getShardPoolFactory(url).getReferences());
+        }
+    }
+
+    @Test
+    public void testAddShardsOneAfterAnother() throws Exception {
+        store.setShardUrls(SHARDS.get(0));
+        store.start();
+        storeSessions(store);
+
+        store.addShard(SHARDS.get(1));
+        store.addShard(SHARDS.get(2));
+        Map<String, String> owners = getOwners(SHARDS);
+        for (int i = 0; i < 100; i++) {
+            String id = "added" + i;
+            assertTrue("Session remapped by both added shards isn't found", store.exists(id));
+            assertEquals(i, store.load(id).getAttribute("index"));
+            for (String url : SHARDS) {
+                assertEquals(url.equals(owners.get(id)), isStoredIn(url, id));
+            }
+        }
+        assertTrue(store.isShardsMigrating());
+    }
+
+    @Test
+    public void testMigrationOfAddedShard() throws Exception {
+        store.setShardUrls(String.join(",", SHARDS.subList(0, 2)));
+        store.setShardRefreshIntervalSec(0);
+        store.setShardMigrationDelaySec(0);
+        store.start();
+        storeSessions(store);
+        store.addShard(SHARDS.get(2));
+        assertTrue(store.isShardsMigrating());
+
+        // Migration is executed in background, so scavenge isn't blocked by it
+        store.doGetExpired(Collections.emptySet());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (store.isShardsMigrating() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse("Migration isn't completed", store.isShardsMigrating());
+        Map<String, String> owners = getOwners(SHARDS);
+        int remapped = 0;
+        for (int i = 0; i < 100; i++) {
+            String id = "added" + i;
+            if (SHARDS.get(2).equals(owners.get(id))) {
+                remapped++;
+            }
+            for (String url : SHARDS) {
+                assertEquals("Session isn't moved by migration", url.equals(owners.get(id)), isStoredIn(url, id));
+            }
+        }
+        assertEquals(remapped, store.getMovedSessions());
+        SessionContext context = new SessionContext("node0", null);
+        long migrated = execute(SHARDS.get(0), db -> DbUtils.getShards(db, context.getCanonicalContextPath(), context.getVhost()).stream()
+                .filter(doc -> Boolean.TRUE.equals(doc.field(OrientDbJettyModule.PROP_SHARD_MIGRATED)))
+                .count());
+        assertEquals("Migration isn't stored", 3, migrated);
+    }
+
+    @Test
+    public void testShardAddedByAnotherNode() throws Exception {
+        String initial = String.join(",", SHARDS.subList(0, 2));
+        store.setShardUrls(initial);
+        store.start();
+        OrientDbSessionDataStore other = new OrientDbSessionDataStore();
+        other.initialize(new SessionContext("node1", null));
+        other.setShardUrls(initial);
+        other.setShardRefreshIntervalSec(0);
+        other.start();
+        try {
+            storeSessions(store);
+            store.addShard(SHARDS.get(2));
+
+            other.doGetExpired(Collections.emptySet());
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!other.isShardsMigrating() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals("Added shard isn't known by another node", SHARDS, other.getShardUrls());
+            assertTrue(other.isShardsMigrating());
+            Map<String, String> owners = getOwners(SHARDS);
+            for (int i = 0; i < 100; i++) {
+                String id = "added" + i;
+                assertEquals(i, other.load(id).getAttribute("index"));
+                assertTrue(isStoredIn(owners.get(id), id));
+            }
+        } finally {
+            other.stop();
+        }
+
+        store.stop();
+        store = new OrientDbSessionDataStore();
+        store.initialize(new SessionContext("node0", null));
+        store.setShardUrls(initial);
+        store.start();
+        assertEquals("Added shard isn't opened after restart", SHARDS, store.getShardUrls());
+        assertTrue("Migration state is lost after restart", store.isShardsMigrating());
+    }
+
+    private void storeSessions(OrientDbSessionDataStore store) throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            SessionData data = store.newSessionData("added" + i, now, now, now, 60000);
+            data.setAttribute("index", i);
+            store.store(data.getId(), data);
+        }
+    }
+
+    private Map<String, String> getOwners(List<String> urls) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        urls.forEach(url -> nodes.put(url, url));
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes, store.getShardVirtualNodes());
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            owners.put("sharded" + i, ring.get("sharded" + i));
+            owners.put("added" + i, ring.get("added" + i));
+        }
+        return owners;
+    }
+
+    private boolean isStoredIn(String url, String id) {
+        return execute(url, db -> DbUtils.isSessionExistsById(db, id));
+    }
+
+    private <T> T execute(String url, Function<ODatabaseDocument, T> func) {
+        ODatabaseDocument db = new ODatabaseDocumentTx(url).open("admin", "admin");
+        try {
+            return func.apply(db);
+        } finally {
+            db.close();
+        }
+    }
+}
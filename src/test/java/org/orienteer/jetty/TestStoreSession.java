@@ -1,20 +1,38 @@
 package org.orienteer.jetty;
 
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.session.DefaultSessionCache;
 import org.eclipse.jetty.server.session.Session;
+import org.eclipse.jetty.server.session.SessionContext;
 import org.eclipse.jetty.server.session.SessionData;
 import org.eclipse.jetty.server.session.SessionHandler;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.orienteer.jetty.metrics.ISessionStoreListener;
+import org.orienteer.jetty.serialization.JavaSessionDataSerializer;
 import org.orienteer.jetty.util.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -69,6 +87,277 @@ public class TestStoreSession extends AbstractOrientDbJettyTest {
         sudoExecute(db -> assertDeletedSession(db, session));
     }
 
+    @Test
+    public void testConcurrentStoreSession() throws Exception {
+        String id = "concurrent";
+        int threads = 8;
+        int stores = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < stores; j++) {
+                        SessionData data = new SessionData(id, "", "0.0.0.0", 1, 1, 1, 60000);
+                        data.setLastNode("node0");
+                        data.setAttribute("thread", thread);
+                        sudoExecute(db -> DbUtils.storeSession(db, id, data));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        sudoExecute(db -> {
+            String sql = String.format("select from %s where %s = ?", OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID);
+            List<ODocument> docs = db.query(new OSQLSynchQuery<>(sql), id);
+            assertEquals("Concurrent store created duplicates!", 1, docs.size());
+            assertTrue(DbUtils.getSessionById(db, id).isPresent());
+            DbUtils.deleteSessionById(db, id);
+        });
+    }
+
+    @Test
+    public void testConcurrentStoreSessionInTransaction() throws Exception {
+        String id = "concurrentTx";
+        OrientDbSessionDataStore store = new OrientDbSessionDataStore();
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 20; j++) {
+                        SessionData data = new SessionData(id, "", "0.0.0.0", 1, 1, 1, 60000);
+                        data.setLastNode("node0");
+                        data.setAttribute("thread", thread);
+                        store.store(id, data);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(160, store.getFullWrites());
+            assertNotNull(store.load(id));
+        } finally {
+            executor.shutdownNow();
+            store.stop();
+        }
+
+        sudoExecute(db -> {
+            String sql = String.format("select from %s where %s = ?", OrientDbJettyModule.SESSION_DATA_CLASS_NAME, OrientDbJettyModule.PROP_ID);
+            assertEquals("Concurrent store created duplicates!", 1, db.query(new OSQLSynchQuery<>(sql), id).size());
+            DbUtils.deleteSessionById(db, id);
+        });
+    }
+
+    @Test
+    public void testStoreSessionMetadata() throws Exception {
+        SessionData data = new SessionData("metadata", "/context", "0.0.0.0", 1, 2, 3, 60000);
+        data.setLastNode("node0");
+        data.setCookieSet(4);
+        data.setLastSaved(5);
+        data.setAttribute("one", 1);
+
+        sudoExecute(db -> {
+            DbUtils.storeSession(db, data.getId(), data);
+
+            ODocument doc = DbUtils.getSessionDocumentById(db, data.getId()).orElseThrow(IllegalStateException::new);
+            assertEquals("/context", doc.field(OrientDbJettyModule.PROP_CONTEXT_PATH));
+            assertEquals("0.0.0.0", doc.field(OrientDbJettyModule.PROP_VHOST));
+            assertEquals("node0", doc.field(OrientDbJettyModule.PROP_LAST_NODE));
+            assertEquals(1L, (long) doc.field(OrientDbJettyModule.PROP_CREATED));
+            assertEquals(2L, (long) doc.field(OrientDbJettyModule.PROP_ACCESSED));
+            assertEquals(3L, (long) doc.field(OrientDbJettyModule.PROP_LAST_ACCESSED));
+            assertEquals(4L, (long) doc.field(OrientDbJettyModule.PROP_COOKIE_SET));
+            assertEquals(60000L, (long) doc.field(OrientDbJettyModule.PROP_MAX_INACTIVE));
+            assertEquals(5L, (long) doc.field(OrientDbJettyModule.PROP_LAST_SAVED));
+            assertEquals(data.getExpiry(), (long) doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME));
+
+            SessionData restored = DbUtils.getSessionById(db, data.getId()).orElseThrow(IllegalStateException::new);
+            assertEquals(data.getContextPath(), restored.getContextPath());
+            assertEquals(data.getLastNode(), restored.getLastNode());
+            assertEquals(data.getCreated(), restored.getCreated());
+            assertEquals(data.getAccessed(), restored.getAccessed());
+            assertEquals(data.getExpiry(), restored.getExpiry());
+            assertEquals(data.getMaxInactiveMs(), restored.getMaxInactiveMs());
+            assertEquals(1, restored.getAttribute("one"));
+            DbUtils.deleteSessionById(db, data.getId());
+        });
+    }
+
+    @Test
+    public void testLoadLegacySession() throws Exception {
+        SessionData data = new SessionData("legacy", "/context", "0.0.0.0", 1, 2, 3, 60000);
+        data.setLastNode("node0");
+        data.setAttribute("one", 1);
+
+        sudoExecute(db -> {
+            ODocument doc = new ODocument(OrientDbJettyModule.SESSION_DATA_CLASS_NAME);
+            doc.field(OrientDbJettyModule.PROP_ID, data.getId());
+            doc.field(OrientDbJettyModule.PROP_DATA, toJavaBytes(data));
+            doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME, data.getExpiry());
+            doc.save();
+
+            SessionData restored = DbUtils.getSessionById(db, data.getId()).orElseThrow(IllegalStateException::new);
+            assertEquals(data.getContextPath(), restored.getContextPath());
+            assertEquals(data.getCreated(), restored.getCreated());
+            assertEquals(data.getMaxInactiveMs(), restored.getMaxInactiveMs());
+            assertEquals(1, restored.getAttribute("one"));
+            DbUtils.deleteSessionById(db, data.getId());
+        });
+    }
+
+    @Test
+    public void testTouchWrites() throws Exception {
+        OrientDbSessionDataStore store = new OrientDbSessionDataStore();
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+        SessionData data = new SessionData("touch", "", "0.0.0.0", 1, 2, 3, 60000);
+        data.setLastNode("node0");
+        data.setAttribute("one", 1);
+
+        store.store(data.getId(), data);
+        assertEquals(1, store.getFullWrites());
+
+        byte[][] blob = new byte[1][];
+        sudoExecute(db -> blob[0] = DbUtils.getSessionDocumentById(db, data.getId()).get().field(OrientDbJettyModule.PROP_DATA));
+
+        data.setAccessed(10);
+        data.calcAndSetExpiry(10);
+        store.store(data.getId(), data);
+        assertEquals(1, store.getFullWrites());
+        assertEquals(1, store.getTouchWrites());
+
+        sudoExecute(db -> {
+            ODocument doc = DbUtils.getSessionDocumentById(db, data.getId()).get();
+            assertEquals(10L, (long) doc.field(OrientDbJettyModule.PROP_ACCESSED));
+            assertEquals(data.getExpiry(), (long) doc.field(OrientDbJettyModule.PROP_EXPIRY_TIME));
+            assertArrayEquals("Touch write changed session attributes", blob[0], doc.field(OrientDbJettyModule.PROP_DATA));
+        });
+
+        data.setAttribute("two", 2);
+        store.store(data.getId(), data);
+        assertEquals(2, store.getFullWrites());
+        assertEquals(1, store.getTouchWrites());
+
+        sudoExecute(db -> DbUtils.deleteSessionById(db, data.getId()));
+        store.store(data.getId(), data);
+        assertEquals("Touch write of removed session must store it fully", 3, store.getFullWrites());
+        sudoExecute(db -> {
+            assertEquals(2, DbUtils.getSessionById(db, data.getId()).get().getAttribute("two"));
+            DbUtils.deleteSessionById(db, data.getId());
+        });
+        store.stop();
+    }
+
+    @Test
+    public void testConcurrentLoadsOfSameSession() throws Exception {
+        int threads = 8;
+        AtomicInteger queries = new AtomicInteger();
+        CountDownLatch loadsStarted = new CountDownLatch(threads);
+        OrientDbSessionDataStore store = new OrientDbSessionDataStore();
+        store.addListener(new ISessionStoreListener() {
+            @Override
+            public void onAcquireDatabase(long waitNs, boolean acquired) {
+                queries.incrementAndGet();
+                try {
+                    // Hold first fetch until all loads were started
+                    loadsStarted.await(5, TimeUnit.SECONDS);
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+        SessionData data = new SessionData("coalesced", "", "0.0.0.0", 1, 2, 3, 60000);
+        data.setAttribute("one", 1);
+        sudoExecute(db -> DbUtils.storeSession(db, data.getId(), data));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<SessionData>> loads = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                loads.add(executor.submit(() -> {
+                    loadsStarted.countDown();
+                    return store.load(data.getId());
+                }));
+            }
+            Set<SessionData> loaded = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Future<SessionData> load : loads) {
+                SessionData restored = load.get();
+                assertEquals(1, restored.getAttribute("one"));
+                loaded.add(restored);
+            }
+            assertEquals("Every load must get own session data", threads, loaded.size());
+            assertEquals("Concurrent loads weren't coalesced", 1, queries.get());
+            assertEquals(threads - 1, store.getCoalescedLoads());
+        } finally {
+            executor.shutdown();
+            sudoExecute(db -> DbUtils.deleteSessionById(db, data.getId()));
+            store.stop();
+        }
+    }
+
+    @Test
+    public void testContextsWithSharedPool() throws Exception {
+        JettyOrientDbSessionDataStoreFactory factory = new JettyOrientDbSessionDataStoreFactory();
+        OrientDbSessionDataStore first = (OrientDbSessionDataStore) factory.getSessionDataStore(null);
+        OrientDbSessionDataStore second = (OrientDbSessionDataStore) factory.getSessionDataStore(null);
+        first.initialize(new SessionContext("node0", new ContextHandler("/first").getServletContext()));
+        second.initialize(new SessionContext("node0", new ContextHandler("/second").getServletContext()));
+        first.start();
+        second.start();
+        String id = "sharedId";
+        try {
+            assertEquals(2, factory.getSharedPoolFactory().getReferences());
+
+            long now = System.currentTimeMillis();
+            SessionData firstData = first.newSessionData(id, now, now, now, 60000);
+            firstData.setAttribute("context", "first");
+            first.store(id, firstData);
+            assertFalse("Session of another context is visible", second.exists(id));
+
+            SessionData secondData = second.newSessionData(id, now, now, now, 60000);
+            secondData.setAttribute("context", "second");
+            second.store(id, secondData);
+
+            assertEquals("first", first.load(id).getAttribute("context"));
+            assertEquals("second", second.load(id).getAttribute("context"));
+            assertTrue(second.delete(id));
+            assertNull(second.load(id));
+            assertEquals("first", first.load(id).getAttribute("context"));
+            assertTrue(first.delete(id));
+        } finally {
+            first.stop();
+            second.stop();
+        }
+        assertEquals(0, factory.getSharedPoolFactory().getReferences());
+    }
+
+    private byte[] toJavaBytes(SessionData data) {
+        try {
+            return new JavaSessionDataSerializer().serialize(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private void assertSavedSession(ODatabaseDocument db, Session session) {
         Optional<SessionData> sessionByIdOpt = DbUtils.getSessionById(db, session.getId());
 
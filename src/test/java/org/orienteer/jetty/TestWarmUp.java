@@ -0,0 +1,133 @@
+package org.orienteer.jetty;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestWarmUp extends AbstractOrientDbJettyTest {
+
+    private OrientDbSessionDataStore node0;
+    private OrientDbSessionDataStore node1;
+
+    private final List<String> ids = new ArrayList<>();
+
+    @Before
+    public void before() throws Exception {
+        node0 = createStore("node0", store -> store.setConditionalLoadEnabled(true));
+        node1 = createStore("node1", store -> store.setConditionalLoadEnabled(true));
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            // The later session was accessed, the hotter it is
+            store(i % 2 == 0 ? node0 : node1, i % 2 == 0 ? "node0" : "node1", "warm" + i, now + i, 600000);
+        }
+        for (int i = 0; i < 5; i++) {
+            store(node0, "node0", "expired" + i, 1, 1000);
+        }
+    }
+
+    @After
+    public void after() throws Exception {
+        stopStores();
+        sudoExecute(db -> ids.forEach(id -> DbUtils.deleteSessionById(db, id)));
+    }
+
+    @Test
+    public void testWarmUpOfActiveSessions() throws Exception {
+        OrientDbSessionDataStore restarted = createStore("node0", store -> {
+            store.setConditionalLoadEnabled(true);
+            store.setWarmUpEnabled(true);
+            store.setWarmUpPageSize(3);
+        });
+
+        assertEquals("Only not expired sessions must be warmed up", 20, restarted.getWarmedUpSessions());
+        for (int i = 0; i < 20; i++) {
+            long hits = restarted.getNearCacheHits();
+            assertEquals(i, restarted.load("warm" + i).getAttribute("index"));
+            assertEquals("Session warm" + i + " isn't warmed up", hits + 1, restarted.getNearCacheHits());
+        }
+        long misses = restarted.getNearCacheMisses();
+        restarted.load("expired0");
+        assertEquals(misses + 1, restarted.getNearCacheMisses());
+    }
+
+    @Test
+    public void testWarmUpOfSessionsWithTheSameExpiryTime() throws Exception {
+        long accessed = System.currentTimeMillis() + 100;
+        for (int i = 0; i < 6; i++) {
+            store(node0, "node0", "tied" + i, accessed, 600000);
+        }
+        OrientDbSessionDataStore restarted = createStore("node0", store -> {
+            store.setConditionalLoadEnabled(true);
+            store.setWarmUpEnabled(true);
+            store.setWarmUpPageSize(4);
+        });
+
+        assertEquals("Sessions with the same expiry time are skipped between pages", 26, restarted.getWarmedUpSessions());
+        for (int i = 0; i < 6; i++) {
+            long hits = restarted.getNearCacheHits();
+            restarted.load("tied" + i);
+            assertEquals("Session tied" + i + " isn't warmed up", hits + 1, restarted.getNearCacheHits());
+        }
+    }
+
+    @Test
+    public void testWarmUpOfHottestSessions() throws Exception {
+        OrientDbSessionDataStore restarted = createStore("node0", store -> {
+            store.setConditionalLoadEnabled(true);
+            store.setWarmUpEnabled(true);
+            store.setWarmUpMaxSessions(5);
+            store.setWarmUpPageSize(2);
+        });
+
+        assertEquals(5, restarted.getWarmedUpSessions());
+        for (int i = 0; i < 20; i++) {
+            long hits = restarted.getNearCacheHits();
+            restarted.load("warm" + i);
+            assertEquals("Only hottest sessions must be warmed up", i >= 15 ? hits + 1 : hits, restarted.getNearCacheHits());
+        }
+    }
+
+    @Test
+    public void testWarmUpOfOwnSessions() throws Exception {
+        OrientDbSessionDataStore restarted = createStore("node1", store -> {
+            store.setConditionalLoadEnabled(true);
+            store.setWarmUpEnabled(true);
+            store.setWarmUpOwnSessionsOnly(true);
+        });
+
+        assertEquals(10, restarted.getWarmedUpSessions());
+        for (int i = 0; i < 20; i++) {
+            long hits = restarted.getNearCacheHits();
+            restarted.load("warm" + i);
+            assertEquals("Only sessions of node1 must be warmed up", i % 2 == 1 ? hits + 1 : hits, restarted.getNearCacheHits());
+        }
+    }
+
+    @Test
+    public void testWarmUpWithoutTimeBudget() throws Exception {
+        OrientDbSessionDataStore restarted = createStore("node0", store -> {
+            store.setConditionalLoadEnabled(true);
+            store.setWarmUpEnabled(true);
+            store.setWarmUpTimeBudgetMs(0);
+        });
+
+        assertEquals(0, restarted.getWarmedUpSessions());
+        assertNotNull(restarted.load("warm0"));
+    }
+
+    private void store(OrientDbSessionDataStore store, String lastNode, String id, long accessed, long maxInactiveMs) throws Exception {
+        SessionData data = store.newSessionData(id, accessed, accessed, accessed, maxInactiveMs);
+        // Last node is set by session cache of node which handled request
+        data.setLastNode(lastNode);
+        data.setAttribute("index", ids.size());
+        store.store(id, data);
+        ids.add(id);
+    }
+}
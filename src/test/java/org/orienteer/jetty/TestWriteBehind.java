@@ -0,0 +1,79 @@
+package org.orienteer.jetty;
+
+import org.eclipse.jetty.server.session.SessionContext;
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.orienteer.jetty.util.DbUtils;
+
+import static org.junit.Assert.*;
+
+public class TestWriteBehind extends AbstractOrientDbJettyTest {
+
+    private OrientDbSessionDataStore store;
+
+    @Before
+    public void before() throws Exception {
+        store = new OrientDbSessionDataStore();
+        store.setWriteBehindEnabled(true);
+        store.setWriteBehindFlushIntervalMs(60 * 60 * 1000);
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        if (store.isStarted()) {
+            store.stop();
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        SessionData data = store.newSessionData("coalescing", 1, 1, 1, 60000);
+        for (int i = 0; i < 100; i++) {
+            data.setAttribute("counter", i);
+            store.store(data.getId(), data);
+        }
+
+        SessionWriteBehindBuffer buffer = store.getWriteBehindBuffer();
+        assertEquals(100, buffer.getWrites());
+        assertEquals(99, buffer.getCoalescedWrites());
+        assertEquals(1, buffer.getPendingCount());
+        sudoExecute(db -> assertFalse("Session stored before flush", DbUtils.isSessionExistsById(db, data.getId())));
+
+        assertTrue("Pending session not visible", store.exists(data.getId()));
+        assertEquals("Load doesn't read through pending writes", 99, store.load(data.getId()).getAttribute("counter"));
+
+        buffer.flush();
+        assertEquals(1, buffer.getFlushedWrites());
+        sudoExecute(db -> assertEquals(99, DbUtils.getSessionById(db, data.getId()).get().getAttribute("counter")));
+
+        store.delete(data.getId());
+        assertNull("Load doesn't see pending delete", store.load(data.getId()));
+        assertFalse("Exists doesn't see pending delete", store.exists(data.getId()));
+        buffer.flush();
+        sudoExecute(db -> assertFalse("Session not deleted", DbUtils.isSessionExistsById(db, data.getId())));
+    }
+
+    @Test
+    public void testNoLostWritesOnStop() throws Exception {
+        int sessions = 1200;
+        for (int i = 0; i < sessions; i++) {
+            SessionData data = store.newSessionData("stop" + i, 1, 1, 1, 60000);
+            data.setAttribute("index", i);
+            store.store(data.getId(), data);
+        }
+
+        store.stop();
+
+        sudoExecute(db -> {
+            for (int i = 0; i < sessions; i++) {
+                String id = "stop" + i;
+                assertEquals(i, DbUtils.getSessionById(db, id).get().getAttribute("index"));
+                DbUtils.deleteSessionById(db, id);
+            }
+        });
+    }
+}
@@ -0,0 +1,99 @@
+package org.orienteer.jetty.metrics;
+
+import org.eclipse.jetty.server.session.SessionContext;
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.Test;
+import org.orienteer.jetty.AbstractOrientDbJettyTest;
+import org.orienteer.jetty.OrientDbSessionDataStore;
+import org.orienteer.jetty.util.DbUtils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestSessionStoreMetrics extends AbstractOrientDbJettyTest {
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 0.001);
+        assertPercentile(500_000, histogram.getPercentile(50));
+        assertPercentile(990_000, histogram.getPercentile(99));
+        assertEquals(1_000_000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testStoreMetrics() throws Exception {
+        AtomicInteger failures = new AtomicInteger();
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        OrientDbSessionDataStore store = new OrientDbSessionDataStore();
+        store.addListener(new ISessionStoreListener() {
+            @Override
+            public void onDeserializationFailure(String id, Exception e) {
+                failures.incrementAndGet();
+                errors.add(e);
+            }
+        });
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+        try {
+            SessionData data = new SessionData("metrics", "", "0.0.0.0", 1, 1, 1, 60000);
+            data.setLastNode("node0");
+            data.setAttribute("user", "admin");
+            store.store(data.getId(), data);
+            assertNotNull(store.load(data.getId()));
+            assertNull(store.load("unknown"));
+            assertTrue(store.exists(data.getId()));
+            store.getExpired(Collections.singleton(data.getId()));
+            store.delete(data.getId());
+
+            sudoExecute(db -> DbUtils.storeSession(db, "broken", data, new byte[] {Byte.MAX_VALUE}));
+            assertNull(store.load("broken"));
+
+            SessionStoreMetrics metrics = store.getMetrics();
+            assertEquals(1, metrics.getStoreCount());
+            assertTrue(metrics.getStoredBytesMax() > 0);
+            assertEquals(3, metrics.getLoadCount());
+            assertEquals(2, metrics.getLoadMisses());
+            assertEquals(1, metrics.getExistsCount());
+            assertEquals(1, metrics.getGetExpiredCount());
+            assertEquals(1, metrics.getDeleteCount());
+            assertEquals(1, metrics.getDeserializationFailures());
+            assertEquals(1, failures.get());
+            assertTrue("Listener got wrapper instead of error of deserialization: " + errors, errors.get(0) instanceof IOException);
+            assertTrue(metrics.getLoadMaxUs() > 0);
+            assertEquals(0, metrics.getAcquireFailures());
+        } finally {
+            store.stop();
+            sudoExecute(db -> DbUtils.deleteSessionById(db, "broken"));
+        }
+    }
+
+    @Test
+    public void testMetricsDisabled() throws Exception {
+        OrientDbSessionDataStore store = new OrientDbSessionDataStore();
+        store.setMetricsEnabled(false);
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+        try {
+            assertNull(store.getMetrics());
+            assertNull(store.load("unknown"));
+        } finally {
+            store.stop();
+        }
+    }
+
+    private void assertPercentile(long expected, long actual) {
+        assertTrue(String.format("Expected %d, but was %d", expected, actual), Math.abs(actual - expected) <= expected / 8);
+    }
+}
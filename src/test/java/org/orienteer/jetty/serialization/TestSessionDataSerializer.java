@@ -0,0 +1,215 @@
+package org.orienteer.jetty.serialization;
+
+import org.eclipse.jetty.server.session.SessionData;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class TestSessionDataSerializer {
+
+    private final ISessionDataSerializer serializer = new CompactSessionDataSerializer();
+
+    @Test
+    public void testCompactSerialization() throws Exception {
+        SessionData data = createSessionData();
+
+        SessionData restored = new SessionData(data.getId(), null, null, 0, 0, 0, 0);
+        serializer.deserialize(serializer.serialize(data), restored);
+
+        assertAttributes(data, restored);
+        assertFalse("Deserialized session data is dirty", restored.isDirty());
+    }
+
+    @Test
+    public void testLegacySerialization() throws Exception {
+        SessionData data = createSessionData();
+
+        SessionData restored = new SessionData(data.getId(), null, null, 0, 0, 0, 0);
+        serializer.deserialize(new JavaSessionDataSerializer().serialize(data), restored);
+
+        assertMetadata(data, restored);
+        assertAttributes(data, restored);
+    }
+
+    @Test
+    public void testCompactSmallerThanLegacy() throws Exception {
+        SessionData data = createSessionData();
+
+        int compact = serializer.serialize(data).length;
+        int legacy = new JavaSessionDataSerializer().serialize(data).length;
+
+        assertTrue(String.format("Compact format (%d bytes) is not smaller than legacy (%d bytes)", compact, legacy), compact < legacy);
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        SessionData data = createSessionData();
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            page.append("<div wicket:id=\"item\">").append(i).append("</div>");
+        }
+        data.setAttribute("page", page.toString());
+        CompressingSessionDataSerializer compressing = new CompressingSessionDataSerializer(serializer, 1024, 6);
+
+        byte[] uncompressed = serializer.serialize(data);
+        byte[] compressed = compressing.serialize(data);
+        assertEquals(CompressingSessionDataSerializer.DEFLATED, compressed[0]);
+        assertTrue(compressed.length < uncompressed.length);
+        assertEquals(1, compressing.getCompressedWrites());
+        assertTrue(compressing.getCompressionRatio() < 1);
+
+        SessionData restored = new SessionData(data.getId(), null, null, 0, 0, 0, 0);
+        new CompressingSessionDataSerializer(serializer).deserialize(compressed, restored);
+        assertAttributes(data, restored);
+    }
+
+    @Test
+    public void testCompressionThreshold() throws Exception {
+        SessionData data = createSessionData();
+        CompressingSessionDataSerializer compressing = new CompressingSessionDataSerializer(serializer, 64 * 1024, 6);
+
+        byte[] bytes = compressing.serialize(data);
+        assertArrayEquals(serializer.serialize(data), bytes);
+        assertEquals(0, compressing.getCompressedWrites());
+
+        SessionData restored = new SessionData(data.getId(), null, null, 0, 0, 0, 0);
+        compressing.deserialize(bytes, restored);
+        assertAttributes(data, restored);
+    }
+
+    @Test
+    public void testLazyAttributes() throws Exception {
+        CompactSessionDataSerializer lazySerializer = new CompactSessionDataSerializer(true);
+        SessionData data = createSessionData();
+        data.setAttribute("counted", new CountedValue("page"));
+        byte[] bytes = lazySerializer.serialize(data);
+        CountedValue.reads = 0;
+
+        SessionData restored = lazySerializer.newSessionData(data.getId());
+        assertTrue(restored instanceof LazySessionData);
+        lazySerializer.deserialize(bytes, restored);
+        assertEquals(data.getKeys(), restored.getKeys());
+        assertEquals("value", restored.getAttribute("string"));
+        restored.setAttribute("int", 2);
+        assertEquals(0, CountedValue.reads);
+
+        byte[] stored = lazySerializer.serialize(restored);
+        assertEquals("Unchanged attributes were decoded on store", 0, CountedValue.reads);
+
+        SessionData eager = new SessionData(data.getId(), null, null, 0, 0, 0, 0);
+        lazySerializer.deserialize(stored, eager);
+        assertEquals(2, eager.getAttribute("int"));
+        assertEquals(new CountedValue("page"), eager.getAttribute("counted"));
+        assertEquals(1, CountedValue.reads);
+
+        assertEquals(new CountedValue("page"), restored.getAttribute("counted"));
+        assertEquals(2, CountedValue.reads);
+        data.setAttribute("int", 2);
+        assertAttributes(data, restored);
+    }
+
+    @Test
+    public void testReusedBuffer() throws Exception {
+        CompressingSessionDataSerializer compressing = new CompressingSessionDataSerializer(serializer, 1024, 6);
+        SessionData big = createSessionData();
+        big.setAttribute("page", new byte[2 * SerializationBuffer.MAX_RETAINED_SIZE]);
+        big.setAttribute("list", new ArrayList<>(Arrays.asList("a", "b")));
+        SessionData small = createSessionData();
+
+        for (int i = 0; i < 3; i++) {
+            for (SessionData data : Arrays.asList(big, small)) {
+                SessionData restored = new SessionData(data.getId(), null, null, 0, 0, 0, 0);
+                compressing.deserialize(compressing.serialize(data), restored);
+                assertAttributes(data, restored);
+            }
+        }
+        SerializationBuffer buffer = SerializationBuffer.acquire();
+        try {
+            assertTrue("Too big buffer is retained", buffer.array().length <= SerializationBuffer.MAX_RETAINED_SIZE);
+            assertNotSame("Nested buffer is shared", buffer, SerializationBuffer.acquire());
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownVersion() throws Exception {
+        serializer.deserialize(new byte[] {Byte.MAX_VALUE}, new SessionData("test", null, null, 0, 0, 0, 0));
+    }
+
+    /**
+     * Serializable value which counts its deserializations
+     */
+    private static final class CountedValue implements Serializable {
+        private static int reads;
+
+        private final String value;
+
+        private CountedValue(String value) {
+            this.value = value;
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            reads++;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CountedValue && value.equals(((CountedValue) obj).value);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+    }
+
+    private SessionData createSessionData() {
+        SessionData data = new SessionData("test", "/context", "0.0.0.0", 1, 2, 3, 60000);
+        data.setLastNode("node0");
+        data.setCookieSet(4);
+        data.setAttribute("string", "value");
+        data.setAttribute("int", 1);
+        data.setAttribute("long", 2L);
+        data.setAttribute("boolean", true);
+        data.setAttribute("double", 3.0);
+        data.setAttribute("char", 'c');
+        data.setAttribute("bytes", new byte[] {1, 2, 3});
+        data.setAttribute("date", new Date(5));
+        data.setDirty(false);
+        return data;
+    }
+
+    private void assertMetadata(SessionData expected, SessionData actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getContextPath(), actual.getContextPath());
+        assertEquals(expected.getVhost(), actual.getVhost());
+        assertEquals(expected.getLastNode(), actual.getLastNode());
+        assertEquals(expected.getCreated(), actual.getCreated());
+        assertEquals(expected.getAccessed(), actual.getAccessed());
+        assertEquals(expected.getLastAccessed(), actual.getLastAccessed());
+        assertEquals(expected.getCookieSet(), actual.getCookieSet());
+        assertEquals(expected.getExpiry(), actual.getExpiry());
+        assertEquals(expected.getMaxInactiveMs(), actual.getMaxInactiveMs());
+    }
+
+    private void assertAttributes(SessionData expected, SessionData actual) {
+        assertEquals(expected.getKeys(), actual.getKeys());
+        for (String key : expected.getKeys()) {
+            Object value = expected.getAttribute(key);
+            if (value instanceof byte[]) {
+                assertTrue(key, Arrays.equals((byte[]) value, (byte[]) actual.getAttribute(key)));
+            } else {
+                assertEquals(key, value, actual.getAttribute(key));
+            }
+        }
+    }
+}